@@ -58,10 +58,20 @@ public class BeforeAudioRendition {
 	 * This method corrects this, the key was Bb before the
 	 * first part A, so before the second part A we add a Bb
 	 * key.
+	 * <p>
+	 * The given music is not modified, keys are added to a clone of it
+	 * whose voices are copied only when a key is inserted, see
+	 * {@link Music#clone()}.
 	 * @param music
 	 * @return
 	 */
 	public static Music correctPartsKeys(Music music) {
+		try {
+			music = (Music) music.clone();
+		} catch (CloneNotSupportedException never) {
+			//Music is Cloneable
+			throw new InternalError(never.toString());
+		}
 		//we may have key/clef changes
 		//repeat operation for each voice. Key is for all voices
 		//but clef can change from one voice to another
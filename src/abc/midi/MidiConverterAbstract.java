@@ -451,10 +451,10 @@ public abstract class MidiConverterAbstract implements MidiConverterInterface {
   public static byte getMidiNoteNumber (Note note, KeySignature key)
   {
     byte heigth = note.getStrictHeight();
-    Accidental accidental = new Accidental(note.getAccidental(key).getNearestOccidentalValue());
     byte midiNoteNumber = (byte)(heigth+(69-Note.A));
     midiNoteNumber = (byte)(midiNoteNumber + note.getOctaveTransposition()*12);
-   	midiNoteNumber += (byte) accidental.getValue(); //-2 dbl flat, -1 flat, 0 natural...
+    //-2 dbl flat, -1 flat, 0 natural...
+   	midiNoteNumber += note.getAccidental(key).getNearestOccidentalValue();
     return midiNoteNumber;
   }
 }
@@ -214,7 +214,7 @@ public abstract class OldMidiConverterAbstract implements MidiConverterInterface
   protected byte getMidiNoteNumber (Note note, KeySignature key)
   {
     byte heigth = note.getHeight();
-    Accidental accidental = new Accidental(note.getAccidental().getNearestOccidentalValue());
+    Accidental accidental = Accidental.valueOf(note.getAccidental().getNearestOccidentalValue());
     byte midiNoteNumber = (byte)(heigth+(69-Note.A));
     midiNoteNumber = (byte)(midiNoteNumber + note.getOctaveTransposition()*12);
     if (accidental.isInTheKey())
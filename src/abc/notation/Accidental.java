@@ -15,6 +15,7 @@
 // along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
 package abc.notation;
 
+import java.io.ObjectStreamException;
 import java.io.Serializable;
 
 /** Accidentals */
@@ -46,6 +47,30 @@ public class Accidental implements Cloneable, Serializable
 	public static final Accidental SHARP_AND_A_HALF = new Accidental(1.5f);
 	public static final Accidental DOUBLE_SHARP = new Accidental(_DOUBLE_SHARP);
 
+	/** Shared accidentals, by their value in half steps from -2 to 2 */
+	private static final Accidental[] SHARED = { DOUBLE_FLAT,
+			FLAT_AND_A_HALF, FLAT, HALF_FLAT, NATURAL, HALF_SHARP, SHARP,
+			SHARP_AND_A_HALF, DOUBLE_SHARP };
+
+	/**
+	 * Returns the accidental of the given value. Accidentals are immutable,
+	 * the constants of this class are returned for their value, so that
+	 * notes don't need an instance of their own.
+	 *
+	 * @param value
+	 *            e.g. -1 for flat, 0.5 for half sharp.
+	 * @return the shared accidental of this value, {@link #NONE} if the
+	 *         value is out of the -2 to 2 range.
+	 */
+	public static Accidental valueOf(float value) {
+		if ((value < _DOUBLE_FLAT) || (value > _DOUBLE_SHARP))
+			return NONE;
+		float halfSteps = (value - _DOUBLE_FLAT) * 2;
+		if (halfSteps == (int) halfSteps)
+			return SHARED[(int) halfSteps];
+		return new Accidental(value);
+	}
+
 	/**
 	 * Convert a string to an accidental. Understand ABC ^ and _, chord names #,
 	 * b and unicode char
@@ -182,6 +207,20 @@ public class Accidental implements Cloneable, Serializable
 			m_value = _NONE;
 	}
 	
+	/**
+	 * Deserializes the accidentals built from a value as the shared
+	 * constants, an accidental read from a fraction keeps its own instance
+	 * for {@link #toString()}.
+	 */
+	private Object readResolve() throws ObjectStreamException {
+		if (m_fraction == null) {
+			Accidental shared = valueOf(m_value);
+			if (shared.m_value == m_value)
+				return shared;
+		}
+		return this;
+	}
+
 	public String toString() {
 		if (m_value == _NONE) return "";
 		if (m_value == _NATURAL) return "=";
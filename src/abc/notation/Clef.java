@@ -379,7 +379,7 @@ public class Clef extends MusicElement implements Cloneable {
 				label==5?Interval.PERFECT:Interval.MAJOR,
 				Interval.UPWARD);
 			m_highNote = interv.calculateSecondNote(getMiddleNote());
-			m_highNote.setAccidental(new Accidental());//Accidental.NONE
+			m_highNote.setAccidental(Accidental.NONE);
 		}
 		return m_highNote;
 	}
@@ -399,7 +399,7 @@ public class Clef extends MusicElement implements Cloneable {
 				label==5?Interval.PERFECT:Interval.MAJOR,
 				Interval.DOWNWARD);
 			m_lowNote = interv.calculateSecondNote(getMiddleNote());
-			m_lowNote.setAccidental(new Accidental());//Accidental.NONE
+			m_lowNote.setAccidental(Accidental.NONE);
 		}
 		return m_lowNote;
 	}
@@ -443,7 +443,7 @@ public class Clef extends MusicElement implements Cloneable {
 					case 5: interval = Interval.reverseOrder(Interval.PERFECT_FIFTH); break;
 					}
 					m_middleNote = interval.calculateSecondNote(ref);
-					m_middleNote.setAccidental(new Accidental());//Accidental.NONE);
+					m_middleNote.setAccidental(Accidental.NONE);
 					m_middleNote.setOctaveTransposition((byte)
 							(m_middleNote.getOctaveTransposition()
 									+ m_invisibleOctaveTransp));
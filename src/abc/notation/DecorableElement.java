@@ -57,6 +57,21 @@ public abstract class DecorableElement extends MusicElement implements
 		return o;
 	}
 
+	void copyLinks(MusicElement original, StructuralCopy copies) {
+		super.copyLinks(original, copies);
+		if (m_chord == ((DecorableElement) original).m_chord)
+			m_chord = (Chord) copies.copy(m_chord);
+		//positions of decorations and annotations may be shifted, see
+		//TuneParser#parseIncrementally
+		if (m_decorations != null)
+			for (int i = 0; i < m_decorations.length; i++)
+				m_decorations[i] = (Decoration) copies.copy(m_decorations[i]);
+		if (m_annotations != null)
+			for (int i = 0; i < m_annotations.size(); i++)
+				m_annotations.setElementAt(copies.copy(m_annotations
+						.elementAt(i)), i);
+	}
+
 	/**
 	 * Returns the annotations for this element.
 	 * 
@@ -118,12 +118,12 @@ public class KeySignature extends MusicElement implements Cloneable
      * <TT>MAJOR</TT>, <TT>MINOR</TT>, <TT>MIXOLYDIAN</TT>, <TT>PHRYGIAN</TT> or <TT>OTHER</TT>. */
     public KeySignature (byte keyNoteType, byte modeType)
     {
-      this(keyNoteType, new Accidental(), modeType);
+      this(keyNoteType, Accidental.NONE, modeType);
     }
     
     /** @deprecated use {@link #KeySignature(byte, Accidental, byte)} */
 	public KeySignature(byte keyNoteType, float keyAccidentalValue, byte modeType) {
-		this(keyNoteType, new Accidental(keyAccidentalValue), modeType);
+		this(keyNoteType, Accidental.valueOf(keyAccidentalValue), modeType);
 	}
 
     /**
@@ -583,7 +583,7 @@ public class KeySignature extends MusicElement implements Cloneable
 			);
 		for (int i = Degree.I; i <= Degree.VII; i++) {
 			if (addedAcc[i-1] != 0) {
-				Accidental acc = new Accidental(
+				Accidental acc = Accidental.valueOf(
 						ret.getAccidentalFor(ret.getDegree(i)).getValue()
 						+ addedAcc[i-1]);
 				if ((acc.isDoubleFlat()) || (acc.isDoubleSharp()))
@@ -349,4 +349,11 @@ public class MultiNote extends NoteAbstract implements Cloneable
 		((MultiNote) o).m_notes = (Vector) m_notes.clone();
 		return o;
 	}
+
+	void copyLinks(MusicElement original, StructuralCopy copies) {
+		super.copyLinks(original, copies);
+		if (m_notes != null)
+			for (int i = 0; i < m_notes.size(); i++)
+				m_notes.setElementAt(copies.copy(m_notes.elementAt(i)), i);
+	}
 }
\ No newline at end of file
@@ -17,7 +17,10 @@ package abc.notation;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.TreeMap;
 import java.util.Vector;
@@ -31,6 +34,9 @@ import abc.parser.PositionableInCharStream;
  * bars...), for a {@link abc.notation.Part} of a
  * {@link abc.notation.Tune} (part "A", "B",... or at least
  * the default part).
+ * <p>
+ * A music is not synchronized: other threads should read a
+ * {@link #snapshot()} of it.
  */
 public class Music implements Cloneable, Serializable {
 
@@ -50,6 +56,15 @@ public class Music implements Cloneable, Serializable {
 	 * transmitted from the Tune object in {@link Tune#newMusic()} */
 	private ArrayList m_instructions = null;
 
+	/**
+	 * Elements sorted by their position in the char stream, <TT>null</TT>
+	 * until requested, see {@link #getElementAtStreamPosition(int)}
+	 */
+	private transient volatile StreamPositionIndex m_streamPositionIndex = null;
+
+	/** <TT>true</TT> for an unmodifiable music, see {@link #snapshot()} */
+	private boolean m_snapshot = false;
+
 	public Music() {
 		this((short) 1);
 	}
@@ -62,6 +77,7 @@ public class Music implements Cloneable, Serializable {
 	}
 	
 	protected void setPartLabel(String c) {
+		checkModifiable();
 		m_partLabel = c;
 		Iterator it = m_voices.iterator();
 		while (it.hasNext()) {
@@ -71,6 +87,7 @@ public class Music implements Cloneable, Serializable {
 	}
 	
 	protected void setGlobalInstructions(ArrayList al) {
+		checkModifiable();
 		m_instructions = al;
 	}
 	
@@ -79,9 +96,11 @@ public class Music implements Cloneable, Serializable {
 	}
 
 	/**
-	 * Returns a Collection of {@link Voice}.
+	 * Returns a Collection of {@link Voice}, unmodifiable for a snapshot.
 	 */
 	public Collection getVoices() {
+		if (m_snapshot)
+			return Collections.unmodifiableList(m_voices);
 		return m_voices;
 	}
 	
@@ -90,6 +109,7 @@ public class Music implements Cloneable, Serializable {
 	 * @param music
 	 */
 	public void append(Music music) {
+		checkModifiable();
 		//if appending a music from a part
 		//add a PartLabel to all voices
 		if (!music.m_partLabel.equals(" ")) {
@@ -123,7 +143,8 @@ public class Music implements Cloneable, Serializable {
 	}
 	
 	/**
-	 * Returns the asked voice, create it if needed.
+	 * Returns the asked voice, create it if needed. A snapshot returns an
+	 * empty snapshot voice, which is not added to it.
 	 * @param voiceName
 	 */
 	public Voice getVoice(String voiceName) {
@@ -135,6 +156,8 @@ public class Music implements Cloneable, Serializable {
 		}
 		Voice v = new Voice(voiceName, m_firstBarNumber);
 		v.setPartLabel(m_partLabel);
+		if (m_snapshot)
+			return v.snapshot();
 		m_voices.add(v);
 		return v;
 	}
@@ -170,6 +193,7 @@ public class Music implements Cloneable, Serializable {
 	 * @param element
 	 */
 	public void addToAllVoices(MusicElement element) {
+		checkModifiable();
 		Iterator it = m_voices.iterator();
 		while (it.hasNext()) {
 			Voice v = (Voice) it.next();
@@ -193,14 +217,75 @@ public class Music implements Cloneable, Serializable {
 		return true;
 	}
 
+	/**
+	 * Returns a modifiable copy of this music. Voices are cloned, sharing
+	 * their elements until changed, see {@link Voice#clone()}.
+	 */
 	public Object clone() throws CloneNotSupportedException {
 		Object o = super.clone();
 		((Music) o).m_bars = (TreeMap) m_bars.clone();
-		((Music) o).m_voices = (Vector) m_voices.clone();
-		((Music) o).m_instructions = (ArrayList) m_instructions.clone();
+		((Music) o).m_voices = new Vector(m_voices.size(), 1);
+		for (int i = 0; i < m_voices.size(); i++)
+			((Music) o).m_voices.add(((Voice) m_voices.elementAt(i)).clone());
+		if (m_instructions != null)
+			((Music) o).m_instructions = (ArrayList) m_instructions.clone();
+		((Music) o).m_streamPositionIndex = null;
+		((Music) o).m_snapshot = false;
 		return o;
 	}
 
+	/**
+	 * Returns an unmodifiable copy of this music, which can be given to
+	 * other threads, e.g. for rendition, while this music is edited. The
+	 * snapshot shares the elements of the voices and is taken in a time
+	 * proportional to the number of voices. It must be taken by the thread
+	 * modifying this music, and the music elements must not be changed
+	 * afterwards, only added, removed or replaced.
+	 */
+	public Music snapshot() {
+		if (m_snapshot)
+			return this;
+		try {
+			Music ret = (Music) super.clone();
+			ret.m_bars = (TreeMap) m_bars.clone();
+			ret.m_voices = new Vector(m_voices.size(), 1);
+			for (int i = 0; i < m_voices.size(); i++)
+				ret.m_voices.add(((Voice) m_voices.elementAt(i)).snapshot());
+			if (m_instructions != null)
+				ret.m_instructions = (ArrayList) m_instructions.clone();
+			ret.m_streamPositionIndex = null;
+			ret.m_snapshot = true;
+			return ret;
+		} catch (CloneNotSupportedException never) {
+			//Music is Cloneable
+			throw new InternalError(never.toString());
+		}
+	}
+
+	/** Returns <TT>true</TT> if this music is a {@link #snapshot()} */
+	public boolean isSnapshot() {
+		return m_snapshot;
+	}
+
+	/** Throws UnsupportedOperationException if this music is a snapshot */
+	private void checkModifiable() {
+		if (m_snapshot)
+			throw new UnsupportedOperationException(
+					"Can't modify a snapshot of music");
+	}
+
+	/**
+	 * Replaces the voices and the instructions this clone shares with
+	 * <TT>original</TT> by their copies, see {@link StructuralCopy}.
+	 * Instructions are shared with the tune, see {@link Tune#newMusic()}.
+	 */
+	void copyLinks(Music original, StructuralCopy copies) {
+		for (int i = 0; i < m_voices.size(); i++)
+			m_voices.setElementAt(copies.copy(original.m_voices.elementAt(i)), i);
+		m_instructions = (ArrayList) copies.copy(original.m_instructions);
+		lastNote = null;
+	}
+
 	/**
 	 * Returns the score element location at the specified offset.
 	 * 
@@ -216,6 +301,11 @@ public class Music implements Cloneable, Serializable {
 	}
 	/**
 	 * Returns the score element location at the specified offset.
+	 * <p>
+	 * Elements are found by binary search in an index of their positions,
+	 * built on first call and again after voices have been modified. If
+	 * several elements contain the offset, the first one of the first voice
+	 * is returned.
 	 * 
 	 * @param offset
 	 *            An offset in a char stream.
@@ -224,28 +314,117 @@ public class Music implements Cloneable, Serializable {
 	 * than in Music object
 	 */
 	public MusicElement getElementAtStreamPosition(int offset) {
-		Iterator it = m_voices.iterator();
-		CharStreamPosition pos;
-		while (it.hasNext()) {
-			Voice v = (Voice) it.next();
-			int size = v.size();
-			MusicElement current = null;
+		StreamPositionIndex index = m_streamPositionIndex;
+		if ((index == null) || !index.isValid()) {
+			index = new StreamPositionIndex();
+			m_streamPositionIndex = index;
+		}
+		return index.getElementAt(offset);
+	}
+	
+	/**
+	 * Index of the elements of all voices by their position in the char
+	 * stream. Elements are sorted by start, with the greatest end of the
+	 * elements up to each one, so that elements containing an offset are
+	 * found by binary search even when their spans overlap.
+	 */
+	private class StreamPositionIndex {
+
+		private final Voice[] voices;
+
+		/** Version of each voice when the index has been built */
+		private final int[] versions;
+
+		private final MusicElement[] elements;
+
+		private final int[] starts;
+
+		private final int[] ends;
+
+		/** Order of the element in the voices, to return the first one */
+		private final int[] orders;
+
+		/** Greatest end of elements from 0 to i */
+		private final int[] maxEnds;
+
+		StreamPositionIndex() {
+			voices = (Voice[]) m_voices.toArray(new Voice[m_voices.size()]);
+			versions = new int[voices.length];
+			ArrayList positioned = new ArrayList();
+			for (int v = 0; v < voices.length; v++) {
+				versions[v] = voices[v].getVersion();
+				for (int i = 0, j = voices[v].size(); i < j; i++) {
+					Object current = voices[v].elementAt(i);
+					if ((current instanceof PositionableInCharStream)
+							&& (((PositionableInCharStream) current)
+									.getCharStreamPosition() != null))
+						positioned.add(current);
+				}
+			}
+			int size = positioned.size();
+			final CharStreamPosition[] positions = new CharStreamPosition[size];
+			Integer[] sorted = new Integer[size];
 			for (int i = 0; i < size; i++) {
-				current = (MusicElement) v.elementAt(i);
-				if (current instanceof PositionableInCharStream) {
-					pos = ((PositionableInCharStream) current)
+				positions[i] = ((PositionableInCharStream) positioned.get(i))
 						.getCharStreamPosition();
-					if (pos != null) {
-						if ((pos.getStartIndex() <= offset)
-								&& (pos.getEndIndex() > offset))
-							return current;
-					}
+				sorted[i] = Integer.valueOf(i);
+			}
+			//stable, same start keeps the voices order
+			Arrays.sort(sorted, new Comparator() {
+				public int compare(Object o1, Object o2) {
+					int s1 = positions[((Integer) o1).intValue()].getStartIndex();
+					int s2 = positions[((Integer) o2).intValue()].getStartIndex();
+					return (s1 < s2) ? -1 : ((s1 == s2) ? 0 : 1);
 				}
+			});
+			elements = new MusicElement[size];
+			starts = new int[size];
+			ends = new int[size];
+			orders = new int[size];
+			maxEnds = new int[size];
+			for (int i = 0; i < size; i++) {
+				int order = sorted[i].intValue();
+				elements[i] = (MusicElement) positioned.get(order);
+				starts[i] = positions[order].getStartIndex();
+				ends[i] = positions[order].getEndIndex();
+				orders[i] = order;
+				maxEnds[i] = (i == 0) ? ends[i] : Math.max(maxEnds[i - 1],
+						ends[i]);
 			}
 		}
-		return null;
+
+		/** Returns <TT>false</TT> if voices have changed since built */
+		boolean isValid() {
+			if (m_voices.size() != voices.length)
+				return false;
+			for (int v = 0; v < voices.length; v++)
+				if ((m_voices.get(v) != voices[v])
+						|| (voices[v].getVersion() != versions[v]))
+					return false;
+			return true;
+		}
+
+		MusicElement getElementAt(int offset) {
+			//last element starting at or before offset
+			int low = 0;
+			int high = starts.length;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (starts[mid] <= offset)
+					low = mid + 1;
+				else
+					high = mid;
+			}
+			int ret = -1;
+			for (int i = low - 1; (i >= 0) && (maxEnds[i] > offset); i--) {
+				if ((ends[i] > offset)
+						&& ((ret == -1) || (orders[i] < orders[ret])))
+					ret = i;
+			}
+			return (ret != -1) ? elements[ret] : null;
+		}
 	}
-	
+
 	private boolean voiceExists(String voiceName) {
 		for (Iterator it = m_voices.iterator(); it.hasNext();) {
 			Voice v = (Voice) it.next();
@@ -262,14 +441,8 @@ public class Music implements Cloneable, Serializable {
 	 * @return
 	 */
 	public MusicElement getElementByReference(MusicElementReference ref) {
-		if (voiceExists(ref.getVoice())) {
-			Iterator it = getVoice(ref.getVoice()).iterator();
-			while (it.hasNext()) {
-				MusicElement element = (MusicElement) it.next();
-				if (element.getReference().equals(ref))
-					return element;
-			}
-		}
+		if (voiceExists(ref.getVoice()))
+			return getVoice(ref.getVoice()).getElementByReference(ref);
 		return null;
 	}
 
@@ -42,4 +42,14 @@ public abstract class MusicElement
 				.clone();
 		return o;
 	}
+
+	/**
+	 * Replaces the objects this clone shares with <TT>original</TT> by their
+	 * copies, see {@link StructuralCopy}. The reference is the one already
+	 * copied for a slur or a tie ending on the original, if any.
+	 */
+	void copyLinks(MusicElement original, StructuralCopy copies) {
+		_reference = (MusicElementReference) copies.share(
+				original._reference, _reference);
+	}
 }
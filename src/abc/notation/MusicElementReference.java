@@ -101,6 +101,13 @@ public class MusicElementReference implements Serializable, Cloneable {
 			return super.equals(o);
 		}
 	}
+
+	public int hashCode() {
+		int ret = part.hashCode();
+		ret = 31 * ret + voice.hashCode();
+		ret = 31 * ret + x;
+		return 31 * ret + y;
+	}
 	
 	public String toString() {
 		return "[P:"+part+";V:"+voice+";"+x+";"+y+"]";
@@ -379,7 +379,7 @@ public class Note extends NoteAbstract implements Cloneable
 			throw new NoteHeightException(newMidiHeight);
 		Note newHeight = createFromMidiLikeHeight(newMidiHeight);
 		ret.setHeight(newHeight.getHeight());
-		ret.setAccidental(new Accidental(newHeight.getAccidental().getValue()+microtonalOffset));
+		ret.setAccidental(Accidental.valueOf(newHeight.getAccidental().getValue()+microtonalOffset));
 		ret.setOctaveTransposition(newHeight.getOctaveTransposition());
 		return ret;
 	}
@@ -409,7 +409,7 @@ public class Note extends NoteAbstract implements Cloneable
 
   private byte octaveTransposition = 0;
   /** Accidental for this note. */
-  private Accidental m_accidental = new Accidental();//Accidental.NONE;
+  private Accidental m_accidental = Accidental.NONE;
   /** The full whole duration that takes into account the dots. (why not
    * the tuplet stuff ? :/ ) */
   private short m_duration = -1;
@@ -444,7 +444,7 @@ public class Note extends NoteAbstract implements Cloneable
    */
   public Note (byte heightValue, float accidentalValue)
   {
-    this(heightValue, new Accidental(accidentalValue));
+    this(heightValue, Accidental.valueOf(accidentalValue));
 	System.err.println("Note constructor using float accidentalValue is deprecated, use Accidental constant");
   }
   /** Creates an abc note with the specified heigth and accidental.
@@ -924,9 +924,9 @@ public class Note extends NoteAbstract implements Cloneable
    * @deprecated see {@link #setAccidental(Accidental)}
    */
   public void setAccidental(byte accidentalValue)
-  { setAccidental(new Accidental(accidentalValue)); }
+  { setAccidental(Accidental.valueOf(accidentalValue)); }
   public void setAccidental(float accidentalValue)
-  { setAccidental(new Accidental(accidentalValue)); }
+  { setAccidental(Accidental.valueOf(accidentalValue)); }
   /** Sets the accidental for this note. */
   public void setAccidental(Accidental accidental) {
 	  if (accidental == null)
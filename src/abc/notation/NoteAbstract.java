@@ -315,5 +315,15 @@ public class NoteAbstract extends DecorableElement implements Cloneable
 		//clone.m_tuplet = (Tuplet) m_tuplet.clone();
 		return o;
 	}
+
+	void copyLinks(MusicElement original, StructuralCopy copies) {
+		super.copyLinks(original, copies);
+		if (m_gracingNotes != null)
+			for (int i = 0; i < m_gracingNotes.length; i++)
+				m_gracingNotes[i] = (NoteAbstract) copies.copy(m_gracingNotes[i]);
+		slurDefinitions = (Vector) copies.copy(slurDefinitions);
+		tieDefinition = (TieDefinition) copies.copy(tieDefinition);
+		m_tuplet = (Tuplet) copies.copy(m_tuplet);
+	}
 }
 
@@ -0,0 +1,114 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.notation;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Vector;
+
+/**
+ * Deep copy of the music of a tune, see {@link Tune#clone()}.
+ * <p>
+ * Each object is cloned, then the clone replaces the objects it still
+ * shares with the original by their copies, see
+ * {@link MusicElement#copyLinks(MusicElement, StructuralCopy)}. Copies are
+ * kept by identity, so that an object linked to several others in the
+ * original is linked the same way in the copy: the reference of a note and
+ * the slurs or ties starting or ending on it, a tuplet and its notes, an
+ * element added to several voices...
+ * <p>
+ * Objects which are not modified once built (strings, accidentals,
+ * positions in the char stream, bars) are shared by the original and the
+ * copy. Decorations and annotations are copied, as their positions are
+ * shifted by {@link abc.parser.TuneParser#parseIncrementally(String, int, int, int)}.
+ */
+class StructuralCopy {
+
+	/** Copy of each object already copied, by identity */
+	private IdentityHashMap m_copies = new IdentityHashMap();
+
+	/**
+	 * Returns the copy of the given object, copying it if not done yet.
+	 * Music elements and their references, voices, musics, parts,
+	 * tablatures and lists of them are copied, other objects are returned
+	 * as is.
+	 */
+	Object copy(Object o) {
+		if (o == null)
+			return null;
+		Object ret = m_copies.get(o);
+		if (ret != null)
+			return ret;
+		try {
+			if (o instanceof MusicElement) {
+				MusicElement copy = (MusicElement) ((MusicElement) o).clone();
+				m_copies.put(o, copy);
+				copy.copyLinks((MusicElement) o, this);
+				ret = copy;
+			} else if (o instanceof MusicElementReference) {
+				ret = ((MusicElementReference) o).clone();
+				m_copies.put(o, ret);
+			} else if (o instanceof Voice) {
+				Voice copy = (Voice) ((Voice) o).clone();
+				m_copies.put(o, copy);
+				copy.copyLinks(this);
+				ret = copy;
+			} else if (o instanceof Music) {
+				Music copy = (Music) ((Music) o).clone();
+				m_copies.put(o, copy);
+				copy.copyLinks((Music) o, this);
+				ret = copy;
+			} else if (o instanceof Part) {
+				Part copy = (Part) ((Part) o).clone();
+				m_copies.put(o, copy);
+				copy.setMusic((Music) copy(((Part) o).getMusic()));
+				ret = copy;
+			} else if (o instanceof Tablature) {
+				ret = ((Tablature) o).clone();
+				m_copies.put(o, ret);
+			} else if ((o instanceof ArrayList) || (o instanceof Vector)) {
+				List list = (List) o;
+				int size = list.size();
+				List copy = (o instanceof Vector) ? (List) new Vector(size)
+						: new ArrayList(size);
+				m_copies.put(o, copy);
+				for (int i = 0; i < size; i++)
+					copy.add(copy(list.get(i)));
+				ret = copy;
+			} else
+				ret = o;
+			return ret;
+		} catch (CloneNotSupportedException never) {
+			//all copied classes are Cloneable
+			throw new InternalError(never.toString());
+		}
+	}
+
+	/**
+	 * Returns the copy of <TT>original</TT>, which is <TT>copy</TT> unless
+	 * another copy was done before. Used for objects already cloned by their
+	 * owner.
+	 */
+	Object share(Object original, Object copy) {
+		Object ret = m_copies.get(original);
+		if (ret != null)
+			return ret;
+		m_copies.put(original, copy);
+		return copy;
+	}
+
+}
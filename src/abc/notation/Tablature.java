@@ -214,6 +214,9 @@ public class Tablature implements Cloneable, Serializable {
 	}
 
 	public Object clone() throws CloneNotSupportedException {
-		return super.clone();
+		Object o = super.clone();
+		if (computedFingerings != null)
+			((Tablature) o).computedFingerings = new HashMap(computedFingerings);
+		return o;
 	}
 }
@@ -15,11 +15,6 @@
 // along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
 package abc.notation;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -514,11 +509,8 @@ public class Tune implements Cloneable, Serializable
 					noneTranspKey);
 			// Note transp = Note.transpose(original, semitones, lastKey);
 			Note transpHeight = interval.calculateSecondNote(lastKeyNote, lastKey);
-			try {
-				transp = (Note) ((Note) original).clone();
-			} catch (CloneNotSupportedException never) {
-				never.printStackTrace();
-			}
+			//original belongs to the clone made by transpose, changed in place
+			transp = original;
 			((Note) transp).setHeight(transpHeight.getHeight());
 			((Note) transp).setOctaveTransposition(transpHeight.getOctaveTransposition());
 			if (microtonalOffset == 0)
@@ -526,11 +518,7 @@ public class Tune implements Cloneable, Serializable
 			else
 				((Note) transp).setAccidental(transpHeight.getAccidental().getValue()+microtonalOffset);
 		} else if (original instanceof MultiNote) {
-			try {
-				transp = (MultiNote) ((MultiNote) original).clone();
-			} catch (CloneNotSupportedException never) {
-				never.printStackTrace();
-			}
+			transp = original;
 			Note[] notes = ((MultiNote) transp).toArray();
 			for (int k = 0; k < notes.length; k++) {
 				notes[k] = (Note) transpose_Note(notes[k], noneTranspKeyNote,
@@ -722,149 +710,30 @@ public class Tune implements Cloneable, Serializable
 	}
   
 	/**
-	 * Returns a deep clone of the Tune object
+	 * Returns a deep clone of the Tune object.
+	 * <p>
+	 * Parts, musics, voices and music elements are copied by
+	 * {@link StructuralCopy}: slurs, ties and tuplets of the clone link its
+	 * own notes. Objects which can't be modified, such as strings or
+	 * accidentals, are shared with this tune.
 	 */
-  	public Object clone() {
-  		/*if (false) {
-  			Tune ret = new Tune(this);
-  			return ret;
-  		}*/
-  		Tune ret = null;
-  		try {
-  			//long s = System.currentTimeMillis();
-			// Write the object out to a byte array
-			FastByteArrayOutputStream fbos = new FastByteArrayOutputStream();
-			ObjectOutputStream out = new ObjectOutputStream(fbos);
-			out.writeObject(this);
-			out.flush();
-			out.close();
-
-			// Retrieve an input stream from the byte array and read
-			// a copy of the object back in.
-			ObjectInputStream in = new ObjectInputStream(fbos.getInputStream());
-			ret = (Tune) in.readObject();
-			//long e = System.currentTimeMillis();
-			//System.out.println("Tune.clone: "+fbos.getSize()+" en "+((e-s)/1000.0)+"s");
-		} catch (IOException e) {
-			e.printStackTrace();
-		} catch (ClassNotFoundException cnfe) {
-			cnfe.printStackTrace();
+	public Object clone() {
+		try {
+			Tune ret = (Tune) super.clone();
+			StructuralCopy copies = new StructuralCopy();
+			if (m_tuneInfos != null)
+				ret.m_tuneInfos = (TuneInfos) m_tuneInfos.clone();
+			ret.m_defaultPart = (Part) copies.copy(m_defaultPart);
+			ret.m_parts = (ArrayList) copies.copy(m_parts);
+			ret.m_instructions = (ArrayList) copies.copy(m_instructions);
+			//parts of the clone are found by label
+			if (m_multiPartsDef != null)
+				ret.m_multiPartsDef = (MultiPartsDefinition) m_multiPartsDef
+						.clone(ret);
+			return ret;
+		} catch (CloneNotSupportedException never) {
+			//Tune is Cloneable
+			throw new InternalError(never.toString());
 		}
-		return ret;
-  	}
-
-  /**
-   * ByteArrayInputStream implementation that does not
-   * synchronize methods.
-   */
-  private class FastByteArrayInputStream extends InputStream {
-  	/** Our byte buffer */
-  	protected byte[] buf = null;
-  	/** Number of bytes that we can read from the buffer */
-  	protected int count = 0;
-  	/** Number of bytes that have been read from the buffer */
-  	protected int pos = 0;
-
-  	public FastByteArrayInputStream(byte[] buf, int count) {
-  		this.buf = buf;
-  		this.count = count;
-  	}
-
-  	public final int available() {
-  		return count - pos;
-  	}
-
-  	public final int read() {
-  		return (pos < count) ? (buf[pos++] & 0xff) : -1;
-  	}
-
-  	public final int read(byte[] b, int off, int len) {
-  		if (pos >= count)
-  			return -1;
-  		if ((pos + len) > count)
-  			len = (count - pos);
-  		System.arraycopy(buf, pos, b, off, len);
-  		pos += len;
-  		return len;
-  	}
-
-  	public final long skip(long n) {
-  		if ((pos + n) > count)
-  			n = count - pos;
-  		if (n < 0)
-  			return 0;
-  		pos += n;
-  		return n;
-  	}
-  }
-  
-  /**
-   * ByteArrayOutputStream implementation that doesn't
-   * synchronize methods and doesn't copy the data on
-   * toByteArray().
-   */
-  private class FastByteArrayOutputStream extends OutputStream {
-  	/** Buffer and size */
-  	protected byte[] buf = null;
-  	protected int size = 0;
-
-  	/** Constructs a stream with buffer capacity size 5K */
-  	public FastByteArrayOutputStream() {
-  		this(5 * 1024);
-  	}
-
-  	/** Constructs a stream with the given initial size */
-  	public FastByteArrayOutputStream(int initSize) {
-  		this.size = 0;
-  		this.buf = new byte[initSize];
-  	}
-
-  	/** Ensures that we have a large enough buffer for the given size. */
-  	private void verifyBufferSize(int sz) {
-  		if (sz > buf.length) {
-  			byte[] old = buf;
-  			buf = new byte[Math.max(sz, 2 * buf.length)];
-  			System.arraycopy(old, 0, buf, 0, old.length);
-  			old = null;
-  		}
-  	}
-
-  	public int getSize() {
-  		return size;
-  	}
-
-  	/**
-  	 * Returns the byte array containing the written data. Note that this array
-  	 * will almost always be larger than the amount of data actually written.
-  	 */
-  	public byte[] getByteArray() {
-  		return buf;
-  	}
-
-  	public final void write(byte b[]) {
-  		verifyBufferSize(size + b.length);
-  		System.arraycopy(b, 0, buf, size, b.length);
-  		size += b.length;
-  	}
-
-  	public final void write(byte b[], int off, int len) {
-  		verifyBufferSize(size + len);
-  		System.arraycopy(b, off, buf, size, len);
-  		size += len;
-  	}
-
-  	public final void write(int b) {
-  		verifyBufferSize(size + 1);
-  		buf[size++] = (byte) b;
-  	}
-
-  	public void reset() {
-  		size = 0;
-  	}
-
-  	/** Returns a ByteArrayInputStream for reading back the written data */
-  	public InputStream getInputStream() {
-  		return new FastByteArrayInputStream(buf, size);
-  	}
-  }
+	}
 }
@@ -109,4 +109,11 @@ public class Tuplet extends MusicElement implements Cloneable, Serializable
 			((Tuplet) o).m_notes = (Vector) m_notes.clone();
 		return o;
 	}
+
+  void copyLinks(MusicElement original, StructuralCopy copies) {
+		super.copyLinks(original, copies);
+		if (m_notes != null)
+			for (int i = 0; i < m_notes.size(); i++)
+				m_notes.setElementAt(copies.copy(m_notes.elementAt(i)), i);
+	}
 }
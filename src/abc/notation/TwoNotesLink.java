@@ -84,4 +84,14 @@ public class TwoNotesLink extends MusicElement implements Cloneable, Serializabl
 //			((TwoNotesLink) o).end = (NoteAbstract) end.clone();
 		return o;
 	}
+
+	/**
+	 * Links the clone to the references of the copied notes, see
+	 * {@link StructuralCopy}
+	 */
+	void copyLinks(MusicElement original, StructuralCopy copies) {
+		super.copyLinks(original, copies);
+		start = (MusicElementReference) copies.copy(start);
+		end = (MusicElementReference) copies.copy(end);
+	}
 }
\ No newline at end of file
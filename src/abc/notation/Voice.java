@@ -16,9 +16,12 @@
 package abc.notation;
 
 import java.io.Serializable;
+import java.util.AbstractList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
-import java.util.TreeMap;
+import java.util.RandomAccess;
 import java.util.Vector;
 
 /**
@@ -31,14 +34,77 @@ import java.util.Vector;
  * Voice has a sound (instrument, volume) and some related properties.
  * 
  * Voice can also have lyrics, a {@link abc.notation.Tablature}...
+ * <p>
+ * Elements are stored in a growable array without synchronization, as
+ * voices are built by one thread and then only read. A voice must not be
+ * modified while other threads read it: give them a {@link #snapshot()}
+ * instead, which can't be modified.
+ * <p>
+ * Clones and snapshots share the arrays of elements and bars with the
+ * original voice, and the first change of one of them copies these arrays
+ * before. The music elements themselves are shared and must not be
+ * changed once a snapshot is taken.
+ * <p>
+ * Positions of elements and of chord notes are indexed by identity, and
+ * the highest and lowest notes of ranges are found in sparse tables. Both
+ * are built on first request and dropped when the voice is modified. The
+ * heights of the notes are read when the tables are built: a note changed
+ * in place after a range query should be set again with
+ * {@link #setElementAt(Object, int)}, as {@link Tune#transpose(Tune, int)}
+ * does.
  */
-public class Voice extends Vector implements Cloneable, Serializable {
+public class Voice extends AbstractList implements RandomAccess, Cloneable,
+		Serializable {
 
-	private static final long serialVersionUID = 8131014387452835226L;
+	private static final long serialVersionUID = -3362916497208212254L;
 
 	protected transient NoteAbstract lastNote = null;
 
-	private TreeMap m_bars = new TreeMap();
+	/** Elements of this voice, from 0 to {@link #m_size} excluded */
+	private Object[] m_elements = new Object[16];
+
+	private int m_size = 0;
+
+	/**
+	 * Bars of this voice, bar number <TT>m_barsOffset + i</TT> at index
+	 * <TT>i</TT>, <TT>null</TT> for missing numbers
+	 */
+	private Bar[] m_bars = new Bar[8];
+
+	private int m_barsCount = 0;
+
+	/** Number of the first bar, as given to the constructor */
+	private short m_barsOffset;
+
+	/**
+	 * Position of each element and chord note, <TT>null</TT> until
+	 * requested, see {@link #indexOf(MusicElement)}
+	 */
+	private transient volatile IdentityHashMap m_positions = null;
+
+	/**
+	 * Element of each reference, <TT>null</TT> until requested, see
+	 * {@link #getElementByReference(MusicElementReference)}
+	 */
+	private transient volatile HashMap m_references = null;
+
+	/** Highest notes of ranges, <TT>null</TT> until requested */
+	private transient volatile RangeIndex m_highest = null;
+
+	/** Lowest notes of ranges, <TT>null</TT> until requested */
+	private transient volatile RangeIndex m_lowest = null;
+
+	/**
+	 * <TT>true</TT> if {@link #m_elements} and {@link #m_bars} may be
+	 * shared with a clone, see {@link #beforeChange()}
+	 */
+	private transient boolean m_sharedStorage = false;
+
+	/** <TT>true</TT> for an unmodifiable voice, see {@link #snapshot()} */
+	private boolean m_snapshot = false;
+
+	/** Incremented by each change of the elements, see {@link #getVersion()} */
+	private transient int m_version = 0;
 
 	private short m_currentBar = 1;
 
@@ -62,15 +128,16 @@ public class Voice extends Vector implements Cloneable, Serializable {
 		super();
 		m_voiceName = voiceName;
 		setFirstBarNumber(firstBarNo);
-		m_bars.put(new Short((short) m_firstBarNumber), new Bar(
-				(short) m_firstBarNumber, 0));
+		m_barsOffset = m_firstBarNumber;
+		putBar(new Bar(m_firstBarNumber, 0));
 	}
 
 	public void addElement(MusicElement element) {
 		addElement0(element);
 	}
 
-	private synchronized void addElement0(MusicElement me) {
+	private void addElement0(MusicElement me) {
+		beforeChange();
 		if (me == null)
 			System.err.println(toString() + " addElement0 null");
 		else {
@@ -82,8 +149,7 @@ public class Voice extends Vector implements Cloneable, Serializable {
 				// barLine.removeAnnotation("BAR_NUMBER");
 				// barLine.addAnnotation(new Annotation("^"+currentBar,
 				// "BAR_NUMBER"));
-				m_bars.put(new Short(m_currentBar), new Bar(m_currentBar,
-						size()));
+				putBar(new Bar(m_currentBar, m_size));
 			}
 			short x = (short) size();
 			me.getReference().setPart(m_partLabel);
@@ -100,8 +166,47 @@ public class Voice extends Vector implements Cloneable, Serializable {
 					}
 				}
 			}
-			super.addElement(me);
+			add(me);
+		}
+	}
+
+	/**
+	 * Replaces the elements from index <TT>from</TT> (included) to index
+	 * <TT>to</TT> (excluded) by the given elements. Bars and references of
+	 * the following elements are updated as if the whole voice had been
+	 * built again with {@link #addElement(MusicElement)}.
+	 * 
+	 * @param from
+	 *            Index of the first element to replace
+	 * @param to
+	 *            Index after the last element to replace
+	 * @param elements
+	 *            Collection of {@link MusicElement}s inserted instead
+	 */
+	public void replaceElements(int from, int to, Collection elements) {
+		if ((from < 0) || (to > size()) || (from > to))
+			throw new IndexOutOfBoundsException("Can't replace elements from "
+					+ from + " to " + to + " in a voice of size " + size());
+		beforeChange();
+		Vector tail = new Vector(subList(to, size()));
+		removeRange(from, m_size);
+		for (int i = 0; i < m_barsCount; i++) {
+			Bar bar = m_bars[i];
+			if ((bar != null) && (bar.getPosInMusic() >= from)
+					&& (bar.getBarNumber() != m_firstBarNumber))
+				m_bars[i] = null;
 		}
+		while (m_bars[m_barsCount - 1] == null)
+			m_barsCount--;
+		m_currentBar = getLastBar().getBarNumber();
+		lastNote = null;
+		lastNote = getLastNote();
+		Iterator it = elements.iterator();
+		while (it.hasNext())
+			addElement0((MusicElement) it.next());
+		it = tail.iterator();
+		while (it.hasNext())
+			addElement0((MusicElement) it.next());
 	}
 
 	/**
@@ -120,8 +225,284 @@ public class Voice extends Vector implements Cloneable, Serializable {
 		return true;
 	}
 
+	/**
+	 * Returns a modifiable copy of this voice, which shares its elements.
+	 * Arrays are copied by the first change of either voice, so cloning is
+	 * done in constant time.
+	 */
 	public Object clone() {
-		return super.clone();
+		try {
+			Voice ret = (Voice) super.clone();
+			m_sharedStorage = true;
+			ret.m_sharedStorage = true;
+			ret.m_snapshot = false;
+			ret.m_positions = null;
+			ret.m_references = null;
+			ret.m_highest = null;
+			ret.m_lowest = null;
+			ret.modCount = 0;
+			return ret;
+		} catch (CloneNotSupportedException never) {
+			//Voice is Cloneable
+			throw new InternalError(never.toString());
+		}
+	}
+
+	/**
+	 * Replaces the elements and the tablature this clone shares with the
+	 * original voice by their copies, see {@link StructuralCopy}
+	 */
+	void copyLinks(StructuralCopy copies) {
+		beforeChange();
+		for (int i = 0; i < m_size; i++)
+			m_elements[i] = copies.copy(m_elements[i]);
+		m_tablature = (Tablature) copies.copy(m_tablature);
+		lastNote = null;
+	}
+
+	public int size() {
+		return m_size;
+	}
+
+	public Object get(int index) {
+		if (index >= m_size)
+			throw new ArrayIndexOutOfBoundsException(index + " >= " + m_size);
+		return m_elements[index];
+	}
+
+	/** Returns the element at the given index, same as {@link #get(int)} */
+	public Object elementAt(int index) {
+		return get(index);
+	}
+
+	public Object firstElement() {
+		return get(0);
+	}
+
+	public Object lastElement() {
+		return get(m_size - 1);
+	}
+
+	public Object set(int index, Object element) {
+		Object ret = get(index);
+		beforeChange();
+		m_elements[index] = element;
+		m_version++;
+		clearIndexes();
+		return ret;
+	}
+
+	public void setElementAt(Object element, int index) {
+		set(index, element);
+	}
+
+	/**
+	 * Inserts the element at the given index. As for
+	 * {@link #insertElementAt(Object, int)}, bars and references are not
+	 * updated, see {@link #addElement(MusicElement)}.
+	 */
+	public void add(int index, Object element) {
+		if ((index < 0) || (index > m_size))
+			throw new ArrayIndexOutOfBoundsException(index + " > " + m_size);
+		beforeChange();
+		modCount++;
+		if (m_size == m_elements.length) {
+			Object[] elements = new Object[m_size * 2];
+			System.arraycopy(m_elements, 0, elements, 0, m_size);
+			m_elements = elements;
+		}
+		System.arraycopy(m_elements, index, m_elements, index + 1, m_size
+				- index);
+		m_elements[index] = element;
+		m_size++;
+		m_version++;
+		if (index == m_size - 1) {
+			//appended, following positions don't change
+			if (m_positions != null)
+				addPosition(m_positions, element, index);
+			if (m_references != null)
+				addReference(m_references, element);
+			m_highest = null;
+			m_lowest = null;
+		} else
+			clearIndexes();
+	}
+
+	public void insertElementAt(Object element, int index) {
+		add(index, element);
+	}
+
+	public Object remove(int index) {
+		Object ret = get(index);
+		removeRange(index, index + 1);
+		return ret;
+	}
+
+	public void removeElementAt(int index) {
+		remove(index);
+	}
+
+	protected void removeRange(int fromIndex, int toIndex) {
+		beforeChange();
+		modCount++;
+		System.arraycopy(m_elements, toIndex, m_elements, fromIndex, m_size
+				- toIndex);
+		int size = m_size - (toIndex - fromIndex);
+		for (int i = size; i < m_size; i++)
+			m_elements[i] = null;
+		m_size = size;
+		m_version++;
+		clearIndexes();
+	}
+
+	/**
+	 * Returns a number which changes each time an element is added, set or
+	 * removed, so that indexes built from this voice know they are stale.
+	 */
+	int getVersion() {
+		return m_version;
+	}
+
+	/**
+	 * Returns an unmodifiable copy of this voice, which can be read by other
+	 * threads while this voice is modified. Taken in constant time, see
+	 * {@link #clone()}.
+	 */
+	public Voice snapshot() {
+		if (m_snapshot)
+			return this;
+		Voice ret = (Voice) clone();
+		ret.m_snapshot = true;
+		return ret;
+	}
+
+	/** Returns <TT>true</TT> if this voice is a {@link #snapshot()} */
+	public boolean isSnapshot() {
+		return m_snapshot;
+	}
+
+	/** Throws UnsupportedOperationException if this voice is a snapshot */
+	private void checkModifiable() {
+		if (m_snapshot)
+			throw new UnsupportedOperationException(
+					"Can't modify a snapshot of voice " + m_voiceName);
+	}
+
+	/**
+	 * Called before each change of the elements or bars: copies the arrays
+	 * still shared with a clone, so that the clone doesn't see the change
+	 */
+	private void beforeChange() {
+		checkModifiable();
+		if (m_sharedStorage) {
+			Object[] elements = new Object[m_elements.length];
+			System.arraycopy(m_elements, 0, elements, 0, m_size);
+			m_elements = elements;
+			m_bars = (Bar[]) m_bars.clone();
+			m_sharedStorage = false;
+		}
+	}
+
+	private void clearIndexes() {
+		m_positions = null;
+		m_references = null;
+		m_highest = null;
+		m_lowest = null;
+	}
+
+	/** Indexes the element, and chord notes, unless already found before */
+	private void addPosition(IdentityHashMap positions, Object element,
+			int index) {
+		if ((element == null) || positions.containsKey(element))
+			return;
+		Integer position = Integer.valueOf(index);
+		positions.put(element, position);
+		if (element instanceof MultiNote) {
+			Note[] notes = ((MultiNote) element).toArray();
+			if (notes != null)
+				for (int i = 0; i < notes.length; i++)
+					if (!positions.containsKey(notes[i]))
+						positions.put(notes[i], position);
+		}
+	}
+
+	/**
+	 * Indexes the element by a copy of its current reference, unless an
+	 * element before has the same reference
+	 */
+	private void addReference(HashMap references, Object element) {
+		if (element instanceof MusicElement) {
+			MusicElementReference ref = ((MusicElement) element).getReference();
+			if ((ref != null) && !references.containsKey(ref))
+				references.put(ref.clone(), element);
+		}
+	}
+
+	/**
+	 * Returns the first element of this voice having the given reference,
+	 * <TT>null</TT> if not found. Chord notes are not searched.
+	 * <p>
+	 * Elements are found in an index built from their references, kept up to
+	 * date by {@link #addElement(MusicElement)}. References are checked again
+	 * on each match, since an element added to another voice gets a new one.
+	 * 
+	 * @param ref
+	 *            The reference to look for
+	 */
+	public MusicElement getElementByReference(MusicElementReference ref) {
+		if (ref == null)
+			return null;
+		HashMap references = m_references;
+		if (references == null) {
+			//built aside, snapshots may be read by several threads
+			references = new HashMap(m_size * 2);
+			for (int i = 0; i < m_size; i++)
+				addReference(references, m_elements[i]);
+			m_references = references;
+		}
+		MusicElement element = (MusicElement) references.get(ref);
+		if ((element == null) || ref.equals(element.getReference()))
+			return element;
+		//reference changed since indexed
+		for (int i = 0; i < m_size; i++) {
+			if ((m_elements[i] instanceof MusicElement)
+					&& ref.equals(((MusicElement) m_elements[i]).getReference()))
+				return (MusicElement) m_elements[i];
+		}
+		return null;
+	}
+
+	public Object[] toArray() {
+		Object[] ret = new Object[m_size];
+		System.arraycopy(m_elements, 0, ret, 0, m_size);
+		return ret;
+	}
+
+	/** Returns the bar of the given number, <TT>null</TT> if none */
+	private Bar getBar(int barNumber) {
+		int i = barNumber - m_barsOffset;
+		return ((i >= 0) && (i < m_barsCount)) ? m_bars[i] : null;
+	}
+
+	/** Adds or replaces the bar of the same number */
+	private void putBar(Bar bar) {
+		beforeChange();
+		int i = bar.getBarNumber() - m_barsOffset;
+		if (i < 0) {
+			//bar numbered before the first one, shift the index
+			Bar[] bars = new Bar[Math.max(m_bars.length, m_barsCount - i)];
+			System.arraycopy(m_bars, 0, bars, -i, m_barsCount);
+			m_bars = bars;
+			m_barsCount -= i;
+			m_barsOffset = bar.getBarNumber();
+			i = 0;
+		} else if (i >= m_bars.length) {
+			Bar[] bars = new Bar[Math.max(m_bars.length * 2, i + 1)];
+			System.arraycopy(m_bars, 0, bars, 0, m_barsCount);
+			m_bars = bars;
+		}
+		m_bars[i] = bar;
+		m_barsCount = Math.max(m_barsCount, i + 1);
 	}
 
 	public Collection getBarContent(Bar bar) {
@@ -133,13 +514,13 @@ public class Voice extends Vector implements Cloneable, Serializable {
 		}
 		Collection ret = new Vector(to - from + 1);
 		for (int i = from; i <= to; i++) {
-			ret.add(elementData[i]);
+			ret.add(m_elements[i]);
 		}
 		return ret;
 	}
 
 	public Bar getFirstBar() {
-		return (Bar) m_bars.get(new Short(m_firstBarNumber));
+		return getBar(m_firstBarNumber);
 	}
 
 	/**
@@ -182,20 +563,14 @@ public class Voice extends Vector implements Cloneable, Serializable {
 		if (idxBegin > idxEnd)
 			throw new IllegalArgumentException("Note " + elmtBegin
 					+ " is located after " + elmtEnd + " in the score");
-		MusicElement currentScoreEl;
-		int currentNoteHeight;
-		for (int i = idxBegin + 1; i <= idxEnd; i++) {
-			currentScoreEl = (MusicElement) elementAt(i);
-			if (currentScoreEl instanceof NoteAbstract) {
-				currentNoteHeight = (currentScoreEl instanceof MultiNote) ? ((MultiNote) currentScoreEl)
-						.getHighestNote().getMidiLikeHeight()
-						: ((Note) currentScoreEl).getMidiLikeHeight();
-				if ((currentNoteHeight != Note.REST)
-						&& ((highestNoteHeight == Note.REST) || (currentNoteHeight > highestNoteHeight))) {
-					highestNoteHeight = currentNoteHeight;
-					highestNote = (NoteAbstract) currentScoreEl;
-				}
-			}
+		if (idxBegin < idxEnd) {
+			RangeIndex highest = m_highest;
+			if (highest == null)
+				m_highest = highest = new RangeIndex(true);
+			int i = highest.query(idxBegin + 1, idxEnd);
+			if ((i != -1)
+					&& ((highestNoteHeight == Note.REST) || (highest.heights[i] > highestNoteHeight)))
+				highestNote = (NoteAbstract) m_elements[i];
 		}
 		return highestNote;
 	}
@@ -219,7 +594,7 @@ public class Voice extends Vector implements Cloneable, Serializable {
 	}
 
 	public Bar getLastBar() {
-		return (Bar) m_bars.get(m_bars.lastKey());
+		return m_bars[m_barsCount - 1];
 	}
 
 	/**
@@ -230,9 +605,9 @@ public class Voice extends Vector implements Cloneable, Serializable {
 	 */
 	public NoteAbstract getLastNote() {
 		if (lastNote == null) {
-			for (int i = super.size() - 1; i >= 0; i--) {
-				if (super.elementAt(i) instanceof NoteAbstract) {
-					lastNote = (NoteAbstract) super.elementAt(i);
+			for (int i = m_size - 1; i >= 0; i--) {
+				if (m_elements[i] instanceof NoteAbstract) {
+					lastNote = (NoteAbstract) m_elements[i];
 					break;
 				}
 			}
@@ -273,20 +648,14 @@ public class Voice extends Vector implements Cloneable, Serializable {
 		if (idxBegin > idxEnd)
 			throw new IllegalArgumentException("Note " + elmtBegin
 					+ " is located after " + elmtEnd + " in the score");
-		MusicElement currentScoreEl;
-		int currentNoteHeight;
-		for (int i = idxBegin + 1; i <= idxEnd; i++) {
-			currentScoreEl = (MusicElement) elementAt(i);
-			if (currentScoreEl instanceof NoteAbstract) {
-				currentNoteHeight = (currentScoreEl instanceof MultiNote) ? ((MultiNote) currentScoreEl)
-						.getLowestNote().getMidiLikeHeight()
-						: ((Note) currentScoreEl).getMidiLikeHeight();
-				if ((currentNoteHeight != Note.REST)
-						&& ((lowestNoteHeight == Note.REST) || (currentNoteHeight < lowestNoteHeight))) {
-					lowestNoteHeight = currentNoteHeight;
-					lowestNote = (NoteAbstract) currentScoreEl;
-				}
-			}
+		if (idxBegin < idxEnd) {
+			RangeIndex lowest = m_lowest;
+			if (lowest == null)
+				m_lowest = lowest = new RangeIndex(false);
+			int i = lowest.query(idxBegin + 1, idxEnd);
+			if ((i != -1)
+					&& ((lowestNoteHeight == Note.REST) || (lowest.heights[i] < lowestNoteHeight)))
+				lowestNote = (NoteAbstract) m_elements[i];
 		}
 		return lowestNote;
 
@@ -300,12 +669,7 @@ public class Voice extends Vector implements Cloneable, Serializable {
 		short nextBar = barNum;
 		if (nextBar < m_firstBarNumber)
 			nextBar = (short) (m_firstBarNumber - 1);
-		Short s = new Short(nextBar++);
-		if (m_bars.keySet().contains(s))
-			return (Bar) m_bars.get(s);
-		else {
-			return null;
-		}
+		return getBar(nextBar);
 	}
 
 	/**
@@ -340,9 +704,8 @@ public class Voice extends Vector implements Cloneable, Serializable {
 	}
 
 	public Bar getPreviousBar() {
-		Short s = new Short((short) (m_currentBar - 1));
-		if ((m_currentBar > m_firstBarNumber) && m_bars.keySet().contains(s))
-			return (Bar) m_bars.get(s);
+		if (m_currentBar > m_firstBarNumber)
+			return getBar(m_currentBar - 1);
 		else {
 			return null;
 		}
@@ -428,7 +791,36 @@ public class Voice extends Vector implements Cloneable, Serializable {
 		return false;
 	}
 
+	/**
+	 * Returns the position of the element in this voice, or of the chord
+	 * containing it if it is a note, -1 if not found. Elements are found
+	 * by identity in an index, then compared with <TT>equals</TT>.
+	 */
 	public int indexOf(MusicElement elmnt) {
+		if (elmnt == null)
+			return -1;
+		IdentityHashMap positions = m_positions;
+		if (positions == null) {
+			//built aside, snapshots may be read by several threads
+			positions = new IdentityHashMap(m_size * 2);
+			for (int i = 0; i < m_size; i++)
+				addPosition(positions, m_elements[i], i);
+			m_positions = positions;
+		}
+		Integer position = (Integer) positions.get(elmnt);
+		if (position != null) {
+			int i = position.intValue();
+			if ((m_elements[i] == elmnt)
+					|| ((m_elements[i] instanceof MultiNote)
+							&& (elmnt instanceof Note) && ((MultiNote) m_elements[i])
+							.contains((Note) elmnt)))
+				return i;
+		}
+		//equal but not identical, or note added to a chord since indexed
+		return indexOfEqual(elmnt);
+	}
+
+	private int indexOfEqual(MusicElement elmnt) {
 		if (elmnt != null) {
 			Object elmntIt = null;
 			boolean isLooking4Note = elmnt instanceof Note;
@@ -451,15 +843,18 @@ public class Voice extends Vector implements Cloneable, Serializable {
 	}
 
 	public void setFirstBarNumber(short s) {
+		checkModifiable();
 		m_firstBarNumber = s;
 	}
 
 	/** %%MIDI program xx */
 	public void setInstrument(byte instrument) {
+		checkModifiable();
 		this.m_instrument = instrument;
 	}
 
 	protected void setPartLabel(String c) {
+		checkModifiable();
 		m_partLabel = c;
 	}
 
@@ -468,11 +863,13 @@ public class Voice extends Vector implements Cloneable, Serializable {
 	 * remove tablature.
 	 */
 	public void setTablature(Tablature tab) {
+		checkModifiable();
 		m_tablature = tab;
 	}
 
 	/** %%MIDI volume(?) xx */
 	public void setVolume(byte volume) {
+		checkModifiable();
 		this.m_volume = volume;
 	}
 
@@ -482,4 +879,66 @@ public class Voice extends Vector implements Cloneable, Serializable {
 
 	// TODO hasLyrics...
 
+	/**
+	 * Sparse table of the highest (or lowest) note of each range of
+	 * <TT>2^k</TT> elements, answering range queries in constant time.
+	 */
+	private class RangeIndex {
+
+		/** Height of the note at each position, {@link Note#REST} if none */
+		final int[] heights;
+
+		/** Position of the best note from i to i + 2^k - 1, -1 if none */
+		private final int[][] table;
+
+		private final boolean highest;
+
+		RangeIndex(boolean highest) {
+			this.highest = highest;
+			heights = new int[m_size];
+			int levels = 1;
+			while ((1 << levels) <= m_size)
+				levels++;
+			table = new int[levels][];
+			table[0] = new int[m_size];
+			for (int i = 0; i < m_size; i++) {
+				Object e = m_elements[i];
+				if (e instanceof MultiNote)
+					heights[i] = (highest ? ((MultiNote) e).getHighestNote()
+							: ((MultiNote) e).getLowestNote())
+							.getMidiLikeHeight();
+				else if (e instanceof Note)
+					heights[i] = ((Note) e).getMidiLikeHeight();
+				else
+					heights[i] = Note.REST;
+				table[0][i] = (heights[i] != Note.REST) ? i : -1;
+			}
+			for (int k = 1; k < levels; k++) {
+				int half = 1 << (k - 1);
+				table[k] = new int[m_size - (1 << k) + 1];
+				for (int i = 0; i < table[k].length; i++)
+					table[k][i] = best(table[k - 1][i], table[k - 1][i + half]);
+			}
+		}
+
+		/** Returns the better of two positions, the first one if same height */
+		private int best(int i, int j) {
+			if ((i == -1) || (j == -1))
+				return (i == -1) ? j : i;
+			if (highest)
+				return (heights[j] > heights[i]) ? j : i;
+			else
+				return (heights[j] < heights[i]) ? j : i;
+		}
+
+		/**
+		 * Returns the position of the first highest (or lowest) note from
+		 * <TT>from</TT> to <TT>to</TT> included, -1 if none.
+		 */
+		int query(int from, int to) {
+			int k = 31 - Integer.numberOfLeadingZeros(to - from + 1);
+			return best(table[k][from], table[k][to - (1 << k) + 1]);
+		}
+	}
+
 }
@@ -0,0 +1,83 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.parser;
+
+/**
+ * A {@link ParserBackend} which parses well formed tunes in a single pass,
+ * with a hand-written recursive descent parser, and builds the same tree
+ * as the {@link AbcGrammar}.
+ * <p>
+ * Only the most common subset of the notation is supported: notes, chords
+ * of notes, rests, bar lines, repeats, tuplets, slurs, ties, broken
+ * rhythms, single char decorations, comments and the usual header fields.
+ * Anything else, as well as syntax errors, is handed over to a fallback
+ * backend, by default an {@link AbcGrammarBackend}. In
+ * {@link ParseMetrics}, the time spent in a descent parsing which is then
+ * handed over is counted as grammar time.
+ * <p>
+ * e.g. <TT>parser.setBackend(new AbcDescentBackend());</TT>
+ */
+public class AbcDescentBackend implements ParserBackend {
+
+	private ParserBackend m_fallback;
+
+	/** Creates a backend falling back to an {@link AbcGrammarBackend} */
+	public AbcDescentBackend() {
+		this(new AbcGrammarBackend());
+	}
+
+	/**
+	 * Creates a backend handing what it does not support over to
+	 * <TT>fallback</TT>.
+	 */
+	public AbcDescentBackend(ParserBackend fallback) {
+		if (fallback == null)
+			throw new IllegalArgumentException("fallback can't be null");
+		m_fallback = fallback;
+	}
+
+	/** Returns the backend used for unsupported input */
+	public ParserBackend getFallback() {
+		return m_fallback;
+	}
+
+	public AbcNode parse(char[] abc, int lineOffset, int indexOffset) {
+		AbcNode ret = tryParse(abc, lineOffset, indexOffset);
+		if (ret == null)
+			ret = m_fallback.parse(abc, lineOffset, indexOffset);
+		return ret;
+	}
+
+	/**
+	 * Parses the chars without fallback, returns the root of the parsing
+	 * tree, or <TT>null</TT> if they are not in the supported subset.
+	 * 
+	 * @see ParserBackend#parse(char[], int, int)
+	 */
+	public AbcNode tryParse(char[] abc, int lineOffset, int indexOffset) {
+		ParseMetrics metrics = ParseMetrics.current();
+		long[] phase = (metrics != null) ? ParseMetrics.startPhase() : null;
+		AbcInputBuffer buffer = new AbcInputBuffer(abc, lineOffset,
+				indexOffset);
+		AbcParseTree tree = new AbcDescentParser(abc).parse(buffer);
+		if (metrics != null) {
+			//the offset table is built while parsing
+			metrics.endPhase(ParseMetrics.GRAMMAR, phase);
+		}
+		return (tree != null) ? tree.getNode(0, null) : null;
+	}
+
+}
@@ -0,0 +1,936 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.parser;
+
+/**
+ * Single pass recursive descent parser for the most common subset of the
+ * ABC notation, used by {@link AbcDescentBackend}.
+ * <p>
+ * Chars are classified with a lookup table, and nodes are appended in
+ * depth-first order to the arrays of an {@link AbcParseTree}, without
+ * creating any object per node. Each rule reproduces the node labels and
+ * offsets of its {@link AbcGrammar} counterpart, including the leading
+ * and trailing white spaces some nodes include.
+ * <p>
+ * As soon as the input leaves the supported subset (fields other than
+ * the most common header ones, chord names, decorations between
+ * <TT>!</TT>, grace notes, inline fields, comments at the end of music
+ * lines, syntax errors...) the whole parse is given up, {@link #parse()}
+ * returns <TT>null</TT> and the grammar has to be used.
+ * <p>
+ * A {@link Handler} can receive the nodes as soon as they are parsed, and
+ * drop them from the tree once used, so that the tree never holds more
+ * than the nodes being parsed.
+ * <p>
+ * One instance parses one buffer.
+ */
+class AbcDescentParser implements AbcTokens {
+
+	/** Receives the nodes while they are parsed */
+	interface Handler {
+
+		/** Invoked when a node with given label starts */
+		public void nodeOpened(int labelId);
+
+		/**
+		 * Invoked when a node and all its descendants have been parsed,
+		 * {@link AbcDescentParser#getNode(int)} gives access to them.
+		 * Returns <TT>true</TT> to remove them from the tree.
+		 */
+		public boolean nodeClosed(int labelId, int node);
+
+	}
+
+	/** Thrown when the input leaves the supported subset */
+	private static class UnsupportedInputException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		/** No stack trace, the exception is only used to unwind rules */
+		public Throwable fillInStackTrace() {
+			return this;
+		}
+	}
+
+	private static final UnsupportedInputException UNSUPPORTED = new UnsupportedInputException();
+
+	/** Char returned past the end of the buffer */
+	private static final char EOI = '\uFFFF';
+
+	//char classes, see CLASSES
+	private static final int WSP_CHAR = 0x01;
+	private static final int DIGIT_CHAR = 0x02;
+	private static final int BASE_NOTE_CHAR = 0x04;
+	private static final int USERDEF_CHAR = 0x08;
+	/** Chars of {@link AbcGrammar#TexText()} but the tex escape */
+	private static final int TEX_CHAR = 0x10;
+	private static final int VCHAR_CHAR = 0x20;
+	private static final int ALPHA_CHAR = 0x40;
+	/** Chars which may start a field name, <TT>X:</TT> and so on */
+	private static final int FIELD_CHAR = 0x80;
+
+	/** Classes of ASCII chars */
+	private static final int[] CLASSES = new int[128];
+
+	static {
+		CLASSES[' '] = CLASSES['\t'] = WSP_CHAR | TEX_CHAR;
+		for (char c = '!'; c <= '~'; c++)
+			CLASSES[c] = VCHAR_CHAR | ((c != '\\') ? TEX_CHAR : 0);
+		for (char c = '0'; c <= '9'; c++)
+			CLASSES[c] |= DIGIT_CHAR;
+		for (char c = 'A'; c <= 'Z'; c++) {
+			CLASSES[c] |= ALPHA_CHAR;
+			CLASSES[c + 'a' - 'A'] |= ALPHA_CHAR;
+		}
+		String s = "CDEFGABcdefgab";
+		for (int i = 0; i < s.length(); i++)
+			CLASSES[s.charAt(i)] |= BASE_NOTE_CHAR;
+		s = "~HIJKLMNOPQRSTUVWXYhijklmnopqrstuvw";
+		for (int i = 0; i < s.length(); i++)
+			CLASSES[s.charAt(i)] |= USERDEF_CHAR;
+		s = "ABCDFGHNORSTWZ";
+		for (int i = 0; i < s.length(); i++)
+			CLASSES[s.charAt(i)] |= FIELD_CHAR;
+	}
+
+	/** Labels of the header fields, by their letter, see FIELD_CHAR */
+	private static final int[] FIELD_LABELS = new int[128];
+
+	/** Labels of the <TT>X:</TT> strings nodes, by field letter */
+	private static final int[] FIELD_NAME_LABELS = new int[128];
+
+	/** Mode words, in the order of {@link AbcGrammar#Mode()} */
+	private static final String[] MODES = { "major", "lydian", "ionian",
+		"mixolydian", "dorian", "aeolian", "phrygian", "locrian", "exp",
+		"minor" };
+
+	/** Number of chars of each mode word which must be written */
+	private static final int[] MODES_MIN_LENGTH = { 3, 3, 3, 3, 3, 3, 3, 3,
+		3, 1 };
+
+	private static final int[] MODES_LABELS = { id(Major), id(Lydian),
+		id(Ionian), id(Mixolydian), id(Dorian), id(Aeolian), id(Phrygian),
+		id(Locrian), id(Explicit), id(Minor) };
+
+	private static final int ABC_FILE = id(AbcFile);
+	private static final int ABC_TUNE_BOOK_HEADER = id(AbcTuneBookHeader);
+	private static final int ABC_TUNE = id(AbcTune);
+	private static final int ABC_HEADER = id(AbcHeader);
+	private static final int FIELD_NUMBER = id(FieldNumber);
+	private static final int TITLE_FIELDS = id(TitleFields);
+	private static final int FIELD_METER = id(FieldMeter);
+	private static final int FIELD_LENGTH = id(FieldLength);
+	private static final int FIELD_KEY = id(FieldKey);
+	private static final int HEADER_EOL = id(HeaderEol);
+	private static final int TEX_TEXT = id(TexText);
+	private static final int TIME_SIGNATURE = id(TimeSignature);
+	private static final int METER_NUM = id(MeterNum);
+	private static final int NOTE_LENGTH_STRICT = id(NoteLengthStrict);
+	private static final int KEY = id(Key);
+	private static final int KEY_DEF = id(KeyDef);
+	private static final int KEY_NOTE_ACCIDENTAL = id(KeyNoteAccidental);
+	private static final int MODE = id(Mode);
+	private static final int COMMENT = id(Comment);
+	private static final int COMMENT_TEXT = id(CommentText);
+	private static final int EOLS = id(Eols);
+	private static final int ABC_MUSIC = id(AbcMusic);
+	private static final int ABC_LINE = id(AbcLine);
+	private static final int ABC_EOL = id(AbcEol);
+	private static final int LINE_CONTINUATION = id(LineContinuation);
+	private static final int ELEMENT = id(Element);
+	private static final int SPACE = id(Space);
+	private static final int STEM = id(Stem);
+	private static final int NOTE = id(_Note);
+	private static final int MULTI_NOTE = id(_MultiNote);
+	private static final int PITCH = id(Pitch);
+	private static final int ACCIDENTAL = id(_Accidental);
+	private static final int BASE_NOTE = id(BaseNote);
+	private static final int OCTAVE = id(Octave);
+	private static final int NOTE_LENGTH = id(NoteLength);
+	private static final int TIE = id(Tie);
+	private static final int WSPS_ = id(WSPS);
+	private static final int REST = id(Rest);
+	private static final int NORMAL_REST = id(NormalRest);
+	private static final int INVISIBLE_REST = id(InvisibleRest);
+	private static final int INAUDIBLE_REST = id(InaudibleRest);
+	private static final int BARLINE = id(Barline);
+	private static final int NTH_REPEAT = id(NthRepeat);
+	private static final int NTH_REPEAT_NUM = id(NthRepeatNum);
+	private static final int END_NTH_REPEAT = id(EndNthRepeat);
+	private static final int TUPLET = id(Tuplet);
+	private static final int SLUR_BEGIN = id(SlurBegin);
+	private static final int SLUR_END = id(SlurEnd);
+	private static final int GRACING = id(Gracing);
+	private static final int USERDEF_SYMBOL = id(UserdefSymbol);
+	private static final int BROKEN_RHYTHM = id(BrokenRhythm);
+	private static final int MULTI_MEASURE_REST = id(MultiMeasureRest);
+	private static final int MEASURE_REPEAT = id(MeasureRepeat);
+	private static final int ROLLBACK = id(Rollback);
+	private static final int DIGITS_ = id(DIGITS);
+	private static final int DIGIT_ = id(DIGIT);
+	//labels of String(..) rules of the grammar, and of Eol and EOI
+	private static final int EOL_ = id("Eol");
+	private static final int EOI_ = id("EOI");
+	private static final int PERCENT = id("%");
+	private static final int OPEN_BRACKET = id("[");
+	private static final int CLOSE_BRACKET = id("]");
+	private static final int DOT = id(".");
+	private static final int Z = id("Z");
+	private static final int C = id("C");
+	private static final int C_BAR = id("C|");
+	private static final int K_ = id("K:");
+	private static final int M_ = id("M:");
+	private static final int L_ = id("L:");
+	private static final int X_ = id("X:");
+
+	static {
+		String letters = "ABCDFGHNORSTWZ";
+		String[] labels = { FieldArea, FieldBook, FieldComposer,
+				FieldDiscography, FieldFile, FieldGroup, FieldHistory,
+				FieldNotes, FieldOrigin, FieldRhythm, FieldSource,
+				FieldTitle, FieldWords, FieldTranscription };
+		for (int i = 0; i < labels.length; i++) {
+			char c = letters.charAt(i);
+			FIELD_LABELS[c] = id(labels[i]);
+			FIELD_NAME_LABELS[c] = id(c + ":");
+		}
+	}
+
+	private static int id(String label) {
+		return AbcNodePath.getLabelId(label);
+	}
+
+	private char[] m_abc;
+
+	private int m_length;
+
+	/** Number of nodes */
+	private int m_size = 0;
+
+	private int[] m_labelIds;
+
+	private int[] m_starts;
+
+	private int[] m_ends;
+
+	private int[] m_subtreeEnds;
+
+	private Handler m_handler = null;
+
+	private AbcInputBuffer m_buffer = null;
+
+	AbcDescentParser(char[] abc) {
+		this(abc, null);
+	}
+
+	/**
+	 * Creates a parser giving nodes to <TT>handler</TT>, see
+	 * {@link Handler}
+	 */
+	AbcDescentParser(char[] abc, Handler handler) {
+		m_abc = abc;
+		m_length = abc.length;
+		m_handler = handler;
+		//a handler removes most nodes, the tree stays small
+		int capacity = (handler != null) ? 64 : m_length * 2 + 16;
+		m_labelIds = new int[capacity];
+		m_starts = new int[capacity];
+		m_ends = new int[capacity];
+		m_subtreeEnds = new int[capacity];
+	}
+
+	/**
+	 * Parses the whole buffer, returns the parsing tree or <TT>null</TT> if
+	 * the buffer is not in the supported subset.
+	 *
+	 * @param buffer
+	 *            the buffer of parsed chars, with offsets in the whole
+	 *            stream
+	 */
+	AbcParseTree parse(AbcInputBuffer buffer) {
+		m_buffer = buffer;
+		try {
+			int root = open(ABC_FILE, 0);
+			int p = tuneBookHeader(0);
+			do {
+				p = tune(p);
+			} while (p < m_length);
+			close(root, p);
+		} catch (UnsupportedInputException e) {
+			return null;
+		}
+		return new AbcParseTree(m_size, m_labelIds, m_starts, m_ends,
+				m_subtreeEnds, buffer);
+	}
+
+	// ---------------------------------------------------------- tree
+
+	/** Appends a node starting at p, returns its index */
+	private int open(int labelId, int p) {
+		if (m_size == m_labelIds.length)
+			grow();
+		m_labelIds[m_size] = labelId;
+		m_starts[m_size] = p;
+		if (m_handler != null)
+			m_handler.nodeOpened(labelId);
+		return m_size++;
+	}
+
+	/** Ends the node, after all its descendants have been appended */
+	private void close(int node, int p) {
+		m_ends[node] = p;
+		m_subtreeEnds[node] = m_size;
+		if ((m_handler != null)
+				&& m_handler.nodeClosed(m_labelIds[node], node))
+			m_size = node;
+	}
+
+	/**
+	 * Returns a closed node of the tree being parsed, the node has no
+	 * parent. It is valid until the node is removed from the tree.
+	 */
+	AbcNode getNode(int node) {
+		return new AbcParseTree(m_size, m_labelIds, m_starts, m_ends,
+				m_subtreeEnds, m_buffer).getNode(node, null);
+	}
+
+	/** Appends a node without child, returns its end */
+	private int leaf(int labelId, int start, int end) {
+		close(open(labelId, start), end);
+		return end;
+	}
+
+	private void grow() {
+		int capacity = m_labelIds.length * 2;
+		m_labelIds = copy(m_labelIds, capacity);
+		m_starts = copy(m_starts, capacity);
+		m_ends = copy(m_ends, capacity);
+		m_subtreeEnds = copy(m_subtreeEnds, capacity);
+	}
+
+	private static int[] copy(int[] array, int capacity) {
+		int[] ret = new int[capacity];
+		System.arraycopy(array, 0, ret, 0, array.length);
+		return ret;
+	}
+
+	// ---------------------------------------------------------- chars
+
+	private char ch(int p) {
+		return (p < m_length) ? m_abc[p] : EOI;
+	}
+
+	private static boolean is(char c, int charClass) {
+		return (c < 128) && ((CLASSES[c] & charClass) != 0);
+	}
+
+	/** {@link AbcGrammar#LatinExtendedAndOtherAlphabet()} */
+	private static boolean isLatinExtended(char c) {
+		return ((c >= '\u0080') && (c <= '\u074F'))
+			|| ((c >= '\u0780') && (c <= '\u07BF'))
+			|| ((c >= '\u0900') && (c <= '\u137F'))
+			|| ((c >= '\u13A0') && (c <= '\u18AF'))
+			|| ((c >= '\u1900') && (c <= '\u197F'))
+			|| ((c >= '\u19E0') && (c <= '\u19FF'))
+			|| ((c >= '\u1D00') && (c <= '\u1D7F'))
+			|| ((c >= '\u1E00') && (c <= '\u2BFF'))
+			|| ((c >= '\u2E80') && (c <= '\u2FDF'))
+			|| ((c >= '\u2FF0') && (c <= '\u31BF'))
+			|| ((c >= '\u31F0') && (c <= '\uA4CF'))
+			|| ((c >= '\uAC00') && (c <= '\uD7AF'))
+			|| ((c >= '\uF900') && (c <= '\uFE0F'))
+			|| ((c >= '\uFE20') && (c <= '\uFFEF'));
+	}
+
+	private static boolean isVchar(char c) {
+		return is(c, VCHAR_CHAR) || ((c >= 128) && isLatinExtended(c));
+	}
+
+	/** Returns the length of the line terminator at p, 0 if none */
+	private int eol(int p) {
+		char c = ch(p);
+		if (c == '\n')
+			return 1;
+		if (c == '\r')
+			return (ch(p + 1) == '\n') ? 2 : 1;
+		return 0;
+	}
+
+	private int skip(int p, int charClass) {
+		while (is(ch(p), charClass))
+			p++;
+		return p;
+	}
+
+	/** <TT>true</TT> if a field of given letter starts at p */
+	private boolean isField(int p, char letter) {
+		return (ch(p) == letter) && (ch(p + 1) == ':');
+	}
+
+	private static UnsupportedInputException unsupported() {
+		return UNSUPPORTED;
+	}
+
+	// ---------------------------------------------------------- file
+
+	/** Book header, only made of comments and empty lines */
+	private int tuneBookHeader(int p) {
+		int node = open(ABC_TUNE_BOOK_HEADER, p);
+		while (true) {
+			if (eol(p) > 0)
+				p = leaf(EOLS, p, eols(p));
+			else if (ch(p) == '%')
+				p = comment(p);
+			else
+				break;
+		}
+		close(node, p);
+		return p;
+	}
+
+	/**
+	 * {@link AbcGrammar#Eols()}, returns its end. Only one kind of line
+	 * terminators is taken, a CR of a CRLF counts as a CR.
+	 */
+	private int eols(int p) {
+		if (eol(p) == 2) {
+			while ((ch(p) == '\r') && (ch(p + 1) == '\n'))
+				p += 2;
+			return p;
+		}
+		char c = ch(p);
+		while (ch(p) == c)
+			p++;
+		return p;
+	}
+
+	private int tune(int p) {
+		int node = open(ABC_TUNE, p);
+		p = music(header(p));
+		//white lines, empty lines or end of input
+		if (p < m_length) {
+			int q = skip(p, WSP_CHAR);
+			if ((q > p) && (eol(q) > 0)) {
+				do {
+					p = q + eol(q);
+					q = skip(p, WSP_CHAR);
+				} while ((q > p) && (eol(q) > 0));
+			} else if (eol(p) > 0)
+				p = eols(p);
+			else
+				throw unsupported();
+		}
+		close(node, p);
+		return p;
+	}
+
+	/** {@link AbcGrammar#Comment()} */
+	private int comment(int p) {
+		int node = open(COMMENT, p);
+		leaf(PERCENT, p, p + 1);
+		int q = ++p;
+		char c = ch(q);
+		if ((c != '%') && (is(c, WSP_CHAR | VCHAR_CHAR) || isLatinExtended(c))) {
+			q++;
+			while (is(ch(q), WSP_CHAR) || isVchar(ch(q)))
+				q++;
+		}
+		leaf(COMMENT_TEXT, p, q);
+		int length = eol(q);
+		if (length > 0)
+			q = leaf(EOL_, q, q + length);
+		else if (q == m_length)
+			leaf(EOI_, q, q);
+		else
+			throw unsupported();
+		close(node, q);
+		return q;
+	}
+
+	// ---------------------------------------------------------- header
+
+	private int header(int p) {
+		int node = open(ABC_HEADER, p);
+		p = titleFields(fieldNumber(p));
+		while (!isField(p, 'K')) {
+			char c = ch(p);
+			if (c == '%')
+				p = comment(p);
+			else if (is(c, FIELD_CHAR) && (ch(p + 1) == ':'))
+				p = textField(p);
+			else if (isField(p, 'M'))
+				p = fieldMeter(p);
+			else if (isField(p, 'L'))
+				p = fieldLength(p);
+			else
+				throw unsupported();
+		}
+		p = fieldKey(p);
+		close(node, p);
+		return p;
+	}
+
+	/** <TT>X:</TT>, with preceding empty lines and comments */
+	private int fieldNumber(int p) {
+		int node = open(FIELD_NUMBER, p);
+		while (true) {
+			if (eol(p) > 0)
+				p = eols(p);
+			else if (ch(p) == '%')
+				p = comment(p);
+			else
+				break;
+		}
+		if (!isField(p, 'X'))
+			throw unsupported();
+		p = skip(leaf(X_, p, p + 2), WSP_CHAR);
+		p = headerEol(digits(p));
+		close(node, p);
+		return p;
+	}
+
+	/** Comments and <TT>T:</TT> fields following <TT>X:</TT>, if any */
+	private int titleFields(int p) {
+		int node = open(TITLE_FIELDS, p);
+		int q = p;
+		while (ch(q) == '%')
+			q = comment(q);
+		if (!isField(q, 'T')) {
+			//comments are other fields
+			m_size = node;
+			return p;
+		}
+		do {
+			q = textField(q);
+			while (ch(q) == '%')
+				q = comment(q);
+		} while (isField(q, 'T'));
+		close(node, q);
+		return q;
+	}
+
+	/** Field whose value is a {@link AbcGrammar#TexText()} */
+	private int textField(int p) {
+		char letter = ch(p);
+		int node = open(FIELD_LABELS[letter], p);
+		p = skip(leaf(FIELD_NAME_LABELS[letter], p, p + 2), WSP_CHAR);
+		p = headerEol(leaf(TEX_TEXT, p, texText(p)));
+		close(node, p);
+		return p;
+	}
+
+	/** Returns the end of the {@link AbcGrammar#TexText()} */
+	private int texText(int p) {
+		while (true) {
+			char c = ch(p);
+			if (is(c, TEX_CHAR))
+				p++;
+			else if ((c == '\\') && isVchar(ch(p + 1))) {
+				p += 2;
+				while (isVchar(ch(p)))
+					p++;
+			} else if ((c >= 128) && isLatinExtended(c))
+				p++;
+			else
+				return p;
+		}
+	}
+
+	/** {@link AbcGrammar#HeaderEol()} */
+	private int headerEol(int p) {
+		int node = open(HEADER_EOL, p);
+		p = skip(p, WSP_CHAR);
+		if (ch(p) == '%')
+			p = comment(p);
+		else if (eol(p) > 0)
+			p += eol(p);
+		else if (p != m_length)
+			throw unsupported();
+		close(node, p);
+		return p;
+	}
+
+	private int fieldMeter(int p) {
+		int node = open(FIELD_METER, p);
+		p = skip(leaf(M_, p, p + 2), WSP_CHAR);
+		char c = ch(p);
+		int end = -1;
+		int label = -1;
+		if ((c == 'C') && (ch(p + 1) == '|')) {
+			end = p + 2;
+			label = C_BAR;
+		} else if (c == 'C') {
+			end = p + 1;
+			label = C;
+		} else if ((end = meterNum(p)) != -1)
+			label = METER_NUM;
+		else if (is(c, DIGIT_CHAR)) {
+			end = p + 1;
+			label = DIGIT_;
+		}
+		if (end != -1) {
+			int timeSignature = open(TIME_SIGNATURE, p);
+			p = leaf(label, p, end);
+			close(timeSignature, p);
+		}
+		p = headerEol(p);
+		close(node, p);
+		return p;
+	}
+
+	/** {@link AbcGrammar#MeterNum()}, returns its end, -1 if none */
+	private int meterNum(int p) {
+		p = meterNum2(p);
+		if (p != -1) {
+			int q = p;
+			while (ch(q) == ' ')
+				q++;
+			if (q > p) {
+				q = meterNum2(q);
+				if (q != -1)
+					p = q;
+			}
+		}
+		return p;
+	}
+
+	private int meterNum2(int p) {
+		if (ch(p) == '(')
+			p++;
+		if (!is(ch(p), DIGIT_CHAR))
+			return -1;
+		p = skip(p, DIGIT_CHAR);
+		while (((ch(p) == '+') || (ch(p) == '.'))
+				&& is(ch(p + 1), DIGIT_CHAR))
+			p = skip(p + 1, DIGIT_CHAR);
+		if (ch(p) == ')')
+			p++;
+		if ((ch(p) != '/') || !is(ch(p + 1), DIGIT_CHAR))
+			return -1;
+		return skip(p + 1, DIGIT_CHAR);
+	}
+
+	private int fieldLength(int p) {
+		int node = open(FIELD_LENGTH, p);
+		int start = skip(leaf(L_, p, p + 2), WSP_CHAR);
+		p = skip(start, DIGIT_CHAR);
+		if ((p == start) || (ch(p) != '/') || !is(ch(p + 1), DIGIT_CHAR))
+			throw unsupported();
+		p = headerEol(leaf(NOTE_LENGTH_STRICT, start,
+				skip(p + 1, DIGIT_CHAR)));
+		close(node, p);
+		return p;
+	}
+
+	/**
+	 * <TT>K:</TT> field, the key must be a base note with an optional
+	 * accidental and mode, immediately followed by the line end.
+	 */
+	private int fieldKey(int p) {
+		int node = open(FIELD_KEY, p);
+		p = skip(leaf(K_, p, p + 2), WSP_CHAR);
+		char c = ch(p);
+		if (!is(c, BASE_NOTE_CHAR) || (c >= 'a'))
+			throw unsupported();
+		int key = open(KEY, p);
+		int keyDef = open(KEY_DEF, p);
+		int q = leaf(BASE_NOTE, p, p + 1);
+		if ((ch(q) == '#') || (ch(q) == 'b'))
+			q = leaf(KEY_NOTE_ACCIDENTAL, q, q + 1);
+		q = mode(q);
+		if ((eol(q) == 0) && (q != m_length))
+			throw unsupported();
+		close(keyDef, q);
+		close(key, q);
+		q = headerEol(q);
+		close(node, q);
+		return q;
+	}
+
+	/** {@link AbcGrammar#Mode()}, if any */
+	private int mode(int p) {
+		for (int i = 0; i < MODES.length; i++) {
+			String mode = MODES[i];
+			int length = 0;
+			while ((length < mode.length())
+					&& (Character.toLowerCase(ch(p + length)) == mode
+							.charAt(length)))
+				length++;
+			if ((i == MODES.length - 1) && (length == 2))
+				//"in" of minor is optional only as a whole
+				length = 1;
+			if (length >= MODES_MIN_LENGTH[i]) {
+				int node = open(MODE, p);
+				leaf(MODES_LABELS[i], p, p + length);
+				close(node, p + length);
+				return p + length;
+			}
+		}
+		return p;
+	}
+
+	// ---------------------------------------------------------- music
+
+	/** Music lines and comments, up to an empty line or the end */
+	private int music(int p) {
+		int node = open(ABC_MUSIC, p);
+		while (true) {
+			int q = skip(p, WSP_CHAR);
+			char c = ch(q);
+			if ((eol(q) > 0) || (q == m_length))
+				break;
+			if (c == '%')
+				p = comment(q);
+			else if (is(c, ALPHA_CHAR) && (ch(q + 1) == ':'))
+				throw unsupported();
+			else
+				p = abcLine(q);
+		}
+		close(node, p);
+		return p;
+	}
+
+	private int abcLine(int p) {
+		int node = open(ABC_LINE, p);
+		int q = element(p);
+		if (q == -1)
+			throw unsupported();
+		do {
+			p = q;
+		} while ((q = element(p)) != -1);
+		p = abcEol(p);
+		close(node, p);
+		return p;
+	}
+
+	/** {@link AbcGrammar#AbcEol()}, without comment */
+	private int abcEol(int p) {
+		int node = open(ABC_EOL, p);
+		if (ch(p) == '\\')
+			p = skip(leaf(LINE_CONTINUATION, p, p + 1), WSP_CHAR);
+		if (eol(p) > 0)
+			p += eol(p);
+		else if (p != m_length)
+			throw unsupported();
+		close(node, p);
+		return p;
+	}
+
+	/**
+	 * Appends the {@link AbcGrammar#Element()} starting at p and returns
+	 * its end, returns -1 at the end of the line.
+	 */
+	private int element(int p) {
+		char c = ch(p);
+		if ((c == '\\') || (eol(p) > 0) || (p == m_length))
+			return -1;
+		int node = open(ELEMENT, p);
+		int q;
+		if (c == '(') {
+			if (is(ch(p + 1), DIGIT_CHAR) && (ch(p + 1) >= '2')) {
+				if (ch(p + 2) == ':')
+					throw unsupported();
+				int tuplet = open(TUPLET, p);
+				q = leaf(DIGITS_, p + 1, p + 2);
+				close(tuplet, q);
+			} else
+				q = leaf(SLUR_BEGIN, p, p + 1);
+		} else if (c == ')')
+			q = leaf(SLUR_END, p, p + 1);
+		else if (is(c, WSP_CHAR))
+			q = leaf(SPACE, p, skip(p, WSP_CHAR));
+		else if ((c == '[') && is(ch(p + 1), DIGIT_CHAR)) {
+			int nthRepeat = open(NTH_REPEAT, p);
+			q = nthRepeatNum(leaf(BARLINE, p, p + 1));
+			close(nthRepeat, q);
+		} else if ((q = nthRepeatBarline(p)) != -1) {
+			int nthRepeat = open(NTH_REPEAT, p);
+			q = nthRepeatNum(leaf(BARLINE, p, q));
+			close(nthRepeat, q);
+		} else if (c == ']')
+			q = leaf(END_NTH_REPEAT, p, p + 1);
+		else if ((q = barline(p)) != -1)
+			q = leaf(BARLINE, p, q);
+		else if (c == '.') {
+			int gracing = open(GRACING, p);
+			q = leaf(DOT, p, p + 1);
+			close(gracing, q);
+		} else if (is(c, USERDEF_CHAR)) {
+			int gracing = open(GRACING, p);
+			q = leaf(USERDEF_SYMBOL, p, p + 1);
+			close(gracing, q);
+		} else if ((c == '<') || (c == '>')) {
+			q = p + 1;
+			while (ch(q) == c)
+				q++;
+			q = leaf(BROKEN_RHYTHM, p, q);
+		} else if (is(c, BASE_NOTE_CHAR) || (c == '^') || (c == '_')
+				|| (c == '=')) {
+			int stem = open(STEM, p);
+			q = note(p, false);
+			close(stem, q);
+		} else if ((c == 'z') || (c == 'x') || (c == 'y')) {
+			int rest = open(REST, p);
+			q = leaf((c == 'z') ? NORMAL_REST : (c == 'x') ? INVISIBLE_REST
+					: INAUDIBLE_REST, p, p + 1);
+			q = leaf(NOTE_LENGTH, q, noteLength(q));
+			close(rest, q);
+		} else if (c == '[')
+			q = multiNote(p);
+		else if (c == 'Z') {
+			int rest = open(MULTI_MEASURE_REST, p);
+			q = leaf(Z, p, p + 1);
+			if (is(ch(q), DIGIT_CHAR))
+				q = digits(q);
+			close(rest, q);
+		} else if (c == '/')
+			q = leaf(MEASURE_REPEAT, p, (ch(p + 1) == '/') ? p + 2 : p + 1);
+		else if (c == '&')
+			q = leaf(ROLLBACK, p, p + 1);
+		else
+			throw unsupported();
+		close(node, q);
+		return q;
+	}
+
+	/**
+	 * Returns the end of <TT>:*|</TT> if it is followed by a digit, -1
+	 * otherwise
+	 */
+	private int nthRepeatBarline(int p) {
+		while (ch(p) == ':')
+			p++;
+		return ((ch(p) == '|') && is(ch(p + 1), DIGIT_CHAR)) ? p + 1 : -1;
+	}
+
+	/** {@link AbcGrammar#NthRepeatNum()} */
+	private int nthRepeatNum(int p) {
+		int node = open(NTH_REPEAT_NUM, p);
+		p = digits(p);
+		while (((ch(p) == ',') || (ch(p) == '-'))
+				&& is(ch(p + 1), DIGIT_CHAR))
+			p = digits(p + 1);
+		close(node, p);
+		return p;
+	}
+
+	private int digits(int p) {
+		int end = skip(p, DIGIT_CHAR);
+		if (end == p)
+			throw unsupported();
+		return leaf(DIGITS_, p, end);
+	}
+
+	/**
+	 * Returns the end of the bar line starting at p, -1 if none. Invisible,
+	 * triple and dashed bar lines are not supported.
+	 */
+	private int barline(int p) {
+		char c = ch(p);
+		if ((c == '[') && ((ch(p + 1) == ']')
+				|| ((ch(p + 1) == '|') && (ch(p + 2) == ']'))))
+			throw unsupported();
+		if ((c == '|') && (((ch(p + 1) == '[') || (ch(p + 1) == ']')
+				|| (ch(p + 1) == '|')) && (ch(p + 2) == '|')))
+			throw unsupported();
+		if ((c == '.') && (ch(p + 1) == '|'))
+			throw unsupported();
+		if ((c == ':') && (ch(p + 1) == ':')) {
+			int q = p + 2;
+			while (ch(q) == ':')
+				q++;
+			return (ch(q) == '|') ? q + 1 : p + 2;
+		}
+		int q = p;
+		while (ch(q) == ':')
+			q++;
+		while (ch(q) == '[')
+			q++;
+		if (ch(q) != '|')
+			return -1;
+		while (ch(q) == '|')
+			q++;
+		while (ch(q) == ']')
+			q++;
+		while (ch(q) == ':')
+			q++;
+		return q;
+	}
+
+	/**
+	 * {@link AbcGrammar#Note()}, out of chords the spaces before a tie
+	 * are a child of the note, and they are even when no tie follows.
+	 */
+	private int note(int p, boolean inChord) {
+		int node = open(NOTE, p);
+		int pitch = open(PITCH, p);
+		char c = ch(p);
+		if ((c == '^') || (c == '_')) {
+			char next = ch(p + 1);
+			if (next == '/')
+				throw unsupported();
+			p = leaf(ACCIDENTAL, p, (next == c) ? p + 2 : p + 1);
+		} else if (c == '=')
+			p = leaf(ACCIDENTAL, p, p + 1);
+		if (!is(ch(p), BASE_NOTE_CHAR))
+			throw unsupported();
+		p = leaf(BASE_NOTE, p, p + 1);
+		c = ch(p);
+		if ((c == '\'') || (c == ',')) {
+			int q = p;
+			while (ch(q) == c)
+				q++;
+			p = leaf(OCTAVE, p, q);
+		}
+		close(pitch, p);
+		p = leaf(NOTE_LENGTH, p, noteLength(p));
+		int q = skip(p, WSP_CHAR);
+		if (q > p) {
+			if (inChord)
+				throw unsupported();
+			leaf(WSPS_, p, q);
+		}
+		if (ch(q) == '-')
+			p = leaf(TIE, q, q + 1);
+		close(node, p);
+		return p;
+	}
+
+	/** Returns the end of the {@link AbcGrammar#NoteLength()} */
+	private int noteLength(int p) {
+		p = skip(p, DIGIT_CHAR);
+		while (ch(p) == '/')
+			p++;
+		return skip(p, DIGIT_CHAR);
+	}
+
+	/** Stem of a chord, <TT>[CEG]</TT> */
+	private int multiNote(int p) {
+		int stem = open(STEM, p);
+		int node = open(MULTI_NOTE, p);
+		p = leaf(OPEN_BRACKET, p, p + 1);
+		do {
+			p = note(p, true);
+		} while (ch(p) != ']');
+		p = leaf(CLOSE_BRACKET, p, p + 1);
+		p = leaf(NOTE_LENGTH, p, noteLength(p));
+		if (ch(p) == '-')
+			p = leaf(TIE, p, p + 1);
+		close(node, p);
+		close(stem, p);
+		return p;
+	}
+
+}
@@ -0,0 +1,98 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.parser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Reads a whole ABC file through a memory mapped buffer, decoding it with
+ * an explicit charset.
+ * <p>
+ * The decoded chars are returned in an array of the exact text length, so
+ * that it can be given as is to the grammar and to {@link AbcInputBuffer}.
+ * For single byte charsets (and ASCII only UTF-8 files) the file is decoded
+ * directly in that array, otherwise it is trimmed once. Malformed or
+ * unmappable bytes are replaced, as with a <TT>FileReader</TT>.
+ */
+class AbcFileDecoder {
+
+	private AbcFileDecoder() {
+		//
+	}
+
+	/**
+	 * Returns the content of the file decoded with the given charset.
+	 * 
+	 * @param file
+	 *            The file to be read.
+	 * @param charset
+	 *            Charset of the file.
+	 * @throws IOException
+	 *             If the file can't be read or is too big to be mapped.
+	 */
+	static char[] decode(File file, Charset charset) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE)
+				throw new IOException("File too big: " + file + " (" + size
+						+ " bytes)");
+			MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY,
+					0, size);
+			return decode(bytes, charset);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Returns the bytes decoded with the given charset, in an array of the
+	 * exact text length.
+	 */
+	static char[] decode(ByteBuffer bytes, Charset charset)
+			throws CharacterCodingException {
+		CharsetDecoder decoder = charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		char[] chars = new char[(int) Math.ceil(bytes.remaining()
+				* (double) decoder.maxCharsPerByte())];
+		CharBuffer out = CharBuffer.wrap(chars);
+		CoderResult result = decoder.decode(bytes, out, true);
+		if (!result.isUnderflow())
+			result.throwException();
+		result = decoder.flush(out);
+		if (!result.isUnderflow())
+			result.throwException();
+		if (out.position() == chars.length)
+			return chars;
+		char[] ret = new char[out.position()];
+		System.arraycopy(chars, 0, ret, 0, ret.length);
+		return ret;
+	}
+
+}
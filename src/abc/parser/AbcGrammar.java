@@ -24,6 +24,16 @@ public class AbcGrammar extends BaseParser implements AbcTokens {
 
 	private static AbcGrammar instance = null;
 	
+	/** One grammar for each parsing thread, see {@link #getThreadInstance()} */
+	private static final ThreadLocal threadInstances = new ThreadLocal() {
+		protected Object initialValue() {
+			return new AbcGrammar();
+		}
+	};
+
+	/** Rule tree built once by {@link #getAbcFileRule()} */
+	private Rule abcFileRule = null;
+	
 	protected static synchronized AbcGrammar getInstance() {
 		if (instance == null) {
 			instance = new AbcGrammar();
@@ -31,8 +41,26 @@ public class AbcGrammar extends BaseParser implements AbcTokens {
 		return instance;
 	}
 	
+	/**
+	 * Returns the grammar owned by the current thread, so that several
+	 * threads can parse at the same time without sharing rules.
+	 */
+	protected static AbcGrammar getThreadInstance() {
+		return (AbcGrammar) threadInstances.get();
+	}
+	
 	private AbcGrammar() {}
 	
+	/**
+	 * Returns the {@link #AbcFile()} rule tree, built at first call and
+	 * reused by later parsings.
+	 */
+	protected Rule getAbcFileRule() {
+		if (abcFileRule == null)
+			abcFileRule = AbcFile();
+		return abcFileRule;
+	}
+	
 	/**
 	 * abc-file ::= *(abc-tune / comment / xcommand / file-field / text-line /
 	 * tex)
@@ -0,0 +1,47 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.parser;
+
+import org.parboiled.parserunners.RecoveringParseRunner;
+import org.parboiled.support.ParsingResult;
+
+/**
+ * The default {@link ParserBackend}, running the Parboiled
+ * {@link AbcGrammar} with error recovery. Each thread uses its own grammar
+ * instance.
+ */
+public class AbcGrammarBackend implements ParserBackend {
+
+	public AbcNode parse(char[] abc, int lineOffset, int indexOffset) {
+		ParseMetrics metrics = ParseMetrics.current();
+		long[] phase = (metrics != null) ? ParseMetrics.startPhase() : null;
+		AbcGrammar grammar = AbcGrammar.getThreadInstance();
+		// AbcGrammar parser = Parboiled.createParser(AbcGrammar.class);
+		ParsingResult<?> result = new RecoveringParseRunner<Object>(
+				grammar.getAbcFileRule()).run(abc);
+		if (metrics != null) {
+			metrics.endPhase(ParseMetrics.GRAMMAR, phase);
+			phase = ParseMetrics.startPhase();
+		}
+		AbcNode ret = new AbcNode(result.parseTreeRoot, result.inputBuffer,
+				result.parseErrors, new AbcInputBuffer(abc, lineOffset,
+						indexOffset));
+		if (metrics != null)
+			metrics.endPhase(ParseMetrics.TREE, phase);
+		return ret;
+	}
+
+}
@@ -0,0 +1,727 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.parser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Stack;
+
+import abc.instructions.Xcommand;
+import abc.notation.Accidental;
+import abc.notation.Clef;
+import abc.notation.Fraction;
+import abc.notation.KeySignature;
+import abc.notation.MultiPartsDefinition;
+import abc.notation.Music;
+import abc.notation.MusicElement;
+import abc.notation.Note;
+import abc.notation.RepeatedPart;
+import abc.notation.RepeatedPartAbstract;
+import abc.notation.Tempo;
+import abc.notation.TimeSignature;
+
+/**
+ * A line oriented scanner which reads only header fields of a tune book,
+ * without the grammar. For each tune, fields from <TT>X:</TT> to
+ * <TT>K:</TT> are read, the music lines are skipped until the next
+ * <TT>X:</TT> field. Fields ending with a <TT>\</TT> line continuation
+ * are joined with the next line.
+ * <p>
+ * Header fields are set like {@link AbcParserAbstract#parseAbcHeader(AbcNode)}
+ * does: tune infos, and time signature, tempo, parts and key signature for
+ * the music. Each tune keeps its position in the stream (see
+ * {@link AbcTune#getSourceStartIndex()}) so that it can be fully parsed
+ * later with {@link TuneBookParser#parseTune(Reader, AbcTune)}.
+ */
+class AbcHeaderScanner {
+
+	private AbcLineReader m_reader;
+
+	/** Number of chars read so far */
+	private int m_index = 0;
+
+	/** Index of the last line read */
+	private int m_lineIndex = 0;
+
+	/** Index of comment lines preceding the last line read, -1 if none */
+	private int m_preludeIndex = -1;
+
+	private int m_preludeLine = -1;
+
+	/** The <TT>X:</TT> line of the next tune, <TT>null</TT> if none */
+	private String m_nextTuneLine = null;
+
+	private int m_nextTuneStartIndex = 0;
+
+	private int m_nextTuneStartLine = 1;
+
+	private boolean m_tuneBookHeaderScanned = false;
+
+	AbcHeaderScanner(Reader reader) {
+		m_reader = new AbcLineReader(reader);
+	}
+
+	/**
+	 * Reads the tune book header, the text before the first tune, and puts
+	 * its fields and instructions into the given tune book.
+	 */
+	void scanTuneBookHeader(AbcTuneBook tuneBook) throws IOException {
+		StringBuffer headerText = new StringBuffer();
+		AbcTune infos = new AbcTune();
+		String line;
+		//a continued field may end on the next tune
+		while ((m_nextTuneLine == null) && ((line = readLine()) != null)) {
+			if (line.startsWith("X:")) {
+				setNextTune(line);
+				break;
+			}
+			headerText.append(line);
+			if (line.startsWith("%%")) {
+				infos.addInstruction(new Xcommand(
+						AbcNode.getTexTextValue(trimEol(line.substring(2)))));
+			} else if (isField(line) && (line.charAt(0) != 'T')) {
+				scanTextField(infos, line.charAt(0),
+						readContinuation(getFieldValue(line), headerText));
+			}
+		}
+		if (m_nextTuneLine != null)
+			headerText.setLength(m_nextTuneStartIndex);
+		tuneBook.setAbcHeaderString(headerText.toString());
+		tuneBook.getInstructions().addAll(infos.getInstructions());
+		tuneBook.setBookInfos(infos.getTuneInfos());
+		m_tuneBookHeaderScanned = true;
+	}
+
+	/**
+	 * Returns the next tune of the stream with header fields only,
+	 * <TT>null</TT> if there is no more tune.
+	 */
+	AbcTune nextTune() throws IOException {
+		if (!m_tuneBookHeaderScanned)
+			scanTuneBookHeader(new AbcTuneBook());
+		if (m_nextTuneLine == null)
+			return null;
+		AbcTune tune = new AbcTune();
+		Music music = tune.getMusic();
+		int startIndex = m_nextTuneStartIndex;
+		int startLine = m_nextTuneStartLine;
+		StringBuffer headerText = new StringBuffer(m_nextTuneLine);
+		String number = getFieldValue(m_nextTuneLine);
+		int digits = 0;
+		while ((digits < number.length())
+				&& Character.isDigit(number.charAt(digits)))
+			digits++;
+		if (digits > 0) {
+			try {
+				tune.setReferenceNumber(Integer.parseInt(
+						number.substring(0, digits)));
+			} catch (NumberFormatException e) {
+				// no reference number
+			}
+		}
+		m_nextTuneLine = null;
+
+		//only first A: F: O: R: M: L: Q: P: fields are used
+		boolean[] seen = new boolean[128];
+		boolean titlesDone = false;
+		String meter = null, length = null, tempo = null, parts = null;
+		CharStreamPosition meterPos = null, tempoPos = null;
+		String key = null;
+		CharStreamPosition keyPos = null;
+		boolean inHeader = true;
+		String line;
+		//a continued field may end on the next tune
+		while ((m_nextTuneLine == null) && ((line = readLine()) != null)) {
+			if (line.startsWith("X:")) {
+				setNextTune(line);
+				break;
+			}
+			if (!inHeader) {
+				//text fields may also be found between music lines
+				if (isField(line))
+					scanTextField(tune, line.charAt(0),
+							readContinuation(getFieldValue(line), null));
+				continue;
+			}
+			if (isField(line)) {
+				headerText.append(line);
+				char field = line.charAt(0);
+				String value = getFieldValue(line);
+				//positions are on the first line of the field
+				int lineNumber = m_reader.getLinesRead();
+				int lineIndex = m_lineIndex;
+				String firstValue = stripComment(value);
+				value = readContinuation(value, headerText);
+				if (field == 'T') {
+					if (!titlesDone)
+						tune.addTitle(AbcNode.getTexTextValue(value));
+					continue;
+				}
+				titlesDone = true;
+				if ((field < seen.length) && seen[field]
+						&& ("AFORMLQP".indexOf(field) != -1))
+					continue;
+				if (field < seen.length)
+					seen[field] = true;
+				switch (field) {
+				case 'M':
+					meter = stripComment(value);
+					//the meter field includes its end of line
+					meterPos = getPosition(lineNumber, lineIndex, 0,
+							line.length());
+					break;
+				case 'L':
+					length = stripComment(value);
+					break;
+				case 'Q':
+					tempo = stripComment(value);
+					tempoPos = getTempoPosition(lineNumber, lineIndex, line,
+							line.indexOf(firstValue, 2));
+					break;
+				case 'P':
+					parts = stripComment(value);
+					break;
+				case 'K':
+					key = stripComment(value);
+					//the key ends before the comment, if any
+					int keyColumn = line.indexOf(firstValue, 2);
+					int keyEnd = line.indexOf('%', keyColumn);
+					keyPos = getPosition(lineNumber, lineIndex, keyColumn,
+							(keyEnd != -1) ? keyEnd : trimEol(line).length());
+					inHeader = false;
+					break;
+				default:
+					scanTextField(tune, field, value);
+				}
+			} else if (line.startsWith("%")) {
+				headerText.append(line);
+			} else {
+				//music or blank line, header is over
+				inHeader = false;
+			}
+		}
+
+		short defaultNoteLength = Note.EIGHTH;
+		if (meter != null) {
+			TimeSignature timeSig = scanMeter(meter);
+			if (timeSig != null) {
+				timeSig.setCharStreamPosition(meterPos);
+				addToMusic(music, timeSig);
+				defaultNoteLength = timeSig.getDefaultNoteLength();
+			}
+		}
+		if (length != null) {
+			try {
+				short ret = Note.convertToNoteLengthStrict(
+						scanNoteLengthStrict(length));
+				if (ret != -1)
+					defaultNoteLength = ret;
+			} catch (IllegalArgumentException e) {
+				// keep default
+			}
+		}
+		if (tempo != null) {
+			Tempo t = scanTempo(tempo, defaultNoteLength);
+			if (t != null) {
+				t.setCharStreamPosition(tempoPos);
+				addToMusic(music, t);
+			}
+		}
+		if (parts != null)
+			scanParts(tune, parts);
+		if (key != null) {
+			KeySignature keySig = scanKey(key);
+			if (keySig != null) {
+				keySig.setCharStreamPosition(keyPos);
+				addToMusic(music, keySig);
+			}
+		}
+
+		tune.setAbcString(headerText.toString());
+		int endIndex = (m_nextTuneLine != null) ? m_nextTuneStartIndex
+				: m_index;
+		tune.setSourceSpan(startIndex, endIndex, startLine);
+		return tune;
+	}
+
+	private void addToMusic(Music music, MusicElement me) {
+		music.getVoice("1").addElement(me);
+	}
+
+	/**
+	 * Reads a line, and remembers where comment lines preceding it begin.
+	 */
+	private String readLine() throws IOException {
+		String line = m_reader.readLine();
+		m_lineIndex = m_index;
+		if (line != null) {
+			m_index += line.length();
+			if (line.startsWith("%")) {
+				if (m_preludeIndex == -1) {
+					m_preludeIndex = m_lineIndex;
+					m_preludeLine = m_reader.getLinesRead();
+				}
+			} else if (!line.startsWith("X:")) {
+				m_preludeIndex = -1;
+			}
+		}
+		return line;
+	}
+
+	/**
+	 * Remembers the <TT>X:</TT> line just read, comments lines preceding it
+	 * belong to its tune.
+	 */
+	private void setNextTune(String line) {
+		m_nextTuneLine = line;
+		if (m_preludeIndex != -1) {
+			m_nextTuneStartIndex = m_preludeIndex;
+			m_nextTuneStartLine = m_preludeLine;
+		} else {
+			m_nextTuneStartIndex = m_lineIndex;
+			m_nextTuneStartLine = m_reader.getLinesRead();
+		}
+		m_preludeIndex = -1;
+	}
+
+	/**
+	 * Returns the position in the line starting at <TT>lineIndex</TT>, from
+	 * the given column (starting at 0) to the end column, excluded.
+	 */
+	private static CharStreamPosition getPosition(int lineNumber,
+			int lineIndex, int column, int endColumn) {
+		return new CharStreamPosition(lineNumber, column + 1,
+				lineIndex + column, lineIndex + endColumn);
+	}
+
+	/**
+	 * Returns the position of the tempo in a <TT>Q:</TT> line, after a
+	 * leading text in quotes. Like the grammar, a tempo with a note length
+	 * ends with the line, including the text after it, and a tempo made of
+	 * digits only ends with them.
+	 */
+	private static CharStreamPosition getTempoPosition(int lineNumber,
+			int lineIndex, String line, int column) {
+		if ((column < line.length()) && (line.charAt(column) == '"')) {
+			int quote = line.indexOf('"', column + 1);
+			if (quote != -1)
+				column = skipWhiteSpaces(line, quote + 1);
+		}
+		int end = column;
+		while ((end < line.length()) && Character.isDigit(line.charAt(end)))
+			end++;
+		String rest = trimEol(line.substring(end));
+		if (rest.trim().startsWith("/") || rest.trim().startsWith("=")
+				|| line.startsWith("C", column))
+			end += rest.length();
+		return getPosition(lineNumber, lineIndex, column, end);
+	}
+
+	/**
+	 * Joins a field value ending with a <TT>\</TT> line continuation with
+	 * the following lines, which are appended to <TT>text</TT> unless it is
+	 * <TT>null</TT>. An <TT>X:</TT> line ends the field, as the next tune.
+	 */
+	private String readContinuation(String value, StringBuffer text)
+			throws IOException {
+		String line;
+		while (value.endsWith("\\") && ((line = readLine()) != null)) {
+			if (line.startsWith("X:")) {
+				setNextTune(line);
+				break;
+			}
+			if (text != null)
+				text.append(line);
+			value = value.substring(0, value.length() - 1) + trimEol(line);
+		}
+		return value;
+	}
+
+	private void scanTextField(AbcTune tune, char field, String value) {
+		String text = AbcNode.getTexTextValue(value);
+		switch (field) {
+		case 'A': tune.setArea(text); break;
+		case 'B': tune.addBook(text); break;
+		case 'C': tune.addComposer(text); break;
+		case 'D': tune.addDiscography(text); break;
+		case 'F': tune.setFileURL(text); break;
+		case 'G': tune.addGroup(text); break;
+		case 'H': tune.addHistory(text); break;
+		case 'N': tune.addNotes(text); break;
+		case 'O': tune.setOrigin(text); break;
+		case 'R': tune.setRhythm(text); break;
+		case 'S': tune.addSource(text); break;
+		case 'T': tune.addTitle(text); break;
+		case 'Z': tune.addTranscriptionNotes(text); break;
+		case 'W': tune.addWords(text); break;
+		}
+	}
+
+	/**
+	 * time-signature ::= "C" / "C|" / "none" / meter-num / DIGIT
+	 */
+	private TimeSignature scanMeter(String meter) {
+		try {
+			if (meter.equals("C|"))
+				return new TimeSignature(2, 2);
+			else if (meter.equals("C"))
+				return new TimeSignature(4, 4);
+			else if (meter.equalsIgnoreCase("none"))
+				return TimeSignature.SIGNATURE_NONE;
+			else if ((meter.length() == 1) && Character.isDigit(meter.charAt(0)))
+				return new TimeSignature(Integer.parseInt(meter),
+						Note.EIGHTH);
+			int space = meter.indexOf(' ');
+			if (space != -1)
+				meter = meter.substring(0, space);
+			int slash = meter.indexOf('/');
+			if (slash == -1)
+				return null;
+			// num may contain x+y+z
+			String num = meter.substring(0, slash).replace('.', '+')
+				.replaceAll("\\(", "").replaceAll("\\)", "");
+			String[] sumOfNumS = num.split("\\+");
+			int[] sumOfNum = new int[sumOfNumS.length];
+			for (int i = 0; i < sumOfNumS.length; i++) {
+				sumOfNum[i] = Integer.parseInt(sumOfNumS[i]);
+			}
+			return new TimeSignature(sumOfNum,
+					Integer.parseInt(meter.substring(slash + 1)));
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * note-length-strict ::= 1*DIGIT "/" 1*DIGIT
+	 */
+	private Fraction scanNoteLengthStrict(String fraction) {
+		String[] numbers = fraction.trim().split("/");
+		int num = 1;
+		int denom = 1;
+		try {
+			num = Integer.parseInt(numbers[0].trim());
+		} catch (Exception e) {}
+		try {
+			denom = Integer.parseInt(numbers[1].trim());
+		} catch (Exception e) {}
+		return new Fraction(num, denom);
+	}
+
+	/**
+	 * tempo ::= (note-length-strict "=" 1*DIGIT) /
+	 * ("C" [note-length] "=" 1*DIGIT) / 1*DIGIT
+	 * <p>
+	 * Texts in quotes around the tempo are ignored.
+	 */
+	private Tempo scanTempo(String tempo, short defaultNoteLength) {
+		tempo = tempo.replaceAll("\"[^\"]*\"?", " ").trim();
+		int equal = tempo.indexOf('=');
+		try {
+			if (equal == -1) {
+				//Q:DIGITS
+				int digits = 0;
+				while ((digits < tempo.length())
+						&& Character.isDigit(tempo.charAt(digits)))
+					digits++;
+				if (digits == 0)
+					return null;
+				return new Tempo(defaultNoteLength,
+						Short.parseShort(tempo.substring(0, digits)));
+			}
+			String length = tempo.substring(0, equal).trim();
+			String value = tempo.substring(equal + 1).trim();
+			int digits = 0;
+			while ((digits < value.length())
+					&& Character.isDigit(value.charAt(digits)))
+				digits++;
+			short bpm = Short.parseShort(value.substring(0, digits));
+			if (length.startsWith("C")) {
+				//Q:C [note-length] = DIGITS
+				Fraction fraction = scanNoteLength(length.substring(1).trim());
+				return new Tempo(
+						(short)(defaultNoteLength * fraction.floatValue()),
+						bpm);
+			}
+			try {
+				return new Tempo(Note.convertToNoteLengthStrict(
+						scanNoteLengthStrict(length)), bpm);
+			} catch (IllegalArgumentException e) {
+				return new Tempo(defaultNoteLength, bpm);
+			}
+		} catch (RuntimeException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * note-length ::= [1*DIGIT] ["/" [1*DIGIT]] or "/", "//", "///"...
+	 */
+	private Fraction scanNoteLength(String s) {
+		Fraction fraction = new Fraction(1, 1);
+		if (s.length() > 0) {
+			if (s.replace('/', ' ').trim().length() > 0) {
+				int pos = s.indexOf('/');
+				String num = pos != -1 ? s.substring(0, pos) : s;
+				pos = s.lastIndexOf('/');
+				String denom = pos != -1 ? s.substring(pos + 1) : "1";
+				int iNum = num.length() > 0 ? Integer.parseInt(num) : 1;
+				int iDenom = denom.length() > 0 ? Integer.parseInt(denom) : 1;
+				//avoid 0-length and divide by zero!
+				if ((iNum != 0) && (iDenom != 0)) {
+					fraction.setNumerator(iNum);
+					fraction.setDenominator(iDenom);
+				}
+			} else {
+				fraction.setDenominator((int) Math.pow(2, s.length()));
+			}
+		}
+		return fraction;
+	}
+
+	/**
+	 * parts-play-order ::= 1*( ALPHA / ( "(" parts-play-order ")" ) *DIGIT)
+	 */
+	private void scanParts(AbcTune tune, String parts) {
+		Stack lifo = new Stack();
+		RepeatedPartAbstract last = new MultiPartsDefinition();
+		lifo.push(last);
+		int length = parts.length();
+		for (int i = 0; i < length; i++) {
+			char c = parts.charAt(i);
+			if (c == '(') {
+				last = new MultiPartsDefinition();
+				lifo.push(last);
+			} else if (c == ')') {
+				if (lifo.size() >= 2) {
+					last = (MultiPartsDefinition) lifo.pop();
+					((MultiPartsDefinition) lifo.lastElement())
+						.addPart(last);
+				} else
+					last = null;
+			} else if ((c >= 'A') && (c <= 'Z')) {
+				last = new RepeatedPart(tune.createPart(String.valueOf(c)));
+				((MultiPartsDefinition) lifo.lastElement()).addPart(last);
+			} else if (Character.isDigit(c)) {
+				int end = i + 1;
+				while ((end < length) && Character.isDigit(parts.charAt(end)))
+					end++;
+				if (last != null)
+					last.setNumberOfRepeats(
+						(byte) Integer.parseInt(parts.substring(i, end)));
+				i = end - 1;
+			}
+		}
+		//if more opened parenth than closed
+		while (lifo.size() > 1) {
+			last = (MultiPartsDefinition) lifo.pop();
+			((MultiPartsDefinition) lifo.lastElement()).addPart(last);
+		}
+		tune.setMultiPartsDefinition((MultiPartsDefinition) lifo.pop());
+	}
+
+	/**
+	 * key ::= (key-def [1*WSP clef]) / clef / "HP" / "Hp"
+	 * <p>
+	 * key-def ::= base-note [key-note-accidental] [mode]
+	 * *(1*WSP global-accidental)
+	 */
+	private KeySignature scanKey(String key) {
+		if (key.equals("Hp")) {
+			//K:Hp = A major with natural G (only F# and C#)
+			KeySignature ret = new KeySignature(Note.A, KeySignature.MAJOR);
+			ret.setAccidental(Note.G, Accidental.NATURAL);
+			return ret;
+		}
+		int length = key.length();
+		if (length == 0)
+			return null;
+		int i = 0;
+		byte baseNote = Note.C;
+		Accidental keyAcc = Accidental.NATURAL;
+		char c = key.charAt(0);
+		if ("CDEFGAB".indexOf(c) != -1) {
+			baseNote = Note.convertToNoteType(String.valueOf(c));
+			i++;
+			if ((i < length) && ((key.charAt(i) == '#') || (key.charAt(i) == 'b'))) {
+				keyAcc = KeySignature.convertToAccidental(
+						String.valueOf(key.charAt(i)));
+				i++;
+			}
+		} else if ("^_=".indexOf(c) == -1) {
+			//only a clef, or HP: no key
+			return null;
+		}
+		i = skipWhiteSpaces(key, i);
+		//[mode]
+		byte keyMode = KeySignature.MAJOR;
+		int end = i;
+		while ((end < length) && Character.isLetter(key.charAt(end)))
+			end++;
+		if (end > i) {
+			String mode = key.substring(i, end).toLowerCase();
+			boolean isMode = true;
+			if (mode.startsWith("maj"))
+				keyMode = KeySignature.MAJOR;
+			else if (mode.startsWith("lyd"))
+				keyMode = KeySignature.LYDIAN;
+			else if (mode.startsWith("ion"))
+				keyMode = KeySignature.IONIAN;
+			else if (mode.startsWith("mix"))
+				keyMode = KeySignature.MIXOLYDIAN;
+			else if (mode.startsWith("dor"))
+				keyMode = KeySignature.DORIAN;
+			else if (mode.startsWith("aeo"))
+				keyMode = KeySignature.AEOLIAN;
+			else if (mode.startsWith("phr"))
+				keyMode = KeySignature.PHRYGIAN;
+			else if (mode.startsWith("loc"))
+				keyMode = KeySignature.LOCRIAN;
+			else if (mode.startsWith("exp"))
+				keyMode = KeySignature.OTHER;
+			else if (mode.startsWith("m"))
+				keyMode = KeySignature.MINOR;
+			else
+				isMode = false;
+			if (isMode)
+				i = end;
+		}
+		Note keyNote = new Note(baseNote, keyAcc);
+		KeySignature keySig = new KeySignature(keyNote.getStrictHeight(),
+				keyNote.getAccidental(), keyMode);
+
+		//*[accidental base-note] then [clef]
+		Clef clef = null;
+		String[] tokens = key.substring(i).trim().split("\\s+");
+		for (int j = 0; j < tokens.length; j++) {
+			String token = tokens[j];
+			if (token.length() == 0)
+				continue;
+			c = token.charAt(0);
+			if ((c == '^') || (c == '_') || (c == '=')) {
+				int k = 0;
+				while ((k < token.length())
+						&& ("^_=/3".indexOf(token.charAt(k)) != -1))
+					k++;
+				if ((k < token.length())
+						&& ("CDEFGABcdefgab".indexOf(token.charAt(k)) != -1)) {
+					try {
+						Accidental acc = Accidental.convertToAccidental(
+								token.substring(0, k));
+						keySig.setAccidental(Note.getStrictHeight(
+								Note.convertToNoteType(token.substring(k, k + 1))),
+								acc);
+					} catch (IllegalArgumentException e) {
+						// not a valid accidental
+					}
+				}
+			} else {
+				clef = scanClef(clef, token);
+			}
+		}
+		if (clef != null)
+			keySig.setClef(clef);
+		return keySig;
+	}
+
+	/**
+	 * clef ::= ( ("clef=" (clef-note / clef-name)) / clef-name)
+	 * [clef-line] [1*WSP clef-octave] [1*WSP clef-middle]
+	 */
+	private Clef scanClef(Clef clef, String token) {
+		String lower = token.toLowerCase();
+		if (lower.startsWith("clef=")) {
+			token = token.substring(5);
+			lower = lower.substring(5);
+			if ((token.length() > 0) && ("GCFP".indexOf(token.charAt(0)) != -1)
+					&& ((token.length() == 1)
+						|| !Character.isLetter(token.charAt(1))))
+				return scanClefLine(Clef.convertFromNameOrNote("",
+						token.replaceAll("[1-5]", "")), token);
+		}
+		String[] names = { "treble", "alto", "tenor", "baritone", "bass",
+				"mezzo", "soprano", "perc", "none" };
+		for (int i = 0; i < names.length; i++) {
+			if (lower.startsWith(names[i]))
+				return scanClefLine(Clef.convertFromNameOrNote(names[i], ""),
+						token);
+		}
+		if (clef == null)
+			return null;
+		if (lower.equals("+8"))
+			clef.setOctaveTransposition((byte) 1);
+		else if (lower.equals("-8"))
+			clef.setOctaveTransposition((byte) -1);
+		else if (lower.startsWith("m=") || lower.startsWith("middle=")) {
+			String middle = token.substring(token.indexOf('=') + 1);
+			if ((middle.length() > 0)
+					&& ("CDEFGABcdefgab".indexOf(middle.charAt(0)) != -1)) {
+				byte octave = 0;
+				for (int i = 1; i < middle.length(); i++) {
+					if (middle.charAt(i) == '\'')
+						octave++;
+					else if (middle.charAt(i) == ',')
+						octave--;
+				}
+				clef.setMiddleNote(new Note(Note.convertToNoteType(
+						middle.substring(0, 1)), Accidental.NONE, octave));
+			}
+		}
+		return clef;
+	}
+
+	private Clef scanClefLine(Clef clef, String token) {
+		char last = token.charAt(token.length() - 1);
+		if ((last >= '1') && (last <= '5'))
+			clef.setLineNumber((byte) (last - '0'));
+		return clef;
+	}
+
+	private static int skipWhiteSpaces(String s, int i) {
+		while ((i < s.length())
+				&& ((s.charAt(i) == ' ') || (s.charAt(i) == '\t')))
+			i++;
+		return i;
+	}
+
+	/** Returns <TT>true</TT> if line starts with a field letter and ':' */
+	private static boolean isField(String line) {
+		return (line.length() >= 2) && (line.charAt(1) == ':')
+			&& Character.isLetter(line.charAt(0));
+	}
+
+	/** Returns the field value, without leading white spaces and eol */
+	private static String getFieldValue(String line) {
+		return trimEol(line.substring(skipWhiteSpaces(line, 2)));
+	}
+
+	/** Removes comment at end of a field value, and white spaces */
+	private static String stripComment(String value) {
+		int comment = value.indexOf('%');
+		if (comment != -1)
+			value = value.substring(0, comment);
+		return value.trim();
+	}
+
+	private static String trimEol(String line) {
+		int end = line.length();
+		while ((end > 0) && ((line.charAt(end - 1) == '\n')
+				|| (line.charAt(end - 1) == '\r')))
+			end--;
+		return line.substring(0, end);
+	}
+
+}
@@ -23,13 +23,29 @@ import org.parboiled.buffers.DefaultInputBuffer;
  * exact position in *source* ABC string. The parser builds
  * an input buffer but adds some {@link org.parboiled.support.Chars}
  * to mark del/ins errors.
+ * <p>
+ * When the buffer contains only a part of a bigger stream (e.g. one
+ * tune of a tune book), line and index offsets can be given so that
+ * positions are expressed relatively to the whole stream.
  */
 public class AbcInputBuffer extends DefaultInputBuffer {
 
+	/** Number of lines in the stream before this buffer */
+	private int m_lineOffset = 0;
+
+	/** Number of chars in the stream before this buffer */
+	private int m_indexOffset = 0;
+
 	protected AbcInputBuffer(char[] buffer) {
         super(buffer);
     }
 
+	protected AbcInputBuffer(char[] buffer, int lineOffset, int indexOffset) {
+		super(buffer);
+		m_lineOffset = lineOffset;
+		m_indexOffset = indexOffset;
+	}
+
 	protected int getIndex(Position position) {
 		buildNewlines();
 		if ((position.line <= 0) || (position.line > newlines.length + 1))
@@ -37,7 +53,19 @@ public class AbcInputBuffer extends DefaultInputBuffer {
 		int linestart = (position.line > 1)
 				? (newlines[position.line - 2] + 1)
 				: 0;
-		return linestart + position.column - 1;
+		return m_indexOffset + linestart + position.column - 1;
+	}
+
+	/** Returns the number of chars of this buffer */
+	protected int length() {
+		return length;
+	}
+
+	/**
+	 * Returns the line of position in the <b>source</b> stream
+	 */
+	protected int getLine(Position position) {
+		return m_lineOffset + position.line;
 	}
 	
 }
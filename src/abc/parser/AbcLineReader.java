@@ -0,0 +1,86 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.parser;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads an ABC stream line by line, keeping line terminators (LF, CR or
+ * CRLF) so that the number of chars read is known exactly.
+ */
+class AbcLineReader {
+
+	private Reader m_reader;
+
+	private char[] m_buffer = new char[8 * 1024];
+
+	private int m_bufferLength = 0;
+
+	private int m_bufferPos = 0;
+
+	/** Line being read, reused between lines */
+	private StringBuffer m_line = new StringBuffer(128);
+
+	/** Number of lines read so far */
+	private int m_linesRead = 0;
+
+	AbcLineReader(Reader reader) {
+		m_reader = reader;
+	}
+
+	/** Returns the number of lines read so far */
+	int getLinesRead() {
+		return m_linesRead;
+	}
+
+	/**
+	 * Reads a line including its terminator (LF, CR or CRLF),
+	 * <TT>null</TT> at end of stream.
+	 */
+	String readLine() throws IOException {
+		m_line.setLength(0);
+		while (true) {
+			if (m_bufferPos == m_bufferLength) {
+				m_bufferLength = m_reader.read(m_buffer);
+				m_bufferPos = 0;
+				if (m_bufferLength == -1) {
+					m_bufferLength = 0;
+					break;
+				}
+			}
+			char c = m_buffer[m_bufferPos];
+			int length = m_line.length();
+			if ((length > 0) && (m_line.charAt(length - 1) == '\r')) {
+				//CRLF or CR alone
+				if (c == '\n') {
+					m_line.append(c);
+					m_bufferPos++;
+				}
+				break;
+			}
+			m_line.append(c);
+			m_bufferPos++;
+			if (c == '\n')
+				break;
+		}
+		if (m_line.length() == 0)
+			return null;
+		m_linesRead++;
+		return m_line.toString();
+	}
+
+}
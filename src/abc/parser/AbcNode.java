@@ -15,15 +15,13 @@
 // along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
 package abc.parser;
 
+import java.io.ObjectStreamException;
 import java.util.ArrayList;
-import java.util.Enumeration;
 import java.util.Iterator;
 import java.util.List;
-import java.util.regex.Pattern;
 
 import org.parboiled.Node;
 import org.parboiled.buffers.InputBuffer;
-import org.parboiled.buffers.InputBuffer.Position;
 import org.parboiled.common.StringUtils;
 import org.parboiled.errors.ParseError;
 
@@ -46,6 +44,10 @@ import abc.parser.AbcTextReplacements;
  * <li>zero, one or more child(s)
  * <li>zero, one or more parsing errors {@link abc.parser.AbcParseError}
  * </ul>
+ * <p>
+ * Nodes of a tree share a compact representation of the parsing tree
+ * (offsets in the parsed text). A node, its value, position, childs and
+ * errors are only created when requested.
  */
 public class AbcNode extends PositionableInCharStream {
 
@@ -53,65 +55,38 @@ public class AbcNode extends PositionableInCharStream {
 
 	private static final AbcTextReplacements bundle = AbcTextReplacements.getInstance();
 
+	/** Created on demand, see {@link #getChilds()} */
 	private List childs;
 
+	/** Errors of a node without childs, created on demand */
 	private List errors;
 
 	private String label;
 
+	/** See {@link #getLabelId()}, 0 until known */
+	private transient int labelId = 0;
+
 	private AbcNode parent;
 
+	/** Created on demand, see {@link #getValue()} */
 	private String value;
+
+	/** The shared tree, <TT>null</TT> if all fields are set */
+	private transient AbcParseTree tree = null;
+
+	/** Index of this node in the shared tree */
+	private transient int index = -1;
 	
 	// @SuppressWarnings("unchecked")
 	protected AbcNode(Node node, InputBuffer parseInputBuffer,
 			List<ParseError> parseErrors, AbcInputBuffer abcInputBuffer) {
 		super(null);
 		if (node != null) {
-			this.label = node.getLabel();
-			this.value = parseInputBuffer.extract(node.getStartIndex(), node
-					.getEndIndex());
-			Position pos = parseInputBuffer.getPosition(node.getStartIndex());
-			int sourceStartIndex = abcInputBuffer.getIndex(pos);
-			int sourceEndIndex = sourceStartIndex + value.length();
-			setCharStreamPosition(
-				new CharStreamPosition(
-						pos.line,
-						pos.column,
-						sourceStartIndex,
-						sourceEndIndex
-					));
-			this.childs = new ArrayList(node.getChildren().size());
-			Iterator it = node.getChildren().iterator();
-			while (it.hasNext()) {
-				AbcNode abcn = new AbcNode((Node) it.next(), parseInputBuffer,
-						parseErrors, abcInputBuffer);
-				abcn.parent = this;
-				childs.add(abcn);
-			}
-			if (!hasError()/*(childs.size() == 0)*/ && node.hasError()) {
-				this.errors = new ArrayList();
-				it = parseErrors.iterator();
-				while (it.hasNext()) {
-					ParseError pe = (ParseError) it.next();
-					String peValue = pe.getInputBuffer().extract(
-							pe.getStartIndex(), pe.getEndIndex());
-					String peMsg = pe.getErrorMessage();
-					Position pePos = pe.getInputBuffer().getPosition(pe.getStartIndex());
-					int peIndex = abcInputBuffer.getIndex(pePos);
-					CharStreamPosition csp = new CharStreamPosition(
-							pePos.line, pePos.column, peIndex,
-							peIndex + (peValue.length()>0?peValue.length():1));
-					//if ((pe.getStartIndex() >= node.getStartIndex())
-					//		&& (pe.getStartIndex() </*=*/ node.getEndIndex())) {
-					if ((peIndex >= sourceStartIndex)
-							&& ((peIndex < sourceEndIndex)
-								|| (sourceStartIndex == sourceEndIndex))
-						) {
-						errors.add(new AbcParseError(peMsg, peValue, csp));
-					}
-				}
-			}
+			this.tree = new AbcParseTree(node, parseInputBuffer, parseErrors,
+					abcInputBuffer);
+			this.index = 0;
+			this.labelId = tree.getLabelId(0);
+			this.label = AbcNodePath.getLabel(labelId);
 		} else {
 			this.label = "AbcFile-Error";
 			this.value = "";
@@ -131,6 +106,49 @@ public class AbcNode extends PositionableInCharStream {
 		}
 	}
 
+	/** Creates the node at the given index of a shared tree */
+	AbcNode(AbcParseTree tree, int index, AbcNode parent) {
+		super(null);
+		this.tree = tree;
+		this.index = index;
+		this.parent = parent;
+		this.labelId = tree.getLabelId(index);
+		this.label = AbcNodePath.getLabel(labelId);
+	}
+
+	/**
+	 * Returns <TT>true</TT> if the parser reported errors while building
+	 * the tree this node belongs to.
+	 */
+	boolean hasParseErrors() {
+		if (tree != null)
+			return tree.hasParseErrors();
+		return (errors != null) && !errors.isEmpty();
+	}
+
+	/**
+	 * Returns the number of errors reported by the parser while building
+	 * the tree this node belongs to.
+	 */
+	int getParseErrorsCount() {
+		if (tree != null)
+			return tree.getParseErrorsCount();
+		return (errors != null) ? errors.size() : 0;
+	}
+
+	/**
+	 * Returns the shared tree of this node, <TT>null</TT> if the node has
+	 * been deserialized or is an error node.
+	 */
+	AbcParseTree getTree() {
+		return tree;
+	}
+
+	/** Returns the child at the given index of the shared tree */
+	private AbcNode childAt(int childIndex) {
+		return tree.getNode(childIndex, this);
+	}
+
 	/**
 	 * Returns the first child having the request label, <code>null</code> if
 	 * doesn't exist.
@@ -142,31 +160,50 @@ public class AbcNode extends PositionableInCharStream {
 	 * @param label One of {@link AbcTokens} constants
 	 */
 	public AbcNode getChild(String label) {
-		if (label == null || label.equals(""))
+		return getChild(AbcNodePath.compile(label));
+	}
+
+	/**
+	 * Returns the first child selected by the path, <code>null</code> if
+	 * doesn't exist. At each level, only the first child having the label is
+	 * searched.
+	 * 
+	 * @param path A path compiled once by {@link AbcNodePath#compile(String)}
+	 * @see #getChild(String)
+	 */
+	public AbcNode getChild(AbcNodePath path) {
+		if (path == null)
 			return null;
-		String[] generation = label.split("/");
-		String child = generation[0];
-		String grandchild = "";
-		if (generation.length > 1) {
-			for (int i = 1; i < generation.length; i++) {
-				grandchild += (grandchild.equals("") ? "" : "/");
-				grandchild += generation[i];
-			}
-		}
-		Iterator it = childs.iterator();
-		while (it.hasNext()) {
-			AbcNode abcn = (AbcNode) it.next();
-			if (child.equals(abcn.getLabel())) {
-				if (grandchild.equals(""))
+		AbcNode node = this;
+		for (int depth = 0; (node != null) && (depth < path.getLength()); depth++)
+			node = node.getChild(path.getId(depth));
+		return node;
+	}
+
+	/** Returns the first child having the label id, <TT>null</TT> if none */
+	private AbcNode getChild(int childLabelId) {
+		if (tree == null) {
+			//deserialized or error node, childs are all created
+			Iterator it = getChilds().iterator();
+			while (it.hasNext()) {
+				AbcNode abcn = (AbcNode) it.next();
+				if (abcn.getLabelId() == childLabelId)
 					return abcn;
-				else
-					return abcn.getChild(grandchild);
 			}
+			return null;
 		}
-		return null;
+		int c = tree.getChild(index, childLabelId);
+		return (c != -1) ? childAt(c) : null;
 	}
 	
 	public List getChilds() {
+		if (childs == null) {
+			List list = new ArrayList(tree.getChildCount(index));
+			for (int c = tree.getFirstChild(index); c != -1;
+					c = tree.getNextSibling(index, c))
+				list.add(childAt(c));
+			childs = list;
+		}
 		return childs;
 	}
 
@@ -178,29 +215,51 @@ public class AbcNode extends PositionableInCharStream {
 	 * "TexText" in all "FieldTitle" childs.
 	 */
 	public List getChilds(String label) {
-		if (label == null || label.equals(""))
-			return new ArrayList(0);
-		String[] generation = label.split("/");
-		String child = generation[0];
-		String grandchild = "";
-		if (generation.length > 1) {
-			for (int i = 1; i < generation.length; i++) {
-				grandchild += (grandchild.equals("") ? "" : "/");
-				grandchild += generation[i];
+		return getChilds(AbcNodePath.compile(label));
+	}
+
+	/**
+	 * Returns a list of childs selected by the path, e.g. path
+	 * <TT>FieldTitle/TexText</TT> selects all grandchilds "TexText" in all
+	 * "FieldTitle" childs.
+	 * 
+	 * @param path A path compiled once by {@link AbcNodePath#compile(String)}
+	 * @see #getChilds(String)
+	 */
+	public List getChilds(AbcNodePath path) {
+		List ret = new ArrayList();
+		if (path != null)
+			addChilds(path, 0, ret);
+		return ret;
+	}
+
+	private void addChilds(AbcNodePath path, int depth, List ret) {
+		int childLabelId = path.getId(depth);
+		boolean last = depth == path.getLength() - 1;
+		if (tree == null) {
+			//deserialized or error node, childs are all created
+			Iterator it = getChilds().iterator();
+			while (it.hasNext()) {
+				AbcNode abcn = (AbcNode) it.next();
+				if (abcn.getLabelId() == childLabelId) {
+					if (last)
+						ret.add(abcn);
+					else
+						abcn.addChilds(path, depth + 1, ret);
+				}
 			}
+			return;
 		}
-		List ret = new ArrayList(childs.size());
-		Iterator it = childs.iterator();
-		while (it.hasNext()) {
-			AbcNode abcn = (AbcNode) it.next();
-			if (abcn.getLabel().equals(child)) {
-				if (grandchild.equals(""))
+		for (int c = tree.getFirstChild(index); c != -1;
+				c = tree.getNextSibling(index, c)) {
+			if (tree.getLabelId(c) == childLabelId) {
+				AbcNode abcn = childAt(c);
+				if (last)
 					ret.add(abcn);
 				else
-					ret.addAll(abcn.getChilds(grandchild));
+					abcn.addChilds(path, depth + 1, ret);
 			}
 		}
-		return ret;
 	}
 
 	/**
@@ -213,16 +272,20 @@ public class AbcNode extends PositionableInCharStream {
 		if (label == null || label.equals(""))
 			return new ArrayList(0);
 		List ret = new ArrayList();
-		Iterator it = childs.iterator();
+		addChildsInAllGenerations(AbcNodePath.getLabelId(label), ret);
+		return ret;
+	}
+
+	private void addChildsInAllGenerations(int childLabelId, List ret) {
+		Iterator it = getChilds().iterator();
 		while (it.hasNext()) {
 			AbcNode abcn = (AbcNode) it.next();
-			if (abcn.getLabel().equals(label)) {
+			if (abcn.getLabelId() == childLabelId) {
 				ret.add(abcn);
 			} else {
-				ret.addAll(abcn.getChildsInAllGenerations(label));
+				abcn.addChildsInAllGenerations(childLabelId, ret);
 			}
 		}
-		return ret;
 	}
 
 	/**
@@ -239,10 +302,10 @@ public class AbcNode extends PositionableInCharStream {
 	 * @return a List of node
 	 */
 	public List getDeepestChilds() {
-		if (childs.size() == 0) {
+		if (!hasChilds()) {
 			return new ArrayList(0);
 		}
-		List ret = new ArrayList(childs.size() * 3);
+		List ret = new ArrayList(getChilds().size() * 3);
 		Iterator it = getChilds().iterator();
 		while (it.hasNext()) {
 			AbcNode child = (AbcNode) it.next();
@@ -259,7 +322,10 @@ public class AbcNode extends PositionableInCharStream {
 	 * Returns a List of errors in all childs, grand-childs...
 	 */
 	public List getErrors() {
-		if (hasChilds()) {
+		if ((tree != null) && !tree.hasError(index)) {
+			//no error in this node nor in its descendants
+			return new ArrayList(0);
+		} else if (hasChilds()) {
 			List ret = new ArrayList(0);
 			Iterator it = getChilds().iterator();
 			while (it.hasNext()) {
@@ -267,7 +333,8 @@ public class AbcNode extends PositionableInCharStream {
 			}
 			return ret;
 		} else {
-			return errors != null ? errors : new ArrayList(0);
+			List ret = getLeafErrors();
+			return ret != null ? ret : new ArrayList(0);
 		}
 	}
 
@@ -275,10 +342,12 @@ public class AbcNode extends PositionableInCharStream {
 	 * Returns the first child, <code>null</code> if no child
 	 */
 	public AbcNode getFirstChild() {
-		if (hasChilds())
-			return (AbcNode) childs.get(0);
-		else
+		if (!hasChilds())
 			return null;
+		else if (tree == null)
+			return (AbcNode) getChilds().get(0);
+		else
+			return childAt(tree.getFirstChild(index));
 	}
 
 	/**
@@ -289,7 +358,7 @@ public class AbcNode extends PositionableInCharStream {
 		if (label.equals(AbcTokens.DIGIT)
 				|| label.equals(AbcTokens.DIGITS)) {
 			try {
-				return Integer.parseInt(value);
+				return Integer.parseInt(getValue());
 			} catch (NumberFormatException nfe) {
 				return -1;
 			}
@@ -305,6 +374,17 @@ public class AbcNode extends PositionableInCharStream {
 		return label;
 	}
 
+	/**
+	 * Returns the integer id of the node label
+	 * 
+	 * @see AbcNodePath#getLabelId(String)
+	 */
+	public int getLabelId() {
+		if (labelId == 0)
+			labelId = AbcNodePath.getLabelId(label);
+		return labelId;
+	}
+
 	/**
 	 * Get direct parent, <code>null</code> if this node is the
 	 * root.
@@ -320,7 +400,7 @@ public class AbcNode extends PositionableInCharStream {
 		if (label.equals(AbcTokens.DIGIT)
 				|| label.equals(AbcTokens.DIGITS)) {
 			try {
-				return Short.parseShort(value);
+				return Short.parseShort(getValue());
 			} catch (NumberFormatException nfe) {
 				return -1;
 			}
@@ -332,16 +412,14 @@ public class AbcNode extends PositionableInCharStream {
 	 * escaped chars (e.g. <TT>\'i</TT> => <TT></TT>)
 	 */
 	public String getTexTextValue() {
-		String text = value;
-		if ((text != null) && (text.trim().length() > 0)) {
-			Enumeration e = bundle.getKeys();
-			while (e.hasMoreElements()) {
-				String key = (String) e.nextElement();
-				if (text.indexOf(key) != -1)
-					text = stringReplace(text, key, bundle.getString(key));
-			}
-		}
-		return text;
+		return getTexTextValue(getValue());
+	}
+
+	/** Transforms all escaped chars of the given text
+	 * (e.g. <TT>\'i</TT> => <TT></TT>)
+	 */
+	static String getTexTextValue(String text) {
+		return bundle.replace(text);
 	}
 	  
 	/** Returns the textual value of this node
@@ -351,9 +429,34 @@ public class AbcNode extends PositionableInCharStream {
 	 * escaped chars (e.g. <TT>\'i</TT> => <TT></TT>)
 	 */
 	public String getValue() {
+		if (value == null)
+			value = tree.getValue(index);
 		return value;
 	}
 
+	/**
+	 * Returns the char stream position of this node, computed on first
+	 * request.
+	 */
+	public CharStreamPosition getCharStreamPosition() {
+		CharStreamPosition ret = super.getCharStreamPosition();
+		if ((ret == null) && (tree != null)) {
+			ret = tree.getPosition(index);
+			setCharStreamPosition(ret);
+		}
+		return ret;
+	}
+
+	/**
+	 * Returns errors of this node if it has no child, <TT>null</TT> if
+	 * none.
+	 */
+	private List getLeafErrors() {
+		if ((errors == null) && (tree != null) && tree.hasError(index))
+			errors = tree.getErrors(index, getCharStreamPosition());
+		return errors;
+	}
+
 	/**
 	 * Returns a list of childs having the requested label and an non-empty
 	 * value, and no error.
@@ -363,7 +466,17 @@ public class AbcNode extends PositionableInCharStream {
 	 * "TexText" in all "FieldTitle" childs.
 	 */
 	public List getValuedChilds(String label) {
-		List ret = getChilds(label);
+		return getValuedChilds(AbcNodePath.compile(label));
+	}
+
+	/**
+	 * Returns a list of childs selected by the path having an non-empty
+	 * value, and no error.
+	 * 
+	 * @see #getValuedChilds(String)
+	 */
+	public List getValuedChilds(AbcNodePath path) {
+		List ret = getChilds(path);
 		Iterator it = ret.iterator();
 		while (it.hasNext()) {
 			AbcNode node = (AbcNode) it.next();
@@ -388,12 +501,26 @@ public class AbcNode extends PositionableInCharStream {
 		return getChild(label) != null;
 	}
 
+	/**
+	 * Returns true if a child is selected by the path.
+	 * 
+	 * @see #hasChild(String)
+	 */
+	public boolean hasChild(AbcNodePath path) {
+		return getChild(path) != null;
+	}
+
 	public boolean hasChilds() {
-		return childs.size() > 0;
+		if (tree == null)
+			return getChilds().size() > 0;
+		return tree.getFirstChild(index) != -1;
 	}
 
 	public boolean hasError() {
-		if (hasChilds()) {
+		if ((tree != null) && !tree.hasError(index)) {
+			//no error in this node nor in its descendants
+			return false;
+		} else if (hasChilds()) {
 			Iterator it = getChilds().iterator();
 			while (it.hasNext()) {
 				if (((AbcNode) it.next()).hasError())
@@ -401,7 +528,8 @@ public class AbcNode extends PositionableInCharStream {
 			}
 			return false;
 		} else {
-			return errors != null ? (errors.size() > 0) : false;
+			List leafErrors = getLeafErrors();
+			return leafErrors != null ? (leafErrors.size() > 0) : false;
 		}
 	}
 
@@ -427,6 +555,15 @@ public class AbcNode extends PositionableInCharStream {
 			return false;
 	}
 
+	/**
+	 * Checks if the AbcNode is labelled with the label of a one level path
+	 * 
+	 * @see #is(String)
+	 */
+	public boolean is(AbcNodePath path) {
+		return (path != null) && path.matches(this);
+	}
+
 	/**
 	 * If has parent, checks if the parent node is labelled with
 	 * requested token. i.e. checks if this node is the child,
@@ -461,10 +598,18 @@ public class AbcNode extends PositionableInCharStream {
 		return is(label) || isChildOf(label);
 	}
 	
-	/** String.replace(String arg0, String arg1) in java 1.5 */
-	private String stringReplace(String text, String target, String replacement) {
-		return Pattern.compile(target.toString(), Pattern.LITERAL).matcher(
-				text).replaceAll(replacement);
+	/**
+	 * Creates all fields of the node before serialization, the shared tree
+	 * is not serialized.
+	 */
+	private Object writeReplace() throws ObjectStreamException {
+		if (tree != null) {
+			getValue();
+			getCharStreamPosition();
+			getChilds();
+			getLeafErrors();
+		}
+		return this;
 	}
 
 	// @Override
@@ -0,0 +1,137 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.parser;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A precompiled path of labels, to select childs or grandchilds of an
+ * {@link AbcNode} without splitting and comparing strings, e.g.
+ * <TT>AbcNodePath.compile("FieldNumber/DIGITS")</TT>.
+ * <p>
+ * Each label (one of {@link AbcTokens} constants, or any other label of
+ * the grammar) gets an integer id the first time it is met; nodes and
+ * paths are compared on these ids. Ids are only valid in the running
+ * virtual machine.
+ * <p>
+ * Compiled paths are immutable and cached, they can be shared by threads.
+ * 
+ * @see AbcNode#getChild(AbcNodePath)
+ * @see AbcNode#getChilds(AbcNodePath)
+ */
+public final class AbcNodePath {
+
+	/** Id of each label */
+	private static final ConcurrentHashMap s_ids = new ConcurrentHashMap();
+
+	/**
+	 * Label of each id, replaced when a label is added so that it can be
+	 * read without lock. Id 0 is given to the <TT>null</TT> label.
+	 */
+	private static volatile String[] s_labels = new String[256];
+
+	private static int s_labelsNb = 1;
+
+	/** Compiled paths, by their string */
+	private static final ConcurrentHashMap s_paths = new ConcurrentHashMap();
+
+	/**
+	 * Returns the integer id of the given label, giving a new one if it has
+	 * never been met.
+	 */
+	public static int getLabelId(String label) {
+		if (label == null)
+			return 0;
+		Integer id = (Integer) s_ids.get(label);
+		if (id == null) {
+			synchronized (s_ids) {
+				id = (Integer) s_ids.get(label);
+				if (id == null) {
+					String[] labels = s_labels;
+					if (s_labelsNb == labels.length) {
+						labels = new String[s_labelsNb * 2];
+						System.arraycopy(s_labels, 0, labels, 0, s_labelsNb);
+					}
+					id = Integer.valueOf(s_labelsNb);
+					labels[s_labelsNb++] = label;
+					s_labels = labels;
+					s_ids.put(label, id);
+				}
+			}
+		}
+		return id.intValue();
+	}
+
+	/** Returns the label of the given id, <TT>null</TT> if unknown */
+	public static String getLabel(int id) {
+		String[] labels = s_labels;
+		return ((id >= 0) && (id < labels.length)) ? labels[id] : null;
+	}
+
+	/**
+	 * Returns the compiled path of labels separated by <TT>/</TT>,
+	 * <TT>null</TT> if <TT>path</TT> is <TT>null</TT> or empty.
+	 * 
+	 * @param path One of {@link AbcTokens} constants, or several
+	 * separated by <TT>/</TT>
+	 */
+	public static AbcNodePath compile(String path) {
+		if ((path == null) || (path.length() == 0))
+			return null;
+		AbcNodePath ret = (AbcNodePath) s_paths.get(path);
+		if (ret == null) {
+			String[] generation = path.split("/");
+			int[] ids = new int[generation.length];
+			for (int i = 0; i < generation.length; i++)
+				ids[i] = getLabelId(generation[i]);
+			ret = new AbcNodePath(path, ids);
+			s_paths.put(path, ret);
+		}
+		return ret;
+	}
+
+	private String m_path;
+
+	private int[] m_ids;
+
+	private AbcNodePath(String path, int[] ids) {
+		m_path = path;
+		m_ids = ids;
+	}
+
+	/** Returns the label id at the given depth, starting at 0 */
+	int getId(int depth) {
+		return m_ids[depth];
+	}
+
+	/** Returns the number of labels in this path */
+	public int getLength() {
+		return m_ids.length;
+	}
+
+	/**
+	 * Returns <TT>true</TT> if the given node has the label of this path,
+	 * which must have one label.
+	 */
+	public boolean matches(AbcNode node) {
+		return (node != null) && (node.getLabelId() == m_ids[0]);
+	}
+
+	public String toString() {
+		return m_path;
+	}
+
+}
@@ -0,0 +1,336 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.parboiled.Node;
+import org.parboiled.buffers.InputBuffer;
+import org.parboiled.buffers.InputBuffer.Position;
+import org.parboiled.errors.ParseError;
+
+/**
+ * Compact storage of a parsing tree, shared by all the {@link AbcNode} of
+ * the tree.
+ * <p>
+ * Nodes of the {@link org.parboiled.Node} tree are numbered in depth-first
+ * order and their label id, offsets in the parsed buffer and error flag are
+ * stored in arrays. The children of node <TT>i</TT> are <TT>i + 1</TT>,
+ * then each following sibling starts at the end of the previous child
+ * subtree, up to the end of <TT>i</TT> subtree.
+ * <p>
+ * {@link AbcNode} objects, their values, positions and errors are created
+ * on demand from these arrays.
+ */
+class AbcParseTree {
+
+	/** Buffer parsed by the grammar, with chars inserted to fix errors */
+	private InputBuffer m_parseInputBuffer;
+
+	/** Source buffer, with offsets in the whole stream */
+	private AbcInputBuffer m_abcInputBuffer;
+
+	private List m_parseErrors;
+
+	/** <TT>true</TT> if the grammar inserted chars in the parsed buffer */
+	private boolean m_hasParseErrors;
+
+	private int m_size = 0;
+
+	/** Label of each node, see {@link AbcNodePath#getLabelId(String)} */
+	private int[] m_labelIds;
+
+	/** Start of each node in the parsed buffer */
+	private int[] m_starts;
+
+	/** End of each node in the parsed buffer */
+	private int[] m_ends;
+
+	/** Index after the last descendant of each node */
+	private int[] m_subtreeEnds;
+
+	private boolean[] m_errors;
+
+	/** Parse errors converted to the source stream, in the grammar order */
+	private AbcParseError[] m_errorsByOrdinal;
+
+	/** Source index of each error, sorted, <TT>null</TT> until needed */
+	private int[] m_errorIndexes;
+
+	/** Grammar order of each error in {@link #m_errorIndexes} */
+	private int[] m_errorOrdinals;
+
+	/** Nodes already created, <TT>null</TT> until requested */
+	private AbcNode[] m_nodes;
+
+	AbcParseTree(Node root, InputBuffer parseInputBuffer,
+			List<ParseError> parseErrors, AbcInputBuffer abcInputBuffer) {
+		m_parseInputBuffer = parseInputBuffer;
+		m_abcInputBuffer = abcInputBuffer;
+		m_parseErrors = parseErrors;
+		m_hasParseErrors = (parseErrors != null) && !parseErrors.isEmpty();
+		int size = count(root);
+		m_labelIds = new int[size];
+		m_starts = new int[size];
+		m_ends = new int[size];
+		m_subtreeEnds = new int[size];
+		m_errors = new boolean[size];
+		m_nodes = new AbcNode[size];
+		add(root);
+	}
+
+	/**
+	 * Creates a tree built without errors by another parser than the
+	 * grammar, see {@link ParserBackend}. Arrays are in the depth-first
+	 * order described above and are not copied, <TT>abcInputBuffer</TT> is
+	 * the parsed buffer.
+	 */
+	AbcParseTree(int size, int[] labelIds, int[] starts, int[] ends,
+			int[] subtreeEnds, AbcInputBuffer abcInputBuffer) {
+		m_parseInputBuffer = abcInputBuffer;
+		m_abcInputBuffer = abcInputBuffer;
+		m_parseErrors = new ArrayList(0);
+		m_hasParseErrors = false;
+		m_size = size;
+		m_labelIds = labelIds;
+		m_starts = starts;
+		m_ends = ends;
+		m_subtreeEnds = subtreeEnds;
+		m_errors = new boolean[size];
+		m_nodes = new AbcNode[size];
+	}
+
+	private int count(Node node) {
+		int ret = 1;
+		List children = node.getChildren();
+		for (int i = 0, j = children.size(); i < j; i++)
+			ret += count((Node) children.get(i));
+		return ret;
+	}
+
+	private void add(Node node) {
+		int index = m_size++;
+		m_labelIds[index] = AbcNodePath.getLabelId(node.getLabel());
+		m_starts[index] = node.getStartIndex();
+		m_ends[index] = node.getEndIndex();
+		m_errors[index] = node.hasError();
+		List children = node.getChildren();
+		for (int i = 0, j = children.size(); i < j; i++)
+			add((Node) children.get(i));
+		m_subtreeEnds[index] = m_size;
+	}
+
+	/**
+	 * Returns the node at given index, creating it if needed. Nodes are
+	 * created only once so that they can be compared by identity.
+	 */
+	AbcNode getNode(int index, AbcNode parent) {
+		synchronized (m_nodes) {
+			if (m_nodes[index] == null)
+				m_nodes[index] = new AbcNode(this, index, parent);
+			return m_nodes[index];
+		}
+	}
+
+	/** Returns <TT>true</TT> if the grammar reported errors */
+	boolean hasParseErrors() {
+		return m_hasParseErrors;
+	}
+
+	/** Returns the number of nodes of the tree */
+	int getSize() {
+		return m_size;
+	}
+
+	/** Returns the start of the node in the parsed buffer */
+	int getStart(int index) {
+		return m_starts[index];
+	}
+
+	/** Returns the end of the node in the parsed buffer */
+	int getEnd(int index) {
+		return m_ends[index];
+	}
+
+	/** Returns the index after the last descendant of the node */
+	int getSubtreeEnd(int index) {
+		return m_subtreeEnds[index];
+	}
+
+	/** Returns the number of errors reported by the grammar */
+	int getParseErrorsCount() {
+		return (m_parseErrors != null) ? m_parseErrors.size() : 0;
+	}
+
+	/** Returns the index of the first child of the node, -1 if none */
+	int getFirstChild(int index) {
+		return (index + 1 < m_subtreeEnds[index]) ? index + 1 : -1;
+	}
+
+	/**
+	 * Returns the index of the sibling following <TT>child</TT> in
+	 * <TT>parent</TT>, -1 if none
+	 */
+	int getNextSibling(int parent, int child) {
+		int next = m_subtreeEnds[child];
+		return (next < m_subtreeEnds[parent]) ? next : -1;
+	}
+
+	/** Returns the number of children of the node */
+	int getChildCount(int index) {
+		int ret = 0;
+		for (int c = getFirstChild(index); c != -1; c = getNextSibling(index, c))
+			ret++;
+		return ret;
+	}
+
+	String getLabel(int index) {
+		return AbcNodePath.getLabel(m_labelIds[index]);
+	}
+
+	int getLabelId(int index) {
+		return m_labelIds[index];
+	}
+
+	/**
+	 * Returns the index of the first child of <TT>index</TT> having the
+	 * given label id, -1 if none
+	 */
+	int getChild(int index, int labelId) {
+		for (int c = getFirstChild(index); c != -1; c = getNextSibling(index, c))
+			if (m_labelIds[c] == labelId)
+				return c;
+		return -1;
+	}
+
+	/**
+	 * Returns <TT>true</TT> if the grammar flagged an error in the node. A
+	 * node can have an error only if all its ancestors have one.
+	 */
+	boolean hasError(int index) {
+		return m_errors[index];
+	}
+
+	/** Returns the text of the node, as parsed */
+	String getValue(int index) {
+		return m_parseInputBuffer.extract(m_starts[index], m_ends[index]);
+	}
+
+	/** Returns the position of the node in the source stream */
+	CharStreamPosition getPosition(int index) {
+		Position pos = m_parseInputBuffer.getPosition(m_starts[index]);
+		int sourceStartIndex = m_abcInputBuffer.getIndex(pos);
+		int length;
+		if (m_hasParseErrors)
+			//chars may have been inserted in the parsed buffer
+			length = getValue(index).length();
+		else
+			length = Math.max(0, Math.min(m_ends[index], m_abcInputBuffer
+					.length()) - Math.max(m_starts[index], 0));
+		return new CharStreamPosition(m_abcInputBuffer.getLine(pos),
+				pos.column, sourceStartIndex, sourceStartIndex + length);
+	}
+
+	/**
+	 * Returns the parse errors located in the node, see
+	 * {@link AbcNode#getErrors()}. Errors are given in the order the
+	 * grammar reported them.
+	 */
+	List getErrors(int index, CharStreamPosition position) {
+		buildErrorIndex();
+		List ret = new ArrayList();
+		int sourceStartIndex = position.getStartIndex();
+		int sourceEndIndex = position.getEndIndex();
+		int first = lowerBound(sourceStartIndex);
+		int last = (sourceStartIndex == sourceEndIndex)
+				? m_errorIndexes.length
+				: lowerBound(sourceEndIndex);
+		if (first == last)
+			return ret;
+		//back to the grammar order
+		int[] ordinals = new int[last - first];
+		System.arraycopy(m_errorOrdinals, first, ordinals, 0, ordinals.length);
+		Arrays.sort(ordinals);
+		for (int i = 0; i < ordinals.length; i++)
+			ret.add(m_errorsByOrdinal[ordinals[i]]);
+		return ret;
+	}
+
+	/**
+	 * Returns the first index in {@link #m_errorIndexes} of an error
+	 * located at or after <TT>sourceIndex</TT>
+	 */
+	private int lowerBound(int sourceIndex) {
+		int low = 0;
+		int high = m_errorIndexes.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (m_errorIndexes[mid] < sourceIndex)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * Converts the parse errors once, and sorts them by their index in the
+	 * source stream, so that each node finds its errors by binary search.
+	 */
+	private synchronized void buildErrorIndex() {
+		if (m_errorIndexes != null)
+			return;
+		int size = (m_parseErrors != null) ? m_parseErrors.size() : 0;
+		AbcParseError[] errors = new AbcParseError[size];
+		final int[] peIndexes = new int[size];
+		Integer[] sorted = new Integer[size];
+		for (int i = 0; i < size; i++) {
+			ParseError pe = (ParseError) m_parseErrors.get(i);
+			String peValue = pe.getInputBuffer().extract(
+					pe.getStartIndex(), pe.getEndIndex());
+			String peMsg = pe.getErrorMessage();
+			Position pePos = pe.getInputBuffer().getPosition(pe.getStartIndex());
+			int peIndex = m_abcInputBuffer.getIndex(pePos);
+			CharStreamPosition csp = new CharStreamPosition(
+					m_abcInputBuffer.getLine(pePos), pePos.column, peIndex,
+					peIndex + (peValue.length()>0?peValue.length():1));
+			errors[i] = new AbcParseError(peMsg, peValue, csp);
+			peIndexes[i] = peIndex;
+			sorted[i] = Integer.valueOf(i);
+		}
+		//stable, errors at the same index keep the grammar order
+		Arrays.sort(sorted, new Comparator() {
+			public int compare(Object o1, Object o2) {
+				int i1 = peIndexes[((Integer) o1).intValue()];
+				int i2 = peIndexes[((Integer) o2).intValue()];
+				return (i1 < i2) ? -1 : ((i1 == i2) ? 0 : 1);
+			}
+		});
+		int[] ordinals = new int[size];
+		int[] indexes = new int[size];
+		for (int i = 0; i < size; i++) {
+			ordinals[i] = sorted[i].intValue();
+			indexes[i] = peIndexes[ordinals[i]];
+		}
+		m_errorsByOrdinal = errors;
+		m_errorOrdinals = ordinals;
+		m_errorIndexes = indexes;
+	}
+
+}
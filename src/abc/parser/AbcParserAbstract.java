@@ -15,19 +15,20 @@
 // along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
 package abc.parser;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.StringWriter;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.EventListener;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Stack;
 import java.util.Vector;
+import java.util.concurrent.CancellationException;
 
 import org.parboiled.common.StringUtils;
-import org.parboiled.parserunners.RecoveringParseRunner;
-import org.parboiled.support.ParsingResult;
 
 import abc.instructions.Xcommand;
 import abc.notation.Accidental;
@@ -78,6 +79,123 @@ public abstract class AbcParserAbstract implements AbcTokens {
     	short getStrictDuration() { return m_strictDuration; }
     }
 
+	/**
+	 * Paths used to walk the parsing tree, compiled once.
+	 * 
+	 * @see AbcNodePath
+	 */
+	private interface Paths {
+		AbcNodePath _Accidental = AbcNodePath.compile(AbcTokens._Accidental);
+		AbcNodePath _Clef = AbcNodePath.compile(AbcTokens._Clef);
+		AbcNodePath _MultiNote = AbcNodePath.compile(AbcTokens._MultiNote);
+		AbcNodePath _Note = AbcNodePath.compile(AbcTokens._Note);
+		AbcNodePath AbcEol = AbcNodePath.compile(AbcTokens.AbcEol);
+		AbcNodePath AbcHeader = AbcNodePath.compile(AbcTokens.AbcHeader);
+		AbcNodePath AbcLine = AbcNodePath.compile(AbcTokens.AbcLine);
+		AbcNodePath AbcMusic = AbcNodePath.compile(AbcTokens.AbcMusic);
+		AbcNodePath AbcTune = AbcNodePath.compile(AbcTokens.AbcTune);
+		AbcNodePath Acciaccatura = AbcNodePath.compile(AbcTokens.Acciaccatura);
+		AbcNodePath Aeolian = AbcNodePath.compile(AbcTokens.Aeolian);
+		AbcNodePath ALPHA = AbcNodePath.compile(AbcTokens.ALPHA);
+		AbcNodePath Barline = AbcNodePath.compile(AbcTokens.Barline);
+		AbcNodePath BaseNote = AbcNodePath.compile(AbcTokens.BaseNote);
+		AbcNodePath BrokenRhythm = AbcNodePath.compile(AbcTokens.BrokenRhythm);
+		AbcNodePath Chord = AbcNodePath.compile(AbcTokens.Chord);
+		AbcNodePath ChordOrText = AbcNodePath.compile(AbcTokens.ChordOrText);
+		AbcNodePath ClefMiddle = AbcNodePath.compile(AbcTokens.ClefMiddle);
+		AbcNodePath ClefName = AbcNodePath.compile(AbcTokens.ClefName);
+		AbcNodePath ClefNote = AbcNodePath.compile(AbcTokens.ClefNote);
+		AbcNodePath ClefOctave = AbcNodePath.compile(AbcTokens.ClefOctave);
+		AbcNodePath DIGIT = AbcNodePath.compile(AbcTokens.DIGIT);
+		AbcNodePath DIGITS = AbcNodePath.compile(AbcTokens.DIGITS);
+		AbcNodePath Dorian = AbcNodePath.compile(AbcTokens.Dorian);
+		AbcNodePath Element = AbcNodePath.compile(AbcTokens.Element);
+		AbcNodePath EndNthRepeat = AbcNodePath.compile(AbcTokens.EndNthRepeat);
+		AbcNodePath Explicit = AbcNodePath.compile(AbcTokens.Explicit);
+		AbcNodePath FieldArea = AbcNodePath.compile(AbcTokens.FieldArea);
+		AbcNodePath FieldBook = AbcNodePath.compile(AbcTokens.FieldBook);
+		AbcNodePath FieldComposer = AbcNodePath.compile(AbcTokens.FieldComposer);
+		AbcNodePath FieldDiscography = AbcNodePath.compile(AbcTokens.FieldDiscography);
+		AbcNodePath FieldFile = AbcNodePath.compile(AbcTokens.FieldFile);
+		AbcNodePath FieldGroup = AbcNodePath.compile(AbcTokens.FieldGroup);
+		AbcNodePath FieldHistory = AbcNodePath.compile(AbcTokens.FieldHistory);
+		AbcNodePath FieldKey = AbcNodePath.compile(AbcTokens.FieldKey);
+		AbcNodePath FieldLength = AbcNodePath.compile(AbcTokens.FieldLength);
+		AbcNodePath FieldMeter = AbcNodePath.compile(AbcTokens.FieldMeter);
+		AbcNodePath FieldNotes = AbcNodePath.compile(AbcTokens.FieldNotes);
+		AbcNodePath FieldOrigin = AbcNodePath.compile(AbcTokens.FieldOrigin);
+		AbcNodePath FieldParts = AbcNodePath.compile(AbcTokens.FieldParts);
+		AbcNodePath FieldRhythm = AbcNodePath.compile(AbcTokens.FieldRhythm);
+		AbcNodePath FieldSource = AbcNodePath.compile(AbcTokens.FieldSource);
+		AbcNodePath FieldTempo = AbcNodePath.compile(AbcTokens.FieldTempo);
+		AbcNodePath FieldTitle = AbcNodePath.compile(AbcTokens.FieldTitle);
+		AbcNodePath FieldTranscription = AbcNodePath.compile(AbcTokens.FieldTranscription);
+		AbcNodePath FieldWords = AbcNodePath.compile(AbcTokens.FieldWords);
+		AbcNodePath FileField = AbcNodePath.compile(AbcTokens.FileField);
+		AbcNodePath GlobalAccidental = AbcNodePath.compile(AbcTokens.GlobalAccidental);
+		AbcNodePath GraceNote = AbcNodePath.compile(AbcTokens.GraceNote);
+		AbcNodePath GraceNotes = AbcNodePath.compile(AbcTokens.GraceNotes);
+		AbcNodePath GraceNoteStem = AbcNodePath.compile(AbcTokens.GraceNoteStem);
+		AbcNodePath Gracing = AbcNodePath.compile(AbcTokens.Gracing);
+		AbcNodePath InaudibleRest = AbcNodePath.compile(AbcTokens.InaudibleRest);
+		AbcNodePath InlineField = AbcNodePath.compile(AbcTokens.InlineField);
+		AbcNodePath InvisibleRest = AbcNodePath.compile(AbcTokens.InvisibleRest);
+		AbcNodePath Ionian = AbcNodePath.compile(AbcTokens.Ionian);
+		AbcNodePath Key = AbcNodePath.compile(AbcTokens.Key);
+		AbcNodePath KeyDef = AbcNodePath.compile(AbcTokens.KeyDef);
+		AbcNodePath KeyNoteAccidental = AbcNodePath.compile(AbcTokens.KeyNoteAccidental);
+		AbcNodePath LineContinuation = AbcNodePath.compile(AbcTokens.LineContinuation);
+		AbcNodePath Locrian = AbcNodePath.compile(AbcTokens.Locrian);
+		AbcNodePath LongGracing = AbcNodePath.compile(AbcTokens.LongGracing);
+		AbcNodePath Lydian = AbcNodePath.compile(AbcTokens.Lydian);
+		AbcNodePath Major = AbcNodePath.compile(AbcTokens.Major);
+		AbcNodePath MeasureRepeat = AbcNodePath.compile(AbcTokens.MeasureRepeat);
+		AbcNodePath MeterNum = AbcNodePath.compile(AbcTokens.MeterNum);
+		AbcNodePath Minor = AbcNodePath.compile(AbcTokens.Minor);
+		AbcNodePath Mixolydian = AbcNodePath.compile(AbcTokens.Mixolydian);
+		AbcNodePath Mode = AbcNodePath.compile(AbcTokens.Mode);
+		AbcNodePath MultiMeasureRest = AbcNodePath.compile(AbcTokens.MultiMeasureRest);
+		AbcNodePath NormalRest = AbcNodePath.compile(AbcTokens.NormalRest);
+		AbcNodePath NoteLength = AbcNodePath.compile(AbcTokens.NoteLength);
+		AbcNodePath NoteLengthStrict = AbcNodePath.compile(AbcTokens.NoteLengthStrict);
+		AbcNodePath NthRepeat = AbcNodePath.compile(AbcTokens.NthRepeat);
+		AbcNodePath NthRepeatNum = AbcNodePath.compile(AbcTokens.NthRepeatNum);
+		AbcNodePath NthRepeatText = AbcNodePath.compile(AbcTokens.NthRepeatText);
+		AbcNodePath Octave = AbcNodePath.compile(AbcTokens.Octave);
+		AbcNodePath PartsPlayOrder = AbcNodePath.compile(AbcTokens.PartsPlayOrder);
+		AbcNodePath Phrygian = AbcNodePath.compile(AbcTokens.Phrygian);
+		AbcNodePath Pitch = AbcNodePath.compile(AbcTokens.Pitch);
+		AbcNodePath Rest = AbcNodePath.compile(AbcTokens.Rest);
+		AbcNodePath Rollback = AbcNodePath.compile(AbcTokens.Rollback);
+		AbcNodePath SlurBegin = AbcNodePath.compile(AbcTokens.SlurBegin);
+		AbcNodePath SlurEnd = AbcNodePath.compile(AbcTokens.SlurEnd);
+		AbcNodePath Space = AbcNodePath.compile(AbcTokens.Space);
+		AbcNodePath Stem = AbcNodePath.compile(AbcTokens.Stem);
+		AbcNodePath Tempo = AbcNodePath.compile(AbcTokens.Tempo);
+		AbcNodePath TextExpression = AbcNodePath.compile(AbcTokens.TextExpression);
+		AbcNodePath TexText = AbcNodePath.compile(AbcTokens.TexText);
+		AbcNodePath Tie = AbcNodePath.compile(AbcTokens.Tie);
+		AbcNodePath TimeSignature = AbcNodePath.compile(AbcTokens.TimeSignature);
+		AbcNodePath TitleFields = AbcNodePath.compile(AbcTokens.TitleFields);
+		AbcNodePath TuneField = AbcNodePath.compile(AbcTokens.TuneField);
+		AbcNodePath Tuplet = AbcNodePath.compile(AbcTokens.Tuplet);
+		AbcNodePath UnusedChar = AbcNodePath.compile(AbcTokens.UnusedChar);
+		AbcNodePath Xcom = AbcNodePath.compile(AbcTokens.Xcom);
+		AbcNodePath Xcommand = AbcNodePath.compile(AbcTokens.Xcommand);
+		AbcNodePath FieldNumber_DIGITS = AbcNodePath.compile(AbcTokens.FieldNumber
+				+ "/" + AbcTokens.DIGITS);
+		//labels of the grammar which are not tokens
+		AbcNodePath C = AbcNodePath.compile("C");
+		AbcNodePath C_BAR = AbcNodePath.compile("C|");
+		AbcNodePath ClefLine = AbcNodePath.compile("ClefLine");
+		AbcNodePath CLOSE_PARENTHESIS = AbcNodePath.compile(")");
+		AbcNodePath COLON = AbcNodePath.compile(":");
+		AbcNodePath HP = AbcNodePath.compile("HP");
+		AbcNodePath Hp = AbcNodePath.compile("Hp");
+		AbcNodePath NONE = AbcNodePath.compile("none");
+		AbcNodePath OPEN_PARENTHESIS = AbcNodePath.compile("(");
+	}
+
 	private static final boolean DEBUG = false;
 	private static final byte DEBUG_LEVEL = 3;
 
@@ -113,9 +231,30 @@ public abstract class AbcParserAbstract implements AbcTokens {
 	
 	private List m_annotations = new ArrayList();
 
+	/** Builds the parsing trees, see {@link #setBackend(ParserBackend)} */
+	private ParserBackend m_backend = new AbcGrammarBackend();
+
 	/** The number of dots inherited from the previous note broken rythm. */
 	private byte m_brknRthmDotsCorrection = 0;
 	
+	/** Cache of parsed tunes, <TT>null</TT> if none */
+	private AbcTuneCache m_cache = null;
+
+	/**
+	 * Metrics of the tune book being parsed, <TT>null</TT> if it is not
+	 * measured, see {@link #beginBookMetrics()}
+	 */
+	private ParseMetrics m_bookMetrics = null;
+
+	/** Start of the tune book measure, see {@link ParseMetrics#startTuneBook()} */
+	private long[] m_bookStart = null;
+
+	/**
+	 * Metrics of the last parsing tree if it contains one tune only, given
+	 * to this tune by {@link #parseAbcTune(AbcNode)}
+	 */
+	private ParseMetrics m_treeMetrics = null;
+
 	private String m_currentVoice = "1";
 	
 	/** The current default note length. */
@@ -142,6 +281,9 @@ public abstract class AbcParserAbstract implements AbcTokens {
 	private Music m_music = null;
 
 	private List m_notesStartingTies = new ArrayList();
+	
+	/** <TT>true</TT> if the last parsing tree has been built with errors */
+	private boolean m_parseErrors = false;
 
 	private List m_slursDefinitionStack = new ArrayList();
 
@@ -174,8 +316,9 @@ public abstract class AbcParserAbstract implements AbcTokens {
 	 * @param listener
 	 *            Object that implements the
 	 *            {@link TuneBookParserListenerInterface},
-	 *            {@link TuneParserListenerInterface} or
-	 *            {@link TuneBookListenerInterface}.
+	 *            {@link TuneParserListenerInterface},
+	 *            {@link TuneBookListenerInterface} or
+	 *            {@link ParseMetricsListenerInterface}.
 	 */
 	public void addListener(EventListener listener) {
 		m_listeners.add(listener);
@@ -278,6 +421,20 @@ public abstract class AbcParserAbstract implements AbcTokens {
 		
 	}
 	
+	/**
+	 * Starts measuring a tune book, if a
+	 * {@link ParseMetricsListenerInterface} is attached. Parsing trees and
+	 * tunes are added to its metrics until
+	 * {@link #endBookMetrics(TuneBook)}.
+	 */
+	protected void beginBookMetrics() {
+		if (hasMetricsListeners()) {
+			m_bookMetrics = new ParseMetrics();
+			m_bookStart = ParseMetrics.startTuneBook();
+		} else
+			m_bookMetrics = null;
+	}
+
 	private void closeTuplet() {
 		if (m_tupletNumberOfNotes != -1) {
 			Tuplet t = new Tuplet(m_tupletNumber,
@@ -293,6 +450,24 @@ public abstract class AbcParserAbstract implements AbcTokens {
 			m_tupletPosition = null;
 		}
 	}
+
+	/**
+	 * Ends the measure started by {@link #beginBookMetrics()} and notifies
+	 * listeners, does nothing if the tune book is not measured.
+	 */
+	protected void endBookMetrics(TuneBook tuneBook) {
+		ParseMetrics metrics = m_bookMetrics;
+		if (metrics != null) {
+			m_bookMetrics = null;
+			metrics.endTuneBook(m_bookStart);
+			for (int i = 0; i < m_listeners.size(); i++) {
+				Object o = m_listeners.get(i);
+				if (o instanceof ParseMetricsListenerInterface)
+					((ParseMetricsListenerInterface) o).tuneBookParsed(
+							tuneBook, metrics);
+			}
+		}
+	}
 	
 	/**
 	 * Returns the absolute note duration for the specified relative note with
@@ -366,6 +541,33 @@ public abstract class AbcParserAbstract implements AbcTokens {
 		return new DurationDescription((short) absoluteDuration, dotsNumber);
 	}
 	
+	/**
+	 * Returns the backend which builds the parsing trees of this parser.
+	 * 
+	 * @see #setBackend(ParserBackend)
+	 */
+	public ParserBackend getBackend() {
+		return m_backend;
+	}
+
+	/**
+	 * Returns the metrics of the tune book being parsed, <TT>null</TT> if
+	 * it is not measured.
+	 *
+	 * @see #beginBookMetrics()
+	 */
+	protected ParseMetrics getBookMetrics() {
+		return m_bookMetrics;
+	}
+
+	/**
+	 * Returns the cache of parsed tunes used by this parser,
+	 * <TT>null</TT> if none.
+	 */
+	public AbcTuneCache getCache() {
+		return m_cache;
+	}
+
 	protected Note getNoteStartingTieFor(Note aNote) {
 		for (int i = m_notesStartingTies.size() - 1; i >= 0; i--) {
 			Note n = (Note) m_notesStartingTies.get(i);
@@ -387,13 +589,7 @@ public abstract class AbcParserAbstract implements AbcTokens {
 	 * @throws IOException
 	 */
 	protected AbcNode getParseTree(Reader reader) throws IOException {
-		StringWriter writer = new StringWriter();
-		char[] buffer = new char[32 * 1024];
-		int n;
-		while ((n = reader.read(buffer)) != -1) {
-			writer.write(buffer, 0, n);
-		}
-		return getParseTree(writer.toString());
+		return getParseTree(readString(reader));
 	}
 	
 	/**
@@ -403,32 +599,102 @@ public abstract class AbcParserAbstract implements AbcTokens {
 	 * @param abcString
 	 */
 	protected AbcNode getParseTree(String abcString) {
-		long startTime = System.currentTimeMillis();
-		AbcGrammar grammar = AbcGrammar.getInstance();
-		// AbcGrammar parser = Parboiled.createParser(AbcGrammar.class);
-		ParsingResult<?> result = RecoveringParseRunner.run(grammar.AbcFile(),
-				abcString);
-		if (DEBUG) {
-			System.out.println("Parse : "+(System.currentTimeMillis() - startTime) + "ms");
-		}
-		if (result.hasErrors()) {
-			System.err.println("Parse errors: "
-					+ result.parseErrors.size());
-			/*Iterator it = result.parseErrors.iterator();
-			while (it.hasNext()) {
-				ParseError pe = (ParseError) it.next();
-				System.err.println("- " + pe.getErrorMessage()
-						+ "("+pe.getStartIndex()+"->"+pe.getEndIndex()+")");
-			}*/
-		}
+		return getParseTree(abcString, 0, 0);
+	}
+
+	/**
+	 * Parse a String which is a part of a bigger stream (e.g. one tune of a
+	 * tune book), and get the parsing tree by its root {@link AbcNode}.
+	 * Positions of nodes are relative to the whole stream.
+	 * 
+	 * @param abcString
+	 * @param lineOffset
+	 *            number of lines in the stream before abcString
+	 * @param indexOffset
+	 *            number of chars in the stream before abcString
+	 */
+	protected AbcNode getParseTree(String abcString, int lineOffset,
+			int indexOffset) {
+		return getParseTree(abcString.toCharArray(), lineOffset, indexOffset);
+	}
+
+	/**
+	 * Parse the file and get the parsing tree by its root {@link AbcNode}.
+	 * The file is memory mapped and decoded with the given charset, the
+	 * decoded chars are parsed without any other copy.
+	 * 
+	 * @param file
+	 * @param charset
+	 *            charset of the file
+	 * @throws IOException
+	 */
+	protected AbcNode getParseTree(File file, Charset charset)
+			throws IOException {
+		return getParseTree(AbcFileDecoder.decode(file, charset), 0, 0);
+	}
 
-		AbcNode abcRoot = new AbcNode(result.parseTreeRoot, result.inputBuffer,
-				result.parseErrors, new AbcInputBuffer(abcString.toCharArray()));
-		if (result.hasErrors() || DEBUG)
+	/**
+	 * Parse chars which are a part of a bigger stream, and get the parsing
+	 * tree by its root {@link AbcNode}. The array is shared by the grammar
+	 * input buffer and the {@link AbcInputBuffer} of nodes, it must not be
+	 * modified afterwards.
+	 * 
+	 * @param abc
+	 * @param lineOffset
+	 *            number of lines in the stream before abc
+	 * @param indexOffset
+	 *            number of chars in the stream before abc
+	 */
+	protected AbcNode getParseTree(char[] abc, int lineOffset,
+			int indexOffset) {
+		ParseMetrics metrics = hasMetricsListeners() ? new ParseMetrics()
+				: null;
+		AbcNode abcRoot;
+		if (metrics == null)
+			abcRoot = m_backend.parse(abc, lineOffset, indexOffset);
+		else {
+			ParseMetrics.setCurrent(metrics);
+			try {
+				abcRoot = m_backend.parse(abc, lineOffset, indexOffset);
+			} finally {
+				ParseMetrics.setCurrent(null);
+			}
+		}
+		m_parseErrors = abcRoot.hasParseErrors();
+		m_treeMetrics = null;
+		if (metrics != null) {
+			metrics.addChars(abc.length);
+			metrics.addErrors(abcRoot.getParseErrorsCount());
+			if (m_bookMetrics != null)
+				m_bookMetrics.add(metrics);
+			if (abcRoot.getChilds(Paths.AbcTune).size() == 1)
+				m_treeMetrics = metrics;
+		}
+		if (m_parseErrors || DEBUG)
 			debugTree(abcRoot);
 		return abcRoot;
 	}
 	
+	/**
+	 * Returns <TT>true</TT> if the grammar reported errors while building
+	 * the last parsing tree, even if they are not attached to any node.
+	 */
+	protected boolean hasParseErrors() {
+		return m_parseErrors;
+	}
+
+	/**
+	 * Returns <TT>true</TT> if a {@link ParseMetricsListenerInterface} is
+	 * attached, parsing is not measured otherwise.
+	 */
+	protected boolean hasMetricsListeners() {
+		for (int i = 0; i < m_listeners.size(); i++) {
+			if (m_listeners.get(i) instanceof ParseMetricsListenerInterface)
+				return true;
+		}
+		return false;
+	}
+
 	/** Inits all attributes that are related to one parsing sequence ONLY. */
 	protected void initNewTune() {
 		m_brknRthmDotsCorrection = 0;
@@ -439,10 +705,30 @@ public abstract class AbcParserAbstract implements AbcTokens {
 		m_timeSignature = null;
 		m_graceNotes.clear();
 		m_graceNotesType = GracingType.APPOGGIATURA;
+		m_symbols.clear();
+		m_annotations.clear();
 		m_tune = new AbcTune();
 		m_music = m_tune.getMusic();
 	}
 	
+	/**
+	 * Returns <TT>true</TT> to stop building the current tune, because its
+	 * result is not needed anymore. It is checked before the notation of a
+	 * tune is built and before each line of its music. A cancelled parsing
+	 * throws a {@link CancellationException}, with listeners notified of
+	 * the tune begin only.
+	 * <p>
+	 * Returns <TT>false</TT> by default.
+	 * 
+	 * @param line
+	 *            <TT>true</TT> before a line of music, <TT>false</TT>
+	 *            before a tune.
+	 * @see AsynchronousTuneParser
+	 */
+	protected boolean isCancelled(boolean line) {
+		return false;
+	}
+
 	/**
 	 * Instanciate a new AbcTuneBook and transfere TuneBookListeners
 	 * to the newly created object
@@ -500,6 +786,17 @@ public abstract class AbcParserAbstract implements AbcTokens {
 		}
 	}
 	
+	/**
+	 * Notifies listeners for a tune found in the cache, as if it had been
+	 * parsed. No parsing tree is given to
+	 * {@link TuneParserListenerInterface#tuneEnd(Tune, AbcNode)}.
+	 */
+	protected void notifyListenersForCachedTune(Tune tune) {
+		notifyListenersForTuneBegin();
+		notifyListenersForTuneEnd(tune, null);
+		notifyListenersForUnmeasuredTune(tune);
+	}
+
 	protected void notifyListenersForTuneEnd(Tune tune, AbcNode abcRoot) {
 		for (int i = 0; i < m_listeners.size(); i++) {
 			Object o = m_listeners.get(i);
@@ -507,10 +804,37 @@ public abstract class AbcParserAbstract implements AbcTokens {
 				((TuneParserListenerInterface) o).tuneEnd(tune, abcRoot);
 		}
 	}
+
+	protected void notifyListenersForTuneParsed(Tune tune,
+			ParseMetrics metrics) {
+		for (int i = 0; i < m_listeners.size(); i++) {
+			Object o = m_listeners.get(i);
+			if (o instanceof ParseMetricsListenerInterface)
+				((ParseMetricsListenerInterface) o).tuneParsed(tune, metrics);
+		}
+	}
+
+	/**
+	 * Notifies metrics listeners for a tune whose parsing was not measured,
+	 * e.g. found in the cache. Its metrics only count the tune and its
+	 * chars, it is added to the tune book being measured.
+	 */
+	protected void notifyListenersForUnmeasuredTune(Tune tune) {
+		if (!hasMetricsListeners())
+			return;
+		ParseMetrics metrics = new ParseMetrics();
+		metrics.addTunes(1);
+		if ((tune instanceof AbcTune)
+				&& (((AbcTune) tune).getAbcString() != null))
+			metrics.addChars(((AbcTune) tune).getAbcString().length());
+		if (m_bookMetrics != null)
+			m_bookMetrics.addTunes(1);
+		notifyListenersForTuneParsed(tune, metrics);
+	}
 	
 	private void parseAbcEol(AbcNode abcEol) {
 		if (abcEol != null) {
-			if (!abcEol.hasChild(LineContinuation))
+			if (!abcEol.hasChild(Paths.LineContinuation))
 				addToMusic(new EndOfStaffLine());
 			//HardLineBreak or nothing -> new EndOfStaffLine()
 		}
@@ -523,26 +847,24 @@ public abstract class AbcParserAbstract implements AbcTokens {
 	 */
 	protected AbcTune parseAbcHeader(AbcNode abcHeader) {
 		// X: number
-		AbcNode digits = abcHeader.getChild(FieldNumber+"/"+DIGITS);
+		AbcNode digits = abcHeader.getChild(Paths.FieldNumber_DIGITS);
 		if (digits != null)
 			m_tune.setReferenceNumber(Integer.parseInt(digits.getValue()));
 		// T: titles
-		parseTitleFields(abcHeader.getChild(TitleFields));
+		parseTitleFields(abcHeader.getChild(Paths.TitleFields));
 		parseOtherFields(abcHeader);
 		//TODO getChildsInAllGeneration(Xcommand)
-		parseFieldKey(abcHeader.getChild(FieldKey));
+		parseFieldKey(abcHeader.getChild(Paths.FieldKey));
 		return m_tune;
 	}
 	
 	private void parseAbcLine(AbcNode abcLine) {
 		Iterator it = abcLine.getChilds().iterator();
-		String label;
 		while (it.hasNext()) {
 			AbcNode node = (AbcNode) it.next();
-			label = node.getLabel();
-			if (label.equals(Element))
+			if (node.is(Paths.Element))
 				parseElement(node);
-			else if (label.equals(AbcEol)) {
+			else if (node.is(Paths.AbcEol)) {
 				parseAbcEol(node);
 			}
 		}
@@ -550,17 +872,17 @@ public abstract class AbcParserAbstract implements AbcTokens {
 		m_brknRthmDotsCorrection = 0;
 	}
 	
-	private void parseAbcMusic(AbcNode abcMusic) {
+	protected void parseAbcMusic(AbcNode abcMusic) {
 		Iterator it = abcMusic.getChilds().iterator();
-		String label;
 		while (it.hasNext()) {
 			AbcNode node = (AbcNode) it.next();
-			label = node.getLabel();
-			if (label.equals(AbcLine)) {
+			if (node.is(Paths.AbcLine)) {
+				if (isCancelled(true))
+					throw new CancellationException();
 				parseAbcLine(node);
-			} else if (label.equals(TuneField)) {
+			} else if (node.is(Paths.TuneField)) {
 				parseTuneAndInlineFields(node);
-			} else if (label.equals(Xcommand)) {
+			} else if (node.is(Paths.Xcommand)) {
 				parseXcommand(node);
 			}
 		}
@@ -568,22 +890,59 @@ public abstract class AbcParserAbstract implements AbcTokens {
 	
 	protected AbcTune parseAbcTune(AbcNode abcTune) {
 		notifyListenersForTuneBegin();
+		if (isCancelled(false))
+			throw new CancellationException();
+		ParseMetrics metrics = null;
+		long[] phase = null;
+		if (hasMetricsListeners()) {
+			metrics = new ParseMetrics();
+			phase = ParseMetrics.startPhase();
+		}
 		initNewTune();
 		if (abcTune == null) {
 			m_tune.setAbcString("");
 			notifyListenersForNoTune();
 		} else {
 			m_tune.setAbcString(abcTune.getValue());
-			AbcNode abcHeader = abcTune.getChild(AbcHeader);
+			AbcNode abcHeader = abcTune.getChild(Paths.AbcHeader);
 			if (abcHeader != null)
 				parseAbcHeader(abcHeader);
-			AbcNode abcMusic = abcTune.getChild(AbcMusic);
+			AbcNode abcMusic = abcTune.getChild(Paths.AbcMusic);
 			if (abcMusic != null)
 				parseAbcMusic(abcMusic);
 		}
+		if (metrics != null) {
+			metrics.endPhase(ParseMetrics.NOTATION, phase);
+			measureTune(abcTune, metrics);
+		}
 		notifyListenersForTuneEnd(m_tune, abcTune);
+		if (metrics != null)
+			notifyListenersForTuneParsed(m_tune, metrics);
 		return m_tune;
 	}
+
+	/**
+	 * Completes the metrics of a tune whose notation has been built, and
+	 * adds them to the tune book being measured. The phases of the parsing
+	 * tree are given to the tune if the tree contains no other tune.
+	 */
+	private void measureTune(AbcNode abcTune, ParseMetrics metrics) {
+		if (m_bookMetrics != null) {
+			m_bookMetrics.add(metrics);
+			m_bookMetrics.addTunes(1);
+		}
+		metrics.addTunes(1);
+		if (m_treeMetrics != null) {
+			metrics.add(m_treeMetrics);
+			metrics.addAllocatedBytes(m_treeMetrics.getAllocatedBytes());
+			m_treeMetrics = null;
+		} else if (abcTune != null) {
+			CharStreamPosition pos = abcTune.getCharStreamPosition();
+			metrics.addChars(pos.getEndIndex() - pos.getStartIndex());
+			if (m_parseErrors)
+				metrics.addErrors(abcTune.getErrors().size());
+		}
+	}
 	
 	private Accidental parseAccidental(AbcNode accidental) {
 		if (accidental != null)
@@ -597,9 +956,8 @@ public abstract class AbcParserAbstract implements AbcTokens {
 			Iterator it = chordOrText.getChilds().iterator();
 			while (it.hasNext()) {
 				AbcNode node = (AbcNode) it.next();
-				String label = node.getLabel();
-				if ((label.equals(Chord)
-						|| label.equals(TextExpression))
+				if ((node.is(Paths.Chord)
+						|| node.is(Paths.TextExpression))
 					&& (node.getValue().length() > 0)) {
 					//Chord pc = parseChord(node);
 					Chord pc = new Chord(node.getValue());
@@ -622,10 +980,9 @@ public abstract class AbcParserAbstract implements AbcTokens {
 	}
 	
 	private void parseBarlineOrNthRepeat(AbcNode barlineOrNthRepeat) {
-		String label = barlineOrNthRepeat.getLabel();
 		String value = barlineOrNthRepeat.getValue();
 		CharStreamPosition pos = barlineOrNthRepeat.getCharStreamPosition();
-		if (label.equals(Barline)) {
+		if (barlineOrNthRepeat.is(Paths.Barline)) {
 			byte[] b = BarLine.convertToBarLine(value);
 			if ((b == null) || (b.length == 0)) {
 				//not found - repeat bar?
@@ -637,17 +994,17 @@ public abstract class AbcParserAbstract implements AbcTokens {
 				}
 			}
 		}
-		else if (label.equals(NthRepeat)) {
-			AbcNode barline = barlineOrNthRepeat.getChild(Barline);
+		else if (barlineOrNthRepeat.is(Paths.NthRepeat)) {
+			AbcNode barline = barlineOrNthRepeat.getChild(Paths.Barline);
 			byte nthBarlineType = BarLine.SIMPLE;
 			if (barline != null) {
 				nthBarlineType = BarLine.convertToBarLine(barline.getValue())[0];
 				//if (barline.getValue().equals(":|"))
 				//	nthBarlineType = BarLine.REPEAT_CLOSE;
 			}
-			AbcNode nthRepeatNum = barlineOrNthRepeat.getChild(NthRepeatNum);
+			AbcNode nthRepeatNum = barlineOrNthRepeat.getChild(Paths.NthRepeatNum);
 			if (nthRepeatNum != null) {
-				List digits = nthRepeatNum.getValuedChilds(DIGITS);
+				List digits = nthRepeatNum.getValuedChilds(Paths.DIGITS);
 				if (digits.size() > 0) {
 					byte[] nums = new byte[digits.size()];
 					for (int i = 0; i < nums.length; i++) {
@@ -660,7 +1017,7 @@ public abstract class AbcParserAbstract implements AbcTokens {
 					addToMusic(rbl);
 				}
 			} else {
-				AbcNode nthRepeatText = barlineOrNthRepeat.getChild(NthRepeatText);
+				AbcNode nthRepeatText = barlineOrNthRepeat.getChild(Paths.NthRepeatText);
 				if (nthRepeatText != null) {
 					RepeatBarLine rbl = new RepeatBarLine(nthBarlineType,
 							nthRepeatText.getValue());
@@ -674,7 +1031,7 @@ public abstract class AbcParserAbstract implements AbcTokens {
 				}
 			}
 		}
-		else if (label.equals(EndNthRepeat)) {
+		else if (barlineOrNthRepeat.is(Paths.EndNthRepeat)) {
 			RepeatEnd re = new RepeatEnd();
 			re.setCharStreamPosition(pos);
 			addToMusic(re);
@@ -706,20 +1063,20 @@ public abstract class AbcParserAbstract implements AbcTokens {
 		if (clef != null) {
 			AbcNode node;
 			String clefName = "";
-			if ((node = clef.getChild(ClefName)) != null)
+			if ((node = clef.getChild(Paths.ClefName)) != null)
 				clefName = node.getValue();
 			String clefNote = "";
-			if ((node = clef.getChild(ClefNote)) != null)
+			if ((node = clef.getChild(Paths.ClefNote)) != null)
 				clefNote = node.getValue();
 			Clef ret = Clef.convertFromNameOrNote(clefName, clefNote);
 			ret.setCharStreamPosition(clef.getCharStreamPosition());
 			int clefLine = -1;
-			if ((node = clef.getChild("ClefLine")) != null) {
+			if ((node = clef.getChild(Paths.ClefLine)) != null) {
 				clefLine = Integer.parseInt(node.getValue());
 				ret.setLineNumber((byte) clefLine);
 			}
 			String clefOctave = "";
-			if ((node = clef.getChild(ClefOctave)) != null) {
+			if ((node = clef.getChild(Paths.ClefOctave)) != null) {
 				clefOctave = node.getValue();
 				if (clefOctave.equals("+8"))
 					ret.setOctaveTransposition((byte) 1);
@@ -727,9 +1084,9 @@ public abstract class AbcParserAbstract implements AbcTokens {
 					ret.setOctaveTransposition((byte) -1);
 			}
 			Note clefMiddle = null;
-			if ((node = clef.getChild(ClefMiddle)) != null) {
-				byte height = parseBaseNote(node.getChild(BaseNote));
-				byte octave = parseOctave(node.getChild(Octave));
+			if ((node = clef.getChild(Paths.ClefMiddle)) != null) {
+				byte height = parseBaseNote(node.getChild(Paths.BaseNote));
+				byte octave = parseOctave(node.getChild(Paths.Octave));
 				clefMiddle = new Note(height, Accidental.NONE, octave);
 				ret.setMiddleNote(clefMiddle);
 			}
@@ -755,113 +1112,112 @@ public abstract class AbcParserAbstract implements AbcTokens {
 	private void parseElement(AbcNode element) {
 		AbcNode firstChild = element.getFirstChild();
 		if (firstChild != null) {
-			String label = firstChild.getLabel();
-			if (label.equals(Stem)) {
+			if (firstChild.is(Paths.Stem)) {
 				addToMusic(parseStem(firstChild));
 			}
-			else if (label.equals(Barline)
-					|| label.equals(NthRepeat)
-					|| label.equals(EndNthRepeat)) {
+			else if (firstChild.is(Paths.Barline)
+					|| firstChild.is(Paths.NthRepeat)
+					|| firstChild.is(Paths.EndNthRepeat)) {
 				closeTuplet();
 				m_brknRthmDotsCorrection = 0;
 				parseBarlineOrNthRepeat(firstChild);
 			}
-			else if (label.equals(Space)) {
+			else if (firstChild.is(Paths.Space)) {
 				//separate group of notes
 				addToMusic(new NotesSeparator());
 			}
-			else if (label.equals(GraceNotes)) {
+			else if (firstChild.is(Paths.GraceNotes)) {
 				parseGraceNotes(firstChild);
 			}
-			else if (label.equals(Gracing)) {
+			else if (firstChild.is(Paths.Gracing)) {
 				SymbolElement se = parseGracing(firstChild);
 				if (se != null)
 					m_symbols.add(se);
 			}
-			else if (label.equals(ChordOrText)) {
+			else if (firstChild.is(Paths.ChordOrText)) {
 				parseAnnotationsOrChord(firstChild);
 			}
-			else if (label.equals(Rest)) {
+			else if (firstChild.is(Paths.Rest)) {
 				addToMusic(parseRest(firstChild));
 			}
-			else if (label.equals(SlurBegin)) {
+			else if (firstChild.is(Paths.SlurBegin)) {
 				parseSlurBegin(firstChild);
 			}
-			else if (label.equals(SlurEnd)) {
+			else if (firstChild.is(Paths.SlurEnd)) {
 				parseSlurEnd(firstChild);
 			}
-			else if (label.equals(Tuplet)) {
+			else if (firstChild.is(Paths.Tuplet)) {
 				closeTuplet();
 				parseTuplet(firstChild);
 				m_brknRthmDotsCorrection = 0;
 			}
-			else if (label.equals(BrokenRhythm)) {
+			else if (firstChild.is(Paths.BrokenRhythm)) {
 				parseBrokenRhythm(firstChild);
 			}
-			else if (label.equals(MultiMeasureRest)) {
+			else if (firstChild.is(Paths.MultiMeasureRest)) {
 				closeTuplet();
 				m_brknRthmDotsCorrection = 0;
 				addToMusic(parseMultiMeasureRest(firstChild));
 			}
-			else if (label.equals(MeasureRepeat)) {
+			else if (firstChild.is(Paths.MeasureRepeat)) {
 				closeTuplet();
 				m_brknRthmDotsCorrection = 0;
 				addToMusic(parseMeasureRepeat(firstChild));
 			}
-			else if (label.equals(InlineField)) {
+			else if (firstChild.is(Paths.InlineField)) {
 				closeTuplet();
 				m_brknRthmDotsCorrection = 0;
 				parseTuneAndInlineFields(firstChild);
 			}
-			else if (label.equals(UnusedChar)
-					|| label.equals(Rollback)) {
+			else if (firstChild.is(Paths.UnusedChar)
+					|| firstChild.is(Paths.Rollback)) {
 				//do nothing
 			}
 			else {
-				System.err.println("Element type "+label+" not handled!");
+				System.err.println("Element type "+firstChild.getLabel()+" not handled!");
 			}
 		}
 	}
 	
 	private void parseFieldArea(AbcNode fieldArea) {
 		if (fieldArea != null) {
-			m_tune.setArea(parseTexText(fieldArea.getChild(TexText)));
+			m_tune.setArea(parseTexText(fieldArea.getChild(Paths.TexText)));
 		}
 	}
 	
 	private void parseFieldBook(AbcNode fieldBook) {
 		if (fieldBook != null) {
-			m_tune.addBook(parseTexText(fieldBook.getChild(TexText)));
+			m_tune.addBook(parseTexText(fieldBook.getChild(Paths.TexText)));
 		}
 	}
 	
 	private void parseFieldComposer(AbcNode fieldComposer) {
 		if (fieldComposer != null) {
-			m_tune.addComposer(parseTexText(fieldComposer.getChild(TexText)));
+			m_tune.addComposer(parseTexText(fieldComposer.getChild(Paths.TexText)));
 		}
 	}
 
 	private void parseFieldDiscography(AbcNode fieldDiscography) {
 		if (fieldDiscography != null) {
-			m_tune.addDiscography(parseTexText(fieldDiscography.getChild(TexText)));
+			m_tune.addDiscography(parseTexText(fieldDiscography.getChild(Paths.TexText)));
 		}
 	}
 
 	private void parseFieldFile(AbcNode fieldFile) {
 		if (fieldFile != null) {
-			m_tune.setFileURL(parseTexText(fieldFile.getChild(TexText)));
+			m_tune.setFileURL(parseTexText(fieldFile.getChild(Paths.TexText)));
 		}
 	}
 	
 	private void parseFieldGroup(AbcNode fieldGroup) {
 		if (fieldGroup != null) {
-			m_tune.addGroup(parseTexText(fieldGroup.getChild(TexText)));
+			m_tune.addGroup(parseTexText(fieldGroup.getChild(Paths.TexText)));
 		}
 	}
 	
 	private void parseFieldHistory(AbcNode fieldHistory) {
 		if (fieldHistory != null) {
-			m_tune.addHistory(parseTexText(fieldHistory.getChild(TexText)));
+			m_tune.addHistory(parseTexText(fieldHistory.getChild(Paths.TexText)));
 		}
 	}
 	private String parseTexText(AbcNode texTextNode) {
@@ -874,18 +1230,18 @@ public abstract class AbcParserAbstract implements AbcTokens {
 	private KeySignature parseFieldKey(AbcNode fieldKey) {
 		KeySignature ret = null;
 		if (fieldKey != null) {
-			AbcNode key = fieldKey.getChild(Key);
+			AbcNode key = fieldKey.getChild(Paths.Key);
 			if (key != null) {
-				if (key.hasChild("HP"))
+				if (key.hasChild(Paths.HP))
 					//TODO what to do for K:HP? no key, but impose bagpipe notation
 					//gracenotes stem down, notes stem up
 					ret = null;
-				else if (key.hasChild("Hp")) {
+				else if (key.hasChild(Paths.Hp)) {
 					//K:Hp = A major with natural G (only F# and C#)
 					ret = new KeySignature(Note.A, KeySignature.MAJOR);
 					ret.setAccidental(Note.G, Accidental.NATURAL);
 				}
-				AbcNode keyDef = key.getChild(KeyDef);
+				AbcNode keyDef = key.getChild(Paths.KeyDef);
 				if (keyDef != null) {
 					ret = parseKeyDef(keyDef);
 					if (ret == null) {
@@ -894,7 +1250,7 @@ public abstract class AbcParserAbstract implements AbcTokens {
 						} catch (CloneNotSupportedException never) {}
 					}
 				}
-				AbcNode clef = key.getChild(_Clef);
+				AbcNode clef = key.getChild(Paths._Clef);
 				if (clef != null) {
 					if (ret == null && m_lastParsedKey != null) {
 						try {
@@ -915,7 +1271,7 @@ public abstract class AbcParserAbstract implements AbcTokens {
 	
 	private short parseFieldLength(AbcNode fieldLength) {
 		if (fieldLength != null) {
-			AbcNode noteLengthStrict = fieldLength.getChild(NoteLengthStrict);
+			AbcNode noteLengthStrict = fieldLength.getChild(Paths.NoteLengthStrict);
 			if (noteLengthStrict != null) {
 				Fraction fraction = parseNoteLengthStrict(noteLengthStrict);
 				try {
@@ -934,11 +1290,10 @@ public abstract class AbcParserAbstract implements AbcTokens {
 	private TimeSignature parseFieldMeter(AbcNode fieldMeter) {
 		TimeSignature ret = null;
 		if (fieldMeter != null) {
-			AbcNode timeSignature = fieldMeter.getChild(TimeSignature);
+			AbcNode timeSignature = fieldMeter.getChild(Paths.TimeSignature);
 			if (timeSignature != null && timeSignature.hasChilds()) {
 				AbcNode tsChild = (AbcNode) timeSignature.getChilds().get(0);
-				String label = tsChild.getLabel();
-				if (label.equals(MeterNum)) {
+				if (tsChild.is(Paths.MeterNum)) {
 					String meterNum = tsChild.getValue();
 					String[] fraction = meterNum.split("/");
 					String num = fraction[0];
@@ -954,13 +1309,13 @@ public abstract class AbcParserAbstract implements AbcTokens {
 					}
 					int iDenom = Integer.parseInt(denom);
 					ret = new TimeSignature(sumOfNum, iDenom);
-				} else if (label.equals("C"))
+				} else if (tsChild.is(Paths.C))
 					ret = new TimeSignature(4, 4);
-				else if (label.equals("C|"))
+				else if (tsChild.is(Paths.C_BAR))
 					ret = new TimeSignature(2, 2);
-				else if (label.equals("none"))
+				else if (tsChild.is(Paths.NONE))
 					ret = abc.notation.TimeSignature.SIGNATURE_NONE;
-				else if (label.equals(DIGIT))
+				else if (tsChild.is(Paths.DIGIT))
 					ret = new TimeSignature(Integer.parseInt(tsChild
 							.getValue()), m_defaultNoteLength);
 			}
@@ -977,24 +1332,24 @@ public abstract class AbcParserAbstract implements AbcTokens {
 	
 	private void parseFieldNotes(AbcNode fieldNotes) {
 		if (fieldNotes != null) {
-			m_tune.addNotes(parseTexText(fieldNotes.getChild(TexText)));
+			m_tune.addNotes(parseTexText(fieldNotes.getChild(Paths.TexText)));
 		}
 	}
 	
 	private void parseFieldOrigin(AbcNode fieldOrigin) {
 		if (fieldOrigin != null) {
-			m_tune.setOrigin(parseTexText(fieldOrigin.getChild(TexText)));
+			m_tune.setOrigin(parseTexText(fieldOrigin.getChild(Paths.TexText)));
 		}
 	}
 	
 	private void parseFieldPart(AbcNode fieldPart) {
 		if (fieldPart != null) {
-			AbcNode alpha = fieldPart.getChild(ALPHA);
+			AbcNode alpha = fieldPart.getChild(Paths.ALPHA);
 			if (alpha != null) {
 				closeTuplet();
 				m_brknRthmDotsCorrection = 0;
 				String value = alpha.getValue();
-				AbcNode next = fieldPart.getChild(TexText);
+				AbcNode next = fieldPart.getChild(Paths.TexText);
 				if (next != null)
 					value += next.getTexTextValue();
 				m_music = m_tune.createPart(value).getMusic();
@@ -1004,32 +1359,30 @@ public abstract class AbcParserAbstract implements AbcTokens {
 	
 	private MultiPartsDefinition parseFieldParts(AbcNode fieldParts) {
 		if (fieldParts != null) {
-			AbcNode partsPlayOrder = fieldParts.getChild(PartsPlayOrder);
+			AbcNode partsPlayOrder = fieldParts.getChild(Paths.PartsPlayOrder);
 			if (partsPlayOrder != null) {
 				Stack lifo = new Stack();
 				Iterator it = partsPlayOrder.getChilds().iterator();
 				RepeatedPartAbstract last = new MultiPartsDefinition();
 				lifo.push(last);
-				String label;
 				while (it.hasNext()) {
 					AbcNode node = (AbcNode) it.next();
-					label = node.getLabel();
 					//here we will find "(", ")", ALPHA or DIGITS
-					if (label.equals("(")) {
+					if (node.is(Paths.OPEN_PARENTHESIS)) {
 						last = new MultiPartsDefinition();
 						lifo.push(last);
-					} else if (label.equals(")")) {
+					} else if (node.is(Paths.CLOSE_PARENTHESIS)) {
 						if (lifo.size() >= 2) {
 							last = (MultiPartsDefinition) lifo.pop();
 							((MultiPartsDefinition) lifo.lastElement())
 								.addPart(last);
 						} else
 							last = null;
-					} else if (label.equals(ALPHA)) {
+					} else if (node.is(Paths.ALPHA)) {
 						last = new RepeatedPart(m_tune.createPart(node.getValue()));
 						((MultiPartsDefinition) lifo.lastElement())
 							.addPart(last);
-					} else if (label.equals(DIGITS)) {
+					} else if (node.is(Paths.DIGITS)) {
 						if (last != null)
 							last.setNumberOfRepeats((byte)node.getIntValue());
 					}
@@ -1050,26 +1403,26 @@ public abstract class AbcParserAbstract implements AbcTokens {
 	
 	private void parseFieldRhythm(AbcNode fieldRhythm) {
 		if (fieldRhythm != null) {
-			m_tune.setRhythm(parseTexText(fieldRhythm.getChild(TexText)));
+			m_tune.setRhythm(parseTexText(fieldRhythm.getChild(Paths.TexText)));
 		}
 	}
 	
 	private void parseFieldSource(AbcNode fieldSource) {
 		if (fieldSource != null) {
-			m_tune.addSource(parseTexText(fieldSource.getChild(TexText)));
+			m_tune.addSource(parseTexText(fieldSource.getChild(Paths.TexText)));
 		}
 	}
 	
 	private Tempo parseFieldTempo(AbcNode fieldTempo) {
 		Tempo ret = null;
 		if (fieldTempo != null) {
-			AbcNode tempo = fieldTempo.getChild(Tempo);
+			AbcNode tempo = fieldTempo.getChild(Paths.Tempo);
 			if (tempo != null) {
-				short digits = tempo.getChild(DIGITS).getShortValue();
-				AbcNode noteLengthStrict = tempo.getChild(NoteLengthStrict);
-				if (tempo.hasChild("C")) {
+				short digits = tempo.getChild(Paths.DIGITS).getShortValue();
+				AbcNode noteLengthStrict = tempo.getChild(Paths.NoteLengthStrict);
+				if (tempo.hasChild(Paths.C)) {
 					//Q:C [note-length] = DIGITS
-					Fraction fraction = parseNoteLength(tempo.getChild(NoteLength));
+					Fraction fraction = parseNoteLength(tempo.getChild(Paths.NoteLength));
 					ret = new Tempo(
 							(short)(m_defaultNoteLength * fraction.floatValue()),
 							digits);
@@ -1098,26 +1451,26 @@ public abstract class AbcParserAbstract implements AbcTokens {
 	
 	private void parseFieldTitle(AbcNode fieldTitle) {
 		if (fieldTitle != null) {
-			m_tune.addTitle(parseTexText(fieldTitle.getChild(TexText)));
+			m_tune.addTitle(parseTexText(fieldTitle.getChild(Paths.TexText)));
 		}
 	}
 	
 	private void parseFieldTranscription(AbcNode fieldTranscription) {
 		if (fieldTranscription != null) {
-			m_tune.addTranscriptionNotes(parseTexText(fieldTranscription.getChild(TexText)));
+			m_tune.addTranscriptionNotes(parseTexText(fieldTranscription.getChild(Paths.TexText)));
 		}
 	}
 	
 	private void parseFieldWords(AbcNode fieldWords) {
 		if (fieldWords != null) {
-			m_tune.addWords(parseTexText(fieldWords.getChild(TexText)));
+			m_tune.addWords(parseTexText(fieldWords.getChild(Paths.TexText)));
 		}
 	}
 	
 	private MultiNote parseGraceMultiNote(AbcNode graceMultiNote) {
 		if (graceMultiNote != null) {
 			Vector notes = new Vector(graceMultiNote.getChilds().size(), 1);
-			Iterator it = graceMultiNote.getChilds(GraceNote).iterator();
+			Iterator it = graceMultiNote.getChilds(Paths.GraceNote).iterator();
 			while (it.hasNext()) {
 				AbcNode node = (AbcNode) it.next();
 				notes.add(parseGraceNote(node));
@@ -1129,8 +1482,8 @@ public abstract class AbcParserAbstract implements AbcTokens {
 	
 	private Note parseGraceNote(AbcNode graceNote) {
 		if (graceNote != null) {
-			Note n = parsePitch(graceNote.getChild(Pitch));
-			Fraction fraction = parseNoteLength(graceNote.getChild(NoteLength));
+			Note n = parsePitch(graceNote.getChild(Paths.Pitch));
+			Fraction fraction = parseNoteLength(graceNote.getChild(Paths.NoteLength));
 			if (n != null) {
 				fraction.setDenominator(fraction.getDenominator() * 2);
 				//if (fraction.floatValue() == 1f) {
@@ -1159,14 +1512,14 @@ public abstract class AbcParserAbstract implements AbcTokens {
 	private void parseGraceNotes(AbcNode graceNotes) {
 		if (graceNotes != null) {
 			m_graceNotes.clear();
-			m_graceNotesType = graceNotes.hasChild(Acciaccatura)
+			m_graceNotesType = graceNotes.hasChild(Paths.Acciaccatura)
 				? GracingType.ACCIACCATURA : GracingType.APPOGGIATURA;
-			Iterator it = graceNotes.getChilds(GraceNoteStem).iterator();
+			Iterator it = graceNotes.getChilds(Paths.GraceNoteStem).iterator();
 			while (it.hasNext()) {
 				AbcNode gnStem = (AbcNode) it.next();
 				AbcNode firstChild = gnStem.getFirstChild();
 				NoteAbstract note;
-				if (firstChild.is(GraceNote))
+				if (firstChild.is(Paths.GraceNote))
 					note = parseGraceNote(firstChild);
 				else //GraceMultiNote
 					note = parseGraceMultiNote(firstChild);
@@ -1178,7 +1531,7 @@ public abstract class AbcParserAbstract implements AbcTokens {
 	
 	private SymbolElement parseGracing(AbcNode gracing) {
 		//Ignore "Position" child node
-		AbcNode node = gracing.getChild(LongGracing);
+		AbcNode node = gracing.getChild(Paths.LongGracing);
 		if (node == null)
 			node = gracing;
 		byte de = Decoration.convertToType(node.getValue());
@@ -1199,11 +1552,11 @@ public abstract class AbcParserAbstract implements AbcTokens {
 	private KeySignature parseKeyDef(AbcNode keyDef) {
 		//base note [accidental]
     	//found some abc files with only K: global-accidentals
-    	AbcNode keyBaseNote = keyDef.getChild(BaseNote);
+    	AbcNode keyBaseNote = keyDef.getChild(Paths.BaseNote);
 		byte baseNote = Note.C;
 		if (keyBaseNote != null)
 			baseNote = parseBaseNote(keyBaseNote);
-		AbcNode keyNoteAcc = keyDef.getChild(KeyNoteAccidental);
+		AbcNode keyNoteAcc = keyDef.getChild(Paths.KeyNoteAccidental);
 		Accidental keyAcc = Accidental.NATURAL;
 		if (keyNoteAcc != null) {
 			keyAcc = KeySignature.convertToAccidental(keyNoteAcc.getValue());
@@ -1212,30 +1565,29 @@ public abstract class AbcParserAbstract implements AbcTokens {
 		
 		//[mode]
 		byte keyMode = KeySignature.MAJOR;
-		AbcNode mode = keyDef.getChild(Mode);
+		AbcNode mode = keyDef.getChild(Paths.Mode);
 		if (mode != null) {
 			AbcNode mode2 = mode.getFirstChild();
 			if (mode2 != null) {
-				String label = mode2.getLabel();
-				if (label.equals(Minor))
+				if (mode2.is(Paths.Minor))
 					keyMode = KeySignature.MINOR;
-				else if (label.equals(Major))
+				else if (mode2.is(Paths.Major))
 					keyMode = KeySignature.MAJOR;
-				else if (label.equals(Lydian))
+				else if (mode2.is(Paths.Lydian))
 					keyMode = KeySignature.LYDIAN;
-				else if (label.equals(Ionian))
+				else if (mode2.is(Paths.Ionian))
 					keyMode = KeySignature.IONIAN;
-				else if (label.equals(Mixolydian))
+				else if (mode2.is(Paths.Mixolydian))
 					keyMode = KeySignature.MIXOLYDIAN;
-				else if (label.equals(Dorian))
+				else if (mode2.is(Paths.Dorian))
 					keyMode = KeySignature.DORIAN;
-				else if (label.equals(Aeolian))
+				else if (mode2.is(Paths.Aeolian))
 					keyMode = KeySignature.AEOLIAN;
-				else if (label.equals(Phrygian))
+				else if (mode2.is(Paths.Phrygian))
 					keyMode = KeySignature.PHRYGIAN;
-				else if (label.equals(Locrian))
+				else if (mode2.is(Paths.Locrian))
 					keyMode = KeySignature.LOCRIAN;
-				else //label.equals(Explicit)
+				else //mode2.is(Paths.Explicit)
 					keyMode = KeySignature.OTHER;
 			}
 		}
@@ -1244,12 +1596,12 @@ public abstract class AbcParserAbstract implements AbcTokens {
 		keySig.setCharStreamPosition(keyDef.getCharStreamPosition());
 		
 		//*[accidental base-note]
-		Iterator globalAccIt = keyDef.getChilds(GlobalAccidental).iterator();
+		Iterator globalAccIt = keyDef.getChilds(Paths.GlobalAccidental).iterator();
 		while (globalAccIt.hasNext()) {
 			AbcNode globalAccidental = (AbcNode) globalAccIt.next();
-			Accidental gaAcc = parseAccidental(globalAccidental.getChild(_Accidental));
+			Accidental gaAcc = parseAccidental(globalAccidental.getChild(Paths._Accidental));
 			byte gaBaseNote = Note.getStrictHeight(
-					parseBaseNote(globalAccidental.getChild(BaseNote))
+					parseBaseNote(globalAccidental.getChild(Paths.BaseNote))
 					);
 			keySig.setAccidental(gaBaseNote, gaAcc);
 		}
@@ -1268,7 +1620,7 @@ public abstract class AbcParserAbstract implements AbcTokens {
     private MeasureRest parseMultiMeasureRest(AbcNode multiMeasureRest) {
 		if (multiMeasureRest != null) {
 			int nb = 1;
-			AbcNode digits = multiMeasureRest.getChild(DIGITS);
+			AbcNode digits = multiMeasureRest.getChild(Paths.DIGITS);
 			if (digits != null) {
 				nb = digits.getIntValue();
 			}
@@ -1281,10 +1633,10 @@ public abstract class AbcParserAbstract implements AbcTokens {
 	
 	private NoteAbstract parseMultiNote(AbcNode multiNote) {
 		if (multiNote != null) {
-			AbcNode multiNoteTie = multiNote.getChild(Tie);
-			AbcNode multiNoteLength = multiNote.getChild(NoteLength);
+			AbcNode multiNoteTie = multiNote.getChild(Paths.Tie);
+			AbcNode multiNoteLength = multiNote.getChild(Paths.NoteLength);
 			Vector notes = new Vector(multiNote.getChilds().size(), 1);
-			Iterator it = multiNote.getChilds(_Note).iterator();
+			Iterator it = multiNote.getChilds(Paths._Note).iterator();
 			while (it.hasNext()) {
 				AbcNode node = (AbcNode) it.next();
 				notes.add(parseNote(node, multiNoteLength, multiNoteTie));
@@ -1304,13 +1656,13 @@ public abstract class AbcParserAbstract implements AbcTokens {
 	
 	private Note parseNote(AbcNode note, AbcNode multiLength, AbcNode multiTie) {
 		if (note != null) {
-			Note n = parsePitch(note.getChild(Pitch));
-			Fraction fraction = parseNoteLength(note.getChild(NoteLength));
+			Note n = parsePitch(note.getChild(Paths.Pitch));
+			Fraction fraction = parseNoteLength(note.getChild(Paths.NoteLength));
 			if (multiLength != null)
 				fraction.multiplyBy(parseNoteLength(multiLength));
 			boolean isTied = (multiTie != null)
 					?true
-					:note.hasChild(Tie);
+					:note.hasChild(Paths.Tie);
 			if (n != null) {
 				if (fraction.equalsOne()) {
 					n.setStrictDuration(m_defaultNoteLength);
@@ -1331,7 +1683,7 @@ public abstract class AbcParserAbstract implements AbcTokens {
 				}
 				if (isTied) {
 					TieDefinition tieDef = new TieDefinition();
-					AbcNode tieNode = multiTie!=null?multiTie:note.getChild(Tie);
+					AbcNode tieNode = multiTie!=null?multiTie:note.getChild(Paths.Tie);
 					tieDef.setCharStreamPosition(tieNode.getCharStreamPosition());
 					tieDef.setStart(n.getReference());
 					n.setTieDefinition(tieDef);
@@ -1419,55 +1771,55 @@ public abstract class AbcParserAbstract implements AbcTokens {
 			return;
 		// A: area
 		// FIXME v2 A: lyricist ?
-		parseFieldArea(otherFields.getChild(FieldArea));
+		parseFieldArea(otherFields.getChild(Paths.FieldArea));
 		// B: book
-		Iterator it = otherFields.getChilds(FieldBook).iterator();
+		Iterator it = otherFields.getChilds(Paths.FieldBook).iterator();
 		while (it.hasNext()) {
 			parseFieldBook((AbcNode) it.next());
 		}
 		// C: composer
-		it = otherFields.getChilds(FieldComposer).iterator();
+		it = otherFields.getChilds(Paths.FieldComposer).iterator();
 		while (it.hasNext()) {
 			parseFieldComposer((AbcNode) it.next());
 		}
 		// D: discography
-		it = otherFields.getChilds(FieldDiscography).iterator();
+		it = otherFields.getChilds(Paths.FieldDiscography).iterator();
 		while (it.hasNext()) {
 			parseFieldDiscography((AbcNode) it.next());
 		}
 		// F: file
-		parseFieldFile(otherFields.getChild(FieldFile));
+		parseFieldFile(otherFields.getChild(Paths.FieldFile));
 		// G: group
-		it = otherFields.getChilds(FieldGroup).iterator();
+		it = otherFields.getChilds(Paths.FieldGroup).iterator();
 		while (it.hasNext()) {
 			parseFieldGroup((AbcNode) it.next());
 		}
 		// H: history
-		it = otherFields.getChilds(FieldHistory).iterator();
+		it = otherFields.getChilds(Paths.FieldHistory).iterator();
 		while (it.hasNext()) {
 			parseFieldHistory((AbcNode) it.next());
 		}
 		// N: notes
-		it = otherFields.getChilds(FieldNotes).iterator();
+		it = otherFields.getChilds(Paths.FieldNotes).iterator();
 		while (it.hasNext()) {
 			parseFieldNotes((AbcNode) it.next());
 		}
 		// O: origin
-		parseFieldOrigin(otherFields.getChild(FieldOrigin));
+		parseFieldOrigin(otherFields.getChild(Paths.FieldOrigin));
 		// R: rhythm
-		parseFieldRhythm(otherFields.getChild(FieldRhythm));
+		parseFieldRhythm(otherFields.getChild(Paths.FieldRhythm));
 		// S: source
-		it = otherFields.getChilds(FieldSource).iterator();
+		it = otherFields.getChilds(Paths.FieldSource).iterator();
 		while (it.hasNext()) {
 			parseFieldSource((AbcNode) it.next());
 		}
 		// Z: transcription
-		it = otherFields.getChilds(FieldTranscription).iterator();
+		it = otherFields.getChilds(Paths.FieldTranscription).iterator();
 		while (it.hasNext()) {
 			parseFieldTranscription((AbcNode) it.next());
 		}
 		// W: words
-		it = otherFields.getChilds(FieldWords).iterator();
+		it = otherFields.getChilds(Paths.FieldWords).iterator();
 		while (it.hasNext()) {
 			parseFieldWords((AbcNode) it.next());
 		}
@@ -1479,21 +1831,21 @@ public abstract class AbcParserAbstract implements AbcTokens {
 		// TODO m: macro
 
 		// M: meter
-		parseFieldMeter(otherFields.getChild(FieldMeter));
+		parseFieldMeter(otherFields.getChild(Paths.FieldMeter));
 		// L: length
-		parseFieldLength(otherFields.getChild(FieldLength));
+		parseFieldLength(otherFields.getChild(Paths.FieldLength));
 		//Q: tempo
-		parseFieldTempo(otherFields.getChild(FieldTempo));
+		parseFieldTempo(otherFields.getChild(Paths.FieldTempo));
 
 		//P: parts
-		parseFieldParts(otherFields.getChild(FieldParts));
+		parseFieldParts(otherFields.getChild(Paths.FieldParts));
 
 	}
 
 	private Note parsePitch(AbcNode pitch) {
-        Accidental accidental = parseAccidental(pitch.getChild(_Accidental));
-        byte height = parseBaseNote(pitch.getChild(BaseNote));
-        byte octav = parseOctave(pitch.getChild(Octave));
+        Accidental accidental = parseAccidental(pitch.getChild(Paths._Accidental));
+        byte height = parseBaseNote(pitch.getChild(Paths.BaseNote));
+        byte octav = parseOctave(pitch.getChild(Paths.Octave));
         Note n = new Note(height, accidental, octav);
         n.setCharStreamPosition(pitch.getCharStreamPosition());
         return n;
@@ -1501,10 +1853,10 @@ public abstract class AbcParserAbstract implements AbcTokens {
 	
 	private MusicElement parseRest(AbcNode rest) {
 		MusicElement ret = null;
-		Fraction fraction = parseNoteLength(rest.getChild(NoteLength));
-		if (rest.hasChild(NormalRest)) { //z
+		Fraction fraction = parseNoteLength(rest.getChild(Paths.NoteLength));
+		if (rest.hasChild(Paths.NormalRest)) { //z
 			ret = new Note(Note.REST);
-		} else if (rest.hasChild(InvisibleRest)) { //x
+		} else if (rest.hasChild(Paths.InvisibleRest)) { //x
 			ret = new Note(Note.REST);
 			((Note)ret).setInvisibleRest(true);
 		}
@@ -1529,10 +1881,11 @@ public abstract class AbcParserAbstract implements AbcTokens {
 			applyBrokenRhythmToNote((Note)ret);
 			m_brknRthmDotsCorrection = 0;
 			m_lastParsedNote = (Note)ret;
+			ret.setCharStreamPosition(rest.getCharStreamPosition());
 			return ret;
 		}
 		//Spacer
-		if (rest.hasChild(InaudibleRest)) { //y
+		if (rest.hasChild(Paths.InaudibleRest)) { //y
 			ret = new Spacer(fraction.floatValue());
 		}
 		if (ret != null)
@@ -1540,6 +1893,49 @@ public abstract class AbcParserAbstract implements AbcTokens {
 		return ret;
 	}
 	
+	/**
+	 * Parses chars which are a part of a bigger stream, and builds their
+	 * notation in the same pass. The descent parser of
+	 * {@link AbcDescentBackend} gives each header, element and end of line
+	 * as soon as it is parsed, its notation is built, then its nodes are
+	 * dropped: no parsing tree is kept.
+	 * <p>
+	 * Returns the tune book built from the book header followed by the
+	 * tunes, or <TT>null</TT> if the chars are not in the subset supported
+	 * by the descent parser, see {@link #getParseTree(char[], int, int)}
+	 * then. Listeners are not notified.
+	 * 
+	 * @param abc
+	 * @param lineOffset
+	 *            number of lines in the stream before abc
+	 * @param indexOffset
+	 *            number of chars in the stream before abc
+	 */
+	protected List parseSinglePass(char[] abc, int lineOffset,
+			int indexOffset) {
+		ParseMetrics metrics = null;
+		long[] phase = null;
+		if (m_bookMetrics != null) {
+			metrics = new ParseMetrics();
+			phase = ParseMetrics.startPhase();
+		}
+		SinglePassBuilder builder = new SinglePassBuilder();
+		builder.m_parser = new AbcDescentParser(abc, builder);
+		m_parseErrors = false;
+		boolean parsed = builder.m_parser.parse(new AbcInputBuffer(abc,
+				lineOffset, indexOffset)) != null;
+		if (metrics != null) {
+			//the whole pass is counted as notation build, or as grammar
+			//if the chars are handed over to the backend
+			metrics.endPhase(parsed ? ParseMetrics.NOTATION
+					: ParseMetrics.GRAMMAR, phase);
+			if (parsed)
+				metrics.addChars(abc.length);
+			m_bookMetrics.add(metrics);
+		}
+		return parsed ? builder.m_result : null;
+	}
+
 	private void parseSlurBegin(AbcNode slurBegin) {
 		SlurDefinition sd = new SlurDefinition();
 		sd.setCharStreamPosition(slurBegin.getCharStreamPosition());
@@ -1572,10 +1968,9 @@ public abstract class AbcParserAbstract implements AbcTokens {
 		if (stem != null) {
 			AbcNode firstChild = stem.getFirstChild();
 			if (firstChild != null) {
-				String label = firstChild.getLabel();
-				if (label.equals(_Note))
+				if (firstChild.is(Paths._Note))
 					note = parseNote(firstChild, null, null);
-				else if (label.equals(_MultiNote))
+				else if (firstChild.is(Paths._MultiNote))
 					note = parseMultiNote(firstChild);
 			}
 			if (note != null) {
@@ -1611,7 +2006,7 @@ public abstract class AbcParserAbstract implements AbcTokens {
 	
 	private void parseTitleFields(AbcNode titleFields) {
 		if (titleFields != null) {
-			List fieldTitle = titleFields.getChilds(FieldTitle);
+			List fieldTitle = titleFields.getChilds(Paths.FieldTitle);
 			Iterator it = fieldTitle.iterator();
 			while (it.hasNext()) {
 				parseFieldTitle((AbcNode) it.next());
@@ -1685,10 +2080,9 @@ public abstract class AbcParserAbstract implements AbcTokens {
 			Iterator it = tbHeader.getChilds().iterator();
 			while (it.hasNext()) {
 				AbcNode node = (AbcNode) it.next();
-				String label = node.getLabel();
-				if (label.equals(FileField))
+				if (node.is(Paths.FileField))
 					parseTuneAndInlineFields(node);
-				else if (label.equals(Xcommand))
+				else if (node.is(Paths.Xcommand))
 					parseXcommand(node);
 			}
 			tb.getInstructions().addAll(m_tune.getInstructions());
@@ -1704,7 +2098,7 @@ public abstract class AbcParserAbstract implements AbcTokens {
 			int i = 1;
 			while (it.hasNext()) {
 				AbcNode node = (AbcNode) it.next();
-				if (node.is(":"))
+				if (node.is(Paths.COLON))
 					i++;
 				else if (node.getValue().length() > 0){
 					int digits = node.getIntValue();
@@ -1745,7 +2139,7 @@ public abstract class AbcParserAbstract implements AbcTokens {
 	
 	private void parseXcommand(AbcNode xcommand) {
 		if (xcommand != null) {
-			AbcNode xcom = xcommand.getChild(Xcom);
+			AbcNode xcom = xcommand.getChild(Paths.Xcom);
 			if (xcom != null) {
 				m_tune.addInstruction(
 						new Xcommand(xcom.getTexTextValue())
@@ -1754,17 +2148,103 @@ public abstract class AbcParserAbstract implements AbcTokens {
 		}
 	}
 
+	/**
+	 * Reads the whole content of the reader as a String.
+	 */
+	protected static String readString(Reader reader) throws IOException {
+		StringWriter writer = new StringWriter();
+		char[] buffer = new char[32 * 1024];
+		int n;
+		while ((n = reader.read(buffer)) != -1) {
+			writer.write(buffer, 0, n);
+		}
+		return writer.toString();
+	}
+
 	/**
 	 * Removes a listener from this parser.
 	 * 
 	 * @param listener
 	 *            The listener to be removed. Object that implements the
 	 *            {@link TuneBookParserListenerInterface},
-	 *            {@link TuneParserListenerInterface} or
-	 *            {@link TuneBookListenerInterface}.
+	 *            {@link TuneParserListenerInterface},
+	 *            {@link TuneBookListenerInterface} or
+	 *            {@link ParseMetricsListenerInterface}.
 	 */
 	public void removeListener(EventListener listener) {
 		m_listeners.remove(listener);
 	}
 
+	/**
+	 * Sets the backend which builds the parsing trees of this parser, by
+	 * default an {@link AbcGrammarBackend}.
+	 * 
+	 * @throws IllegalArgumentException if <TT>backend</TT> is <TT>null</TT>
+	 */
+	public void setBackend(ParserBackend backend) {
+		if (backend == null)
+			throw new IllegalArgumentException("backend can't be null");
+		m_backend = backend;
+	}
+
+	/**
+	 * Sets the cache of parsed tunes used by this parser, <TT>null</TT> to
+	 * parse every tune. Tunes found in the cache are shared, they must not be
+	 * modified.
+	 */
+	public void setCache(AbcTuneCache cache) {
+		m_cache = cache;
+	}
+
+	/**
+	 * Builds the notation of the nodes given by an {@link AbcDescentParser},
+	 * as {@link AbcParserAbstract#parseAbcTune(AbcNode)} does from a tree.
+	 */
+	private class SinglePassBuilder implements AbcDescentParser.Handler {
+
+		private final int ABC_TUNE_BOOK_HEADER = AbcNodePath
+				.getLabelId(AbcTokens.AbcTuneBookHeader);
+		private final int ABC_TUNE = AbcNodePath.getLabelId(AbcTokens.AbcTune);
+		private final int ABC_HEADER = AbcNodePath
+				.getLabelId(AbcTokens.AbcHeader);
+		private final int ABC_LINE = AbcNodePath.getLabelId(AbcTokens.AbcLine);
+		private final int ABC_EOL = AbcNodePath.getLabelId(AbcTokens.AbcEol);
+		private final int ELEMENT = AbcNodePath.getLabelId(AbcTokens.Element);
+
+		private AbcDescentParser m_parser = null;
+
+		/** The tune book, then the tunes */
+		private List m_result = new ArrayList();
+
+		public void nodeOpened(int labelId) {
+			if ((labelId == ABC_LINE) && isCancelled(true))
+				throw new CancellationException();
+		}
+
+		public boolean nodeClosed(int labelId, int node) {
+			if (labelId == ELEMENT)
+				parseElement(m_parser.getNode(node));
+			else if (labelId == ABC_EOL)
+				parseAbcEol(m_parser.getNode(node));
+			else if (labelId == ABC_LINE) {
+				//end of parseAbcLine
+				closeTuplet();
+				m_brknRthmDotsCorrection = 0;
+			} else if (labelId == ABC_HEADER) {
+				//a tune always has a header, it starts the tune
+				if (isCancelled(false))
+					throw new CancellationException();
+				initNewTune();
+				parseAbcHeader(m_parser.getNode(node));
+			} else if (labelId == ABC_TUNE) {
+				m_tune.setAbcString(m_parser.getNode(node).getValue());
+				m_result.add(m_tune);
+			} else if (labelId == ABC_TUNE_BOOK_HEADER)
+				m_result.add(0, parseTuneBookHeader(m_parser.getNode(node)));
+			else
+				return false;
+			return true;
+		}
+	}
+
 }
@@ -15,6 +15,7 @@
 // along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
 package abc.parser;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Enumeration;
 import java.util.HashMap;
@@ -29,13 +30,14 @@ import java.util.ResourceBundle;
  */
 public class AbcTextReplacements extends ResourceBundle {
 
-	private static AbcTextReplacements instance = null;
-	
 	static final Map map = new HashMap();
 
+	private static final AbcTextReplacements instance = new AbcTextReplacements();
+
+	/** Keys of the bundle compiled in a trie, see {@link #replace(String)} */
+	private final Trie trie;
+
 	public static AbcTextReplacements getInstance() {
-		if (instance == null)
-			instance = new AbcTextReplacements();
 		return instance;
 	}
 
@@ -255,6 +257,19 @@ public class AbcTextReplacements extends ResourceBundle {
 		map.put("\\.o", "\u022F");//o-dotabove
 		map.put("\\=Y", "\u0232");//Y-macron
 		map.put("\\=y", "\u0233");//y-macron
+
+		trie = new Trie(map);
+	}
+
+	/**
+	 * Replaces all the keys of this bundle found in the text by their
+	 * value, in one pass from left to right.
+	 *
+	 * @return the text with replaced keys, <TT>text</TT> itself if it
+	 *         contains no key.
+	 */
+	public String replace(String text) {
+		return trie.replace(text);
 	}
 
 	public Enumeration getKeys() {
@@ -274,4 +289,110 @@ public class AbcTextReplacements extends ResourceBundle {
 		return map.get(key);
 	}
 
+	/**
+	 * Immutable trie of replacement keys. Each node has the sorted chars
+	 * which can follow it, and the replacement of the key ending on it.
+	 */
+	private static class Trie {
+
+		private char[] chars = new char[0];
+
+		private Trie[] next = new Trie[0];
+
+		private String replacement = null;
+
+		Trie(Map replacements) {
+			Iterator it = replacements.entrySet().iterator();
+			while (it.hasNext()) {
+				Map.Entry e = (Map.Entry) it.next();
+				String key = (String) e.getKey();
+				if (key.length() > 0)
+					add(key, 0, (String) e.getValue());
+			}
+		}
+
+		private Trie() {
+			//
+		}
+
+		private void add(String key, int from, String value) {
+			if (from == key.length()) {
+				replacement = value;
+				return;
+			}
+			char c = key.charAt(from);
+			int i = Arrays.binarySearch(chars, c);
+			if (i < 0) {
+				i = -i - 1;
+				char[] newChars = new char[chars.length + 1];
+				Trie[] newNext = new Trie[next.length + 1];
+				System.arraycopy(chars, 0, newChars, 0, i);
+				System.arraycopy(next, 0, newNext, 0, i);
+				newChars[i] = c;
+				newNext[i] = new Trie();
+				System.arraycopy(chars, i, newChars, i + 1, chars.length - i);
+				System.arraycopy(next, i, newNext, i + 1, next.length - i);
+				chars = newChars;
+				next = newNext;
+			}
+			next[i].add(key, from + 1, value);
+		}
+
+		private Trie child(char c) {
+			//few children, a linear scan is enough
+			for (int i = 0; i < chars.length; i++)
+				if (chars[i] == c)
+					return next[i];
+			return null;
+		}
+
+		/**
+		 * Returns the length of the longest key starting at <TT>from</TT>,
+		 * 0 if none, its replacement in <TT>found[0]</TT>
+		 */
+		private int match(String text, int from, String[] found) {
+			int ret = 0;
+			Trie node = this;
+			for (int i = from, j = text.length(); i < j; i++) {
+				node = node.child(text.charAt(i));
+				if (node == null)
+					break;
+				if (node.replacement != null) {
+					found[0] = node.replacement;
+					ret = i + 1 - from;
+				}
+			}
+			return ret;
+		}
+
+		String replace(String text) {
+			if (text == null)
+				return null;
+			StringBuffer sb = null;
+			String[] found = null;
+			int copied = 0;
+			for (int i = 0, j = text.length(); i < j;) {
+				if (child(text.charAt(i)) == null) {
+					i++;
+					continue;
+				}
+				if (found == null)
+					found = new String[1];
+				int length = match(text, i, found);
+				if (length == 0) {
+					i++;
+					continue;
+				}
+				if (sb == null)
+					sb = new StringBuffer(j);
+				sb.append(text, copied, i).append(found[0]);
+				i += length;
+				copied = i;
+			}
+			if (sb == null)
+				return text;
+			return sb.append(text, copied, text.length()).toString();
+		}
+	}
+
 }
@@ -19,7 +19,14 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 
+import abc.notation.Clef;
+import abc.notation.KeySignature;
+import abc.notation.MultiPartsDefinition;
+import abc.notation.Music;
+import abc.notation.Part;
+import abc.notation.Tempo;
 import abc.notation.Tune;
+import abc.notation.Voice;
 
 /**
  * An AbcTune is a {@link abc.notation.Tune} writted in ABC language. <br>
@@ -28,6 +35,13 @@ import abc.notation.Tune;
  * <p>
  * Even if the tune content is modified, the {@link #saveAs(File)} method save
  * the non-modified source. <b>This is not yet a Tune to ABC converter!</b>
+ * <p>
+ * Tunes read by {@link TuneBookParser#parseLazily(java.io.Reader)} have
+ * their header only, their music is parsed on first call to
+ * {@link #getMusic()}, {@link #getMusicForGraphicalRendition()},
+ * {@link #getMusicForAudioRendition()} or other methods needing it. Until
+ * then, {@link #getKey()}, {@link #getClef()} and
+ * {@link #getGeneralTempo()} answer from the header fields.
  */
 public class AbcTune extends Tune {
 
@@ -35,6 +49,18 @@ public class AbcTune extends Tune {
 
 	private String m_abcString = null;
 
+	/** Index of the tune first char in its source stream, -1 if unknown */
+	private int m_sourceStartIndex = -1;
+
+	/** Index after the tune last char in its source stream, -1 if unknown */
+	private int m_sourceEndIndex = -1;
+
+	/** Line (starting at 1) of the tune first char, -1 if unknown */
+	private int m_sourceStartLine = -1;
+
+	/** Source and music of a lazily parsed tune, <TT>null</TT> otherwise */
+	private transient AbcTuneBody m_body = null;
+
 	public AbcTune() {
 		super();
 	}
@@ -56,6 +82,8 @@ public class AbcTune extends Tune {
 	 * @return may return <code>null</code>
 	 */
 	public String getAbcString() {
+		if (m_body != null)
+			return m_body.getText(m_sourceStartIndex, m_sourceEndIndex);
 		return m_abcString;
 	}
 
@@ -80,4 +108,144 @@ public class AbcTune extends Tune {
 		m_abcString = abcString;
 	}
 
+	/**
+	 * Returns the index of the tune first char in the tune book stream it
+	 * comes from, -1 if unknown. Known for tunes read by
+	 * {@link TuneBookParser#parseHeaders(java.io.Reader)}.
+	 */
+	public int getSourceStartIndex() {
+		return m_sourceStartIndex;
+	}
+
+	/**
+	 * Returns the index after the tune last char in the tune book stream
+	 * it comes from, -1 if unknown.
+	 */
+	public int getSourceEndIndex() {
+		return m_sourceEndIndex;
+	}
+
+	/**
+	 * Returns the line (starting at 1) of the tune first char in the tune
+	 * book stream it comes from, -1 if unknown.
+	 */
+	public int getSourceStartLine() {
+		return m_sourceStartLine;
+	}
+
+	protected void setSourceSpan(int startIndex, int endIndex, int startLine) {
+		m_sourceStartIndex = startIndex;
+		m_sourceEndIndex = endIndex;
+		m_sourceStartLine = startLine;
+	}
+
+	protected void setBody(AbcTuneBody body) {
+		m_body = body;
+	}
+
+	/**
+	 * Returns <TT>false</TT> if this tune music is not parsed yet, or has
+	 * been evicted from memory. Always <TT>true</TT> for tunes which are not
+	 * lazily parsed.
+	 * 
+	 * @see TuneBookParser#parseLazily(java.io.Reader)
+	 */
+	public boolean isMusicParsed() {
+		return (m_body == null) || m_body.isParsed();
+	}
+
+	/**
+	 * Returns the fully parsed tune of a lazily parsed tune, <TT>null</TT>
+	 * if this tune is not lazy or can't be parsed.
+	 */
+	private AbcTune getBodyTune() {
+		return (m_body != null) ? m_body.getTune(this) : null;
+	}
+
+	/** Returns <TT>true</TT> if this tune has an unparsed music */
+	private boolean isHeaderOnly() {
+		return (m_body != null) && !m_body.isParsed();
+	}
+
+	public KeySignature getKey() {
+		if (isHeaderOnly())
+			return super.getMusic().getKey();
+		return super.getKey();
+	}
+
+	public Clef getClef() {
+		if (isHeaderOnly()) {
+			KeySignature key = super.getMusic().getKey();
+			return (key != null) ? key.getClef() : null;
+		}
+		return super.getClef();
+	}
+
+	/**
+	 * Returns the tempo of the header while the music is not parsed, see
+	 * {@link Tune#getGeneralTempo()}.
+	 */
+	public Tempo getGeneralTempo() {
+		if (isHeaderOnly()) {
+			Voice voice = super.getMusic().getVoice("1");
+			for (int i = 0; i < voice.size(); i++)
+				if (voice.elementAt(i) instanceof Tempo)
+					return (Tempo) voice.elementAt(i);
+			return null;
+		}
+		return super.getGeneralTempo();
+	}
+
+	public Music getMusic() {
+		AbcTune body = getBodyTune();
+		return (body != null) ? body.getMusic() : super.getMusic();
+	}
+
+	public Music getMusicForGraphicalRendition() {
+		AbcTune body = getBodyTune();
+		return (body != null) ? body.getMusicForGraphicalRendition()
+				: super.getMusicForGraphicalRendition();
+	}
+
+	public Music getMusicForAudioRendition() {
+		AbcTune body = getBodyTune();
+		return (body != null) ? body.getMusicForAudioRendition()
+				: super.getMusicForAudioRendition();
+	}
+
+	public Part getPart(String partLabel) {
+		AbcTune body = getBodyTune();
+		return (body != null) ? body.getPart(partLabel)
+				: super.getPart(partLabel);
+	}
+
+	public MultiPartsDefinition getMultiPartsDefinition() {
+		AbcTune body = getBodyTune();
+		return (body != null) ? body.getMultiPartsDefinition()
+				: super.getMultiPartsDefinition();
+	}
+
+	public Voice getVoice(String voiceName) {
+		AbcTune body = getBodyTune();
+		return (body != null) ? body.getVoice(voiceName)
+				: super.getVoice(voiceName);
+	}
+
+	/**
+	 * A lazily parsed tune is cloned as its fully parsed tune, so that the
+	 * clone has music of its own, see {@link Tune#clone()}.
+	 */
+	public Object clone() {
+		AbcTune body = getBodyTune();
+		return (body != null) ? body.clone() : super.clone();
+	}
+
+	/**
+	 * A lazily parsed tune is serialized as its fully parsed tune.
+	 */
+	protected Object writeReplace() {
+		AbcTune body = getBodyTune();
+		return (body != null) ? body : this;
+	}
+
 }
@@ -0,0 +1,109 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.parser;
+
+import java.io.CharArrayReader;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+
+/**
+ * Source of a tune read by {@link TuneBookParser#parseLazily(java.io.Reader)},
+ * and its music once parsed.
+ * <p>
+ * The tune book chars are shared by all the tunes of the book. The music
+ * is parsed on first request, only once even if several threads ask for
+ * it. When evictable, the parsed tune is softly referenced: the garbage
+ * collector may clear it under memory pressure, and it is parsed again
+ * on next request.
+ */
+class AbcTuneBody {
+
+	/** Chars of the whole tune book */
+	private char[] m_source;
+
+	private AbcTuneCache m_cache;
+
+	private ParserBackend m_backend;
+
+	private boolean m_evictable;
+
+	/** Snapshot of the tune book parsing trees, may be <TT>null</TT> */
+	private TuneBookSnapshot m_snapshot;
+
+	/** The parsed tune, or a SoftReference to it when evictable */
+	private Object m_tune = null;
+
+	AbcTuneBody(char[] source, AbcTuneCache cache, ParserBackend backend,
+			boolean evictable) {
+		m_source = source;
+		m_cache = cache;
+		m_backend = backend;
+		m_evictable = evictable;
+	}
+
+	AbcTuneBody(char[] source, AbcTuneCache cache, ParserBackend backend,
+			boolean evictable, TuneBookSnapshot snapshot) {
+		this(source, cache, backend, evictable);
+		m_snapshot = snapshot;
+	}
+
+	/**
+	 * Returns the fully parsed tune of <TT>tuneHeader</TT>, parsing it if
+	 * needed, <TT>null</TT> if it can't be parsed.
+	 */
+	synchronized AbcTune getTune(AbcTune tuneHeader) {
+		AbcTune ret = (m_tune instanceof SoftReference)
+				? (AbcTune) ((SoftReference) m_tune).get()
+				: (AbcTune) m_tune;
+		if (ret == null) {
+			if (m_snapshot != null)
+				ret = m_snapshot.getTuneAt(tuneHeader.getSourceStartIndex());
+			if (ret == null) {
+				//no snapshot, or tune which can't be decoded from it
+				TuneBookParser parser = new TuneBookParser();
+				parser.setCache(m_cache);
+				parser.setBackend(m_backend);
+				try {
+					ret = parser.parseTune(new CharArrayReader(m_source),
+							tuneHeader);
+				} catch (IOException never) {
+					//can't happen with a CharArrayReader
+					throw new RuntimeException(never);
+				}
+			}
+			if (ret != null)
+				m_tune = m_evictable ? (Object) new SoftReference(ret) : ret;
+		}
+		return ret;
+	}
+
+	/** Returns <TT>true</TT> if the music is parsed and not evicted */
+	synchronized boolean isParsed() {
+		return (m_tune instanceof SoftReference)
+			? (((SoftReference) m_tune).get() != null)
+			: (m_tune != null);
+	}
+
+	boolean isEvictable() {
+		return m_evictable;
+	}
+
+	/** Returns the source text of the tune from <TT>start</TT> to <TT>end</TT> */
+	String getText(int start, int end) {
+		return new String(m_source, start, end - start);
+	}
+
+}
@@ -44,6 +44,9 @@ public class AbcTuneBook extends TuneBook {
 
 	private ArrayList m_listeners = new ArrayList(2);
 
+	/** Cache used to parse tunes put as strings, <TT>null</TT> if none */
+	private transient AbcTuneCache m_parseCache = null;
+
 	public AbcTuneBook() {
 		super();
 	}
@@ -71,6 +74,14 @@ public class AbcTuneBook extends TuneBook {
 		return m_abcHeaderString;
 	}
 
+	/**
+	 * Returns the cache used by {@link #putTune(String)}, <TT>null</TT> if
+	 * none.
+	 */
+	public AbcTuneCache getParseCache() {
+		return m_parseCache;
+	}
+
 	public String getAbcString() {
 		StringBuffer sb = new StringBuffer(getAbcHeaderString());
 		if (sb.length() > 0)
@@ -91,8 +102,18 @@ public class AbcTuneBook extends TuneBook {
 			((TuneBookListenerInterface) m_listeners.get(i)).tuneChanged(e);
 	}
 	
+	/**
+	 * Parses the string and puts the tune into the book.
+	 * 
+	 * @param abcString
+	 *            ABC text of one tune
+	 * @return true if it replaced an existing tune, false otherwise
+	 * @see #putTune(AbcTune)
+	 * @see #setParseCache(AbcTuneCache)
+	 */
 	public boolean putTune(String abcString) {
 		TuneParser tp = new TuneParser();
+		tp.setCache(m_parseCache);
 		return putTune(tp.parse(abcString));
 	}
 
@@ -162,4 +183,16 @@ public class AbcTuneBook extends TuneBook {
 		super.setBookInfos(bookInfos);
 	}
 
+	/**
+	 * Sets the cache used by {@link #putTune(String)}: a tune put again with
+	 * the same text is not parsed again. The cache can be shared by several
+	 * books and parsers, its tunes must not be modified.
+	 * 
+	 * @param cache
+	 *            The cache, <TT>null</TT> to parse every tune.
+	 */
+	public void setParseCache(AbcTuneCache cache) {
+		m_parseCache = cache;
+	}
+
 }
@@ -0,0 +1,268 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.parser;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A cache of parsed tunes, shared by parsers with
+ * {@link AbcParserAbstract#setCache(AbcTuneCache)}. Tunes are found by a
+ * SHA-1 digest of their ABC text, and by their offsets in the stream they
+ * were parsed from (so that positions are right in tune books).
+ * <p>
+ * Texts differing only by line terminators have tunes of their own, as
+ * char stream positions and abc strings of the tunes depend on them.
+ * <p>
+ * The least recently used tunes are removed when the estimated memory used
+ * by the cached tunes exceeds the given bound. Tunes are shared between all
+ * the users of the cache, they must not be modified.
+ * <p>
+ * This class is thread safe.
+ */
+public class AbcTuneCache {
+
+	/** Default memory bound: 32 Mb */
+	public static final long DEFAULT_MAX_MEMORY = 32L * 1024 * 1024;
+
+	/**
+	 * Estimated memory (in bytes) used by a tune per char of its source,
+	 * including the source itself.
+	 */
+	private static final int BYTES_PER_CHAR = 80;
+
+	/** Key and entry of a cached tune */
+	private static class Entry {
+		private byte[] m_digest;
+		private int m_lineOffset;
+		private int m_indexOffset;
+		private int m_hashCode;
+		private AbcTune m_tune = null;
+		private long m_memory = 0;
+
+		Entry(byte[] digest, int lineOffset, int indexOffset) {
+			m_digest = digest;
+			m_lineOffset = lineOffset;
+			m_indexOffset = indexOffset;
+			m_hashCode = (Arrays.hashCode(digest) * 31 + lineOffset) * 31
+					+ indexOffset;
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof Entry))
+				return false;
+			Entry e = (Entry) o;
+			return (m_lineOffset == e.m_lineOffset)
+					&& (m_indexOffset == e.m_indexOffset)
+					&& Arrays.equals(m_digest, e.m_digest);
+		}
+
+		public int hashCode() {
+			return m_hashCode;
+		}
+	}
+
+	/** Entries by themselves, in access order */
+	private LinkedHashMap m_entries = new LinkedHashMap(64, 0.75f, true);
+
+	private long m_maxMemory;
+
+	private long m_memory = 0;
+
+	private long m_hits = 0;
+
+	private long m_misses = 0;
+
+	private long m_evictions = 0;
+
+	/** Creates a cache bounded to {@link #DEFAULT_MAX_MEMORY}. */
+	public AbcTuneCache() {
+		this(DEFAULT_MAX_MEMORY);
+	}
+
+	/**
+	 * Creates a cache bounded to the given memory.
+	 * 
+	 * @param maxMemory
+	 *            Maximum memory, in bytes, estimated for cached tunes.
+	 */
+	public AbcTuneCache(long maxMemory) {
+		if (maxMemory < 0)
+			throw new IllegalArgumentException("Negative memory bound "
+					+ maxMemory);
+		m_maxMemory = maxMemory;
+	}
+
+	/** Removes all the tunes, statistics are kept. */
+	public synchronized void clear() {
+		m_entries.clear();
+		m_memory = 0;
+	}
+
+	/**
+	 * Returns the tune parsed from the given text, <TT>null</TT> if not
+	 * cached.
+	 * 
+	 * @param abcString
+	 *            ABC text of the tune, parsed alone
+	 */
+	public AbcTune get(String abcString) {
+		return get(abcString, 0, 0);
+	}
+
+	/**
+	 * Returns the tune parsed from the given text when it was a part of a
+	 * bigger stream, <TT>null</TT> if not cached.
+	 * 
+	 * @param abcString
+	 *            ABC text of the tune
+	 * @param lineOffset
+	 *            number of lines in the stream before abcString
+	 * @param indexOffset
+	 *            number of chars in the stream before abcString
+	 */
+	public AbcTune get(String abcString, int lineOffset, int indexOffset) {
+		Entry key = new Entry(digest(abcString), lineOffset, indexOffset);
+		synchronized (this) {
+			Entry entry = (Entry) m_entries.get(key);
+			if (entry == null) {
+				m_misses++;
+				return null;
+			}
+			m_hits++;
+			return entry.m_tune;
+		}
+	}
+
+	/** Returns the number of requests that found a tune */
+	public synchronized long getHitCount() {
+		return m_hits;
+	}
+
+	/**
+	 * Returns the part of requests that found a tune, between 0 and 1, 0 if
+	 * no request has been done.
+	 */
+	public synchronized double getHitRatio() {
+		long requests = m_hits + m_misses;
+		return requests == 0 ? 0 : (double) m_hits / requests;
+	}
+
+	/** Returns the number of tunes removed to respect the memory bound */
+	public synchronized long getEvictionCount() {
+		return m_evictions;
+	}
+
+	/** Returns the maximum memory, in bytes, estimated for cached tunes */
+	public long getMaxMemory() {
+		return m_maxMemory;
+	}
+
+	/** Returns the memory, in bytes, estimated for cached tunes */
+	public synchronized long getMemory() {
+		return m_memory;
+	}
+
+	/** Returns the number of requests that didn't find a tune */
+	public synchronized long getMissCount() {
+		return m_misses;
+	}
+
+	/**
+	 * Caches the tune parsed from the given text.
+	 * 
+	 * @param abcString
+	 *            ABC text of the tune, parsed alone
+	 * @param tune
+	 *            The tune parsed from <TT>abcString</TT>
+	 */
+	public void put(String abcString, AbcTune tune) {
+		put(abcString, 0, 0, tune);
+	}
+
+	/**
+	 * Caches the tune parsed from the given text when it was a part of a
+	 * bigger stream. If the tune alone exceeds the memory bound, it is not
+	 * cached.
+	 * 
+	 * @param abcString
+	 *            ABC text of the tune
+	 * @param lineOffset
+	 *            number of lines in the stream before abcString
+	 * @param indexOffset
+	 *            number of chars in the stream before abcString
+	 * @param tune
+	 *            The tune parsed from <TT>abcString</TT>
+	 */
+	public void put(String abcString, int lineOffset, int indexOffset,
+			AbcTune tune) {
+		if (tune == null)
+			throw new NullPointerException("Can't cache a null tune");
+		Entry entry = new Entry(digest(abcString), lineOffset, indexOffset);
+		entry.m_tune = tune;
+		entry.m_memory = (long) abcString.length() * BYTES_PER_CHAR;
+		if (entry.m_memory > m_maxMemory)
+			return;
+		synchronized (this) {
+			Entry old = (Entry) m_entries.put(entry, entry);
+			if (old != null)
+				m_memory -= old.m_memory;
+			m_memory += entry.m_memory;
+			Iterator it = m_entries.values().iterator();
+			while ((m_memory > m_maxMemory) && it.hasNext()) {
+				Entry eldest = (Entry) it.next();
+				it.remove();
+				m_memory -= eldest.m_memory;
+				m_evictions++;
+			}
+		}
+	}
+
+	/** Resets hit, miss and eviction counts */
+	public synchronized void resetStatistics() {
+		m_hits = 0;
+		m_misses = 0;
+		m_evictions = 0;
+	}
+
+	/** Returns the number of cached tunes */
+	public synchronized int size() {
+		return m_entries.size();
+	}
+
+	public synchronized String toString() {
+		return "AbcTuneCache: " + m_entries.size() + " tunes, " + m_memory
+				+ "/" + m_maxMemory + " bytes, " + m_hits + " hits, "
+				+ m_misses + " misses, " + m_evictions + " evictions";
+	}
+
+	private static byte[] digest(String text) {
+		try {
+			return MessageDigest.getInstance("SHA-1").digest(
+					text.getBytes("UTF-8"));
+		} catch (NoSuchAlgorithmException e) {
+			// SHA-1 and UTF-8 are supported by every Java platform
+			throw new RuntimeException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+}
@@ -18,15 +18,52 @@ package abc.parser;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
+import java.util.EventListener;
 import java.util.Vector;
+import java.util.concurrent.CancellationException;
 
-/** A parser that parses abc gammar into its own thread context. */
+import abc.notation.Tune;
+
+/** A parser that parses abc gammar into its own thread context.
+ * <p>
+ * Requests are parsed by a pool of worker threads, one by default. When
+ * queue management is enabled, every request is parsed, in order if there
+ * is only one worker. When it is disabled, the parser coalesces requests:
+ * pending requests collapse to the newest one, parses in progress are
+ * cancelled as soon as the cancellation mode allows it, and events of a
+ * request older than one already given to listeners are dropped. This keeps an editor up
+ * to date with the text being typed, whatever the size of the tune.
+ * <p>
+ * Listeners are notified from the worker threads, one event at a time.
+ * The tune begin of a request is given with its tune end or no tune, so
+ * that listeners get neither for a request cancelled or dropped.
+ * {@link AsynchronousTuneParserListenerInterface} listeners are also told
+ * the queue depth and the latency of the parsings. */
 public class AsynchronousTuneParser extends TuneParser
 {
+  /** Parses in progress are never cancelled */
+  public static final int NO_CANCELLATION = 0;
+  /** Parses in progress are cancelled before building the tune notation */
+  public static final int TUNE_CANCELLATION = 1;
+  /** Parses in progress are cancelled before building each line of music */
+  public static final int LINE_CANCELLATION = 2;
+
   private Object m_mutex = new Object();
-  private Thread m_parsingThread = null;
+  private Thread[] m_parsingThreads = null;
   private Vector m_queue = null;
   private boolean m_isQueueManagementEnabled = true;
+  private int m_cancellation = NO_CANCELLATION;
+  /** Requests being parsed by the workers */
+  private Vector m_inProgress = new Vector();
+  /** Number of the next request */
+  private long m_requestNumber = 0;
+  private boolean m_isShutdown = false;
+  /** Serializes events sent to listeners by the workers */
+  private Object m_listenersMutex = new Object();
+  private Vector m_asyncListeners = new Vector();
+  /** Number of the last request given to listeners */
+  private long m_lastDelivered = -1;
+  private AbcTune m_lastTune = null;
 
   /** Constructs a new tune parser. */
   public AsynchronousTuneParser()
@@ -35,12 +72,35 @@ public class AsynchronousTuneParser extends TuneParser
   }
 
   public AsynchronousTuneParser(boolean isQueueManagementEnabled)
+  {
+    this(isQueueManagementEnabled, 1, NO_CANCELLATION);
+  }
+
+  /** Constructs a new tune parser.
+   * @param isQueueManagementEnabled <TT>false</TT> to coalesce requests.
+   * @param workers Number of threads parsing requests.
+   * @param cancellation {@link #NO_CANCELLATION},
+   * {@link #TUNE_CANCELLATION} or {@link #LINE_CANCELLATION}, how parses
+   * made obsolete by a newer request are stopped when requests are
+   * coalesced. */
+  public AsynchronousTuneParser(boolean isQueueManagementEnabled, int workers,
+      int cancellation)
   {
     super();
+    if (workers < 1)
+      throw new IllegalArgumentException("Invalid number of workers " + workers);
+    if ((cancellation < NO_CANCELLATION) || (cancellation > LINE_CANCELLATION))
+      throw new IllegalArgumentException("Invalid cancellation " + cancellation);
     m_isQueueManagementEnabled = isQueueManagementEnabled;
+    m_cancellation = cancellation;
     m_queue = new Vector();
-    m_parsingThread = new Thread(new ParsingRunnable());
-    m_parsingThread.start();
+    m_parsingThreads = new Thread[workers];
+    for (int i = 0; i < workers; i++)
+    {
+      m_parsingThreads[i] = new Thread(new ParsingRunnable(),
+          "AsynchronousTuneParser-" + i);
+      m_parsingThreads[i].start();
+    }
   }
 
   /** Parse the given string and creates a <TT>Tune</TT> object as parsing result.
@@ -48,54 +108,128 @@ public class AsynchronousTuneParser extends TuneParser
    * @return An object representation of the abc notation string. */
   public AbcTune parse(String tune)
   {
-    synchronized(m_mutex)
-    {
-      if (!m_isQueueManagementEnabled)
-        m_queue.removeAllElements();
-      m_queue.addElement(new QueueElement(new StringReader(tune), false));
-      m_mutex.notify();
-    }
+    enqueue(new StringReader(tune), false);
     return null;
   }
 
   public AbcTune parse(Reader charStream)
   {
+    enqueue(charStream, false);
+    return null;
+  }
+
+  public AbcTune parseHeader(String tune)
+  {
+    enqueue(new StringReader(tune), true);
+    return null;
+  }
+
+  public AbcTune parseHeader(Reader charStream)
+  {
+    enqueue(charStream, true);
+    return null;
+  }
+
+  /** Returns the last tune given to listeners, <code>null</code> if none */
+  public AbcTune getTune()
+  { return m_lastTune; }
+
+  /** Returns the number of requests waiting to be parsed */
+  public int getQueueDepth()
+  { return m_queue.size(); }
+
+  /** Drops the pending requests and cancels the parses in progress, as
+   * allowed by the cancellation mode. Listeners are told of each cancelled
+   * request, but get no tune begin nor tune end for them. */
+  public void cancel()
+  {
+    int dropped;
     synchronized(m_mutex)
     {
-      if (!m_isQueueManagementEnabled)
-        m_queue.removeAllElements();
-      m_queue.addElement(new QueueElement(charStream, false));
-      m_mutex.notify();
+      dropped = m_queue.size();
+      m_queue.removeAllElements();
+      cancelInProgress();
     }
-    return null;
+    for (int i = 0; i < dropped; i++)
+      notifyListenersForRequestCancelled();
   }
 
-  public AbcTune parseHeader(String tune)
+  /** Stops the worker threads once the parses in progress are over, pending
+   * requests are dropped. The parser can't be used anymore. */
+  public void shutdown()
   {
     synchronized(m_mutex)
     {
-      if (!m_isQueueManagementEnabled)
-        m_queue.removeAllElements();
-      m_queue.addElement(new QueueElement(new StringReader(tune), true));
-      m_mutex.notify();
+      m_isShutdown = true;
+      m_queue.removeAllElements();
+      m_mutex.notifyAll();
     }
-    return null;
   }
 
-  public AbcTune parseHeader(Reader charStream)
+  public void addListener(EventListener listener)
+  {
+    super.addListener(listener);
+    if (listener instanceof AsynchronousTuneParserListenerInterface)
+      m_asyncListeners.addElement(listener);
+  }
+
+  public void removeListener(EventListener listener)
+  {
+    super.removeListener(listener);
+    m_asyncListeners.removeElement(listener);
+  }
+
+  private void enqueue(Reader notation, boolean headerOnly)
   {
+    int dropped = 0;
+    int depth;
     synchronized(m_mutex)
     {
+      if (m_isShutdown)
+        throw new IllegalStateException("Parser has been shut down");
       if (!m_isQueueManagementEnabled)
+      {
+        dropped = m_queue.size();
         m_queue.removeAllElements();
-      m_queue.addElement(new QueueElement(charStream, true));
+        cancelInProgress();
+      }
+      m_queue.addElement(new QueueElement(notation, headerOnly,
+          m_requestNumber++));
+      depth = m_queue.size();
       m_mutex.notify();
     }
-    return null;
+    for (int i = 0; i < dropped; i++)
+      notifyListenersForRequestCancelled();
+    notifyListenersForRequestQueued(depth);
+  }
+
+  /** Must be called with m_mutex held */
+  private void cancelInProgress()
+  {
+    if (m_cancellation != NO_CANCELLATION)
+      for (int i = 0; i < m_inProgress.size(); i++)
+        ((QueueElement) m_inProgress.elementAt(i)).cancel();
   }
 
-  private Vector getQueue()
-  { return m_queue; }
+  private void notifyListenersForRequestQueued(int queueDepth)
+  {
+    synchronized(m_listenersMutex)
+    {
+      for (int i = 0; i < m_asyncListeners.size(); i++)
+        ((AsynchronousTuneParserListenerInterface) m_asyncListeners
+            .elementAt(i)).requestQueued(queueDepth);
+    }
+  }
+
+  private void notifyListenersForRequestCancelled()
+  {
+    synchronized(m_listenersMutex)
+    {
+      for (int i = 0; i < m_asyncListeners.size(); i++)
+        ((AsynchronousTuneParserListenerInterface) m_asyncListeners
+            .elementAt(i)).requestCancelled(m_queue.size());
+    }
+  }
 
   public void superParse(Reader r) throws IOException
   { super.parse(r); }
@@ -105,45 +239,161 @@ public class AsynchronousTuneParser extends TuneParser
 
   private class ParsingRunnable implements Runnable
   {
+    private WorkerParser m_parser = new WorkerParser();
+
     public void run()
     {
       try
       {
-        synchronized(m_mutex)
+        while(true)
         {
-          while(true)
+          QueueElement q = null;
+          synchronized(m_mutex)
+          {
+            while (m_queue.isEmpty() && !m_isShutdown)
+              m_mutex.wait();
+            if (m_isShutdown)
+              return;
+            q = (QueueElement)m_queue.elementAt(0);
+            m_queue.removeElementAt(0);
+            m_inProgress.addElement(q);
+          }
+          try
+          {
+            m_parser.parse(q);
+          }
+          finally
           {
-            while (!m_queue.isEmpty())
-            {
-              QueueElement q = (QueueElement)getQueue().elementAt(0);
-              getQueue().removeElementAt(0);
-              //System.out.println(" parsing " + q);
-              if (q.headerOnly())
-                AsynchronousTuneParser.this.superParseHeader(q.getNotation());
-              else
-                AsynchronousTuneParser.this.superParse(q.getNotation());
-            }
-            //System.out.println("waiting");
-            m_mutex.wait();
+            synchronized(m_mutex)
+            { m_inProgress.removeElement(q); }
           }
         }
       }
-      catch (IOException ioe) {
-    	  ioe.printStackTrace();
-      }
       catch (InterruptedException e)
       { e.printStackTrace(); }
     }
   }
 
+  /** Parses the requests of one worker, and gives results to the listeners
+   * of the asynchronous parser. */
+  private class WorkerParser extends TuneParser implements TuneParserListenerInterface
+  {
+    private QueueElement m_request = null;
+    /** The tune begin of the request, not given to listeners yet */
+    private boolean m_begun = false;
+
+    WorkerParser()
+    {
+      super();
+      addListener(this);
+    }
+
+    void parse(QueueElement q)
+    {
+      m_request = q;
+      m_begun = false;
+      q.start();
+      setBackend(AsynchronousTuneParser.this.getBackend());
+      setCache(AsynchronousTuneParser.this.getCache());
+      try
+      {
+        if (q.isCancelled())
+          throw new CancellationException();
+        if (q.headerOnly())
+          parseHeader(q.getNotation());
+        else
+          parse(q.getNotation());
+      }
+      catch (CancellationException e)
+      { notifyListenersForRequestCancelled(); }
+      catch (IOException ioe)
+      { ioe.printStackTrace(); }
+      finally
+      { m_request = null; }
+    }
+
+    protected boolean isCancelled(boolean line)
+    {
+      if (line && (m_cancellation != LINE_CANCELLATION))
+        return false;
+      return m_request.isCancelled();
+    }
+
+    public boolean isBusy()
+    { return m_request != null; }
+
+    /** Returns <TT>true</TT> if a newer request has already been given to
+     * listeners. Must be called with m_listenersMutex held */
+    private boolean isStale()
+    {
+      return !m_isQueueManagementEnabled
+          && (m_request.getNumber() < m_lastDelivered);
+    }
+
+    public void noTune()
+    {
+      synchronized(m_listenersMutex)
+      {
+        if (!isStale())
+        {
+          notifyBegin();
+          AsynchronousTuneParser.this.notifyListenersForNoTune();
+        }
+      }
+    }
+
+    public void tuneBegin()
+    { m_begun = true; }
+
+    /** Gives the pending tune begin to listeners. Must be called with
+     * m_listenersMutex held */
+    private void notifyBegin()
+    {
+      if (m_begun)
+      {
+        m_begun = false;
+        AsynchronousTuneParser.this.notifyListenersForTuneBegin();
+      }
+    }
+
+    public void tuneEnd(Tune tune, AbcNode abcRoot)
+    {
+      long parseTime = System.currentTimeMillis() - m_request.getStartTime();
+      synchronized(m_listenersMutex)
+      {
+        if (isStale())
+        {
+          notifyListenersForRequestCancelled();
+          return;
+        }
+        m_lastDelivered = m_request.getNumber();
+        if (tune instanceof AbcTune)
+          m_lastTune = (AbcTune) tune;
+        notifyBegin();
+        AsynchronousTuneParser.this.notifyListenersForTuneEnd(tune, abcRoot);
+        for (int i = 0; i < m_asyncListeners.size(); i++)
+          ((AsynchronousTuneParserListenerInterface) m_asyncListeners
+              .elementAt(i)).tuneParsed(m_request.getWaitTime(), parseTime,
+              m_queue.size());
+      }
+    }
+  }
+
   private class QueueElement
   {
     private Reader m_notation = null;
     private boolean m_headerOnly = false;
-    public QueueElement(Reader notation, boolean headerOnly)
+    private long m_number = 0;
+    private long m_queuedTime = 0;
+    private long m_startTime = 0;
+    private volatile boolean m_cancelled = false;
+
+    public QueueElement(Reader notation, boolean headerOnly, long number)
     {
       m_notation = notation;
       m_headerOnly = headerOnly;
+      m_number = number;
+      m_queuedTime = System.currentTimeMillis();
     }
 
     public Reader getNotation()
@@ -152,6 +402,23 @@ public class AsynchronousTuneParser extends TuneParser
     public boolean headerOnly()
     { return m_headerOnly; }
 
+    public long getNumber()
+    { return m_number; }
+
+    public void start()
+    { m_startTime = System.currentTimeMillis(); }
+
+    public long getStartTime()
+    { return m_startTime; }
+
+    public long getWaitTime()
+    { return m_startTime - m_queuedTime; }
+
+    public void cancel()
+    { m_cancelled = true; }
+
+    public boolean isCancelled()
+    { return m_cancelled; }
+
   }
 }
-
@@ -0,0 +1,60 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.parser;
+
+/**
+ * Interface that should be implemented by any object that listens to an
+ * {@link AsynchronousTuneParser}, to follow its queue of requests in
+ * addition to the tune parser events.
+ * 
+ * @see abc.parser.AsynchronousTuneParserAdapter for a simple implementation
+ * skeleton.
+ */
+public interface AsynchronousTuneParserListenerInterface extends
+		TuneParserListenerInterface {
+
+	/**
+	 * Invoked when a tune is given to the parser.
+	 * 
+	 * @param queueDepth
+	 *            Number of requests waiting to be parsed, including this one.
+	 */
+	public void requestQueued(int queueDepth);
+
+	/**
+	 * Invoked when a request is dropped, before or during its parsing,
+	 * because a newer request made it obsolete or because of
+	 * {@link AsynchronousTuneParser#cancel()}.
+	 * 
+	 * @param queueDepth
+	 *            Number of requests waiting to be parsed.
+	 */
+	public void requestCancelled(int queueDepth);
+
+	/**
+	 * Invoked after {@link #tuneEnd(abc.notation.Tune, AbcNode)}.
+	 * 
+	 * @param waitTime
+	 *            Time in milliseconds between the request and the beginning
+	 *            of its parsing.
+	 * @param parseTime
+	 *            Time in milliseconds of the parsing.
+	 * @param queueDepth
+	 *            Number of requests waiting to be parsed.
+	 */
+	public void tuneParsed(long waitTime, long parseTime, int queueDepth);
+
+}
@@ -0,0 +1,298 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.parser;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Iterator;
+
+/**
+ * Timings and counters of the parsing of a tune or a tune book, given to
+ * {@link ParseMetricsListenerInterface} listeners.
+ * <p>
+ * The parsing is split in three phases:
+ * <ul>
+ * <li>grammar: the {@link ParserBackend} reads the chars
+ * <li>tree build: the backend builds the {@link AbcNode} tree
+ * <li>notation build: the tree is turned into {@link abc.notation.Tune}
+ * objects
+ * </ul>
+ * Times are in nanoseconds. Allocated bytes are measured per thread by the
+ * JVM, they are <TT>-1</TT> when it can't measure them.
+ * <p>
+ * Metrics of a tune have its grammar and tree build times only when its
+ * parsing tree contains no other tune, e.g. with
+ * {@link TuneBookParser#parseStreaming(java.io.Reader)}. Otherwise these
+ * times belong to the tune book only. When the notation is built in a
+ * single pass, see {@link TuneBookParser#parseSinglePass(java.io.Reader)},
+ * the whole pass is counted as notation build of the book, and tunes have
+ * no time.
+ */
+public class ParseMetrics {
+
+	static final int GRAMMAR = 0;
+
+	static final int TREE = 1;
+
+	static final int NOTATION = 2;
+
+	/** Metrics of the parsing tree being built by the current thread */
+	private static final ThreadLocal CURRENT = new ThreadLocal();
+
+	private static ThreadMXBean s_threads = null;
+
+	private static boolean s_allocationSupported = true;
+
+	private long[] m_phaseTimes = new long[3];
+
+	private long m_elapsedTime = 0;
+
+	private long m_allocatedBytes = 0;
+
+	private long m_gcTime = -1;
+
+	private long m_chars = 0;
+
+	private int m_tunes = 0;
+
+	private int m_errors = 0;
+
+	ParseMetrics() {
+		//
+	}
+
+	/**
+	 * Returns the metrics of the parsing tree being built by the current
+	 * thread, <TT>null</TT> if it is not measured. Backends add their
+	 * phases to it.
+	 */
+	static ParseMetrics current() {
+		return (ParseMetrics) CURRENT.get();
+	}
+
+	static void setCurrent(ParseMetrics metrics) {
+		if (metrics != null)
+			CURRENT.set(metrics);
+		else
+			CURRENT.remove();
+	}
+
+	/**
+	 * Returns the bytes allocated so far by the current thread, <TT>-1</TT>
+	 * if the JVM doesn't measure them.
+	 */
+	static long allocatedBytes() {
+		if (!s_allocationSupported)
+			return -1;
+		try {
+			if (s_threads == null)
+				s_threads = ManagementFactory.getThreadMXBean();
+			if (s_threads instanceof com.sun.management.ThreadMXBean) {
+				com.sun.management.ThreadMXBean threads =
+					(com.sun.management.ThreadMXBean) s_threads;
+				if (threads.isThreadAllocatedMemorySupported()
+						&& threads.isThreadAllocatedMemoryEnabled())
+					return threads.getThreadAllocatedBytes(Thread
+							.currentThread().getId());
+			}
+		} catch (LinkageError e) {
+			//com.sun.management is not available
+		} catch (UnsupportedOperationException e) {
+			//
+		}
+		s_allocationSupported = false;
+		return -1;
+	}
+
+	/**
+	 * Returns the total time spent by the JVM in garbage collections, in
+	 * milliseconds, <TT>-1</TT> if it is unknown.
+	 */
+	static long gcTime() {
+		long ret = 0;
+		Iterator it = ManagementFactory.getGarbageCollectorMXBeans()
+				.iterator();
+		while (it.hasNext()) {
+			long time = ((GarbageCollectorMXBean) it.next())
+					.getCollectionTime();
+			if (time == -1)
+				return -1;
+			ret += time;
+		}
+		return ret;
+	}
+
+	/**
+	 * Starts the measure of a phase.
+	 *
+	 * @return the start time and allocated bytes, to give to
+	 *         {@link #endPhase(int, long[])}
+	 */
+	static long[] startPhase() {
+		return new long[] { System.nanoTime(), allocatedBytes() };
+	}
+
+	/**
+	 * Ends the measure of a phase and adds its time and allocations.
+	 *
+	 * @param phase
+	 *            {@link #GRAMMAR}, {@link #TREE} or {@link #NOTATION}
+	 * @param start
+	 *            returned by {@link #startPhase()}
+	 */
+	void endPhase(int phase, long[] start) {
+		long time = System.nanoTime() - start[0];
+		m_phaseTimes[phase] += time;
+		m_elapsedTime += time;
+		addAllocatedBytes(start[1], allocatedBytes());
+	}
+
+	/**
+	 * Adds the phases, elapsed time and counters of other metrics, not
+	 * their allocations.
+	 */
+	void add(ParseMetrics metrics) {
+		for (int i = 0; i < m_phaseTimes.length; i++)
+			m_phaseTimes[i] += metrics.m_phaseTimes[i];
+		m_elapsedTime += metrics.m_elapsedTime;
+		m_chars += metrics.m_chars;
+		m_tunes += metrics.m_tunes;
+		m_errors += metrics.m_errors;
+	}
+
+	void addAllocatedBytes(long bytes) {
+		if ((bytes == -1) || (m_allocatedBytes == -1))
+			m_allocatedBytes = -1;
+		else
+			m_allocatedBytes += bytes;
+	}
+
+	private void addAllocatedBytes(long start, long end) {
+		addAllocatedBytes(((start == -1) || (end == -1)) ? -1 : end - start);
+	}
+
+	void addChars(long chars) {
+		m_chars += chars;
+	}
+
+	void addErrors(int errors) {
+		m_errors += errors;
+	}
+
+	void addTunes(int tunes) {
+		m_tunes += tunes;
+	}
+
+	/**
+	 * Starts the measure of a whole tune book.
+	 *
+	 * @return the start time, allocated bytes and garbage collection time,
+	 *         to give to {@link #endTuneBook(long[])}
+	 */
+	static long[] startTuneBook() {
+		return new long[] { System.nanoTime(), allocatedBytes(), gcTime() };
+	}
+
+	/**
+	 * Ends the measure of a whole tune book, sets the elapsed time and
+	 * garbage collection time, and adds the allocations of the current
+	 * thread.
+	 */
+	void endTuneBook(long[] start) {
+		m_elapsedTime = System.nanoTime() - start[0];
+		addAllocatedBytes(start[1], allocatedBytes());
+		long gcTime = gcTime();
+		m_gcTime = ((start[2] == -1) || (gcTime == -1)) ? -1 : gcTime
+				- start[2];
+	}
+
+	/** Returns the time spent by the backend in the grammar, in nanoseconds */
+	public long getGrammarTime() {
+		return m_phaseTimes[GRAMMAR];
+	}
+
+	/**
+	 * Returns the time spent by the backend to build the parsing tree, in
+	 * nanoseconds
+	 */
+	public long getTreeBuildTime() {
+		return m_phaseTimes[TREE];
+	}
+
+	/**
+	 * Returns the time spent to build the notation objects, in nanoseconds
+	 */
+	public long getNotationBuildTime() {
+		return m_phaseTimes[NOTATION];
+	}
+
+	/**
+	 * Returns the elapsed time, in nanoseconds. For a tune it is the sum of
+	 * its phases, for a tune book it also includes reading the input,
+	 * notifying listeners and waiting for worker threads.
+	 */
+	public long getElapsedTime() {
+		return m_elapsedTime;
+	}
+
+	/**
+	 * Returns the bytes allocated while parsing, <TT>-1</TT> if the JVM
+	 * doesn't measure them. It is an estimate: the JVM counts allocations
+	 * by blocks.
+	 */
+	public long getAllocatedBytes() {
+		return m_allocatedBytes;
+	}
+
+	/**
+	 * Returns the time spent by the JVM in garbage collections while a tune
+	 * book was parsed, in milliseconds, by all threads. Returns <TT>-1</TT>
+	 * for a tune, or if it is unknown.
+	 */
+	public long getGarbageCollectionTime() {
+		return m_gcTime;
+	}
+
+	/** Returns the number of chars given to the backend */
+	public long getCharsCount() {
+		return m_chars;
+	}
+
+	/**
+	 * Returns the number of tunes parsed, including the ones found in the
+	 * cache.
+	 */
+	public int getTunesCount() {
+		return m_tunes;
+	}
+
+	/** Returns the number of parse errors reported by the backend */
+	public int getErrorsCount() {
+		return m_errors;
+	}
+
+	public String toString() {
+		return "grammar=" + (getGrammarTime() / 1000000) + "ms tree="
+				+ (getTreeBuildTime() / 1000000) + "ms notation="
+				+ (getNotationBuildTime() / 1000000) + "ms elapsed="
+				+ (getElapsedTime() / 1000000) + "ms gc="
+				+ getGarbageCollectionTime() + "ms chars=" + getCharsCount()
+				+ " tunes=" + getTunesCount() + " errors="
+				+ getErrorsCount() + " allocated=" + getAllocatedBytes();
+	}
+
+}
@@ -0,0 +1,58 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.parser;
+
+import java.util.EventListener;
+
+import abc.notation.Tune;
+import abc.notation.TuneBook;
+
+/**
+ * Interface that should be implemented by any object that listens to the
+ * timings and counters of parsing. Parsers measure the parsing only when
+ * such a listener is attached, with
+ * {@link AbcParserAbstract#addListener(EventListener)}.
+ * <p>
+ * Listeners are notified from the thread which called the parser, after
+ * {@link TuneParserListenerInterface#tuneEnd(Tune, AbcNode)} and
+ * {@link TuneBookParserListenerInterface#tuneBookEnd(TuneBook, AbcNode)}.
+ * 
+ * @see ParseStatistics for an implementation exposed through JMX.
+ */
+public interface ParseMetricsListenerInterface extends EventListener {
+
+	/**
+	 * Invoked when a tune has been parsed.
+	 * 
+	 * @param tune
+	 *            The tune that has just been parsed.
+	 * @param metrics
+	 *            Timings and counters of the tune.
+	 */
+	public void tuneParsed(Tune tune, ParseMetrics metrics);
+
+	/**
+	 * Invoked when a tune book has been parsed.
+	 * 
+	 * @param tuneBook
+	 *            The tune book that has just been parsed, with header
+	 *            informations only for a streaming parsing.
+	 * @param metrics
+	 *            Timings and counters of the whole tune book.
+	 */
+	public void tuneBookParsed(TuneBook tuneBook, ParseMetrics metrics);
+
+}
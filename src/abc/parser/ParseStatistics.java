@@ -0,0 +1,199 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.parser;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import abc.notation.Tune;
+import abc.notation.TuneBook;
+
+/**
+ * A {@link ParseMetricsListenerInterface} which sums the metrics of the
+ * tunes and tune books parsed, and keeps the slowest tune. It can be
+ * attached to several parsers, and be registered in the platform MBean
+ * server to be read from a JMX console:
+ *
+ * <PRE>
+ * ParseStatistics statistics = new ParseStatistics();
+ * statistics.register(&quot;uploads&quot;);
+ * parser.addListener(statistics);
+ * </PRE>
+ *
+ * Tune counters come from the tune books metrics, so tunes parsed out of a
+ * tune book (e.g. by a {@link TuneParser}) only update the slowest tune.
+ * <p>
+ * This class is thread safe.
+ */
+public class ParseStatistics implements ParseStatisticsMBean,
+		ParseMetricsListenerInterface {
+
+	private long m_tuneBooks = 0;
+
+	private long m_tunes = 0;
+
+	private long m_chars = 0;
+
+	private long m_errors = 0;
+
+	private long m_grammarTime = 0;
+
+	private long m_treeBuildTime = 0;
+
+	private long m_notationBuildTime = 0;
+
+	private long m_elapsedTime = 0;
+
+	private long m_gcTime = 0;
+
+	private long m_allocatedBytes = 0;
+
+	private long m_slowestTuneTime = 0;
+
+	private String m_slowestTune = null;
+
+	private ObjectName m_name = null;
+
+	public synchronized void tuneParsed(Tune tune, ParseMetrics metrics) {
+		if ((m_slowestTune == null)
+				|| (metrics.getElapsedTime() > m_slowestTuneTime)) {
+			m_slowestTuneTime = metrics.getElapsedTime();
+			String[] titles = tune.getTitles();
+			m_slowestTune = "X:" + tune.getReferenceNumber()
+					+ (((titles != null) && (titles.length > 0))
+							? " " + titles[0] : "");
+		}
+	}
+
+	public synchronized void tuneBookParsed(TuneBook tuneBook,
+			ParseMetrics metrics) {
+		m_tuneBooks++;
+		m_tunes += metrics.getTunesCount();
+		m_chars += metrics.getCharsCount();
+		m_errors += metrics.getErrorsCount();
+		m_grammarTime += metrics.getGrammarTime();
+		m_treeBuildTime += metrics.getTreeBuildTime();
+		m_notationBuildTime += metrics.getNotationBuildTime();
+		m_elapsedTime += metrics.getElapsedTime();
+		if (metrics.getGarbageCollectionTime() > 0)
+			m_gcTime += metrics.getGarbageCollectionTime();
+		if ((metrics.getAllocatedBytes() == -1) || (m_allocatedBytes == -1))
+			m_allocatedBytes = -1;
+		else
+			m_allocatedBytes += metrics.getAllocatedBytes();
+	}
+
+	public synchronized long getTuneBooksCount() {
+		return m_tuneBooks;
+	}
+
+	public synchronized long getTunesCount() {
+		return m_tunes;
+	}
+
+	public synchronized long getCharsCount() {
+		return m_chars;
+	}
+
+	public synchronized long getErrorsCount() {
+		return m_errors;
+	}
+
+	public synchronized long getGrammarTime() {
+		return m_grammarTime / 1000000;
+	}
+
+	public synchronized long getTreeBuildTime() {
+		return m_treeBuildTime / 1000000;
+	}
+
+	public synchronized long getNotationBuildTime() {
+		return m_notationBuildTime / 1000000;
+	}
+
+	public synchronized long getElapsedTime() {
+		return m_elapsedTime / 1000000;
+	}
+
+	public synchronized long getGarbageCollectionTime() {
+		return m_gcTime;
+	}
+
+	public synchronized long getAllocatedBytes() {
+		return m_allocatedBytes;
+	}
+
+	public synchronized long getSlowestTuneTime() {
+		return m_slowestTuneTime / 1000000;
+	}
+
+	public synchronized String getSlowestTune() {
+		return m_slowestTune;
+	}
+
+	public synchronized void reset() {
+		m_tuneBooks = 0;
+		m_tunes = 0;
+		m_chars = 0;
+		m_errors = 0;
+		m_grammarTime = 0;
+		m_treeBuildTime = 0;
+		m_notationBuildTime = 0;
+		m_elapsedTime = 0;
+		m_gcTime = 0;
+		m_allocatedBytes = 0;
+		m_slowestTuneTime = 0;
+		m_slowestTune = null;
+	}
+
+	/**
+	 * Registers these statistics in the platform MBean server, as
+	 * <TT>abc.parser:type=ParseStatistics,name=</TT><I>name</I>.
+	 *
+	 * @param name
+	 *            Name of the statistics, e.g. the service using the parsers
+	 * @throws JMException
+	 *             if statistics with the same name are already registered
+	 */
+	public synchronized void register(String name) throws JMException {
+		if (m_name != null)
+			throw new IllegalStateException("Already registered as "
+					+ m_name);
+		ObjectName objectName = new ObjectName(
+				"abc.parser:type=ParseStatistics,name="
+						+ ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+				objectName);
+		m_name = objectName;
+	}
+
+	/**
+	 * Unregisters these statistics from the platform MBean server, does
+	 * nothing if they are not registered.
+	 */
+	public synchronized void unregister() throws JMException {
+		if (m_name != null) {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered(m_name))
+				server.unregisterMBean(m_name);
+			m_name = null;
+		}
+	}
+
+}
@@ -0,0 +1,59 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.parser;
+
+/**
+ * Management interface of {@link ParseStatistics}. Times are in
+ * milliseconds.
+ */
+public interface ParseStatisticsMBean {
+
+	public long getTuneBooksCount();
+
+	public long getTunesCount();
+
+	public long getCharsCount();
+
+	public long getErrorsCount();
+
+	public long getGrammarTime();
+
+	public long getTreeBuildTime();
+
+	public long getNotationBuildTime();
+
+	/** Elapsed time of tune books parsing */
+	public long getElapsedTime();
+
+	/** Time spent in garbage collections while tune books were parsed */
+	public long getGarbageCollectionTime();
+
+	/** Bytes allocated by tune books parsing, <TT>-1</TT> if unknown */
+	public long getAllocatedBytes();
+
+	/** Elapsed time of the slowest tune */
+	public long getSlowestTuneTime();
+
+	/**
+	 * Reference number and title of the slowest tune, <TT>null</TT> if no
+	 * tune has been parsed
+	 */
+	public String getSlowestTune();
+
+	/** Resets all counters */
+	public void reset();
+
+}
@@ -0,0 +1,55 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.parser;
+
+/**
+ * Builds the parsing tree of an ABC stream, for {@link AbcParserAbstract}
+ * and its subclasses which turn it into notation objects.
+ * <p>
+ * Two backends are available :
+ * <ul>
+ * <li>{@link AbcGrammarBackend}, the default one, runs the
+ * {@link AbcGrammar} PEG and recovers from syntax errors
+ * <li>{@link AbcDescentBackend} is a hand-written single pass parser,
+ * faster on well formed tunes, which hands over to another backend what it
+ * does not support.
+ * </ul>
+ * Whatever the backend, the tree has the labels defined in
+ * {@link AbcTokens} and the same shape, so that parsers produce the same
+ * notation objects.
+ * 
+ * @see AbcParserAbstract#setBackend(ParserBackend)
+ */
+public interface ParserBackend {
+
+	/**
+	 * Parses chars which are a part of a bigger stream, and returns the
+	 * root {@link AbcNode} of the parsing tree, labelled
+	 * {@link AbcTokens#AbcFile}. The array may be kept by the tree, it must
+	 * not be modified afterwards.
+	 * <p>
+	 * Implementations must be usable by several threads at the same time.
+	 * 
+	 * @param abc
+	 *            chars to parse
+	 * @param lineOffset
+	 *            number of lines in the stream before abc
+	 * @param indexOffset
+	 *            number of chars in the stream before abc
+	 */
+	public AbcNode parse(char[] abc, int lineOffset, int indexOffset);
+
+}
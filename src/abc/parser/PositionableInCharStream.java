@@ -35,12 +35,8 @@ public abstract class PositionableInCharStream implements Cloneable,
 	}
 
 	public Object clone() throws CloneNotSupportedException {
-		Object o = super.clone();
-		if (_charStreamPosition != null) {
-			((PositionableInCharStream) o)._charStreamPosition
-				= (CharStreamPosition) _charStreamPosition.clone();
-		}
-		return o;
+		//CharStreamPosition can't be modified, the clone shares it
+		return super.clone();
 	}
 	
 	/**
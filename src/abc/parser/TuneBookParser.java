@@ -15,11 +15,25 @@
 // along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
 package abc.parser;
 
+import java.io.CharArrayReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import abc.notation.Tune;
+import abc.notation.TuneBook;
 
 /**
  * A convenient class to ease the parsing of a tune book. The result of the
@@ -30,6 +44,9 @@ public class TuneBookParser extends AbcParserAbstract {
 
 	private AbcTuneBook m_tuneBook = null;
 
+	/** See {@link #setEvictableMusic(boolean)} */
+	private boolean m_evictableMusic = false;
+
 	/**
 	 * Constructs a new tunebook parser.
 	 */
@@ -46,14 +63,33 @@ public class TuneBookParser extends AbcParserAbstract {
 	}
 
 	/**
-	 * Parses the specified file in ABC notation.
+	 * Parses the specified file in ABC notation, with the platform default
+	 * charset.
 	 * 
 	 * @param file
 	 *            Tune book file in ABC notation.
 	 * @return A tune book representing the ABC notation stream.
+	 * @see #parse(File, Charset)
 	 */
 	public AbcTuneBook parse(File file) throws IOException {
-		return parse0(getParseTree(new FileReader(file)));
+		return parse(file, Charset.defaultCharset());
+	}
+
+	/**
+	 * Parses the specified file in ABC notation. The file is memory mapped
+	 * and decoded with the given charset, decoded chars are parsed without
+	 * being copied.
+	 * 
+	 * @param file
+	 *            Tune book file in ABC notation.
+	 * @param charset
+	 *            Charset of the file, e.g. <TT>ISO-8859-1</TT> or
+	 *            <TT>UTF-8</TT>.
+	 * @return A tune book representing the ABC notation stream.
+	 */
+	public AbcTuneBook parse(File file, Charset charset) throws IOException {
+		beginBookMetrics();
+		return parse0(getParseTree(file, charset));
 	}
 
 	/**
@@ -64,6 +100,7 @@ public class TuneBookParser extends AbcParserAbstract {
 	 * @return A tune book representing the ABC notation stream.
 	 */
 	public AbcTuneBook parse(Reader reader) throws IOException {
+		beginBookMetrics();
 		return parse0(getParseTree(reader));
 	}
 
@@ -76,6 +113,7 @@ public class TuneBookParser extends AbcParserAbstract {
 	 * @return An object representation of the abc notation string.
 	 */
 	public AbcTuneBook parse(String tune) {
+		beginBookMetrics();
 		return parse0(getParseTree(tune));
 	}
 
@@ -94,27 +132,426 @@ public class TuneBookParser extends AbcParserAbstract {
 			notifyListenersForEmptyTuneBook();
 		}
 		notifyListenersForTuneBookEnd(m_tuneBook, abcRoot);
+		endBookMetrics(m_tuneBook);
+		return m_tuneBook;
+	}
+
+	/**
+	 * Parses the specified file in ABC notation in a single pass, with the
+	 * platform default charset.
+	 *
+	 * @param file
+	 *            Tune book file in ABC notation.
+	 * @return A tune book representing the ABC notation stream.
+	 * @see #parseSinglePass(Reader)
+	 */
+	public AbcTuneBook parseSinglePass(File file) throws IOException {
+		return parseSinglePass(file, Charset.defaultCharset());
+	}
+
+	/**
+	 * Parses the specified file in ABC notation in a single pass. The file
+	 * is memory mapped and decoded with the given charset.
+	 *
+	 * @param file
+	 *            Tune book file in ABC notation.
+	 * @param charset
+	 *            Charset of the file, e.g. <TT>ISO-8859-1</TT> or
+	 *            <TT>UTF-8</TT>.
+	 * @return A tune book representing the ABC notation stream.
+	 * @see #parseSinglePass(Reader)
+	 */
+	public AbcTuneBook parseSinglePass(File file, Charset charset)
+			throws IOException {
+		beginBookMetrics();
+		return parseSinglePass0(AbcFileDecoder.decode(file, charset));
+	}
+
+	/**
+	 * Parses the specified stream in ABC notation, building the notation
+	 * while the stream is parsed instead of walking a parsing tree
+	 * afterwards. No parsing tree is kept, which suits batch conversions.
+	 * <p>
+	 * This is only possible when the whole stream is in the subset
+	 * supported by {@link AbcDescentBackend}. Otherwise the stream is
+	 * parsed as with {@link #parse(Reader)}, by the backend of this parser.
+	 * <p>
+	 * Listeners are notified of each tune once it is built. When the
+	 * notation is built in a single pass, they receive <TT>null</TT>
+	 * parsing trees. Use {@link #parse(Reader)} when trees are needed, e.g.
+	 * for syntax highlighting.
+	 *
+	 * @param reader
+	 *            Tune book stream in ABC notation.
+	 * @return A tune book representing the ABC notation stream.
+	 * @see AbcParserAbstract#parseSinglePass(char[], int, int)
+	 */
+	public AbcTuneBook parseSinglePass(Reader reader) throws IOException {
+		beginBookMetrics();
+		return parseSinglePass0(readString(reader).toCharArray());
+	}
+
+	private AbcTuneBook parseSinglePass0(char[] abc) {
+		List tunes = parseSinglePass(abc, 0, 0);
+		if (tunes == null)
+			return parse0(getParseTree(abc, 0, 0));
+		notifyListenersForTuneBookBegin();
+		m_tuneBook = (AbcTuneBook) tunes.remove(0);
+		for (int i = 0; i < tunes.size(); i++) {
+			AbcTune tune = (AbcTune) tunes.get(i);
+			notifyListenersForTuneBegin();
+			notifyListenersForTuneEnd(tune, null);
+			notifyListenersForUnmeasuredTune(tune);
+			m_tuneBook.putTune(tune);
+		}
+		notifyListenersForTuneBookEnd(m_tuneBook, null);
+		endBookMetrics(m_tuneBook);
+		return m_tuneBook;
+	}
+
+	/**
+	 * Parses the specified file in ABC notation, tune by tune.
+	 *
+	 * @param file
+	 *            Tune book file in ABC notation.
+	 * @see #parseStreaming(Reader)
+	 */
+	public void parseStreaming(File file) throws IOException {
+		Reader reader = new FileReader(file);
+		try {
+			parseStreaming(reader);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Parses the specified stream in ABC notation, tune by tune. The stream
+	 * is split at <TT>X:</TT> tune boundaries while it is read, then each
+	 * tune is parsed and given to listeners through
+	 * {@link TuneParserListenerInterface#tuneEnd(abc.notation.Tune, AbcNode)}.
+	 * Tunes are not kept: memory used depends on the largest tune, not on the
+	 * tune book size.
+	 * <p>
+	 * {@link TuneBookParserListenerInterface#tuneBookEnd(abc.notation.TuneBook, AbcNode)}
+	 * receives a tune book containing only the header informations, and a
+	 * <TT>null</TT> parsing tree. Tunes are not attached to this book.
+	 * Positions in parsing trees of tunes are relative to the whole stream.
+	 * <p>
+	 * When a cache is set, tunes found in it are not parsed again, and
+	 * listeners receive a <TT>null</TT> parsing tree for them.
+	 *
+	 * @param reader
+	 *            Tune book stream in ABC notation.
+	 * @see #setCache(AbcTuneCache)
+	 */
+	public void parseStreaming(Reader reader) throws IOException {
+		beginBookMetrics();
+		notifyListenersForTuneBookBegin();
+		TuneBookSplitter splitter = new TuneBookSplitter(reader);
+		TuneBookSplitter.Segment header = splitter.next();
+		TuneBookSplitter.Segment segment = splitter.next();
+		//book header can't be parsed alone, grammar expects a tune
+		String abcString = header.getText();
+		if (segment != null)
+			abcString += segment.getText();
+		AbcNode abcRoot = getParseTree(abcString, 0, 0);
+		AbcTuneBook tuneBook = parseTuneBookHeader(abcRoot
+				.getChild(AbcTuneBookHeader));
+		int tunesNb = parseStreamingTunes(abcRoot).size();
+		AbcTuneCache cache = getCache();
+		while ((segment = splitter.next()) != null) {
+			abcString = segment.getText();
+			int lineOffset = segment.getStartLine() - 1;
+			int indexOffset = segment.getStartIndex();
+			AbcTune cached = (cache != null)
+					? cache.get(abcString, lineOffset, indexOffset)
+					: null;
+			if (cached != null) {
+				notifyListenersForCachedTune(cached);
+				tunesNb++;
+				continue;
+			}
+			abcRoot = getParseTree(abcString, lineOffset, indexOffset);
+			List tunes = parseStreamingTunes(abcRoot);
+			if ((cache != null) && (tunes.size() == 1))
+				cache.put(abcString, lineOffset, indexOffset,
+						(AbcTune) tunes.get(0));
+			tunesNb += tunes.size();
+		}
+		if (tunesNb == 0)
+			notifyListenersForEmptyTuneBook();
+		notifyListenersForTuneBookEnd(tuneBook, null);
+		endBookMetrics(tuneBook);
+	}
+
+	private List parseStreamingTunes(AbcNode abcRoot) {
+		List abcTuneNodes = abcRoot.getChilds(AbcTune);
+		List tunes = new ArrayList(abcTuneNodes.size());
+		Iterator it = abcTuneNodes.iterator();
+		while (it.hasNext()) {
+			tunes.add(parseAbcTune((AbcNode) it.next()));
+		}
+		return tunes;
+	}
+
+	/**
+	 * Parses the specified file in ABC notation, using one thread per
+	 * available processor.
+	 *
+	 * @param file
+	 *            Tune book file in ABC notation.
+	 * @return A tune book representing the ABC notation stream.
+	 * @see #parseParallel(Reader, int)
+	 */
+	public AbcTuneBook parseParallel(File file) throws IOException {
+		Reader reader = new FileReader(file);
+		try {
+			return parseParallel(reader, Runtime.getRuntime()
+					.availableProcessors());
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Parses the specified stream in ABC notation, using one thread per
+	 * available processor.
+	 *
+	 * @param reader
+	 *            Tune book stream in ABC notation.
+	 * @return A tune book representing the ABC notation stream.
+	 * @see #parseParallel(Reader, int)
+	 */
+	public AbcTuneBook parseParallel(Reader reader) throws IOException {
+		return parseParallel(reader, Runtime.getRuntime()
+				.availableProcessors());
+	}
+
+	/**
+	 * Parses the specified stream in ABC notation, tunes being parsed at the
+	 * same time by several threads. The stream is split at <TT>X:</TT> tune
+	 * boundaries, then each tune is parsed by a worker thread with its own
+	 * grammar.
+	 * <p>
+	 * Listeners are notified from the calling thread, once all tunes are
+	 * parsed, in the order tunes appear in the stream. Positions in parsing
+	 * trees of tunes are relative to the whole stream.
+	 * <p>
+	 * When a cache is set, tunes found in it are not parsed again, and
+	 * listeners receive a <TT>null</TT> parsing tree for them.
+	 *
+	 * @param reader
+	 *            Tune book stream in ABC notation.
+	 * @param threadsNb
+	 *            Number of worker threads
+	 * @return A tune book representing the ABC notation stream.
+	 */
+	public AbcTuneBook parseParallel(Reader reader, int threadsNb)
+			throws IOException {
+		beginBookMetrics();
+		boolean measured = getBookMetrics() != null;
+		TuneBookSplitter splitter = new TuneBookSplitter(reader);
+		TuneBookSplitter.Segment header = splitter.next();
+		TuneBookSplitter.Segment segment = splitter.next();
+		List tasks = new ArrayList();
+		//book header can't be parsed alone, grammar expects a tune
+		String abcString = header.getText();
+		if (segment != null)
+			abcString += segment.getText();
+		//first task parses the book header, it is never cached
+		tasks.add(new ParsingTask(abcString, 0, 0, null, getBackend(),
+				measured));
+		while ((segment = splitter.next()) != null) {
+			tasks.add(new ParsingTask(segment.getText(),
+					segment.getStartLine() - 1, segment.getStartIndex(),
+					getCache(), getBackend(), measured));
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1,
+				Math.min(threadsNb, tasks.size())));
+		List results;
+		try {
+			results = executor.invokeAll(tasks);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Tune book parsing interrupted");
+		} finally {
+			executor.shutdown();
+		}
+
+		notifyListenersForTuneBookBegin();
+		int tunesNb = 0;
+		for (int i = 0; i < results.size(); i++) {
+			ParsingTask task;
+			try {
+				task = (ParsingTask) ((Future) results.get(i)).get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Tune book parsing interrupted");
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof RuntimeException)
+					throw (RuntimeException) e.getCause();
+				throw new RuntimeException(e.getCause());
+			}
+			if (i == 0)
+				m_tuneBook = parseTuneBookHeader(task.m_abcRoot
+						.getChild(AbcTuneBookHeader));
+			MetricsRecorder metrics = task.m_metrics;
+			if ((metrics != null) && (getBookMetrics() != null)) {
+				getBookMetrics().add(metrics.m_tuneBook);
+				getBookMetrics().addAllocatedBytes(metrics.m_tuneBook
+						.getAllocatedBytes());
+			}
+			for (int j = 0; j < task.m_tunes.size(); j++) {
+				notifyListenersForTuneBegin();
+				AbcTune tune = (AbcTune) task.m_tunes.get(j);
+				notifyListenersForTuneEnd(tune, (AbcNode) task.m_abcTuneNodes
+						.get(j));
+				if (metrics == null)
+					notifyListenersForUnmeasuredTune(tune);
+				else
+					notifyListenersForTuneParsed(tune,
+							(ParseMetrics) metrics.m_tunes.get(j));
+				m_tuneBook.putTune(tune);
+				tunesNb++;
+			}
+		}
+		if (tunesNb == 0)
+			notifyListenersForEmptyTuneBook();
+		notifyListenersForTuneBookEnd(m_tuneBook, null);
+		endBookMetrics(m_tuneBook);
 		return m_tuneBook;
 	}
 
+	/**
+	 * Keeps the metrics of a worker parser, to notify them from the
+	 * calling thread.
+	 */
+	private static class MetricsRecorder implements
+			ParseMetricsListenerInterface {
+		private List m_tunes = new ArrayList();
+		private ParseMetrics m_tuneBook = null;
+
+		public void tuneParsed(Tune tune, ParseMetrics metrics) {
+			m_tunes.add(metrics);
+		}
+
+		public void tuneBookParsed(TuneBook tuneBook, ParseMetrics metrics) {
+			m_tuneBook = metrics;
+		}
+	}
+
+	/**
+	 * Parses one segment of a tune book in a worker thread, with a parser of
+	 * its own.
+	 */
+	private static class ParsingTask implements Callable {
+		private String m_abcString;
+		private int m_lineOffset;
+		private int m_indexOffset;
+		private AbcNode m_abcRoot = null;
+		private List m_abcTuneNodes = null;
+		private List m_tunes = null;
+		private AbcTuneCache m_cache;
+		private ParserBackend m_backend;
+		/** Metrics of the parsing, <TT>null</TT> if not measured or cached */
+		private MetricsRecorder m_metrics = null;
+		private boolean m_measured;
+
+		ParsingTask(String abcString, int lineOffset, int indexOffset,
+				AbcTuneCache cache, ParserBackend backend, boolean measured) {
+			m_abcString = abcString;
+			m_lineOffset = lineOffset;
+			m_indexOffset = indexOffset;
+			m_cache = cache;
+			m_backend = backend;
+			m_measured = measured;
+		}
+
+		public Object call() {
+			String abcString = m_abcString;
+			m_abcString = null;
+			if (m_cache != null) {
+				AbcTune cached = m_cache.get(abcString, m_lineOffset,
+						m_indexOffset);
+				if (cached != null) {
+					m_tunes = new ArrayList(1);
+					m_tunes.add(cached);
+					m_abcTuneNodes = new ArrayList(1);
+					m_abcTuneNodes.add(null);
+					return this;
+				}
+			}
+			TuneBookParser worker = new TuneBookParser();
+			worker.setBackend(m_backend);
+			if (m_measured) {
+				m_metrics = new MetricsRecorder();
+				worker.addListener(m_metrics);
+				worker.beginBookMetrics();
+			}
+			m_abcRoot = worker.getParseTree(abcString, m_lineOffset,
+					m_indexOffset);
+			m_abcTuneNodes = m_abcRoot.getChilds(AbcTune);
+			m_tunes = new ArrayList(m_abcTuneNodes.size());
+			Iterator it = m_abcTuneNodes.iterator();
+			while (it.hasNext()) {
+				m_tunes.add(worker.parseAbcTune((AbcNode) it.next()));
+			}
+			if (m_measured)
+				worker.endBookMetrics(null);
+			if ((m_cache != null) && (m_tunes.size() == 1))
+				m_cache.put(abcString, m_lineOffset, m_indexOffset,
+						(AbcTune) m_tunes.get(0));
+			return this;
+		}
+	}
+
 	/**
 	 * Parse the given file and creates a <TT>TuneBook</TT> object with no music
 	 * as parsing result. This purpose of this method method is to provide a
 	 * faster parsing when just tune book and its tunes header fields are needed.
 	 * 
+	 * The file is read with the platform default charset.
+	 * 
 	 * @param file
 	 *            The file to be parsed.
 	 * @return An object representation with no score of the abc notation
 	 *         string.
+	 * @see #parseHeaders(File, Charset)
 	 */
 	public AbcTuneBook parseHeaders(File file) throws IOException {
-		return parseHeaders0(getParseTree(new FileReader(file)));
+		return parseHeaders(file, Charset.defaultCharset());
+	}
+
+	/**
+	 * Parse the given file and creates a <TT>TuneBook</TT> object with no
+	 * music as parsing result. The file is memory mapped and decoded with the
+	 * given charset.
+	 * 
+	 * @param file
+	 *            The file to be parsed.
+	 * @param charset
+	 *            Charset of the file, e.g. <TT>ISO-8859-1</TT> or
+	 *            <TT>UTF-8</TT>.
+	 * @return An object representation with no score of the abc notation
+	 *         string.
+	 * @see #parseHeaders(Reader)
+	 */
+	public AbcTuneBook parseHeaders(File file, Charset charset)
+			throws IOException {
+		return parseHeaders(new CharArrayReader(AbcFileDecoder.decode(file,
+				charset)));
 	}
 
 	/**
 	 * Parse the given stream and creates a <TT>TuneBook</TT> object with no music
 	 * as parsing result. This purpose of this method method is to provide a
 	 * faster parsing when just tune book and its tunes header fields are needed.
+	 * <p>
+	 * The grammar is not used: fields from <TT>X:</TT> to <TT>K:</TT> are
+	 * read line by line, and music lines are skipped. Listeners receive a
+	 * <TT>null</TT> parsing tree. Each tune keeps its position in the stream,
+	 * see {@link #parseTune(Reader, AbcTune)} to get its music later.
 	 * 
 	 * @param reader
 	 *            The stream to be parsed.
@@ -122,7 +559,38 @@ public class TuneBookParser extends AbcParserAbstract {
 	 *         string.
 	 */
 	public AbcTuneBook parseHeaders(Reader reader) throws IOException {
-		return parseHeaders0(getParseTree(reader));
+		return parseHeaders(reader, null, null);
+	}
+
+	/**
+	 * Parses headers of the stream, if <TT>source</TT> is not <TT>null</TT>
+	 * it contains the whole stream and tunes are parsed lazily from it, or
+	 * loaded from <TT>snapshot</TT> if not <TT>null</TT>.
+	 */
+	private AbcTuneBook parseHeaders(Reader reader, char[] source,
+			TuneBookSnapshot snapshot) throws IOException {
+		beginBookMetrics();
+		notifyListenersForTuneBookBegin();
+		AbcHeaderScanner scanner = new AbcHeaderScanner(reader);
+		AbcTuneBook tuneBook = newAbcTuneBook();
+		scanner.scanTuneBookHeader(tuneBook);
+		int tunesNb = 0;
+		AbcTune tune;
+		while ((tune = scanner.nextTune()) != null) {
+			if (source != null)
+				tune.setBody(new AbcTuneBody(source, getCache(),
+						getBackend(), m_evictableMusic, snapshot));
+			notifyListenersForTuneBegin();
+			notifyListenersForTuneEnd(tune, null);
+			notifyListenersForUnmeasuredTune(tune);
+			tuneBook.putTune(tune);
+			tunesNb++;
+		}
+		if (tunesNb == 0)
+			notifyListenersForEmptyTuneBook();
+		notifyListenersForTuneBookEnd(tuneBook, null);
+		endBookMetrics(tuneBook);
+		return tuneBook;
 	}
 
 	/**
@@ -133,41 +601,220 @@ public class TuneBookParser extends AbcParserAbstract {
 	 * @param tune
 	 *            A tune notation in ABC.
 	 * @return A tune representing the ABC notation with header values only.
+	 * @see #parseHeaders(Reader)
 	 */
 	public AbcTuneBook parseHeaders(String tune) {
-		return parseHeaders0(getParseTree(tune));
+		try {
+			return parseHeaders(new StringReader(tune));
+		} catch (IOException never) {
+			//can't happen with a StringReader
+			throw new RuntimeException(never);
+		}
 	}
 
-	private AbcTuneBook parseHeaders0(AbcNode abcRoot) {
-		notifyListenersForTuneBookBegin();
+	/**
+	 * Parses the specified file in ABC notation, with the platform default
+	 * charset, and parses the music of each tune when it is requested.
+	 * 
+	 * @param file
+	 *            Tune book file in ABC notation.
+	 * @return A tune book whose tunes music is parsed on demand.
+	 * @see #parseLazily(Reader)
+	 */
+	public AbcTuneBook parseLazily(File file) throws IOException {
+		return parseLazily(file, Charset.defaultCharset());
+	}
+
+	/**
+	 * Parses the specified file in ABC notation, decoded with the given
+	 * charset, and parses the music of each tune when it is requested.
+	 * 
+	 * @param file
+	 *            Tune book file in ABC notation.
+	 * @param charset
+	 *            Charset of the file, e.g. <TT>ISO-8859-1</TT> or
+	 *            <TT>UTF-8</TT>.
+	 * @return A tune book whose tunes music is parsed on demand.
+	 * @see #parseLazily(Reader)
+	 */
+	public AbcTuneBook parseLazily(File file, Charset charset)
+			throws IOException {
+		char[] source = AbcFileDecoder.decode(file, charset);
+		return parseHeaders(new CharArrayReader(source), source, null);
+	}
+
+	/**
+	 * Parses the specified file in ABC notation as
+	 * {@link #parseLazily(File, Charset)} does, but the music of each tune
+	 * is built from the parsing trees saved in <TT>snapshot</TT>, without
+	 * running the grammar. The snapshot is written first if it doesn't
+	 * exist or doesn't match the file content anymore, so that the next
+	 * calls are faster.
+	 * 
+	 * @param file
+	 *            Tune book file in ABC notation.
+	 * @param charset
+	 *            Charset of the file.
+	 * @param snapshot
+	 *            Snapshot file of the tune book.
+	 * @return A tune book whose tunes music is loaded on demand.
+	 * @see TuneBookSnapshot
+	 */
+	public AbcTuneBook parseSnapshot(File file, Charset charset, File snapshot)
+			throws IOException {
+		TuneBookSnapshot tuneBookSnapshot = TuneBookSnapshot.open(snapshot,
+				file, charset);
+		if (tuneBookSnapshot == null) {
+			TuneBookSnapshot.write(file, charset, snapshot, getBackend());
+			tuneBookSnapshot = TuneBookSnapshot.open(snapshot, file, charset);
+			if (tuneBookSnapshot == null)
+				throw new IOException("Can't read snapshot " + snapshot);
+		}
+		tuneBookSnapshot.setBackend(getBackend());
+		char[] source = tuneBookSnapshot.getSource();
+		return parseHeaders(new CharArrayReader(source), source,
+				tuneBookSnapshot);
+	}
+
+	/**
+	 * Parses the given stream and creates a <TT>TuneBook</TT> object whose
+	 * tunes have their header fields only, as with
+	 * {@link #parseHeaders(Reader)}. The music of each tune is parsed on
+	 * first call to {@link AbcTune#getMusic()},
+	 * {@link AbcTune#getMusicForGraphicalRendition()} or
+	 * {@link AbcTune#getMusicForAudioRendition()}, only once even if
+	 * several threads request it.
+	 * <p>
+	 * The whole stream is kept in memory while the tunes are. When a cache
+	 * is set, it is used for the music parsing. Listeners are notified of
+	 * the headers parsing only.
+	 * 
+	 * @param reader
+	 *            The stream to be parsed.
+	 * @return A tune book whose tunes music is parsed on demand.
+	 * @see #setEvictableMusic(boolean)
+	 */
+	public AbcTuneBook parseLazily(Reader reader) throws IOException {
+		char[] source = readString(reader).toCharArray();
+		return parseHeaders(new CharArrayReader(source), source, null);
+	}
+
+	/**
+	 * Parses the given String, parsing the music of each tune when it is
+	 * requested.
+	 * 
+	 * @param tuneBook
+	 *            A tune book notation in ABC.
+	 * @return A tune book whose tunes music is parsed on demand.
+	 * @see #parseLazily(Reader)
+	 */
+	public AbcTuneBook parseLazily(String tuneBook) {
+		try {
+			return parseLazily(new StringReader(tuneBook));
+		} catch (IOException never) {
+			//can't happen with a StringReader
+			throw new RuntimeException(never);
+		}
+	}
+
+	/**
+	 * Returns <TT>true</TT> if the music of lazily parsed tunes can be
+	 * evicted from memory.
+	 * 
+	 * @see #setEvictableMusic(boolean)
+	 */
+	public boolean isEvictableMusic() {
+		return m_evictableMusic;
+	}
+
+	/**
+	 * Sets whether the music of tunes read by {@link #parseLazily(Reader)}
+	 * can be released by the garbage collector under memory pressure. An
+	 * evicted music is parsed again on next request, changes made to it
+	 * are lost. Default is <TT>false</TT>.
+	 */
+	public void setEvictableMusic(boolean evictable) {
+		m_evictableMusic = evictable;
+	}
+
+	/**
+	 * Fully parses a tune previously read by {@link #parseHeaders(Reader)}.
+	 * 
+	 * @param file
+	 *            The tune book file the tune comes from.
+	 * @param tuneHeader
+	 *            The tune with header values only.
+	 * @return The tune with its music, <TT>null</TT> if the tune position
+	 *         in the stream is unknown.
+	 * @see #parseTune(Reader, AbcTune)
+	 */
+	public AbcTune parseTune(File file, AbcTune tuneHeader) throws IOException {
+		Reader reader = new FileReader(file);
+		try {
+			return parseTune(reader, tuneHeader);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Fully parses a tune previously read by {@link #parseHeaders(Reader)}.
+	 * Only the part of the stream containing the tune is parsed, positions
+	 * of the returned tune are relative to the whole stream.
+	 * <p>
+	 * When a cache is set, a tune already parsed from the same part of the
+	 * stream is returned without parsing.
+	 * 
+	 * @param reader
+	 *            The tune book stream the tune comes from, at its beginning.
+	 * @param tuneHeader
+	 *            The tune with header values only.
+	 * @return The tune with its music, <TT>null</TT> if the tune position
+	 *         in the stream is unknown.
+	 */
+	public AbcTune parseTune(Reader reader, AbcTune tuneHeader)
+			throws IOException {
+		int start = tuneHeader.getSourceStartIndex();
+		int end = tuneHeader.getSourceEndIndex();
+		if ((start < 0) || (end < start))
+			return null;
+		long skipped = 0;
+		while (skipped < start) {
+			long n = reader.skip(start - skipped);
+			if (n <= 0)
+				return null;
+			skipped += n;
+		}
+		char[] text = new char[end - start];
+		int read = 0;
+		while (read < text.length) {
+			int n = reader.read(text, read, text.length - read);
+			if (n == -1)
+				break;
+			read += n;
+		}
+		String abcString = new String(text, 0, read);
+		int lineOffset = tuneHeader.getSourceStartLine() - 1;
+		AbcTuneCache cache = getCache();
+		if (cache != null) {
+			AbcTune cached = cache.get(abcString, lineOffset, start);
+			if (cached != null) {
+				notifyListenersForCachedTune(cached);
+				return cached;
+			}
+		}
+		AbcNode abcRoot = getParseTree(abcString, lineOffset, start);
+		AbcTune ret = null;
 		if (abcRoot != null) {
-			AbcNode tuneBookHeader = abcRoot.getChild("AbcTuneBookHeader");
-			AbcTuneBook tuneBook = parseTuneBookHeader(tuneBookHeader);
-			Iterator it = abcRoot.getChilds("AbcTune").iterator();
-			while (it.hasNext()) {
-				AbcNode abcTuneNode = (AbcNode) it.next();
-				initNewTune();
-				notifyListenersForTuneBegin();
-				AbcNode abcHeaderNode = null;
-				if (abcTuneNode != null)
-					abcHeaderNode = abcTuneNode.getChild("AbcHeader");
-				AbcTune tune;
-				if (abcHeaderNode == null) {
-					tune = new AbcTune();
-					notifyListenersForNoTune();
-				} else {
-					tune = parseAbcHeader(abcHeaderNode);
-					tune.setAbcString(abcHeaderNode.getValue());
-				}
-				notifyListenersForTuneEnd(tune, abcHeaderNode);
-				tuneBook.putTune(tune);
+			AbcNode abcTuneNode = abcRoot.getChild("AbcTune");
+			if (abcTuneNode != null) {
+				ret = parseAbcTune(abcTuneNode);
+				ret.setSourceSpan(start, end, tuneHeader.getSourceStartLine());
+				if (cache != null)
+					cache.put(abcString, lineOffset, start, ret);
 			}
-		} else {
-			m_tuneBook = newAbcTuneBook();
-			notifyListenersForEmptyTuneBook();
 		}
-		notifyListenersForTuneBookEnd(m_tuneBook, abcRoot);
-		return m_tuneBook;
+		return ret;
 	}
 
 }
@@ -0,0 +1,570 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.parser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.CharArrayReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A binary snapshot of the parsing trees of a tune book file, so that its
+ * tunes can be built again without running the grammar, e.g. on the next
+ * start of an application.
+ * <p>
+ * The file is split at <TT>X:</TT> tune boundaries as with
+ * {@link TuneBookParser#parseStreaming(java.io.Reader)}, and the compact
+ * tree of each tune is written with variable length integers. Node labels
+ * are written once, in a string table. The snapshot keeps the size and
+ * the SHA-1 digest of the source file, it is not used when they don't
+ * match anymore, nor when its checksum is wrong. Tunes with parse errors
+ * are parsed again from the source when loaded.
+ * <p>
+ * The snapshot is memory mapped, and only its index is read when it is
+ * opened: each tune is decoded when it is requested. Its header and
+ * checksum are checked with a stream before, so that a stale snapshot is
+ * not mapped and can be replaced.
+ *
+ * <PRE>
+ * TuneBookSnapshot snapshot = TuneBookSnapshot.open(snapshotFile, file, charset);
+ * if (snapshot == null) {
+ * 	TuneBookSnapshot.write(file, charset, snapshotFile);
+ * 	snapshot = TuneBookSnapshot.open(snapshotFile, file, charset);
+ * }
+ * Tune tune = snapshot.getTune(12);
+ * </PRE>
+ *
+ * This class is thread safe.
+ *
+ * @see TuneBookParser#parseSnapshot(File, Charset, File)
+ */
+public class TuneBookSnapshot {
+
+	/** "ABCS" */
+	private static final int MAGIC = 0x41424353;
+
+	/** Version of the format, snapshots of other versions are ignored */
+	private static final int VERSION = 2;
+
+	/** A segment stored as a parsing tree */
+	private static final byte TREE = 0;
+
+	/** A segment to parse from the source, because of parse errors */
+	private static final byte SOURCE = 1;
+
+	private static final AbcNodePath ABC_TUNE = AbcNodePath
+			.compile(AbcTokens.AbcTune);
+
+	private static final AbcNodePath REFERENCE_NUMBER = AbcNodePath
+			.compile(AbcTokens.AbcTune + "/" + AbcTokens.AbcHeader + "/"
+					+ AbcTokens.FieldNumber + "/" + AbcTokens.DIGITS);
+
+	/** Chars of the source file */
+	private char[] m_source;
+
+	/** Buffer shared by the trees of all tunes */
+	private AbcInputBuffer m_buffer;
+
+	/** Label id of each entry of the string table */
+	private int[] m_labelIds;
+
+	/** Index of the first char of each tune in the source, ascending */
+	private int[] m_tuneStarts;
+
+	private int[] m_referenceNumbers;
+
+	/** Position of each tune in {@link #m_payloads} */
+	private int[] m_offsets;
+
+	private ByteBuffer m_payloads;
+
+	private ParserBackend m_backend = new AbcGrammarBackend();
+
+	private TuneBookSnapshot() {
+		//
+	}
+
+	/**
+	 * Parses the file and writes the snapshot of its tunes, with an
+	 * {@link AbcGrammarBackend}.
+	 *
+	 * @see #write(File, Charset, File, ParserBackend)
+	 */
+	public static void write(File file, Charset charset, File snapshot)
+			throws IOException {
+		write(file, charset, snapshot, new AbcGrammarBackend());
+	}
+
+	/**
+	 * Parses the file and writes the snapshot of its tunes. The snapshot
+	 * is written in a temporary file, then renamed: an existing snapshot is
+	 * replaced only once the new one is complete.
+	 *
+	 * @param file
+	 *            Tune book file in ABC notation.
+	 * @param charset
+	 *            Charset of the file.
+	 * @param snapshot
+	 *            The snapshot file to write.
+	 * @param backend
+	 *            Backend building the parsing trees.
+	 */
+	public static void write(File file, Charset charset, File snapshot,
+			ParserBackend backend) throws IOException {
+		byte[] digest = digest(file);
+		char[] source = AbcFileDecoder.decode(file, charset);
+		TuneBookParser parser = new TuneBookParser();
+		parser.setBackend(backend);
+		TuneBookSplitter splitter = new TuneBookSplitter(new CharArrayReader(
+				source));
+		Map labels = new HashMap();
+		List labelNames = new ArrayList();
+		List index = new ArrayList();
+		ByteArrayOutputStream payloads = new ByteArrayOutputStream();
+		//book header, tunes are parsed alone as by parseTune(Reader, AbcTune)
+		splitter.next();
+		TuneBookSplitter.Segment segment;
+		while ((segment = splitter.next()) != null) {
+			int parseStart = segment.getStartIndex();
+			String text = segment.getText();
+			int lineOffset = segment.getStartLine() - 1;
+			AbcNode root = parser.getParseTree(text, lineOffset, parseStart);
+			AbcNode reference = (root != null) ? root
+					.getChild(REFERENCE_NUMBER) : null;
+			int referenceNumber = -1;
+			if (reference != null) {
+				try {
+					referenceNumber = Integer.parseInt(reference.getValue());
+				} catch (NumberFormatException e) {
+					//
+				}
+			}
+			index.add(new int[] { segment.getStartIndex(), referenceNumber,
+					payloads.size() });
+			AbcParseTree tree = (root != null) ? root.getTree() : null;
+			boolean stored = (tree != null) && !tree.hasParseErrors();
+			payloads.write(stored ? TREE : SOURCE);
+			writeVarint(payloads, text.length());
+			writeVarint(payloads, segment.getStartLine());
+			if (stored) {
+				writeVarint(payloads, tree.getSize());
+				int previousStart = 0;
+				for (int i = 0; i < tree.getSize(); i++) {
+					Integer labelId = Integer.valueOf(tree.getLabelId(i));
+					Integer label = (Integer) labels.get(labelId);
+					if (label == null) {
+						label = Integer.valueOf(labelNames.size());
+						labels.put(labelId, label);
+						labelNames.add(tree.getLabel(i));
+					}
+					writeVarint(payloads, label.intValue());
+					writeVarint(payloads, zigzag(tree.getStart(i)
+							- previousStart));
+					writeVarint(payloads, tree.getEnd(i) - tree.getStart(i));
+					writeVarint(payloads, tree.getSubtreeEnd(i) - i - 1);
+					previousStart = tree.getStart(i);
+				}
+			}
+		}
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writeInt(out, MAGIC);
+		writeVarint(out, VERSION);
+		writeVarint(out, file.length());
+		out.write(digest);
+		writeString(out, charset.name());
+		//string table, index and trees, after their checksum
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		writeVarint(body, labelNames.size());
+		for (int i = 0; i < labelNames.size(); i++)
+			writeString(body, (String) labelNames.get(i));
+		writeVarint(body, index.size());
+		for (int i = 0; i < index.size(); i++) {
+			int[] entry = (int[]) index.get(i);
+			writeVarint(body, entry[0]);
+			writeVarint(body, zigzag(entry[1]));
+			writeVarint(body, entry[2]);
+		}
+		writeVarint(body, payloads.size());
+		payloads.writeTo(body);
+		byte[] bytes = body.toByteArray();
+		CRC32 crc = new CRC32();
+		crc.update(bytes);
+		writeInt(out, (int) crc.getValue());
+		out.write(bytes);
+
+		File dir = snapshot.getAbsoluteFile().getParentFile();
+		File tmp = File.createTempFile("abc", ".tmp", dir);
+		try {
+			OutputStream os = new FileOutputStream(tmp);
+			try {
+				out.writeTo(os);
+			} finally {
+				os.close();
+			}
+			if (!tmp.renameTo(snapshot)) {
+				snapshot.delete();
+				if (!tmp.renameTo(snapshot))
+					throw new IOException("Can't write " + snapshot);
+			}
+		} finally {
+			tmp.delete();
+		}
+	}
+
+	/**
+	 * Opens the snapshot of the given file.
+	 *
+	 * @param snapshot
+	 *            The snapshot file.
+	 * @param file
+	 *            Tune book file the snapshot has been written from.
+	 * @param charset
+	 *            Charset of the file.
+	 * @return the snapshot, <TT>null</TT> if it doesn't exist, has been
+	 *         written by another version or from another content of the
+	 *         file, or can't be decoded.
+	 * @throws IOException
+	 *             If a file can't be read.
+	 */
+	public static TuneBookSnapshot open(File snapshot, File file,
+			Charset charset) throws IOException {
+		if (!snapshot.isFile())
+			return null;
+		int dataStart = checkHeader(snapshot, file, charset);
+		if (dataStart == -1)
+			return null;
+		ByteBuffer in = map(snapshot);
+		in.position(dataStart);
+		try {
+			TuneBookSnapshot ret = new TuneBookSnapshot();
+			ret.m_labelIds = new int[readCount(in)];
+			for (int i = 0; i < ret.m_labelIds.length; i++)
+				ret.m_labelIds[i] = AbcNodePath.getLabelId(readString(in));
+			int size = readCount(in);
+			ret.m_tuneStarts = new int[size];
+			ret.m_referenceNumbers = new int[size];
+			ret.m_offsets = new int[size];
+			for (int i = 0; i < size; i++) {
+				ret.m_tuneStarts[i] = readVarint(in);
+				ret.m_referenceNumbers[i] = unzigzag(readVarint(in));
+				ret.m_offsets[i] = readVarint(in);
+			}
+			int length = readVarint(in);
+			if (length != in.remaining())
+				return null;
+			ret.m_source = AbcFileDecoder.decode(file, charset);
+			for (int i = 0; i < size; i++) {
+				//tunes in the order of the source, payloads in the snapshot
+				if ((ret.m_tuneStarts[i] < ((i > 0) ? ret.m_tuneStarts[i - 1] : 0))
+						|| (ret.m_tuneStarts[i] > ret.m_source.length)
+						|| (ret.m_offsets[i] < 0) || (ret.m_offsets[i] >= length))
+					return null;
+			}
+			ret.m_payloads = in.slice();
+			ret.m_buffer = new AbcInputBuffer(ret.m_source, 0, 0);
+			//builds the lines index once, before threads share the buffer
+			ret.m_buffer.getPosition(0);
+			return ret;
+		} catch (RuntimeException e) {
+			//truncated or corrupted, e.g. BufferUnderflowException
+			return null;
+		}
+	}
+
+	/** Returns the number of tunes of the snapshot */
+	public int size() {
+		return m_tuneStarts.length;
+	}
+
+	/**
+	 * Returns the reference numbers of the tunes, in the order of the
+	 * file, -1 for a tune without reference number.
+	 */
+	public int[] getReferenceNumbers() {
+		return (int[]) m_referenceNumbers.clone();
+	}
+
+	/**
+	 * Returns the first tune having the given reference number, loaded
+	 * from the snapshot, <TT>null</TT> if none or if it can't be decoded.
+	 */
+	public AbcTune getTune(int referenceNumber) {
+		for (int i = 0; i < m_referenceNumbers.length; i++) {
+			if (m_referenceNumbers[i] == referenceNumber)
+				return loadTune(i);
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the backend used to parse tunes with parse errors
+	 */
+	public ParserBackend getBackend() {
+		return m_backend;
+	}
+
+	/**
+	 * Sets the backend used to parse again the tunes which had parse errors
+	 * when the snapshot was written, by default an {@link AbcGrammarBackend}.
+	 */
+	public void setBackend(ParserBackend backend) {
+		if (backend == null)
+			throw new IllegalArgumentException("backend can't be null");
+		m_backend = backend;
+	}
+
+	/** Returns the chars of the source file */
+	char[] getSource() {
+		return m_source;
+	}
+
+	/**
+	 * Returns the tune starting at the given index of the source, loaded
+	 * from the snapshot, <TT>null</TT> if none or if it can't be decoded.
+	 */
+	AbcTune getTuneAt(int sourceStartIndex) {
+		int i = Arrays.binarySearch(m_tuneStarts, sourceStartIndex);
+		return (i >= 0) ? loadTune(i) : null;
+	}
+
+	/**
+	 * Decodes and builds the tune at index <TT>i</TT>, <TT>null</TT> if its
+	 * payload is corrupted
+	 */
+	private AbcTune loadTune(int i) {
+		try {
+			return loadTune0(i);
+		} catch (RuntimeException e) {
+			//corrupted, e.g. BufferUnderflowException or bad node indexes
+			return null;
+		}
+	}
+
+	private AbcTune loadTune0(int i) {
+		ByteBuffer in = m_payloads.duplicate();
+		in.position(m_offsets[i]);
+		byte kind = in.get();
+		int parseStart = m_tuneStarts[i];
+		int length = readVarint(in);
+		int startLine = readVarint(in);
+		if ((length < 0) || (length > m_source.length - parseStart))
+			return null;
+		TuneBookParser parser = new TuneBookParser();
+		parser.setBackend(m_backend);
+		AbcNode root = null;
+		if (kind == TREE) {
+			int size = readCount(in);
+			int[] labelIds = new int[size];
+			int[] starts = new int[size];
+			int[] ends = new int[size];
+			int[] subtreeEnds = new int[size];
+			int start = 0;
+			for (int n = 0; n < size; n++) {
+				labelIds[n] = m_labelIds[readVarint(in)];
+				start += unzigzag(readVarint(in));
+				starts[n] = parseStart + start;
+				ends[n] = starts[n] + readVarint(in);
+				subtreeEnds[n] = n + 1 + readVarint(in);
+				if ((subtreeEnds[n] <= n) || (subtreeEnds[n] > size))
+					return null;
+			}
+			root = new AbcParseTree(size, labelIds, starts, ends,
+					subtreeEnds, m_buffer).getNode(0, null);
+		} else {
+			root = parser.getParseTree(new String(m_source, parseStart,
+					length), startLine - 1, parseStart);
+		}
+		AbcNode abcTune = (root != null) ? root.getChild(ABC_TUNE) : null;
+		if (abcTune == null)
+			return null;
+		AbcTune ret = parser.parseAbcTune(abcTune);
+		ret.setSourceSpan(parseStart, parseStart + length, startLine);
+		return ret;
+	}
+
+	/** Returns the SHA-1 digest of the file content */
+	private static byte[] digest(File file) throws IOException {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-1");
+			//read with a stream, the file must not stay mapped
+			InputStream in = new FileInputStream(file);
+			try {
+				byte[] chunk = new byte[8192];
+				int n;
+				while ((n = in.read(chunk)) != -1)
+					md.update(chunk, 0, n);
+			} finally {
+				in.close();
+			}
+			return md.digest();
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Checks the header and the checksum of the snapshot, reading it with
+	 * a stream. Returns the index of the data following the header, -1 if
+	 * the snapshot can't be used.
+	 */
+	private static int checkHeader(File snapshot, File file, Charset charset)
+			throws IOException {
+		InputStream is = new FileInputStream(snapshot);
+		try {
+			//the header fits in the first chunk
+			byte[] chunk = new byte[8192];
+			int n = 0;
+			int r;
+			while ((n < chunk.length)
+					&& ((r = is.read(chunk, n, chunk.length - n)) != -1))
+				n += r;
+			ByteBuffer in = ByteBuffer.wrap(chunk, 0, n);
+			int checksum;
+			try {
+				if ((in.getInt() != MAGIC) || (readVarint(in) != VERSION)
+						|| (readLong(in) != file.length()))
+					return -1;
+				byte[] digest = new byte[20];
+				in.get(digest);
+				if (!charset.name().equals(readString(in))
+						|| !Arrays.equals(digest, digest(file)))
+					return -1;
+				checksum = in.getInt();
+			} catch (RuntimeException e) {
+				//truncated or corrupted
+				return -1;
+			}
+			int ret = in.position();
+			CRC32 crc = new CRC32();
+			crc.update(chunk, ret, n - ret);
+			while ((r = is.read(chunk)) != -1)
+				crc.update(chunk, 0, r);
+			return (checksum == (int) crc.getValue()) ? ret : -1;
+		} finally {
+			is.close();
+		}
+	}
+
+	private static MappedByteBuffer map(File file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel
+					.size());
+		} finally {
+			in.close();
+		}
+	}
+
+	private static int zigzag(int n) {
+		return (n << 1) ^ (n >> 31);
+	}
+
+	private static int unzigzag(int n) {
+		return (n >>> 1) ^ -(n & 1);
+	}
+
+	private static void writeInt(OutputStream out, int n) throws IOException {
+		out.write(n >>> 24);
+		out.write(n >>> 16);
+		out.write(n >>> 8);
+		out.write(n);
+	}
+
+	/** Writes a non negative number, 7 bits per byte */
+	private static void writeVarint(OutputStream out, long n)
+			throws IOException {
+		while ((n & ~0x7FL) != 0) {
+			out.write((int) ((n & 0x7F) | 0x80));
+			n >>>= 7;
+		}
+		out.write((int) n);
+	}
+
+	/** Writes a string as its length + 1 and UTF-8 bytes, 0 if null */
+	private static void writeString(OutputStream out, String s)
+			throws IOException {
+		if (s == null) {
+			writeVarint(out, 0);
+			return;
+		}
+		byte[] bytes = s.getBytes("UTF-8");
+		writeVarint(out, bytes.length + 1);
+		out.write(bytes);
+	}
+
+	private static long readLong(ByteBuffer in) {
+		long ret = 0;
+		for (int shift = 0;; shift += 7) {
+			byte b = in.get();
+			ret |= (long) (b & 0x7F) << shift;
+			if (b >= 0)
+				return ret;
+		}
+	}
+
+	private static int readVarint(ByteBuffer in) {
+		return (int) readLong(in);
+	}
+
+	/**
+	 * Reads the size of an array of entries of one byte or more, so that
+	 * a corrupted size doesn't allocate more than the snapshot size.
+	 * 
+	 * @throws BufferUnderflowException
+	 *             If the size is negative or greater than the bytes left.
+	 */
+	private static int readCount(ByteBuffer in) {
+		long ret = readLong(in);
+		if ((ret < 0) || (ret > in.remaining()))
+			throw new BufferUnderflowException();
+		return (int) ret;
+	}
+
+	private static String readString(ByteBuffer in) {
+		int length = readCount(in) - 1;
+		if (length < 0)
+			return null;
+		byte[] bytes = new byte[length];
+		in.get(bytes);
+		try {
+			return new String(bytes, "UTF-8");
+		} catch (UnsupportedEncodingException never) {
+			//UTF-8 is always supported
+			throw new RuntimeException(never);
+		}
+	}
+
+}
@@ -0,0 +1,139 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.parser;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Splits a tune book stream into segments at <TT>X:</TT> tune boundaries,
+ * while reading it. Only the segment being built is kept in memory.
+ * <p>
+ * The first segment returned by {@link #next()} is always the tune book
+ * header (text before the first tune, may be empty), following ones are
+ * tunes. Comment lines immediately preceding a <TT>X:</TT> field belong to
+ * the tune they precede, like in {@link AbcGrammar}. Line terminators are
+ * kept, so segments concatenated in order give back the whole stream.
+ */
+class TuneBookSplitter {
+
+	/** A piece of the tune book source: the header or one tune. */
+	static class Segment {
+		private String m_text;
+		private int m_startIndex;
+		private int m_startLine;
+		private boolean m_isTune;
+
+		Segment(String text, int startIndex, int startLine, boolean isTune) {
+			m_text = text;
+			m_startIndex = startIndex;
+			m_startLine = startLine;
+			m_isTune = isTune;
+		}
+
+		/** Returns the source text of this segment */
+		String getText() { return m_text; }
+
+		/** Returns the index of the segment first char in the whole stream */
+		int getStartIndex() { return m_startIndex; }
+
+		/** Returns the index after the segment last char in the whole stream */
+		int getEndIndex() { return m_startIndex + m_text.length(); }
+
+		/** Returns the line (starting at 1) of the segment first char */
+		int getStartLine() { return m_startLine; }
+
+		/** Returns <TT>false</TT> for the tune book header segment */
+		boolean isTune() { return m_isTune; }
+	}
+
+	private AbcLineReader m_reader;
+
+	private StringBuffer m_current = new StringBuffer();
+
+	private int m_currentStartIndex = 0;
+
+	private int m_currentStartLine = 1;
+
+	private boolean m_currentIsTune = false;
+
+	/** Offset in m_current of comments preceding a possible X:, -1 if none */
+	private int m_preludeStart = -1;
+
+	private int m_preludeStartLine = -1;
+
+	private boolean m_headerReturned = false;
+
+	private boolean m_eof = false;
+
+	TuneBookSplitter(Reader reader) {
+		m_reader = new AbcLineReader(reader);
+	}
+
+	/**
+	 * Returns the next segment of the stream, <TT>null</TT> when the whole
+	 * stream has been read. The first call always returns the header segment.
+	 */
+	Segment next() throws IOException {
+		while (!m_eof) {
+			String line = m_reader.readLine();
+			if (line == null) {
+				m_eof = true;
+				break;
+			}
+			if (line.startsWith("X:")) {
+				Segment ret = cut(m_preludeStart != -1
+						? m_preludeStart : m_current.length());
+				append(line);
+				return ret;
+			}
+			append(line);
+		}
+		if (!m_headerReturned || (m_current.length() > 0))
+			return cut(m_current.length());
+		return null;
+	}
+
+	private void append(String line) {
+		if (line.startsWith("%")) {
+			if (m_preludeStart == -1) {
+				m_preludeStart = m_current.length();
+				m_preludeStartLine = m_reader.getLinesRead();
+			}
+		} else {
+			m_preludeStart = -1;
+		}
+		m_current.append(line);
+	}
+
+	/**
+	 * Returns the current segment text up to <TT>length</TT> and starts a new
+	 * tune segment with the remaining chars.
+	 */
+	private Segment cut(int length) {
+		Segment ret = new Segment(m_current.substring(0, length),
+				m_currentStartIndex, m_currentStartLine, m_currentIsTune);
+		m_current.delete(0, length);
+		m_currentStartIndex += length;
+		m_currentStartLine = (m_preludeStart != -1)
+				? m_preludeStartLine : m_reader.getLinesRead();
+		m_currentIsTune = true;
+		m_headerReturned = true;
+		m_preludeStart = -1;
+		return ret;
+	}
+
+}
@@ -0,0 +1,282 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.parser;
+
+import java.io.CharArrayReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import abc.notation.TuneInfos;
+
+/**
+ * A searchable catalog of the tune headers of many tune book files, built
+ * by a {@link TuneLibraryParser}.
+ * <p>
+ * Each {@link Entry} keeps the file and the position in the file its tune
+ * comes from, so that the whole tune can be parsed when needed. Entries
+ * are sorted by file path, then by position in their file.
+ */
+public class TuneLibrary {
+
+	/** A tune of the library, with its provenance */
+	public static class Entry {
+		private AbcTune m_tune;
+		private File m_file;
+		private Charset m_charset;
+
+		Entry(AbcTune tune, File file, Charset charset) {
+			m_tune = tune;
+			m_file = file;
+			m_charset = charset;
+		}
+
+		/** Returns the tune, with header values only */
+		public AbcTune getTune() {
+			return m_tune;
+		}
+
+		/** Returns the tune book file the tune comes from */
+		public File getFile() {
+			return m_file;
+		}
+
+		/** Returns the index of the tune first char in its file */
+		public int getSourceStartIndex() {
+			return m_tune.getSourceStartIndex();
+		}
+
+		/** Returns the index after the tune last char in its file */
+		public int getSourceEndIndex() {
+			return m_tune.getSourceEndIndex();
+		}
+
+		/** Returns the line (starting at 1) of the tune first char in its file */
+		public int getSourceStartLine() {
+			return m_tune.getSourceStartLine();
+		}
+
+		/**
+		 * Fully parses the tune from its file.
+		 *
+		 * @return The tune with its music, <TT>null</TT> if it is not found
+		 *         in the file anymore.
+		 * @see TuneBookParser#parseTune(Reader, AbcTune)
+		 */
+		public AbcTune parseTune() throws IOException {
+			//same decoding as when the library was indexed, positions match
+			Reader reader = new CharArrayReader(AbcFileDecoder.decode(m_file,
+					m_charset));
+			return new TuneBookParser().parseTune(reader, m_tune);
+		}
+
+		public String toString() {
+			return m_file + ":" + getSourceStartLine() + " X:"
+					+ m_tune.getReferenceNumber();
+		}
+	}
+
+	/** Header fields indexed for {@link TuneLibrary#search(String)} */
+	private static final byte[] INDEXED_FIELDS = { TuneInfos.AREA,
+		TuneInfos.BOOK, TuneInfos.COMPOSER, TuneInfos.DISCOGRAPHY,
+		TuneInfos.FILEURL, TuneInfos.GROUP, TuneInfos.HISTORY,
+		TuneInfos.INFORMATIONS, TuneInfos.LYRICIST, TuneInfos.NOTES,
+		TuneInfos.ORIGIN, TuneInfos.RHYTHM, TuneInfos.SOURCE,
+		TuneInfos.TITLE, TuneInfos.TRANSCRIPTION, TuneInfos.WORDS };
+
+	private File m_directory;
+
+	/** Entries by file, until the library is complete */
+	private Map m_entriesByFile = new HashMap();
+
+	private List m_entries = null;
+
+	/** Failures by file */
+	private Map m_failures = new TreeMap();
+
+	private boolean m_cancelled = false;
+
+	/** Positions in m_entries of the entries containing each word */
+	private TreeMap m_words = null;
+
+	TuneLibrary(File directory) {
+		m_directory = directory;
+	}
+
+	/** Adds the tunes of a file, called by worker threads */
+	synchronized void addFile(File file, List tunes, Charset charset) {
+		List entries = new ArrayList(tunes.size());
+		for (int i = 0; i < tunes.size(); i++)
+			entries.add(new Entry((AbcTune) tunes.get(i), file, charset));
+		m_entriesByFile.put(file, entries);
+	}
+
+	/** Adds a file which can't be parsed, called by worker threads */
+	synchronized void addFailure(File file, Throwable failure) {
+		m_failures.put(file, failure);
+	}
+
+	/** Sorts the entries and indexes their words once all files are added */
+	synchronized void complete(boolean cancelled) {
+		m_cancelled = cancelled;
+		List files = new ArrayList(m_entriesByFile.keySet());
+		Collections.sort(files);
+		m_entries = new ArrayList();
+		for (int i = 0; i < files.size(); i++)
+			m_entries.addAll((List) m_entriesByFile.get(files.get(i)));
+		m_entriesByFile = null;
+		buildIndex();
+	}
+
+	private void buildIndex() {
+		Map words = new HashMap();
+		for (int i = 0; i < m_entries.size(); i++) {
+			TuneInfos infos = ((Entry) m_entries.get(i)).getTune()
+					.getTuneInfos();
+			for (int j = 0; j < INDEXED_FIELDS.length; j++) {
+				String value = infos.get(INDEXED_FIELDS[j]);
+				if (value == null)
+					continue;
+				String[] split = split(value);
+				for (int k = 0; k < split.length; k++) {
+					BitSet entries = (BitSet) words.get(split[k]);
+					if (entries == null) {
+						entries = new BitSet();
+						words.put(split[k], entries);
+					}
+					entries.set(i);
+				}
+			}
+		}
+		//positions take less memory than bit sets of rare words
+		m_words = new TreeMap();
+		Iterator it = words.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry word = (Map.Entry) it.next();
+			BitSet entries = (BitSet) word.getValue();
+			int[] positions = new int[entries.cardinality()];
+			for (int i = entries.nextSetBit(0), j = 0; i >= 0; i = entries
+					.nextSetBit(i + 1))
+				positions[j++] = i;
+			m_words.put(word.getKey(), positions);
+		}
+	}
+
+	/** Splits text into lower case words of letters and digits */
+	private static String[] split(String text) {
+		List ret = new ArrayList();
+		int start = -1;
+		for (int i = 0; i <= text.length(); i++) {
+			boolean letter = (i < text.length())
+					&& Character.isLetterOrDigit(text.charAt(i));
+			if (letter && (start == -1))
+				start = i;
+			else if (!letter && (start != -1)) {
+				ret.add(text.substring(start, i).toLowerCase());
+				start = -1;
+			}
+		}
+		return (String[]) ret.toArray(new String[ret.size()]);
+	}
+
+	/** Returns the root directory of the library */
+	public File getDirectory() {
+		return m_directory;
+	}
+
+	/** Returns all the entries of the library */
+	public List getEntries() {
+		return Collections.unmodifiableList(m_entries);
+	}
+
+	/** Returns the entries of tunes coming from the given file */
+	public List getEntries(File file) {
+		List ret = new ArrayList();
+		for (int i = 0; i < m_entries.size(); i++) {
+			Entry entry = (Entry) m_entries.get(i);
+			if (entry.getFile().equals(file))
+				ret.add(entry);
+		}
+		return ret;
+	}
+
+	/** Returns the number of tunes in the library */
+	public int size() {
+		return m_entries.size();
+	}
+
+	/**
+	 * Returns the files which couldn't be parsed, and the directories which
+	 * couldn't be listed, sorted by path, mapped to the cause of their
+	 * failure.
+	 */
+	public Map getFailures() {
+		return Collections.unmodifiableMap(m_failures);
+	}
+
+	/**
+	 * Returns <TT>true</TT> if the indexing has been cancelled, the library
+	 * then contains only the files parsed before.
+	 */
+	public boolean isCancelled() {
+		return m_cancelled;
+	}
+
+	/**
+	 * Returns the entries whose header fields (titles, composer, rhythm...)
+	 * contain words starting with each word of the query, case
+	 * insensitive. e.g. <TT>search("kesh jig")</TT>
+	 *
+	 * @return matching entries, in the library order. All the entries if
+	 *         the query has no word.
+	 */
+	public List search(String query) {
+		String[] words = split(query);
+		BitSet found = null;
+		for (int i = 0; i < words.length; i++) {
+			BitSet matches = new BitSet(m_entries.size());
+			SortedMap prefixed = m_words.subMap(words[i], words[i]
+					+ Character.MAX_VALUE);
+			Iterator it = prefixed.values().iterator();
+			while (it.hasNext()) {
+				int[] positions = (int[]) it.next();
+				for (int j = 0; j < positions.length; j++)
+					matches.set(positions[j]);
+			}
+			if (found == null)
+				found = matches;
+			else
+				found.and(matches);
+		}
+		if (found == null)
+			return new ArrayList(m_entries);
+		List ret = new ArrayList(found.cardinality());
+		for (int i = found.nextSetBit(0); i >= 0; i = found.nextSetBit(i + 1))
+			ret.add(m_entries.get(i));
+		return ret;
+	}
+
+}
@@ -0,0 +1,37 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.parser;
+
+import java.io.File;
+
+/** An empty implementation of a tune library listener that does nothing. */
+public class TuneLibraryAdapter implements TuneLibraryListenerInterface {
+
+	public void libraryBegin(File directory) {
+	}
+
+	public void fileParsed(File file, int tunesNb, int filesDone,
+			int filesFound) {
+	}
+
+	public void fileFailed(File file, Throwable failure, int filesDone,
+			int filesFound) {
+	}
+
+	public void libraryEnd(TuneLibrary library) {
+	}
+
+}
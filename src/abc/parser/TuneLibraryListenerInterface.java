@@ -0,0 +1,78 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.parser;
+
+import java.io.File;
+import java.util.EventListener;
+
+/**
+ * Interface that should be implemented by any object that listens to the
+ * indexing of a tune library by a {@link TuneLibraryParser}.
+ * <p>
+ * Events are sent one at a time, from the thread which calls
+ * {@link TuneLibraryParser#parse(File)} and from the worker threads.
+ * 
+ * @see abc.parser.TuneLibraryAdapter for a simple implementation skeleton.
+ */
+public interface TuneLibraryListenerInterface extends EventListener {
+
+	/** Invoked when the indexing of the library begins. */
+	public void libraryBegin(File directory);
+
+	/**
+	 * Invoked when the tune headers of a file have been read.
+	 * 
+	 * @param file
+	 *            The file that has just been parsed.
+	 * @param tunesNb
+	 *            Number of tunes found in the file.
+	 * @param filesDone
+	 *            Number of files parsed or failed so far, including this
+	 *            one.
+	 * @param filesFound
+	 *            Number of files found so far in the directory tree.
+	 */
+	public void fileParsed(File file, int tunesNb, int filesDone,
+			int filesFound);
+
+	/**
+	 * Invoked when a file can't be parsed, its tunes are not in the
+	 * library. Other files are parsed anyway. Also invoked for a
+	 * sub-directory which can't be listed, counted as one file.
+	 * 
+	 * @param file
+	 *            The file, or directory, which failed.
+	 * @param failure
+	 *            The cause of the failure.
+	 * @param filesDone
+	 *            Number of files parsed or failed so far, including this
+	 *            one.
+	 * @param filesFound
+	 *            Number of files found so far in the directory tree.
+	 */
+	public void fileFailed(File file, Throwable failure, int filesDone,
+			int filesFound);
+
+	/**
+	 * Invoked when the indexing of the library has ended, or has been
+	 * cancelled.
+	 * 
+	 * @param library
+	 *            The library, see {@link TuneLibrary#isCancelled()}.
+	 */
+	public void libraryEnd(TuneLibrary library);
+
+}
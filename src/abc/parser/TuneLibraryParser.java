@@ -0,0 +1,318 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.parser;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import abc.notation.Tune;
+
+/**
+ * Indexes all the tune book files of a directory tree into a
+ * {@link TuneLibrary}.
+ * <p>
+ * Files are found by a walk of the directory tree in the calling thread,
+ * and their tune headers are read by a pool of worker threads, see
+ * {@link TuneBookParser#parseHeaders(File, Charset)}. The walk waits when
+ * too many files are waiting to be parsed, so that memory stays bounded
+ * whatever the size of the tree. A file which can't be parsed, or a
+ * sub-directory which can't be listed, is reported to listeners, and the
+ * other files are indexed anyway.
+ *
+ * <pre>
+ * TuneLibrary library = new TuneLibraryParser().parse(new File(&quot;tunes&quot;));
+ * List jigs = library.search(&quot;jig&quot;);
+ * </pre>
+ */
+public class TuneLibraryParser {
+
+	private int m_threadsNb;
+
+	private int m_queueCapacity;
+
+	private Charset m_charset = Charset.defaultCharset();
+
+	private FileFilter m_fileFilter = new FileFilter() {
+		public boolean accept(File file) {
+			return file.getName().toLowerCase().endsWith(".abc");
+		}
+	};
+
+	private Vector m_listeners = new Vector();
+
+	/** Serializes events sent to listeners */
+	private Object m_listenersMutex = new Object();
+
+	private volatile boolean m_cancelled = false;
+
+	private int m_filesFound = 0;
+
+	private int m_filesDone = 0;
+
+	/**
+	 * Constructs a parser using one thread per available processor, and
+	 * letting two files per thread wait to be parsed.
+	 */
+	public TuneLibraryParser() {
+		this(Runtime.getRuntime().availableProcessors(), Runtime.getRuntime()
+				.availableProcessors() * 2);
+	}
+
+	/**
+	 * Constructs a parser.
+	 *
+	 * @param threadsNb
+	 *            Number of worker threads.
+	 * @param queueCapacity
+	 *            Number of files found by the walk of the directory tree that
+	 *            can wait to be parsed.
+	 */
+	public TuneLibraryParser(int threadsNb, int queueCapacity) {
+		if (threadsNb < 1)
+			throw new IllegalArgumentException("Invalid number of threads "
+					+ threadsNb);
+		if (queueCapacity < 0)
+			throw new IllegalArgumentException("Invalid queue capacity "
+					+ queueCapacity);
+		m_threadsNb = threadsNb;
+		m_queueCapacity = queueCapacity;
+	}
+
+	/** Returns the charset of the files, platform default by default */
+	public Charset getCharset() {
+		return m_charset;
+	}
+
+	/** Sets the charset of the files */
+	public void setCharset(Charset charset) {
+		m_charset = charset;
+	}
+
+	/** Returns the filter of the files, by default <TT>*.abc</TT> files */
+	public FileFilter getFileFilter() {
+		return m_fileFilter;
+	}
+
+	/**
+	 * Sets the filter of the tune book files, directories are always
+	 * walked.
+	 */
+	public void setFileFilter(FileFilter filter) {
+		m_fileFilter = filter;
+	}
+
+	/** Adds a listener to catch events thrown by the parser. */
+	public void addListener(TuneLibraryListenerInterface listener) {
+		m_listeners.addElement(listener);
+	}
+
+	/** Removes a listener from this parser. */
+	public void removeListener(TuneLibraryListenerInterface listener) {
+		m_listeners.removeElement(listener);
+	}
+
+	/**
+	 * Stops the indexing in progress: the walk of the directory tree ends,
+	 * files waiting to be parsed are skipped, and
+	 * {@link #parse(File)} returns once the files being parsed are done.
+	 * Can be called from any thread, e.g. a listener.
+	 */
+	public void cancel() {
+		m_cancelled = true;
+	}
+
+	/**
+	 * Indexes the tune book files of a directory tree. Files are walked in
+	 * path order, symbolic links to a directory already walked are
+	 * ignored.
+	 *
+	 * @param directory
+	 *            Root of the directory tree.
+	 * @return The library, with the tunes of all the files which have been
+	 *         parsed.
+	 * @throws IOException
+	 *             if the directory can't be read.
+	 * @throws InterruptedIOException
+	 *             if the calling thread is interrupted, once the files being
+	 *             parsed are done.
+	 */
+	public TuneLibrary parse(File directory) throws IOException {
+		if (!directory.isDirectory())
+			throw new IOException(directory + " is not a directory");
+		if (directory.listFiles() == null)
+			throw new IOException("Can't list files of " + directory);
+		m_cancelled = false;
+		m_filesFound = 0;
+		m_filesDone = 0;
+		TuneLibrary library = new TuneLibrary(directory);
+		notifyListenersForLibraryBegin(directory);
+		Semaphore slots = new Semaphore(m_threadsNb + m_queueCapacity);
+		ExecutorService executor = new ThreadPoolExecutor(m_threadsNb,
+				m_threadsNb, 0, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue());
+		boolean interrupted = false;
+		try {
+			walk(directory, new HashSet(), library, executor, slots);
+		} catch (InterruptedException e) {
+			m_cancelled = true;
+			interrupted = true;
+		} catch (RuntimeException e) {
+			m_cancelled = true;
+			throw e;
+		} finally {
+			executor.shutdown();
+			//all slots are released once every file is done
+			slots.acquireUninterruptibly(m_threadsNb + m_queueCapacity);
+			library.complete(m_cancelled);
+			notifyListenersForLibraryEnd(library);
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Tune library parsing interrupted");
+		}
+		return library;
+	}
+
+	/**
+	 * Walks the directory tree, a directory which can't be read is reported
+	 * as a failed file.
+	 */
+	private void walk(File directory, Set walked, TuneLibrary library,
+			ExecutorService executor, Semaphore slots)
+			throws InterruptedException {
+		File[] files;
+		try {
+			if (!walked.add(directory.getCanonicalFile()))
+				return;
+			files = directory.listFiles();
+			if (files == null)
+				throw new IOException("Can't list files of " + directory);
+		} catch (IOException e) {
+			synchronized (m_listenersMutex) {
+				m_filesFound++;
+			}
+			fileFailed(library, directory, e);
+			return;
+		}
+		Arrays.sort(files);
+		for (int i = 0; (i < files.length) && !m_cancelled; i++) {
+			if (files[i].isDirectory())
+				walk(files[i], walked, library, executor, slots);
+			else if (m_fileFilter.accept(files[i])) {
+				slots.acquire();
+				synchronized (m_listenersMutex) {
+					m_filesFound++;
+				}
+				try {
+					executor.execute(new FileTask(files[i], library, slots));
+				} catch (RuntimeException e) {
+					slots.release();
+					throw e;
+				}
+			}
+		}
+	}
+
+	/** Parses the tune headers of one file in a worker thread */
+	private class FileTask implements Runnable {
+		private File m_file;
+
+		private TuneLibrary m_library;
+
+		private Semaphore m_slots;
+
+		FileTask(File file, TuneLibrary library, Semaphore slots) {
+			m_file = file;
+			m_library = library;
+			m_slots = slots;
+		}
+
+		public void run() {
+			try {
+				if (m_cancelled)
+					return;
+				final List tunes = new ArrayList();
+				TuneBookParser parser = new TuneBookParser();
+				//tune book keeps only one tune per reference number
+				parser.addListener(new TuneBookParserAdapter() {
+					public void tuneEnd(Tune tune, AbcNode abcRoot) {
+						tunes.add(tune);
+					}
+				});
+				try {
+					parser.parseHeaders(m_file, m_charset);
+				} catch (Exception e) {
+					fileFailed(m_library, m_file, e);
+					return;
+				} catch (StackOverflowError e) {
+					fileFailed(m_library, m_file, e);
+					return;
+				}
+				m_library.addFile(m_file, tunes, m_charset);
+				synchronized (m_listenersMutex) {
+					m_filesDone++;
+					for (int i = 0; i < m_listeners.size(); i++)
+						((TuneLibraryListenerInterface) m_listeners
+								.elementAt(i)).fileParsed(m_file, tunes.size(),
+								m_filesDone, m_filesFound);
+				}
+			} finally {
+				m_slots.release();
+			}
+		}
+	}
+
+	private void fileFailed(TuneLibrary library, File file, Throwable failure) {
+		library.addFailure(file, failure);
+		synchronized (m_listenersMutex) {
+			m_filesDone++;
+			for (int i = 0; i < m_listeners.size(); i++)
+				((TuneLibraryListenerInterface) m_listeners.elementAt(i))
+						.fileFailed(file, failure, m_filesDone, m_filesFound);
+		}
+	}
+
+	private void notifyListenersForLibraryBegin(File directory) {
+		synchronized (m_listenersMutex) {
+			for (int i = 0; i < m_listeners.size(); i++)
+				((TuneLibraryListenerInterface) m_listeners.elementAt(i))
+						.libraryBegin(directory);
+		}
+	}
+
+	private void notifyListenersForLibraryEnd(TuneLibrary library) {
+		synchronized (m_listenersMutex) {
+			for (int i = 0; i < m_listeners.size(); i++)
+				((TuneLibraryListenerInterface) m_listeners.elementAt(i))
+						.libraryEnd(library);
+		}
+	}
+
+}
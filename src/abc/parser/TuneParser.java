@@ -16,9 +16,26 @@
 package abc.parser;
 
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.regex.Pattern;
+
+import abc.notation.DecorableElement;
+import abc.notation.Decoration;
+import abc.notation.EndOfStaffLine;
+import abc.notation.MultiNote;
+import abc.notation.Music;
+import abc.notation.MusicElement;
+import abc.notation.NoteAbstract;
+import abc.notation.TwoNotesLink;
+import abc.notation.Voice;
 
 /**
  * A convenient class to ease the parsing of ONE tune. The result of the parsing
@@ -28,6 +45,31 @@ import java.io.Reader;
 public class TuneParser extends AbcParserAbstract {
 
 	private AbcTune m_tune = null;
+
+	/** Matches a field line or an inline field, that change parsing state */
+	private static final Pattern FIELD = Pattern.compile(
+			"(^|\\n)[A-Za-z]:|\\[[A-Za-z]:");
+
+	/** Last char of a music line which doesn't leave pending state */
+	private static final String SAFE_LINE_ENDS =
+		"abcdefgABCDEFGxyzXZ0123456789/,']|:<>";
+
+	/**
+	 * Source of the last tune parsed from a string, <TT>null</TT> if it can't
+	 * be used for an incremental parsing
+	 */
+	private String m_text = null;
+
+	private int m_tuneStart = -1;
+
+	private int m_tuneEnd = -1;
+
+	private int m_musicStart = -1;
+
+	private int m_musicEnd = -1;
+
+	/** Parser of line fragments in {@link #parseIncrementally(String, int, int, int)} */
+	private TuneParser m_fragmentParser = null;
 	
 	/**
 	 * Constructs a new tune parser.
@@ -44,14 +86,34 @@ public class TuneParser extends AbcParserAbstract {
 	}
 	
 	/**
-	 * Parses the specified file in ABC notation.
+	 * Parses the specified file in ABC notation, with the platform default
+	 * charset.
 	 * 
 	 * @param file
 	 *            Tune file in ABC notation.
 	 * @return A tune representing the ABC notation stream.
+	 * @see #parse(File, Charset)
 	 */
 	public AbcTune parse(File file) throws IOException {
-		return parse0(getParseTree(new FileReader(file)));
+		return parse(file, Charset.defaultCharset());
+	}
+
+	/**
+	 * Parses the specified file in ABC notation. The file is memory mapped
+	 * and decoded with the given charset.
+	 * 
+	 * @param file
+	 *            Tune file in ABC notation.
+	 * @param charset
+	 *            Charset of the file, e.g. <TT>ISO-8859-1</TT> or
+	 *            <TT>UTF-8</TT>.
+	 * @return A tune representing the ABC notation stream.
+	 */
+	public AbcTune parse(File file, Charset charset) throws IOException {
+		char[] abc = AbcFileDecoder.decode(file, charset);
+		if (getCache() != null)
+			return parse(new String(abc));
+		return parse0(getParseTree(abc, 0, 0), null);
 	}
 	
 	/**
@@ -62,27 +124,378 @@ public class TuneParser extends AbcParserAbstract {
 	 * @return A tune representing the ABC notation stream.
 	 */
 	public AbcTune parse(Reader reader) throws IOException {
-		return parse0(getParseTree(reader));
+		if (getCache() != null)
+			return parse(readString(reader));
+		return parse0(getParseTree(reader), null);
 	}
 
 	/**
 	 * Parse the given string and creates a <TT>Tune</TT> object as parsing
 	 * result.
 	 * 
+	 * When a cache is set, a tune already parsed from the same text is
+	 * returned without parsing.
+	 * 
 	 * @param tune
 	 *            The abc tune, as a String, to be parsed.
 	 * @return An object representation of the abc notation string.
+	 * @see #setCache(AbcTuneCache)
 	 */
 	public AbcTune parse(String tune) {
-		return parse0(getParseTree(tune));
+		AbcTuneCache cache = getCache();
+		if (cache != null) {
+			AbcTune cached = cache.get(tune);
+			if (cached != null) {
+				m_tune = cached;
+				m_text = null;
+				notifyListenersForCachedTune(cached);
+				return cached;
+			}
+		}
+		AbcTune ret = parse0(getParseTree(tune), tune);
+		if ((cache != null) && (ret != null))
+			cache.put(tune, ret);
+		return ret;
+	}
+
+	/**
+	 * Parses the given string, reusing the result of the previous
+	 * {@link #parse(String)} or <TT>parseIncrementally</TT> call when
+	 * possible: only the lines of the music that have changed are parsed
+	 * again, the new elements replace the old ones in a copy of the last
+	 * parsed tune and positions of the following elements are shifted. The
+	 * last parsed tune is not modified, listeners may keep it, e.g. to paint
+	 * it in another thread.
+	 * <p>
+	 * The changed range is given in the new string; text before
+	 * <TT>changeStart</TT> and after <TT>changeEnd</TT> must not have changed
+	 * since the last parsing. When the change can't be handled locally
+	 * (header, fields, slurs, ties, parse errors, several voices or parts...),
+	 * or when a cache is set (cached tunes can't be modified), the whole
+	 * string is parsed again as with {@link #parse(String)}.
+	 * <p>
+	 * Listeners are notified as for a full parsing, but after an incremental
+	 * parsing the node given to
+	 * {@link TuneParserListenerInterface#tuneEnd(abc.notation.Tune, AbcNode)}
+	 * is the <TT>AbcMusic</TT> node of the parsed lines only.
+	 * 
+	 * @param tune
+	 *            The abc tune, as a String, to be parsed.
+	 * @param changeStart
+	 *            Index of the first changed char in <TT>tune</TT>
+	 * @param changeEnd
+	 *            Index after the last changed char in <TT>tune</TT>
+	 * @param lengthDelta
+	 *            Number of chars added (negative if removed) since the last
+	 *            parsing
+	 * @return The updated tune, a new tune object in all cases.
+	 */
+	public AbcTune parseIncrementally(String tune, int changeStart,
+			int changeEnd, int lengthDelta) {
+		AbcTune ret = reparse(tune, changeStart, changeEnd, lengthDelta);
+		if (ret == null)
+			ret = parse(tune);
+		return ret;
 	}
 
-	private AbcTune parse0(AbcNode abcRoot) {
+	private AbcTune parse0(AbcNode abcRoot, String text) {
 		AbcNode abcTuneNode = abcRoot.getChild("AbcTune");
 		m_tune = parseAbcTune(abcTuneNode);
+		m_text = null;
+		if ((text != null) && (abcTuneNode != null)
+				&& (abcRoot.getChilds(AbcTune).size() == 1)
+				&& !hasParseErrors()) {
+			AbcNode abcMusic = abcTuneNode.getChild(AbcMusic);
+			if (abcMusic != null) {
+				m_text = text;
+				m_tuneStart = abcTuneNode.getCharStreamPosition().getStartIndex();
+				m_tuneEnd = abcTuneNode.getCharStreamPosition().getEndIndex();
+				m_musicStart = abcMusic.getCharStreamPosition().getStartIndex();
+				m_musicEnd = abcMusic.getCharStreamPosition().getEndIndex();
+			}
+		}
 		return m_tune;
 	}
 
+	/**
+	 * Parses again the lines of the music containing the changed range and
+	 * replaces their elements in a copy of the last parsed tune. Returns
+	 * <TT>null</TT> if the change can't be handled that way.
+	 */
+	private AbcTune reparse(String tune, int changeStart, int changeEnd,
+			int lengthDelta) {
+		String old = m_text;
+		// tunes of the cache are shared, don't modify them
+		if ((old == null) || (m_tune == null) || (getCache() != null)
+				|| (tune.length() != old.length() + lengthDelta)
+				|| (changeStart < 0) || (changeStart > changeEnd)
+				|| (changeEnd > tune.length())
+				|| (m_tune.getMultiPartsDefinition() != null))
+			return null;
+		// whole lines containing the change
+		int lineStart = tune.lastIndexOf('\n', changeStart - 1) + 1;
+		int lineEnd = tune.indexOf('\n', changeEnd);
+		lineEnd = (lineEnd == -1) ? tune.length() : lineEnd + 1;
+		int oldLineEnd = lineEnd - lengthDelta;
+		if ((lineStart < m_musicStart) || (oldLineEnd > m_musicEnd) || (oldLineEnd < lineStart)
+				|| !tune.regionMatches(0, old, 0, lineStart)
+				|| !tune.regionMatches(lineEnd, old, oldLineEnd,
+						tune.length() - lineEnd))
+			return null;
+		String oldLines = old.substring(lineStart, oldLineEnd);
+		String newLines = tune.substring(lineStart, lineEnd);
+		// fields and pending state (decorations, grace notes...) at the
+		// bounds of the lines change the way following lines are parsed
+		if (FIELD.matcher(old.substring(m_musicStart, lineStart)).find()
+				|| !isSafeFragment(oldLines) || !isSafeFragment(newLines)
+				|| ((lineStart > m_musicStart) && !isSafeLine(old.substring(
+						old.lastIndexOf('\n', lineStart - 2) + 1, lineStart))))
+			return null;
+
+		Music music = m_tune.getMusic();
+		if (music.getVoices().size() != 1)
+			return null;
+		Voice voice = music.getFirstVoice();
+		int i0 = rangeIndex(voice, lineStart);
+		int i1 = rangeIndex(voice, oldLineEnd);
+		if (!isUnlinked(voice, i0, i1, lineStart, oldLineEnd, old))
+			return null;
+
+		// parse the changed lines after the tune header, and what follows
+		// the music if they end it
+		String header = tune.substring(m_tuneStart, m_musicStart);
+		int headerLines = countLines(header);
+		int firstLine = countLines(tune.substring(0, lineStart)) + 1;
+		String fragment = header + newLines;
+		if (oldLineEnd == m_musicEnd)
+			fragment += tune.substring(lineEnd, m_tuneEnd + lengthDelta);
+		AbcNode fragRoot = getParseTree(fragment,
+				firstLine - 1 - headerLines, lineStart - header.length());
+		List fragTunes = fragRoot.getChilds(AbcTune);
+		if ((fragTunes.size() != 1) || hasParseErrors())
+			return null;
+		AbcNode fragTune = (AbcNode) fragTunes.get(0);
+		AbcNode fragHeader = fragTune.getChild(AbcHeader);
+		AbcNode fragMusic = fragTune.getChild(AbcMusic);
+		if ((fragHeader == null) || (fragMusic == null)
+				|| (fragMusic.getCharStreamPosition().getStartIndex() != lineStart)
+				|| (fragMusic.getCharStreamPosition().getEndIndex() != lineEnd))
+			return null;
+		if (m_fragmentParser == null)
+			m_fragmentParser = new TuneParser();
+		m_fragmentParser.initNewTune();
+		Music fragMusicNotation = m_fragmentParser.parseAbcHeader(fragHeader)
+				.getMusic();
+		Voice fragVoice = fragMusicNotation.getFirstVoice();
+		int headerSize = fragVoice.size();
+		m_fragmentParser.parseAbcMusic(fragMusic);
+		if (fragMusicNotation.getVoices().size() != 1)
+			return null;
+		List elements = new ArrayList(fragVoice.subList(headerSize,
+				fragVoice.size()));
+
+		// splice and shift the following elements in a copy, elements of
+		// the last tune are not modified
+		AbcTune copy = (AbcTune) m_tune.clone();
+		voice = copy.getMusic().getFirstVoice();
+		notifyListenersForTuneBegin();
+		List tail = new ArrayList(voice.subList(i1, voice.size()));
+		voice.replaceElements(i0, i1, elements);
+		int lineDelta = countLines(newLines) - countLines(oldLines);
+		if ((lengthDelta != 0) || (lineDelta != 0)) {
+			Map shifted = new IdentityHashMap();
+			Iterator it = tail.iterator();
+			while (it.hasNext())
+				shiftPosition(it.next(), oldLineEnd, lengthDelta, lineDelta,
+						shifted);
+		}
+		m_tune = copy;
+		m_text = tune;
+		m_musicEnd += lengthDelta;
+		m_tuneEnd += lengthDelta;
+		m_tune.setAbcString(tune.substring(m_tuneStart, m_tuneEnd));
+		notifyListenersForTuneEnd(m_tune, fragMusic);
+		return m_tune;
+	}
+
+	/**
+	 * Returns the index in <TT>voice</TT> of the first element parsed from
+	 * the line beginning at <TT>lineStart</TT>.
+	 */
+	private static int rangeIndex(Voice voice, int lineStart) {
+		int ret = 0;
+		for (int i = voice.size() - 1; i >= 0; i--) {
+			CharStreamPosition pos = ((MusicElement) voice.elementAt(i))
+					.getCharStreamPosition();
+			if ((pos != null) && (pos.getStartIndex() < lineStart)) {
+				ret = i + 1;
+				break;
+			}
+		}
+		// end of line of the previous line
+		for (int i = ret; i < voice.size(); i++) {
+			MusicElement me = (MusicElement) voice.elementAt(i);
+			if (me.getCharStreamPosition() != null)
+				break;
+			if (me instanceof EndOfStaffLine)
+				return i + 1;
+		}
+		return ret;
+	}
+
+	/**
+	 * Returns <TT>true</TT> if no slur or tie links the elements from
+	 * <TT>from</TT> to <TT>to</TT> with the others, and no slur ending after
+	 * these elements could end in them.
+	 */
+	private static boolean isUnlinked(Voice voice, int from, int to,
+			int lineStart, int lineEnd, String text) {
+		int limit = -1;
+		for (int i = 0; i < voice.size(); i++) {
+			Object o = voice.elementAt(i);
+			if (!(o instanceof NoteAbstract))
+				continue;
+			List notes = new ArrayList(3);
+			notes.add(o);
+			if (o instanceof MultiNote)
+				notes.addAll(((MultiNote) o).getNotesAsVector());
+			Iterator it = notes.iterator();
+			while (it.hasNext()) {
+				NoteAbstract note = (NoteAbstract) it.next();
+				List links = new ArrayList(note.getSlurDefinitions());
+				if (note.getTieDefinition() != null)
+					links.add(note.getTieDefinition());
+				if ((i >= from) && (i < to)) {
+					if (note.isPartOfSlur() || !links.isEmpty())
+						return false;
+					continue;
+				}
+				Iterator itLinks = links.iterator();
+				while (itLinks.hasNext()) {
+					TwoNotesLink link = (TwoNotesLink) itLinks.next();
+					if (i < from) {
+						if ((link.getEnd() == null)
+								|| (link.getEnd().getX() >= from))
+							return false;
+					} else if ((link.getCharStreamPosition() == null)
+							|| (link.getCharStreamPosition()
+									.getStartIndex() < lineStart))
+						return false;
+				}
+			}
+			if ((i >= to) && (limit == -1)
+					&& (((NoteAbstract) o).getCharStreamPosition() != null))
+				limit = ((NoteAbstract) o).getCharStreamPosition()
+						.getStartIndex();
+		}
+		// a slur end before the next note would end in the changed lines
+		if (limit == -1)
+			limit = text.length();
+		return text.substring(lineEnd, Math.max(limit, lineEnd))
+				.indexOf(')') == -1;
+	}
+
+	/**
+	 * Returns <TT>true</TT> if the given music lines can be parsed apart from
+	 * the rest of the music.
+	 */
+	private static boolean isSafeFragment(String lines) {
+		if ((lines.length() == 0) || FIELD.matcher(lines).find()
+				|| (lines.indexOf('(') != -1) || (lines.indexOf(')') != -1)
+				|| (lines.indexOf('-') != -1))
+			return false;
+		String[] split = lines.split("\n", -1);
+		for (int i = 0; i < split.length; i++) {
+			if ((i == split.length - 1) && (split[i].length() == 0))
+				break;
+			if (split[i].trim().length() == 0 || split[i].startsWith("%"))
+				return false;
+		}
+		return isSafeLine(split[split.length - 1].length() > 0
+				? split[split.length - 1] : split[split.length - 2]);
+	}
+
+	/**
+	 * Returns <TT>true</TT> if the given music line doesn't end with a
+	 * pending element (decoration, grace notes, line continuation...) which
+	 * would apply to the next line.
+	 */
+	private static boolean isSafeLine(String line) {
+		if (line.startsWith("%"))
+			return false;
+		int comment = line.indexOf('%');
+		if (comment != -1)
+			line = line.substring(0, comment);
+		line = line.trim();
+		return (line.length() > 0)
+				&& (SAFE_LINE_ENDS.indexOf(line.charAt(line.length() - 1)) != -1);
+	}
+
+	private static int countLines(String text) {
+		int ret = 0;
+		for (int i = text.indexOf('\n'); i != -1; i = text.indexOf('\n', i + 1))
+			ret++;
+		return ret;
+	}
+
+	/**
+	 * Shifts the position of the given element and of the elements it
+	 * contains, if they are after <TT>fromIndex</TT>.
+	 */
+	private static void shiftPosition(Object o, int fromIndex, int indexDelta,
+			int lineDelta, Map shifted) {
+		if (!(o instanceof PositionableInCharStream) || shifted.containsKey(o))
+			return;
+		shifted.put(o, o);
+		PositionableInCharStream p = (PositionableInCharStream) o;
+		CharStreamPosition pos = p.getCharStreamPosition();
+		if ((pos != null) && (pos.getStartIndex() >= fromIndex))
+			p.setCharStreamPosition(new CharStreamPosition(pos.getLine()
+					+ lineDelta, pos.getColumn(), pos.getStartIndex()
+					+ indexDelta, pos.getEndIndex() + indexDelta));
+		if (o instanceof DecorableElement) {
+			DecorableElement de = (DecorableElement) o;
+			Decoration[] decorations = de.getDecorations();
+			if (decorations != null)
+				for (int i = 0; i < decorations.length; i++)
+					shiftPosition(decorations[i], fromIndex, indexDelta,
+							lineDelta, shifted);
+			Vector annotations = de.getAnnotations();
+			if (annotations != null) {
+				Iterator it = annotations.iterator();
+				while (it.hasNext())
+					shiftPosition(it.next(), fromIndex, indexDelta, lineDelta,
+							shifted);
+			}
+			shiftPosition(de.getChord(), fromIndex, indexDelta, lineDelta,
+					shifted);
+			shiftPosition(de.getDynamic(), fromIndex, indexDelta, lineDelta,
+					shifted);
+		}
+		if (o instanceof NoteAbstract) {
+			NoteAbstract note = (NoteAbstract) o;
+			NoteAbstract[] gracings = note.getGracingNotes();
+			if (gracings != null)
+				for (int i = 0; i < gracings.length; i++)
+					shiftPosition(gracings[i], fromIndex, indexDelta,
+							lineDelta, shifted);
+			Iterator it = note.getSlurDefinitions().iterator();
+			while (it.hasNext())
+				shiftPosition(it.next(), fromIndex, indexDelta, lineDelta,
+						shifted);
+			shiftPosition(note.getTieDefinition(), fromIndex, indexDelta,
+					lineDelta, shifted);
+			shiftPosition(note.getTuplet(), fromIndex, indexDelta, lineDelta,
+					shifted);
+		}
+		if (o instanceof MultiNote) {
+			Iterator it = ((MultiNote) o).getNotesAsVector().iterator();
+			while (it.hasNext())
+				shiftPosition(it.next(), fromIndex, indexDelta, lineDelta,
+						shifted);
+		}
+	}
+
 	/**
 	 * Parse the given file and creates a <TT>Tune</TT> object with no music
 	 * as parsing result. This purpose of this method method is to provide a
@@ -94,7 +507,7 @@ public class TuneParser extends AbcParserAbstract {
 	 *         string.
 	 */
 	public AbcTune parseHeader(File file) throws IOException {
-		return parseHeader0(getParseTree(new FileReader(file)));
+		return parseHeader0(getParseTree(file, Charset.defaultCharset()));
 	}
 
 	/**
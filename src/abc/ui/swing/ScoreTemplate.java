@@ -24,10 +24,6 @@ import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.Vector;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
 
 import abc.ui.fonts.MusicalFont;
@@ -78,7 +74,11 @@ public abstract class ScoreTemplate implements Cloneable, Serializable {
 			m_textField = textField;
 		}
 		public Object clone() throws CloneNotSupportedException {
-			FieldInfos ret = new FieldInfos(m_textField);
+			return copy(ScoreTemplate.this);
+		}
+		/** Returns a copy of these infos, for the given template */
+		FieldInfos copy(ScoreTemplate template) {
+			FieldInfos ret = template.new FieldInfos(m_textField);
 			ret.m_fontFamilyNames = (String[]) m_fontFamilyNames.clone();
 			ret.m_fontSize = m_fontSize;
 			ret.m_fontSizeUnit = (SizeUnit) m_fontSizeUnit.clone();
@@ -217,26 +217,40 @@ public abstract class ScoreTemplate implements Cloneable, Serializable {
 	}
 	
 	/**
-	 * Return a full copy of this template.
+	 * Return a full copy of this template. As for a serialized template,
+	 * listeners and objects computed for a graphics context are not copied.
 	 */
 	public Object clone() {
-		Object clone = null;
 		try {
-			// Write the object out to a byte array
-			ByteArrayOutputStream bos = new ByteArrayOutputStream();
-			ObjectOutputStream out = new ObjectOutputStream(bos);
-			out.writeObject(this);
-			out.flush();
-			out.close();
-			// Make an input stream from the byte array and read
-			// a copy of the object back in.
-			ObjectInputStream in = new ObjectInputStream(
-				new ByteArrayInputStream(bos.toByteArray()));
-			clone = in.readObject();
-		} catch (Exception e) {
-			e.printStackTrace();
+			ScoreTemplate ret = (ScoreTemplate) super.clone();
+			//values are booleans, numbers, colors, sizes... not modified
+			ret.m_attributes = (Hashtable) m_attributes.clone();
+			ret.m_defaultTextFontFamilyNames = (String[]) m_defaultTextFontFamilyNames
+					.clone();
+			ret.m_fields = new Hashtable();
+			Iterator it = m_fields.keySet().iterator();
+			while (it.hasNext()) {
+				Object k = it.next();
+				ret.m_fields.put(k, ((FieldInfos) m_fields.get(k)).copy(ret));
+			}
+			ret.m_fieldsPosition = new Hashtable();
+			it = m_fieldsPosition.keySet().iterator();
+			while (it.hasNext()) {
+				Position p = (Position) it.next();
+				ret.m_fieldsPosition.put(ret.new Position(p.m_vertical,
+						p.m_horizontal), ((Vector) m_fieldsPosition.get(p))
+						.clone());
+			}
+			ret.m_engraver = null;
+			ret.m_fontAvailability = null;
+			ret.m_graphics = null;
+			ret.m_listeners = null;
+			ret.m_metrics = null;
+			return ret;
+		} catch (CloneNotSupportedException never) {
+			//ScoreTemplate is Cloneable
+			throw new InternalError(never.toString());
 		}
-		return clone;
 	}
 	
 	/**
@@ -166,7 +166,7 @@ public class TuneEditorPane extends JTextPane implements AbcTokens//, ActionList
   {
     m_enableColoring = coloring;
     if (m_enableColoring)
-      m_refresher.redrawTune();
+      m_refresher.redrawAll();
     else
     {
         ((DefaultStyledDocument)getDocument()).setCharacterAttributes(
@@ -331,6 +331,12 @@ public class TuneEditorPane extends JTextPane implements AbcTokens//, ActionList
     private Object m_mutex = new Object();
     private AbcNode m_abcRoot = null;
     private boolean isBusy = false;
+    /** Range of the text changed since last parsing, in the current text,
+     * -1 if nothing changed. */
+    private int m_changeStart = -1;
+    private int m_changeEnd = -1;
+    /** Number of chars added (negative if removed) since last parsing */
+    private int m_lengthDelta = 0;
 
     public ParsingRefresh(DefaultStyledDocument document, TuneParser parser)
     {
@@ -402,14 +408,20 @@ public class TuneEditorPane extends JTextPane implements AbcTokens//, ActionList
             	String tuneNotation = TuneEditorPane.this.getDocument().getText(0, TuneEditorPane.this.getDocument().getLength());
             	if (!tuneNotation.equals(""))
             	{
-            		if (m_forceRefresh==true)
+            		if ((m_forceRefresh==true) || (m_changeStart == -1))
 	            	{
     	          		m_forceRefresh = false;
         	      		//System.out.println("Area - Forcing refresh");
+        	      		m_tune = m_parser.parse(tuneNotation);
             		}
-            		//System.out.println("Area - parsing("+ tuneNotation +")");
-              		m_tune = m_parser.parse(tuneNotation);
+            		else
+            			//only the changed lines are parsed again if possible
+            			m_tune = m_parser.parseIncrementally(tuneNotation,
+            					m_changeStart, m_changeEnd, m_lengthDelta);
             	}
+            	m_changeStart = -1;
+            	m_changeEnd = -1;
+            	m_lengthDelta = 0;
             }
             catch (Exception e)
             { e.printStackTrace(); }
@@ -428,10 +440,38 @@ public class TuneEditorPane extends JTextPane implements AbcTokens//, ActionList
     {
       synchronized(m_mutex)
       {
+        addChange(e.getOffset(), e.getLength(), 0);
         m_mutex.notify();
         m_idleTime=0;
       }
     }
+
+    /** Merges a text change into the range changed since last parsing. */
+    private void addChange(int offset, int inserted, int removed)
+    {
+      if (m_changeStart == -1)
+      {
+        m_changeStart = offset;
+        m_changeEnd = offset + inserted;
+      }
+      else
+      {
+        m_changeStart = Math.min(shift(m_changeStart, offset, inserted, removed), offset);
+        m_changeEnd = Math.max(shift(m_changeEnd, offset, inserted, removed), offset + inserted);
+      }
+      m_lengthDelta += inserted - removed;
+    }
+
+    /** Returns the index of the char at <TT>index</TT> after the change. */
+    private int shift(int index, int offset, int inserted, int removed)
+    {
+      if (index <= offset)
+        return index;
+      else if (index >= offset + removed)
+        return index + inserted - removed;
+      else
+        return offset;
+    }
     
     public boolean isBusy() {
     	return isBusy;
@@ -441,6 +481,7 @@ public class TuneEditorPane extends JTextPane implements AbcTokens//, ActionList
     {
       synchronized(m_mutex)
       {
+        addChange(e.getOffset(), 0, e.getLength());
         m_mutex.notify();
         m_idleTime=0;
       }
@@ -461,6 +502,7 @@ public class TuneEditorPane extends JTextPane implements AbcTokens//, ActionList
     	isBusy = false;
     	m_tune = tune;
     	m_abcRoot = abcNodeRoot;
+    	final AbcNode abcRoot = abcNodeRoot;
       if (m_enableColoring)
       {
         //===========================================================THOSE CALLBACK CREATE A DEADLOCK WHEN SETTING TEXT ATTRIBUTES.
@@ -468,7 +510,7 @@ public class TuneEditorPane extends JTextPane implements AbcTokens//, ActionList
         {
           javax.swing.SwingUtilities.invokeLater(new Runnable() {
             public void run() {
-              redrawTune();
+              redrawTune(abcRoot);
             }
           });
         }
@@ -477,13 +519,34 @@ public class TuneEditorPane extends JTextPane implements AbcTokens//, ActionList
       }
     }
 
-    private void redrawTune() {
-    	if (m_abcRoot == null)
+    /** Colors the whole text, parsing it again if only some lines
+     * have been parsed last. */
+    private void redrawAll() {
+    	AbcNode abcRoot = m_abcRoot;
+    	if ((abcRoot != null) && abcRoot.getLabel().equals(AbcMusic)) {
+    		synchronized(m_mutex) {
+    			m_forceRefresh = true;
+    			m_mutex.notify();
+    		}
+    	}
+    	else
+    		redrawTune(abcRoot);
+    }
+
+    private void redrawTune(AbcNode abcRoot) {
+    	if (abcRoot == null)
     		return; //Nothing to do
-		m_document.setCharacterAttributes(0, m_document.getLength(), m_defaultStyle, true);
+    	int from = 0;
+    	int to = m_document.getLength();
+    	if (abcRoot.getLabel().equals(AbcMusic)) {
+    		//only some lines have been parsed again
+    		from = abcRoot.getCharStreamPosition().getStartIndex();
+    		to = abcRoot.getCharStreamPosition().getEndIndex();
+    	}
+		m_document.setCharacterAttributes(from, to - from, m_defaultStyle, true);
 		
-		int maxStart = 0;
-    	Iterator it = m_abcRoot.getDeepestChilds().iterator();
+		int maxStart = from;
+    	Iterator it = abcRoot.getDeepestChilds().iterator();
     	while (it.hasNext()) {
     		AbcNode node = (AbcNode) it.next();
     		String value = node.getValue();
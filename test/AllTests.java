@@ -6,6 +6,7 @@ public class AllTests {
 	public static Test suite() {
 		TestSuite suite = new TestSuite("Test for default package");
 		//$JUnit-BEGIN$
+		suite.addTestSuite(AsynchronousTuneParserTest.class);
 		suite.addTestSuite(BeforeAudioRenditionTest.class);
 		suite.addTestSuite(ChordsTest.class);
 		suite.addTestSuite(ChordTest.class);
@@ -15,11 +16,14 @@ public class AllTests {
 		suite.addTestSuite(HeightTest.class);
 		suite.addTestSuite(IntervalTests.class);
 		suite.addTestSuite(KeySignatureTests.class);
+		suite.addTestSuite(ParserBackendTest.class);
+		suite.addTestSuite(ParserBenchmark.class);
 		suite.addTestSuite(PerfTest.class);
 		suite.addTestSuite(RhythmsTest.class);
 		suite.addTestSuite(SlursTest.class);
 		suite.addTestSuite(TieTest.class);
 		suite.addTestSuite(TuneBookTest.class);
+		suite.addTestSuite(TuneLibraryTest.class);
 		suite.addTestSuite(Tuplets.class);
 		suite.addTestSuite(VariousTests.class);
 		//$JUnit-END$
@@ -0,0 +1,201 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+import junit.framework.TestCase;
+import abc.notation.EndOfStaffLine;
+import abc.notation.Tune;
+import abc.notation.Voice;
+import abc.parser.AbcNode;
+import abc.parser.AsynchronousTuneParser;
+import abc.parser.AsynchronousTuneParserAdapter;
+import abc.parser.TuneParser;
+
+public class AsynchronousTuneParserTest extends TestCase {
+
+	public AsynchronousTuneParserTest(String name) {
+		super(name);
+	}
+
+	/** Records the events of an asynchronous parser */
+	private static class Recorder extends AsynchronousTuneParserAdapter {
+		List titles = new ArrayList();
+		int begun = 0;
+		int noTunes = 0;
+		int queued = 0;
+		int cancelled = 0;
+		int timed = 0;
+		int maxDepth = 0;
+
+		public synchronized void tuneBegin() {
+			super.tuneBegin();
+			begun++;
+		}
+
+		public synchronized void noTune() {
+			super.noTune();
+			noTunes++;
+		}
+
+		public synchronized void tuneEnd(Tune tune, AbcNode abcRoot) {
+			super.tuneEnd(tune, abcRoot);
+			titles.add(tune.getTitles()[0]);
+		}
+
+		public synchronized void requestQueued(int queueDepth) {
+			queued++;
+			maxDepth = Math.max(maxDepth, queueDepth);
+		}
+
+		public synchronized void requestCancelled(int queueDepth) {
+			cancelled++;
+			notifyAll();
+		}
+
+		public synchronized void tuneParsed(long waitTime, long parseTime,
+				int queueDepth) {
+			assertTrue(waitTime >= 0);
+			assertTrue(parseTime >= 0);
+			timed++;
+			notifyAll();
+		}
+
+		/** Waits for the end of <TT>count</TT> requests */
+		synchronized void waitFor(int count) throws InterruptedException {
+			long end = System.currentTimeMillis() + 60000;
+			while ((timed + cancelled < count)
+					&& (System.currentTimeMillis() < end))
+				wait(1000);
+			assertEquals(count, timed + cancelled);
+		}
+	}
+
+	private static String tune(String title, int lines) {
+		StringBuffer sb = new StringBuffer("X:1\nT:" + title
+				+ "\nM:6/8\nL:1/8\nK:D\n");
+		for (int i = 0; i < lines; i++)
+			sb.append("FAA dAA|BAA dAG|FAA dfe|dBB BAG:|\n");
+		return sb.toString();
+	}
+
+	/** With queue management, every request is parsed in order */
+	public void testQueue() throws Exception {
+		AsynchronousTuneParser parser = new AsynchronousTuneParser();
+		Recorder recorder = new Recorder();
+		parser.addListener(recorder);
+		for (int i = 0; i < 5; i++)
+			parser.parse(tune("t" + i, 10));
+		recorder.waitFor(5);
+		parser.shutdown();
+		assertEquals(0, recorder.cancelled);
+		assertEquals(5, recorder.queued);
+		assertEquals(5, recorder.timed);
+		for (int i = 0; i < 5; i++)
+			assertEquals("t" + i, recorder.titles.get(i));
+		assertEquals("t4", parser.getTune().getTitles()[0]);
+	}
+
+	/** Coalesced requests: the newest one is always the last parsed */
+	public void testCoalescing() throws Exception {
+		int[] modes = { AsynchronousTuneParser.NO_CANCELLATION,
+				AsynchronousTuneParser.TUNE_CANCELLATION,
+				AsynchronousTuneParser.LINE_CANCELLATION };
+		for (int m = 0; m < modes.length; m++) {
+			for (int workers = 1; workers <= 3; workers += 2) {
+				AsynchronousTuneParser parser = new AsynchronousTuneParser(
+						false, workers, modes[m]);
+				Recorder recorder = new Recorder();
+				parser.addListener(recorder);
+				for (int i = 0; i < 20; i++)
+					parser.parse(tune("t" + i, 200));
+				recorder.waitFor(20);
+				parser.shutdown();
+				assertEquals(20, recorder.queued);
+				assertEquals(1, recorder.maxDepth);
+				assertEquals(recorder.timed, recorder.titles.size());
+				assertEquals("t19", recorder.titles
+						.get(recorder.titles.size() - 1));
+				assertEquals("t19", parser.getTune().getTitles()[0]);
+				assertTrue(recorder.cancelled > 0);
+				assertFalse(recorder.isBusy());
+			}
+		}
+	}
+
+	/** Each tune begin given to listeners has its tune end or no tune */
+	public void testBalancedEvents() throws Exception {
+		int[] modes = { AsynchronousTuneParser.NO_CANCELLATION,
+				AsynchronousTuneParser.LINE_CANCELLATION };
+		for (int m = 0; m < modes.length; m++) {
+			for (int workers = 1; workers <= 3; workers += 2) {
+				AsynchronousTuneParser parser = new AsynchronousTuneParser(
+						false, workers, modes[m]);
+				Recorder recorder = new Recorder();
+				parser.addListener(recorder);
+				for (int i = 0; i < 5; i++) {
+					parser.parse(tune("t0", 200));
+					parser.parse(tune("t1", 1));
+					recorder.waitFor(2 * (i + 1));
+				}
+				parser.shutdown();
+				assertEquals(recorder.begun, recorder.titles.size()
+						+ recorder.noTunes);
+				assertEquals("t1", parser.getTune().getTitles()[0]);
+				assertFalse(recorder.isBusy());
+			}
+		}
+	}
+
+	public void testCancel() throws Exception {
+		AsynchronousTuneParser parser = new AsynchronousTuneParser(true, 1,
+				AsynchronousTuneParser.LINE_CANCELLATION);
+		Recorder recorder = new Recorder();
+		parser.addListener(recorder);
+		for (int i = 0; i < 5; i++)
+			parser.parse(tune("t" + i, 200));
+		parser.cancel();
+		assertEquals(0, parser.getQueueDepth());
+		recorder.waitFor(5);
+		assertTrue(recorder.cancelled >= 4);
+		parser.shutdown();
+		try {
+			parser.parse(tune("t", 1));
+			fail("parser has been shut down");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		try {
+			new AsynchronousTuneParser(false, 0,
+					AsynchronousTuneParser.NO_CANCELLATION);
+			fail("no worker");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	/** The parser stops at the line where it is cancelled */
+	public void testCancelledLine() throws Exception {
+		final int[] lines = { 0 };
+		TuneParser parser = new TuneParser() {
+			protected boolean isCancelled(boolean line) {
+				return line && (++lines[0] == 3);
+			}
+		};
+		Recorder recorder = new Recorder();
+		parser.addListener(recorder);
+		try {
+			parser.parse(tune("t", 10));
+			fail("parsing should be cancelled");
+		} catch (CancellationException e) {
+			// expected
+		}
+		assertEquals(3, lines[0]);
+		assertTrue(recorder.isBusy());
+		assertEquals(0, recorder.titles.size());
+		lines[0] = -100;
+		Voice voice = parser.parse(tune("t", 10)).getMusic().getFirstVoice();
+		assertTrue(voice.lastElement() instanceof EndOfStaffLine);
+		assertFalse(recorder.isBusy());
+	}
+
+}
@@ -1,4 +1,8 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 
 import junit.framework.TestCase;
 import abc.notation.Accidental;
@@ -148,6 +152,24 @@ C
 		assertEquals(Note.D, key.getDegree(7));
 	}
 	
+	public void test8accidentalValueOf() throws Exception {
+		assertSame(Accidental.FLAT, Accidental.valueOf(-1));
+		assertSame(Accidental.HALF_SHARP, Accidental.valueOf(0.5f));
+		assertSame(Accidental.NONE, Accidental.valueOf(10));
+		assertEquals(0.25f, Accidental.valueOf(0.25f).getValue(), 0f);
+		assertSame(Accidental.NONE, new Note(Note.C).getAccidental());
+		//deserialized accidentals are the shared ones
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(new Accidental(-1));
+		out.writeObject(new Accidental());
+		out.close();
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(
+				bytes.toByteArray()));
+		assertSame(Accidental.FLAT, in.readObject());
+		assertSame(Accidental.NONE, in.readObject());
+	}
+	
 	public void test7trnspose() {
 		KeySignature CMaj = new KeySignature(Note.C, KeySignature.MAJOR);
 		KeySignature EMaj = KeySignature.transpose(CMaj, 4);
@@ -0,0 +1,219 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import junit.framework.TestCase;
+import abc.notation.MusicElement;
+import abc.notation.Note;
+import abc.notation.Tune;
+import abc.notation.TuneBook;
+import abc.notation.Voice;
+import abc.parser.AbcDescentBackend;
+import abc.parser.AbcGrammarBackend;
+import abc.parser.AbcNode;
+import abc.parser.CharStreamPosition;
+import abc.parser.ParserBackend;
+import abc.parser.TuneBookParser;
+import abc.parser.TuneBookParserAdapter;
+import abc.parser.TuneParser;
+
+/**
+ * Differential tests of the parser backends : whenever the descent backend
+ * supports a tune, its parsing tree and the notation built from it must be
+ * the same as with the grammar.
+ */
+public class ParserBackendTest extends TestCase {
+
+	private static final String[] FILES = { "../ressources/testPlan.abc",
+		"../ressources/LGtunes.abc", "../ressources/OneillDos.abc",
+		"../ressources/crash.abc" };
+
+	private static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+
+	public ParserBackendTest(String name) {
+		super(name);
+	}
+
+	/** Same trees for whole tune books, and for each tune alone */
+	public void testTrees() throws Exception {
+		ParserBackend grammar = new AbcGrammarBackend();
+		AbcDescentBackend descent = new AbcDescentBackend();
+		int tunesNb = 0;
+		int supportedNb = 0;
+		for (int i = 0; i < FILES.length; i++) {
+			String book = read(new File(FILES[i]));
+			assertSameTree(grammar, descent, book);
+			int start = 0;
+			int next;
+			do {
+				next = book.indexOf("\nX:", start + 1);
+				String tune = book.substring(start,
+						(next != -1) ? next + 1 : book.length());
+				if (tune.indexOf("X:") != -1) {
+					tunesNb++;
+					if (assertSameTree(grammar, descent, tune))
+						supportedNb++;
+				}
+				start = next + 1;
+			} while (next != -1);
+		}
+		System.out.println("Descent backend supports " + supportedNb + " of "
+				+ tunesNb + " tunes");
+		assertTrue(supportedNb > 0);
+	}
+
+	/** Returns <TT>false</TT> if the descent backend does not support abc */
+	private boolean assertSameTree(ParserBackend grammar,
+			AbcDescentBackend descent, String abc) {
+		AbcNode actual = descent.tryParse(abc.toCharArray(), 0, 0);
+		if (actual == null)
+			return false;
+		assertSameNode(grammar.parse(abc.toCharArray(), 0, 0), actual);
+		return true;
+	}
+
+	private void assertSameNode(AbcNode expected, AbcNode actual) {
+		assertEquals(expected.getLabel(), actual.getLabel());
+		CharStreamPosition e = expected.getCharStreamPosition();
+		CharStreamPosition a = actual.getCharStreamPosition();
+		assertEquals(expected.getLabel(), e.getStartIndex(), a.getStartIndex());
+		assertEquals(expected.getLabel(), e.getEndIndex(), a.getEndIndex());
+		assertEquals(e.getLine(), a.getLine());
+		assertEquals(e.getColumn(), a.getColumn());
+		assertEquals(expected.getValue(), actual.getValue());
+		assertFalse(actual.hasError());
+		List expectedChilds = expected.getChilds();
+		List actualChilds = actual.getChilds();
+		assertEquals(expected.getLabel(), expectedChilds.size(),
+				actualChilds.size());
+		for (int i = 0; i < expectedChilds.size(); i++)
+			assertSameNode((AbcNode) expectedChilds.get(i),
+					(AbcNode) actualChilds.get(i));
+	}
+
+	/** Same tunes, whatever the backend */
+	public void testNotation() throws Exception {
+		for (int i = 0; i < FILES.length; i++) {
+			File f = new File(FILES[i]);
+			TuneBook expected = new TuneBookParser().parse(f, LATIN1);
+			TuneBookParser parser = new TuneBookParser();
+			parser.setBackend(new AbcDescentBackend());
+			TuneBook actual = parser.parse(f, LATIN1);
+			int[] refs = expected.getReferenceNumbers();
+			assertEquals(refs.length, actual.getReferenceNumbers().length);
+			for (int j = 0; j < refs.length; j++) {
+				Tune e = expected.getTune(refs[j]);
+				Tune a = actual.getTune(refs[j]);
+				assertEquals(e.getTitles().length, a.getTitles().length);
+				assertSameMusic(e, a);
+			}
+		}
+	}
+
+	/** Same tunes when the notation is built while parsing */
+	public void testSinglePass() throws Exception {
+		AbcDescentBackend descent = new AbcDescentBackend();
+		for (int i = 0; i < FILES.length; i++) {
+			String book = read(new File(FILES[i]));
+			assertSameBook(book, false);
+			//the supported tunes of the file
+			StringBuffer supported = new StringBuffer();
+			int start = book.indexOf("X:");
+			int next;
+			do {
+				next = book.indexOf("\nX:", start + 1);
+				String tune = book.substring(start,
+						(next != -1) ? next + 1 : book.length());
+				if (descent.tryParse(tune.toCharArray(), 0, 0) != null)
+					supported.append(tune);
+				start = next + 1;
+			} while (next != -1);
+			assertNotNull(descent.tryParse(supported.toString()
+					.toCharArray(), 0, 0));
+			assertSameBook(supported.toString(), true);
+		}
+	}
+
+	private void assertSameBook(String book, boolean singlePass)
+			throws Exception {
+		TuneBook expected = new TuneBookParser().parse(book);
+		TuneBookParser parser = new TuneBookParser();
+		final int[] trees = { 0, 0 };
+		parser.addListener(new TuneBookParserAdapter() {
+			public void tuneEnd(Tune tune, AbcNode abcRoot) {
+				trees[(abcRoot == null) ? 0 : 1]++;
+			}
+		});
+		TuneBook actual = parser.parseSinglePass(new StringReader(book));
+		int[] refs = expected.getReferenceNumbers();
+		assertEquals(refs.length, actual.getReferenceNumbers().length);
+		if (singlePass)
+			assertEquals(0, trees[1]);
+		for (int j = 0; j < refs.length; j++) {
+			Tune e = expected.getTune(refs[j]);
+			Tune a = actual.getTune(refs[j]);
+			assertEquals(e.getTitles().length, a.getTitles().length);
+			assertEquals(e.getKey(), a.getKey());
+			assertSameMusic(e, a);
+		}
+	}
+
+	private void assertSameMusic(Tune expected, Tune actual) {
+		Voice expectedVoice = expected.getMusic().getFirstVoice();
+		Voice actualVoice = actual.getMusic().getFirstVoice();
+		assertEquals(expectedVoice.size(), actualVoice.size());
+		for (int i = 0; i < expectedVoice.size(); i++) {
+			MusicElement e = (MusicElement) expectedVoice.elementAt(i);
+			MusicElement a = (MusicElement) actualVoice.elementAt(i);
+			assertEquals(e.getClass(), a.getClass());
+			assertEquals(e.getReference(), a.getReference());
+			if (e instanceof Note) {
+				assertEquals(((Note) e).getHeight(), ((Note) a).getHeight());
+				assertEquals(e.getCharStreamPosition().getStartIndex(),
+						a.getCharStreamPosition().getStartIndex());
+				assertEquals(e.getCharStreamPosition().getLine(),
+						a.getCharStreamPosition().getLine());
+			}
+		}
+	}
+
+	/** Unsupported input and errors are handed to the grammar */
+	public void testFallback() {
+		String abc = "X:1\nT:test\nK:D\nab{c|\"Am\"de\n";
+		AbcDescentBackend descent = new AbcDescentBackend();
+		assertNull(descent.tryParse(abc.toCharArray(), 0, 0));
+		AbcNode expected = new AbcGrammarBackend().parse(abc.toCharArray(),
+				0, 0);
+		AbcNode actual = descent.parse(abc.toCharArray(), 0, 0);
+		assertEquals(expected.getErrors().size(), actual.getErrors().size());
+		assertTrue(actual.hasError());
+		//offsets of a tune in a tune book
+		abc = "X:1\nT:test\nK:D\nabc|\n";
+		AbcNode root = descent.tryParse(abc.toCharArray(), 10, 200);
+		assertNotNull(root);
+		CharStreamPosition pos = root.getChild("AbcTune/AbcMusic")
+				.getCharStreamPosition();
+		assertEquals(215, pos.getStartIndex());
+		assertEquals(14, pos.getLine());
+		TuneParser parser = new TuneParser();
+		parser.setBackend(descent);
+		assertSameMusic(new TuneParser().parse(abc), parser.parse(abc));
+	}
+
+	private String read(File file) throws Exception {
+		Reader reader = new InputStreamReader(new FileInputStream(file),
+				LATIN1);
+		StringBuffer sb = new StringBuffer();
+		char[] buffer = new char[8192];
+		int read;
+		while ((read = reader.read(buffer)) != -1)
+			sb.append(buffer, 0, read);
+		reader.close();
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,585 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import abc.notation.Tune;
+import abc.notation.TuneBook;
+import abc.parser.AbcDescentBackend;
+import abc.parser.AbcGrammarBackend;
+import abc.parser.AbcNode;
+import abc.parser.TuneBookParser;
+import abc.parser.TuneParser;
+
+/**
+ * Benchmarks of the parsing pipeline, from the grammar run to the notation
+ * objects, over the tune books of the ressources directory and over
+ * synthetic books made of several copies of them, or of the tunes the
+ * {@link AbcDescentBackend} supports. The copy of the parsed tunes by
+ * {@link Tune#clone()} is compared to a copy through serialization.
+ * <p>
+ * Run from the test directory:
+ * <pre>
+ * java ParserBenchmark [-wi 5] [-i 10] [-t 1000] [-f 2] [-prof gc] [filter...]
+ * </pre>
+ * <ul>
+ * <li><TT>-wi</TT> warmup iterations, not measured
+ * <li><TT>-i</TT> measured iterations
+ * <li><TT>-t</TT> minimum duration of an iteration, in milliseconds
+ * <li><TT>-f</TT> number of forked JVMs, each running all the iterations,
+ * 0 to run in this JVM
+ * <li><TT>-prof gc</TT> reports allocated bytes, garbage collections and
+ * their time per operation
+ * <li><TT>filter</TT> only runs benchmarks whose name or book contains one
+ * of the filters, e.g. <TT>grammar OneillDos</TT>
+ * </ul>
+ * Scores are given in milliseconds per operation, averaged over all the
+ * iterations of all the forks, with their standard deviation.
+ * <p>
+ * As a test case, each benchmark is run once on a small book, so that
+ * they keep working.
+ */
+public class ParserBenchmark extends TestCase {
+
+	private static final String[] BOOKS = { "../ressources/OneillDos.abc",
+		"../ressources/LGtunes.abc", "../ressources/crash.abc" };
+
+	/** Copies of OneillDos.abc in the synthetic books */
+	private static final int[] SCALES = { 4, 16 };
+
+	/** Prefix of the lines sent by forked JVMs */
+	private static final String RESULT = "#result";
+
+	/** Results of benchmarks, so that the JIT can't discard them */
+	private static volatile Object s_sink;
+
+	public ParserBenchmark(String name) {
+		super(name);
+	}
+
+	/** An operation measured over one book */
+	private static abstract class Benchmark {
+		private String m_name;
+
+		Benchmark(String name) {
+			m_name = name;
+		}
+
+		String getName() {
+			return m_name;
+		}
+
+		/** Prepares what is not measured */
+		void setUp(String book) {
+		}
+
+		/** One operation, returns its result */
+		abstract Object run(String book);
+	}
+
+	/** Gives access to the steps of the pipeline */
+	private static class PipelineParser extends TuneBookParser {
+		private List m_tunes;
+
+		AbcNode parseTree(String book) {
+			return getParseTree(book);
+		}
+
+		void setTree(AbcNode root) {
+			m_tunes = root.getChilds("AbcTune");
+		}
+
+		/** Builds the notation from the parsing tree */
+		Object buildNotation() {
+			Object ret = null;
+			for (int i = 0; i < m_tunes.size(); i++)
+				ret = parseAbcTune((AbcNode) m_tunes.get(i));
+			return ret;
+		}
+	}
+
+	private static Benchmark[] createBenchmarks() {
+		return new Benchmark[] {
+			//grammar run, with the compact tree
+			new Benchmark("grammar") {
+				private AbcGrammarBackend m_backend = new AbcGrammarBackend();
+				Object run(String book) {
+					return m_backend.parse(book.toCharArray(), 0, 0);
+				}
+			},
+			new Benchmark("descent") {
+				private AbcDescentBackend m_backend = new AbcDescentBackend();
+				Object run(String book) {
+					return m_backend.parse(book.toCharArray(), 0, 0);
+				}
+			},
+			//grammar run, then creation of every AbcNode
+			new Benchmark("grammar+nodes") {
+				private AbcGrammarBackend m_backend = new AbcGrammarBackend();
+				Object run(String book) {
+					return m_backend.parse(book.toCharArray(), 0, 0)
+							.getChildsInAllGenerations("Note");
+				}
+			},
+			//notation objects built from an already parsed tree
+			new Benchmark("notation") {
+				private PipelineParser m_parser;
+				void setUp(String book) {
+					m_parser = new PipelineParser();
+					m_parser.setTree(m_parser.parseTree(book));
+				}
+				Object run(String book) {
+					return m_parser.buildNotation();
+				}
+			},
+			new Benchmark("headers") {
+				Object run(String book) {
+					return new TuneBookParser().parseHeaders(book);
+				}
+			},
+			new Benchmark("book") {
+				Object run(String book) {
+					return new TuneBookParser().parse(book);
+				}
+			},
+			//notation built while parsing, without tree
+			new Benchmark("singlepass") {
+				Object run(String book) {
+					try {
+						return new TuneBookParser()
+								.parseSinglePass(new StringReader(book));
+					} catch (IOException e) {
+						throw new RuntimeException(e);
+					}
+				}
+			},
+			//each tune parsed alone, as an editor does
+			new Benchmark("tunes") {
+				private String[] m_tunes;
+				void setUp(String book) {
+					m_tunes = split(book);
+				}
+				Object run(String book) {
+					TuneParser parser = new TuneParser();
+					Object ret = null;
+					for (int i = 0; i < m_tunes.length; i++)
+						ret = parser.parse(m_tunes[i]);
+					return ret;
+				}
+			},
+			//deep copy of the parsed tunes
+			new Benchmark("clone") {
+				private Tune[] m_tunes;
+				void setUp(String book) {
+					m_tunes = tunes(book);
+				}
+				Object run(String book) {
+					Object ret = null;
+					for (int i = 0; i < m_tunes.length; i++)
+						ret = m_tunes[i].clone();
+					return ret;
+				}
+			},
+			//same copy written and read back, as Tune.clone() once did
+			new Benchmark("serialization") {
+				private Tune[] m_tunes;
+				void setUp(String book) {
+					m_tunes = tunes(book);
+				}
+				Object run(String book) {
+					Object ret = null;
+					for (int i = 0; i < m_tunes.length; i++)
+						ret = serializedCopy(m_tunes[i]);
+					return ret;
+				}
+			}
+		};
+	}
+
+	/** Returns the tunes of the book */
+	private static Tune[] tunes(String book) {
+		TuneBook tuneBook = new TuneBookParser().parse(book);
+		int[] numbers = tuneBook.getReferenceNumbers();
+		Tune[] ret = new Tune[numbers.length];
+		for (int i = 0; i < numbers.length; i++)
+			ret[i] = tuneBook.getTune(numbers[i]);
+		return ret;
+	}
+
+	/** Copies the object by serialization */
+	private static Object serializedCopy(Object o) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream out = new ObjectOutputStream(bytes);
+			out.writeObject(o);
+			out.close();
+			return new ObjectInputStream(new ByteArrayInputStream(bytes
+					.toByteArray())).readObject();
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/** Splits a book at its <TT>X:</TT> lines */
+	private static String[] split(String book) {
+		List ret = new ArrayList();
+		int start = book.indexOf("X:");
+		while (start != -1) {
+			int next = book.indexOf("\nX:", start);
+			ret.add(book.substring(start, (next != -1) ? next + 1 : book
+					.length()));
+			start = (next != -1) ? next + 1 : -1;
+		}
+		return (String[]) ret.toArray(new String[ret.size()]);
+	}
+
+	/** Books by name, in the order they are benchmarked */
+	private static Map loadBooks() throws Exception {
+		Map ret = new LinkedHashMap();
+		for (int i = 0; i < BOOKS.length; i++) {
+			File f = new File(BOOKS[i]);
+			ret.put(f.getName(), read(f));
+		}
+		String reference = (String) ret.get(new File(BOOKS[0]).getName());
+		for (int i = 0; i < SCALES.length; i++)
+			ret.put("OneillDos.abc*" + SCALES[i], scale(reference, SCALES[i]));
+		ret.put("OneillDos.abc/descent", supported(reference));
+		return ret;
+	}
+
+	/**
+	 * Returns the tunes of the book in the subset of the
+	 * {@link AbcDescentBackend}
+	 */
+	private static String supported(String book) {
+		AbcDescentBackend descent = new AbcDescentBackend();
+		String[] tunes = split(book);
+		StringBuffer sb = new StringBuffer(book.length());
+		for (int i = 0; i < tunes.length; i++)
+			if (descent.tryParse(tunes[i].toCharArray(), 0, 0) != null)
+				sb.append(tunes[i]);
+		return sb.toString();
+	}
+
+	/**
+	 * Returns <TT>copies</TT> copies of the book, with reference numbers
+	 * changed so that tunes are not replaced by their copies.
+	 */
+	private static String scale(String book, int copies) {
+		String[] tunes = split(book);
+		StringBuffer sb = new StringBuffer(book.length() * copies);
+		int number = 1;
+		for (int i = 0; i < copies; i++) {
+			for (int j = 0; j < tunes.length; j++) {
+				String tune = tunes[j];
+				int eol = tune.indexOf('\n');
+				sb.append("X:").append(number++).append(tune.substring(eol));
+			}
+		}
+		return sb.toString();
+	}
+
+	private static String read(File file) throws Exception {
+		Reader reader = new InputStreamReader(new FileInputStream(file),
+				"ISO-8859-1");
+		StringBuffer sb = new StringBuffer();
+		char[] buffer = new char[8192];
+		int read;
+		while ((read = reader.read(buffer)) != -1)
+			sb.append(buffer, 0, read);
+		reader.close();
+		return sb.toString();
+	}
+
+	/** Measures of one iteration */
+	private static class Measure {
+		double m_msPerOp;
+		double m_bytesPerOp;
+		double m_gcPerOp;
+		double m_gcMsPerOp;
+	}
+
+	/**
+	 * Runs the benchmark for at least <TT>time</TT> ms, returns its
+	 * measures.
+	 */
+	private static Measure iterate(Benchmark benchmark, String book, long time) {
+		long bytes = allocatedBytes();
+		long gcCount = gcCount();
+		long gcTime = gcTime();
+		long start = System.nanoTime();
+		long end = start + time * 1000000L;
+		long now;
+		int ops = 0;
+		do {
+			s_sink = benchmark.run(book);
+			ops++;
+		} while ((now = System.nanoTime()) < end);
+		Measure ret = new Measure();
+		ret.m_msPerOp = (now - start) / 1e6 / ops;
+		ret.m_bytesPerOp = (allocatedBytes() - bytes) / (double) ops;
+		ret.m_gcPerOp = (gcCount() - gcCount) / (double) ops;
+		ret.m_gcMsPerOp = (gcTime() - gcTime) / (double) ops;
+		return ret;
+	}
+
+	private static long gcCount() {
+		long ret = 0;
+		Iterator it = ManagementFactory.getGarbageCollectorMXBeans().iterator();
+		while (it.hasNext())
+			ret += ((GarbageCollectorMXBean) it.next()).getCollectionCount();
+		return ret;
+	}
+
+	private static long gcTime() {
+		long ret = 0;
+		Iterator it = ManagementFactory.getGarbageCollectorMXBeans().iterator();
+		while (it.hasNext())
+			ret += ((GarbageCollectorMXBean) it.next()).getCollectionTime();
+		return ret;
+	}
+
+	/**
+	 * Bytes allocated by the current thread, -1 if the JVM can't tell
+	 * (only some JVMs have <TT>getThreadAllocatedBytes</TT>)
+	 */
+	private static long allocatedBytes() {
+		try {
+			Object bean = ManagementFactory.getThreadMXBean();
+			Method m = Class.forName("com.sun.management.ThreadMXBean")
+					.getMethod("getThreadAllocatedBytes",
+							new Class[] { long.class });
+			return ((Long) m.invoke(bean, new Object[] { new Long(Thread
+					.currentThread().getId()) })).longValue();
+		} catch (Exception e) {
+			return -1;
+		}
+	}
+
+	/** Options of a run, see the class comment */
+	private static class Options {
+		int m_warmups = 5;
+		int m_iterations = 10;
+		long m_time = 1000;
+		int m_forks = 2;
+		boolean m_gcProfiler = false;
+		List m_filters = new ArrayList();
+
+		Options(String[] args) {
+			for (int i = 0; i < args.length; i++) {
+				if (args[i].equals("-wi"))
+					m_warmups = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-i"))
+					m_iterations = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-t"))
+					m_time = Long.parseLong(args[++i]);
+				else if (args[i].equals("-f"))
+					m_forks = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-prof") && args[++i].equals("gc"))
+					m_gcProfiler = true;
+				else
+					m_filters.add(args[i]);
+			}
+		}
+
+		boolean accept(String benchmark, String book) {
+			if (m_filters.isEmpty())
+				return true;
+			for (int i = 0; i < m_filters.size(); i++) {
+				String filter = (String) m_filters.get(i);
+				if ((benchmark.indexOf(filter) != -1)
+						|| (book.indexOf(filter) != -1))
+					return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Runs the benchmarks in this JVM, returns measures of all the
+	 * iterations, by <TT>benchmark book</TT> key
+	 */
+	private static Map runHere(Options options) throws Exception {
+		Map ret = new LinkedHashMap();
+		Map books = loadBooks();
+		Benchmark[] benchmarks = createBenchmarks();
+		for (int i = 0; i < benchmarks.length; i++) {
+			Iterator it = books.entrySet().iterator();
+			while (it.hasNext()) {
+				Map.Entry entry = (Map.Entry) it.next();
+				String name = (String) entry.getKey();
+				String book = (String) entry.getValue();
+				if (!options.accept(benchmarks[i].getName(), name))
+					continue;
+				benchmarks[i].setUp(book);
+				for (int j = 0; j < options.m_warmups; j++)
+					iterate(benchmarks[i], book, options.m_time);
+				List measures = new ArrayList();
+				for (int j = 0; j < options.m_iterations; j++)
+					measures.add(iterate(benchmarks[i], book, options.m_time));
+				ret.put(benchmarks[i].getName() + " " + name, measures);
+			}
+		}
+		return ret;
+	}
+
+	/** Runs the benchmarks in forked JVMs and merges their measures */
+	private static Map runForked(Options options, String[] args)
+			throws Exception {
+		Map ret = new LinkedHashMap();
+		for (int fork = 0; fork < options.m_forks; fork++) {
+			List command = new ArrayList();
+			command.add(System.getProperty("java.home") + File.separator
+					+ "bin" + File.separator + "java");
+			command.add("-cp");
+			command.add(System.getProperty("java.class.path"));
+			command.add(ParserBenchmark.class.getName());
+			for (int i = 0; i < args.length; i++)
+				command.add(args[i]);
+			command.add("-f");
+			command.add("0");
+			Process process = new ProcessBuilder(command)
+					.redirectErrorStream(true).start();
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+					process.getInputStream()));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (!line.startsWith(RESULT))
+					continue;
+				//#result benchmark book ms bytes gc gcMs
+				String[] fields = line.split(" ");
+				String key = fields[1] + " " + fields[2];
+				List measures = (List) ret.get(key);
+				if (measures == null) {
+					measures = new ArrayList();
+					ret.put(key, measures);
+				}
+				Measure measure = new Measure();
+				measure.m_msPerOp = Double.parseDouble(fields[3]);
+				measure.m_bytesPerOp = Double.parseDouble(fields[4]);
+				measure.m_gcPerOp = Double.parseDouble(fields[5]);
+				measure.m_gcMsPerOp = Double.parseDouble(fields[6]);
+				measures.add(measure);
+			}
+			if (process.waitFor() != 0)
+				throw new RuntimeException("Fork " + fork + " failed");
+		}
+		return ret;
+	}
+
+	private static void report(Map results, Options options) {
+		System.out.println(pad("Benchmark", 40) + pad("ms/op", 12)
+				+ pad("error", 14)
+				+ (options.m_gcProfiler ? pad("B/op", 14) + pad("gc/op", 10)
+						+ pad("gc ms/op", 10) : ""));
+		Iterator it = results.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry entry = (Map.Entry) it.next();
+			List measures = (List) entry.getValue();
+			double[] ms = new double[measures.size()];
+			double bytes = 0, gc = 0, gcMs = 0;
+			for (int i = 0; i < ms.length; i++) {
+				Measure m = (Measure) measures.get(i);
+				ms[i] = m.m_msPerOp;
+				bytes += m.m_bytesPerOp / ms.length;
+				gc += m.m_gcPerOp / ms.length;
+				gcMs += m.m_gcMsPerOp / ms.length;
+			}
+			System.out.println(pad((String) entry.getKey(), 40)
+					+ pad(format(mean(ms)), 12)
+					+ pad("+/- " + format(deviation(ms)), 14)
+					+ (options.m_gcProfiler ? pad((bytes < 0) ? "n/a"
+							: String.valueOf(Math.round(bytes)), 14)
+							+ pad(format(gc), 10) + pad(format(gcMs), 10)
+							: ""));
+		}
+	}
+
+	private static double mean(double[] values) {
+		double ret = 0;
+		for (int i = 0; i < values.length; i++)
+			ret += values[i];
+		return ret / values.length;
+	}
+
+	private static double deviation(double[] values) {
+		if (values.length < 2)
+			return 0;
+		double mean = mean(values);
+		double ret = 0;
+		for (int i = 0; i < values.length; i++)
+			ret += (values[i] - mean) * (values[i] - mean);
+		return Math.sqrt(ret / (values.length - 1));
+	}
+
+	private static String format(double d) {
+		return String.valueOf(Math.round(d * 1000) / 1000.0);
+	}
+
+	private static String pad(String s, int length) {
+		StringBuffer sb = new StringBuffer(s);
+		while (sb.length() < length)
+			sb.append(' ');
+		return sb.toString();
+	}
+
+	public static void main(String[] args) throws Exception {
+		Options options = new Options(args);
+		if (options.m_forks > 0) {
+			report(runForked(options, args), options);
+			return;
+		}
+		Map results = runHere(options);
+		//measures for the parent JVM
+		Iterator it = results.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry entry = (Map.Entry) it.next();
+			Iterator measures = ((List) entry.getValue()).iterator();
+			while (measures.hasNext()) {
+				Measure m = (Measure) measures.next();
+				System.out.println(RESULT + " " + entry.getKey() + " "
+						+ m.m_msPerOp + " " + m.m_bytesPerOp + " "
+						+ m.m_gcPerOp + " " + m.m_gcMsPerOp);
+			}
+		}
+		report(results, options);
+	}
+
+	/** Each benchmark runs once, on a small book */
+	public void testBenchmarks() throws Exception {
+		String book = read(new File("../ressources/testPlan.abc"));
+		assertEquals(35, split(book).length);
+		assertEquals(70, split(scale(book, 2)).length);
+		Benchmark[] benchmarks = createBenchmarks();
+		for (int i = 0; i < benchmarks.length; i++) {
+			benchmarks[i].setUp(book);
+			Measure m = iterate(benchmarks[i], book, 0);
+			assertNotNull(benchmarks[i].getName(), s_sink);
+			assertTrue(m.m_msPerOp > 0);
+		}
+		Options options = new Options(new String[] { "-wi", "0", "-i",
+				"1", "-prof", "gc", "notation", "crash" });
+		assertEquals(0, options.m_warmups);
+		assertTrue(options.m_gcProfiler);
+		assertTrue(options.accept("notation", "LGtunes.abc"));
+		assertTrue(options.accept("book", "crash.abc"));
+		assertFalse(options.accept("book", "LGtunes.abc"));
+	}
+
+}
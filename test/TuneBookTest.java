@@ -1,12 +1,40 @@
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+
+import java.util.Vector;
+
+import javax.management.ObjectName;
 
 import junit.framework.TestCase;
 import abc.notation.BarLine;
+import abc.notation.KeySignature;
+import abc.notation.Music;
+import abc.notation.MusicElement;
 import abc.notation.Tune;
 import abc.notation.Note;
 //import abc.parser2.PositionableNote;
+import abc.notation.Tempo;
+import abc.notation.TimeSignature;
 import abc.notation.TuneBook;
+import abc.notation.TuneInfos;
+import abc.notation.Voice;
+import abc.parser.AbcNode;
+import abc.parser.AbcTune;
+import abc.parser.AbcTuneBook;
+import abc.parser.AbcTuneCache;
+import abc.parser.CharStreamPosition;
+import abc.parser.ParseMetrics;
+import abc.parser.ParseMetricsListenerInterface;
+import abc.parser.ParseStatistics;
+import abc.parser.TuneBookParserAdapter;
 import abc.parser.TuneBookParser;
+import abc.parser.TuneBookSnapshot;
+import abc.parser.TuneParser;
 
 public class TuneBookTest extends TestCase {
 	
@@ -104,6 +132,547 @@ public class TuneBookTest extends TestCase {
 		
 	}
 	
+	public void testStreaming(){
+		File f = new File("../ressources/testPlan.abc");
+		try {
+			final Vector tunes = new Vector();
+			TuneBookParser parser = new TuneBookParser();
+			parser.addListener(new TuneBookParserAdapter() {
+				public void tuneEnd(Tune tune, AbcNode abcRoot) {
+					tunes.add(tune);
+				}
+			});
+			parser.parseStreaming(f);
+			assertTrue(tunes.size() > 2);
+			Tune streamed = (Tune) tunes.elementAt(1);
+			Tune parsed = new TuneBookParser().parse(f).getTune(1);
+			assertEquals(parsed.getReferenceNumber(), streamed.getReferenceNumber());
+			assertEquals(parsed.getTitles()[0], streamed.getTitles()[0]);
+			Voice parsedVoice = parsed.getMusic().getFirstVoice();
+			Voice streamedVoice = streamed.getMusic().getFirstVoice();
+			assertEquals(parsedVoice.size(), streamedVoice.size());
+			//positions are relative to the whole file, not to the tune
+			Note n = (Note) streamedVoice.elementAt(2);
+			assertEquals(Note.C, n.getStrictHeight());
+			assertEquals(1, n.getCharStreamPosition().getColumn());
+			assertEquals(12, n.getCharStreamPosition().getLine());
+			assertEquals(((Note) parsedVoice.elementAt(2)).getCharStreamPosition()
+					.getStartIndex(), n.getCharStreamPosition().getStartIndex());
+		}
+		catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	public void testParallel(){
+		File f = new File("../ressources/testPlan.abc");
+		try {
+			final Vector streamedTunes = new Vector();
+			TuneBookParser parser = new TuneBookParser();
+			parser.addListener(new TuneBookParserAdapter() {
+				public void tuneEnd(Tune tune, AbcNode abcRoot) {
+					streamedTunes.add(tune);
+				}
+			});
+			parser.parseStreaming(f);
+			final Vector parallelTunes = new Vector();
+			parser = new TuneBookParser();
+			parser.addListener(new TuneBookParserAdapter() {
+				public void tuneEnd(Tune tune, AbcNode abcRoot) {
+					parallelTunes.add(tune);
+				}
+			});
+			TuneBook tb = parser.parseParallel(new FileReader(f), 4);
+			//listeners are notified in the stream order
+			assertEquals(streamedTunes.size(), parallelTunes.size());
+			for (int i = 0; i < streamedTunes.size(); i++) {
+				Tune streamed = (Tune) streamedTunes.elementAt(i);
+				Tune parallel = (Tune) parallelTunes.elementAt(i);
+				assertEquals(streamed.getReferenceNumber(), parallel.getReferenceNumber());
+				assertEquals(streamed.getMusic().getFirstVoice().size(),
+						parallel.getMusic().getFirstVoice().size());
+			}
+			assertNotNull(tb.getTune(1));
+			assertEquals(12, ((Note) tb.getTune(1).getMusic().getFirstVoice()
+					.elementAt(2)).getCharStreamPosition().getLine());
+		}
+		catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	public void testHeaders(){
+		File f = new File("../ressources/testPlan.abc");
+		try {
+			TuneBookParser parser = new TuneBookParser();
+			AbcTuneBook headers = parser.parseHeaders(f);
+			TuneBook tb = parser.parseParallel(new FileReader(f), 1);
+			assertEquals(tb.size(), headers.size());
+			int[] refs = tb.getReferenceNumbers();
+			for (int i = 0; i < refs.length; i++) {
+				Tune parsed = tb.getTune(refs[i]);
+				AbcTune header = (AbcTune) headers.getTune(refs[i]);
+				assertNotNull(header);
+				assertEquals(parsed.getTuneInfos().get(TuneInfos.TITLE),
+						header.getTuneInfos().get(TuneInfos.TITLE));
+				assertEquals(parsed.getTuneInfos().get(TuneInfos.COMPOSER),
+						header.getTuneInfos().get(TuneInfos.COMPOSER));
+				assertEquals(parsed.getMusic().getKey(),
+						header.getMusic().getKey());
+				//the whole tune can be parsed later
+				AbcTune full = parser.parseTune(f, header);
+				assertEquals(parsed.getMusic().getFirstVoice().size(),
+						full.getMusic().getFirstVoice().size());
+			}
+			//positions are relative to the whole file
+			AbcTune full = parser.parseTune(f, (AbcTune) headers.getTune(1));
+			assertEquals(12, ((Note) full.getMusic().getFirstVoice()
+					.elementAt(2)).getCharStreamPosition().getLine());
+		}
+		catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/** Header fields scanned without the grammar are those it parses */
+	public void testHeadersAsGrammar(){
+		String[] books = { "testPlan.abc", "LGtunes.abc", "OneillDos.abc" };
+		Class[] types = { TimeSignature.class, Tempo.class,
+				KeySignature.class };
+		try {
+			for (int b = 0; b < books.length; b++) {
+				File f = new File("../ressources/" + books[b]);
+				TuneBookParser parser = new TuneBookParser();
+				AbcTuneBook headers = parser.parseHeaders(f);
+				TuneBook tb = parser.parseParallel(new FileReader(f), 1);
+				int[] refs = tb.getReferenceNumbers();
+				assertEquals(refs.length, headers.size());
+				for (int i = 0; i < refs.length; i++) {
+					Tune parsed = tb.getTune(refs[i]);
+					Tune header = headers.getTune(refs[i]);
+					String tune = books[b] + " X:" + refs[i];
+					//the grammar has no rule for fields continued with a \
+					if (((AbcTune) header).getAbcString().replaceAll("\r", "")
+							.indexOf("\\\n") != -1)
+						continue;
+					for (byte field = TuneInfos.AREA; field <= TuneInfos.WORDS;
+							field++)
+						assertEquals(tune, parsed.getTuneInfos().get(field),
+								header.getTuneInfos().get(field));
+					for (int t = 0; t < types.length; t++) {
+						CharStreamPosition expected = getPosition(parsed,
+								types[t]);
+						CharStreamPosition actual = getPosition(header,
+								types[t]);
+						if (expected == null) {
+							assertNull(tune, actual);
+							continue;
+						}
+						assertEquals(tune, expected.getLine(), actual.getLine());
+						assertEquals(tune, expected.getColumn(),
+								actual.getColumn());
+						assertEquals(tune, expected.getStartIndex(),
+								actual.getStartIndex());
+						assertEquals(tune, expected.getEndIndex(),
+								actual.getEndIndex());
+					}
+				}
+			}
+			//text fields continued with a \ are joined
+			AbcTuneBook headers = new TuneBookParser().parseHeaders(
+					"X:1\nT:continued\nN:first \\\nsecond\nK:G\n"
+					+ "abc|\nN:third \\\nfourth\nabc|\n");
+			assertEquals("first second\nthird fourth", headers.getTune(1)
+					.getTuneInfos().get(TuneInfos.NOTES));
+		}
+		catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/** Returns the position of the first element of the given type */
+	private static CharStreamPosition getPosition(Tune tune, Class type) {
+		Voice voice = tune.getMusic().getVoice("1");
+		for (int i = 0; (voice != null) && (i < voice.size()); i++) {
+			if (type.isInstance(voice.elementAt(i)))
+				return ((MusicElement) voice.elementAt(i))
+						.getCharStreamPosition();
+		}
+		return null;
+	}
+	
+	public void testCache(){
+		File f = new File("../ressources/testPlan.abc");
+		try {
+			AbcTuneCache cache = new AbcTuneCache();
+			TuneBookParser parser = new TuneBookParser();
+			parser.setCache(cache);
+			TuneBook tb = parser.parseParallel(new FileReader(f), 2);
+			//first tune is parsed with the book header, it is not cached
+			assertEquals(0, cache.getHitCount());
+			assertEquals(tb.size() - 1, cache.size());
+			//second parsing gets other tunes from the cache
+			TuneBook tb2 = parser.parseParallel(new FileReader(f), 2);
+			assertEquals(tb.size() - 1, cache.getHitCount());
+			int[] refs = tb.getReferenceNumbers();
+			for (int i = 1; i < refs.length; i++)
+				assertSame(tb.getTune(refs[i]), tb2.getTune(refs[i]));
+			
+			String abc = "X:1\nT:cached\nK:C\nabc|def|\n";
+			TuneParser tp = new TuneParser();
+			tp.setCache(cache);
+			Tune tune = tp.parse(abc);
+			assertSame(tune, tp.parse(abc));
+			//same text with other line terminators, other positions
+			Tune crlf = tp.parse(abc.replaceAll("\n", "\r\n"));
+			assertNotSame(tune, crlf);
+			assertSame(crlf, tp.parse(abc.replaceAll("\n", "\r\n")));
+			assertEquals(abc.replaceAll("\n", "\r\n"), ((AbcTune) crlf)
+					.getAbcString());
+			Note note = (Note) tune.getMusic().getFirstVoice().elementAt(1);
+			Note crlfNote = (Note) crlf.getMusic().getFirstVoice().elementAt(1);
+			assertEquals(abc.indexOf("abc"), note.getCharStreamPosition()
+					.getStartIndex());
+			assertEquals(abc.replaceAll("\n", "\r\n").indexOf("abc"),
+					crlfNote.getCharStreamPosition().getStartIndex());
+			AbcTuneBook book = new AbcTuneBook();
+			book.setParseCache(cache);
+			book.putTune(abc);
+			assertSame(tune, book.getTune(1));
+			
+			//memory bound
+			AbcTuneCache small = new AbcTuneCache(abc.length() * 100);
+			tp.setCache(small);
+			tp.parse(abc);
+			tp.parse(abc.replaceAll("abc", "ABC"));
+			assertEquals(1, small.size());
+			assertEquals(1, small.getEvictionCount());
+			assertTrue(small.getMemory() <= small.getMaxMemory());
+		}
+		catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	public void testCharset(){
+		try {
+			String title = "Caf\u00e9 \u00e0 l'\u00e9t\u00e9";
+			String abc = "X:1\nT:" + title + "\nK:C\nabc|def|\n";
+			String[] charsets = { "ISO-8859-1", "UTF-8", "UTF-16" };
+			for (int i = 0; i < charsets.length; i++) {
+				Charset charset = Charset.forName(charsets[i]);
+				File f = File.createTempFile("abc4j", ".abc");
+				try {
+					FileOutputStream out = new FileOutputStream(f);
+					out.write(abc.getBytes(charset.name()));
+					out.close();
+					TuneBookParser parser = new TuneBookParser();
+					TuneBook tb = parser.parse(f, charset);
+					assertEquals(title, tb.getTune(1).getTuneInfos().get(
+							TuneInfos.TITLE));
+					assertEquals(new TuneBookParser().parse(abc).getTune(1)
+							.getMusic().getFirstVoice().size(), tb.getTune(1)
+							.getMusic().getFirstVoice().size());
+					assertEquals(title, parser.parseHeaders(f, charset)
+							.getTune(1).getTuneInfos().get(TuneInfos.TITLE));
+				} finally {
+					f.delete();
+				}
+			}
+		}
+		catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	public void testLazily(){
+		File f = new File("../ressources/testPlan.abc");
+		try {
+			TuneBookParser parser = new TuneBookParser();
+			TuneBook tb = parser.parseParallel(new FileReader(f), 1);
+			final AbcTuneBook lazy = parser.parseLazily(f);
+			assertEquals(tb.size(), lazy.size());
+			final int[] refs = tb.getReferenceNumbers();
+			for (int i = 0; i < refs.length; i++)
+				assertFalse(((AbcTune) lazy.getTune(refs[i])).isMusicParsed());
+			//several threads get the same music, parsed once
+			final Music[][] musics = new Music[4][refs.length];
+			Thread[] threads = new Thread[musics.length];
+			for (int t = 0; t < threads.length; t++) {
+				final int n = t;
+				threads[t] = new Thread() {
+					public void run() {
+						for (int i = 0; i < refs.length; i++)
+							musics[n][i] = lazy.getTune(refs[i]).getMusic();
+					}
+				};
+				threads[t].start();
+			}
+			for (int t = 0; t < threads.length; t++)
+				threads[t].join();
+			for (int i = 0; i < refs.length; i++) {
+				AbcTune tune = (AbcTune) lazy.getTune(refs[i]);
+				assertTrue(tune.isMusicParsed());
+				if (tune.getMultiPartsDefinition() == null)
+					for (int t = 1; t < musics.length; t++)
+						assertSame(musics[0][i], musics[t][i]);
+				assertEquals(tb.getTune(refs[i]).getMusic().getFirstVoice()
+						.size(), musics[0][i].getFirstVoice().size());
+				assertEquals(tb.getTune(refs[i]).getTuneInfos().get(
+						TuneInfos.TITLE), tune.getTuneInfos().get(
+						TuneInfos.TITLE));
+			}
+			//positions are relative to the whole file
+			assertEquals(12, ((Note) lazy.getTune(1).getMusic()
+					.getFirstVoice().elementAt(2)).getCharStreamPosition()
+					.getLine());
+			//a clone is a fully parsed tune
+			Tune clone = (Tune) lazy.getTune(1).clone();
+			assertEquals(lazy.getTune(1).getMusic().getFirstVoice().size(),
+					clone.getMusic().getFirstVoice().size());
+			
+			parser.setEvictableMusic(true);
+			AbcTuneBook evictable = parser.parseLazily(new FileReader(f));
+			assertEquals(tb.getTune(refs[0]).getMusic().getFirstVoice().size(),
+					evictable.getTune(refs[0]).getMusic().getFirstVoice()
+					.size());
+		}
+		catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	public void testLazyHeaderGetters(){
+		try {
+			String abc = "X:1\nT:lazy key\nQ:1/4=120\nK:Bb\nBcd|\n";
+			Tune parsed = new TuneBookParser().parse(abc).getTune(1);
+			AbcTune tune = (AbcTune) new TuneBookParser().parseLazily(
+					new StringReader(abc)).getTune(1);
+			//answered from the header
+			assertEquals(parsed.getKey(), tune.getKey());
+			assertTrue(parsed.getClef().equals(tune.getClef()));
+			assertEquals(parsed.getGeneralTempo().getNotesNumberPerMinute(),
+					tune.getGeneralTempo().getNotesNumberPerMinute());
+			assertFalse(tune.isMusicParsed());
+			tune.getMusic();
+			assertTrue(tune.isMusicParsed());
+			assertEquals(parsed.getKey(), tune.getKey());
+		}
+		catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	public void testLazyClone(){
+		try {
+			String abc = "X:1\nT:lazy clone\nK:C\nCDE|\n";
+			AbcTuneBook lazy = new TuneBookParser().parseLazily(
+					new StringReader(abc));
+			Tune tune = lazy.getTune(1);
+			int size = tune.getMusic().getFirstVoice().size();
+			//the clone has music of its own
+			Tune clone = (Tune) tune.clone();
+			clone.getMusic().getFirstVoice().removeElementAt(size - 1);
+			assertEquals(size - 1, clone.getMusic().getFirstVoice().size());
+			assertEquals(size, tune.getMusic().getFirstVoice().size());
+			//transposition works on the clone of the parsed music
+			Tune transposed = Tune.transpose(tune, 2);
+			assertEquals(new KeySignature(Note.D, KeySignature.MAJOR),
+					transposed.getMusic().getKey());
+			assertEquals(new KeySignature(Note.C, KeySignature.MAJOR), tune
+					.getMusic().getKey());
+		}
+		catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	public void testMetrics(){
+		File f = new File("../ressources/testPlan.abc");
+		try {
+			final Vector tunesMetrics = new Vector();
+			final Vector booksMetrics = new Vector();
+			ParseMetricsListenerInterface listener = new ParseMetricsListenerInterface() {
+				public void tuneParsed(Tune tune, ParseMetrics metrics) {
+					tunesMetrics.add(metrics);
+				}
+				public void tuneBookParsed(TuneBook tuneBook, ParseMetrics metrics) {
+					booksMetrics.add(metrics);
+				}
+			};
+			ParseStatistics statistics = new ParseStatistics();
+			TuneBookParser parser = new TuneBookParser();
+			parser.addListener(listener);
+			parser.addListener(statistics);
+			parser.parseStreaming(f);
+			assertEquals(1, booksMetrics.size());
+			ParseMetrics book = (ParseMetrics) booksMetrics.elementAt(0);
+			assertEquals(tunesMetrics.size(), book.getTunesCount());
+			assertEquals(f.length(), book.getCharsCount());
+			assertTrue(book.getGrammarTime() > 0);
+			assertTrue(book.getNotationBuildTime() > 0);
+			assertTrue(book.getElapsedTime() >= book.getGrammarTime()
+					+ book.getTreeBuildTime() + book.getNotationBuildTime());
+			//each tune has a parsing tree of its own
+			long grammarTime = 0;
+			for (int i = 0; i < tunesMetrics.size(); i++) {
+				ParseMetrics tune = (ParseMetrics) tunesMetrics.elementAt(i);
+				assertEquals(1, tune.getTunesCount());
+				assertTrue(tune.getCharsCount() > 0);
+				assertEquals(-1, tune.getGarbageCollectionTime());
+				grammarTime += tune.getGrammarTime();
+			}
+			assertEquals(book.getGrammarTime(), grammarTime);
+
+			//parallel parsing gives the same counters
+			tunesMetrics.clear();
+			booksMetrics.clear();
+			parser.parseParallel(new FileReader(f), 2);
+			ParseMetrics parallel = (ParseMetrics) booksMetrics.elementAt(0);
+			assertEquals(book.getTunesCount(), tunesMetrics.size());
+			assertEquals(book.getTunesCount(), parallel.getTunesCount());
+			assertEquals(book.getCharsCount(), parallel.getCharsCount());
+			assertEquals(book.getErrorsCount(), parallel.getErrorsCount());
+
+			//parse errors are counted
+			booksMetrics.clear();
+			parser.parse("X:1\nT:errors\nK:C\n[abc\n");
+			assertTrue(((ParseMetrics) booksMetrics.elementAt(0))
+					.getErrorsCount() > 0);
+
+			assertEquals(3, statistics.getTuneBooksCount());
+			assertEquals(2 * book.getTunesCount() + 1, statistics.getTunesCount());
+			assertNotNull(statistics.getSlowestTune());
+			statistics.register("TuneBookTest");
+			try {
+				assertEquals(new Long(statistics.getTunesCount()),
+						ManagementFactory.getPlatformMBeanServer().getAttribute(
+						new ObjectName("abc.parser:type=ParseStatistics,name="
+						+ ObjectName.quote("TuneBookTest")), "TunesCount"));
+			} finally {
+				statistics.unregister();
+			}
+			statistics.reset();
+			assertEquals(0, statistics.getTunesCount());
+		}
+		catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	public void testSnapshot(){
+		File f = new File("../ressources/testPlan.abc");
+		try {
+			Charset charset = Charset.forName("ISO-8859-1");
+			File copy = File.createTempFile("abc4j", ".abc");
+			File snapshot = File.createTempFile("abc4j", ".abcs");
+			try {
+				FileInputStream in = new FileInputStream(f);
+				FileOutputStream out = new FileOutputStream(copy);
+				byte[] bytes = new byte[(int) f.length()];
+				out.write(bytes, 0, in.read(bytes));
+				in.close();
+				out.close();
+				//an empty file isn't a snapshot
+				assertNull(TuneBookSnapshot.open(snapshot, copy, charset));
+				TuneBookParser parser = new TuneBookParser();
+				AbcTuneBook lazy = parser.parseLazily(copy, charset);
+				AbcTuneBook tb = parser.parseSnapshot(copy, charset, snapshot);
+				assertEquals(lazy.size(), tb.size());
+				int[] refs = lazy.getReferenceNumbers();
+				for (int i = 0; i < refs.length; i++) {
+					Music expected = lazy.getTune(refs[i]).getMusic();
+					Music music = tb.getTune(refs[i]).getMusic();
+					assertEquals(expected.getFirstVoice().size(), music
+							.getFirstVoice().size());
+				}
+				assertEquals(12, ((Note) tb.getTune(1).getMusic()
+						.getFirstVoice().elementAt(2)).getCharStreamPosition()
+						.getLine());
+				//tunes are decoded once
+				AbcTune tune = (AbcTune) tb.getTune(1);
+				assertTrue(tune.isMusicParsed());
+				assertSame(tune.getMusic(), tune.getMusic());
+
+				TuneBookSnapshot s = TuneBookSnapshot.open(snapshot, copy,
+						charset);
+				assertNotNull(s);
+				assertEquals(lazy.size(), s.size());
+				int last = refs[refs.length - 1];
+				assertEquals(lazy.getTune(last).getMusic().getFirstVoice()
+						.size(), s.getTune(last).getMusic().getFirstVoice()
+						.size());
+				assertNull(s.getTune(-12));
+				assertNull(TuneBookSnapshot.open(snapshot, copy, Charset
+						.forName("UTF-8")));
+
+				//a snapshot of another content is not used
+				out = new FileOutputStream(copy, true);
+				out.write("\nX:999\nT:added\nK:C\nabc|\n".getBytes());
+				out.close();
+				assertNull(TuneBookSnapshot.open(snapshot, copy, charset));
+				tb = parser.parseSnapshot(copy, charset, snapshot);
+				assertEquals(lazy.size() + 1, tb.size());
+				assertEquals(new TuneBookParser().parse(
+						"X:999\nT:added\nK:C\nabc|\n").getTune(999).getMusic()
+						.getFirstVoice().size(), tb.getTune(999).getMusic()
+						.getFirstVoice().size());
+				assertNotNull(TuneBookSnapshot.open(snapshot, copy, charset));
+			} finally {
+				copy.delete();
+				snapshot.delete();
+			}
+		}
+		catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	public void testCorruptSnapshot(){
+		File f = new File("../ressources/testPlan.abc");
+		try {
+			Charset charset = Charset.forName("ISO-8859-1");
+			File snapshot = File.createTempFile("abc4j", ".abcs");
+			try {
+				TuneBookSnapshot.write(f, charset, snapshot);
+				byte[] bytes = new byte[(int) snapshot.length()];
+				FileInputStream in = new FileInputStream(snapshot);
+				assertEquals(bytes.length, in.read(bytes));
+				in.close();
+				TuneBookParser parser = new TuneBookParser();
+				AbcTuneBook lazy = parser.parseLazily(f, charset);
+				int last = lazy.getReferenceNumbers()[lazy.size() - 1];
+				//truncated, then huge lengths in the index and in the trees
+				int[][] corruptions = { { bytes.length / 2, 0 }, { 40, 6 },
+						{ bytes.length / 2, 6 }, { bytes.length - 8, 6 } };
+				for (int i = 0; i < corruptions.length; i++) {
+					byte[] corrupt = (byte[]) bytes.clone();
+					for (int j = 0; j < corruptions[i][1]; j++)
+						corrupt[corruptions[i][0] + j] = (byte) 0xFF;
+					int length = (corruptions[i][1] == 0) ? corruptions[i][0]
+							: corrupt.length;
+					FileOutputStream out = new FileOutputStream(snapshot);
+					out.write(corrupt, 0, length);
+					out.close();
+					assertNull("corruption " + i, TuneBookSnapshot.open(
+							snapshot, f, charset));
+					//written again
+					AbcTuneBook tb = parser.parseSnapshot(f, charset, snapshot);
+					assertEquals(lazy.size(), tb.size());
+					assertEquals(lazy.getTune(last).getMusic().getFirstVoice()
+							.size(), tb.getTune(last).getMusic()
+							.getFirstVoice().size());
+					assertEquals(bytes.length, snapshot.length());
+				}
+			} finally {
+				snapshot.delete();
+			}
+		}
+		catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
 	protected void tearDown() throws Exception {
 		super.tearDown();
 	}
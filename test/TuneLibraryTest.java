@@ -0,0 +1,265 @@
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+import abc.notation.Tune;
+import abc.notation.TuneInfos;
+import abc.parser.AbcNode;
+import abc.parser.AbcTune;
+import abc.parser.TuneBookParser;
+import abc.parser.TuneBookParserAdapter;
+import abc.parser.TuneLibrary;
+import abc.parser.TuneLibraryAdapter;
+import abc.parser.TuneLibraryParser;
+
+public class TuneLibraryTest extends TestCase {
+
+	private static final String[] FILES = { "LGtunes.abc", "OneillDos.abc",
+			"crash.abc", "testPlan.abc" };
+
+	private File m_directory;
+
+	public TuneLibraryTest(String name) {
+		super(name);
+	}
+
+	/** Copies the test files in a directory tree, twice */
+	protected void setUp() throws Exception {
+		m_directory = File.createTempFile("library", "");
+		m_directory.delete();
+		File sub = new File(new File(m_directory, "b"), "c");
+		sub.mkdirs();
+		for (int i = 0; i < FILES.length; i++) {
+			copy(new File("../ressources/" + FILES[i]), new File(m_directory,
+					FILES[i]));
+			copy(new File("../ressources/" + FILES[i]), new File(sub, FILES[i]));
+		}
+		new File(m_directory, "readme.txt").createNewFile();
+		new File(m_directory, "broken.abc").createNewFile();
+	}
+
+	protected void tearDown() {
+		delete(m_directory);
+	}
+
+	private static void copy(File from, File to) throws IOException {
+		InputStream in = new FileInputStream(from);
+		OutputStream out = new FileOutputStream(to);
+		byte[] buffer = new byte[8192];
+		int n;
+		while ((n = in.read(buffer)) != -1)
+			out.write(buffer, 0, n);
+		in.close();
+		out.close();
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		for (int i = 0; (files != null) && (i < files.length); i++)
+			delete(files[i]);
+		file.delete();
+	}
+
+	/** Returns all the tunes of a file, even with the same reference number */
+	private static List headers(File file) throws IOException {
+		final List ret = new ArrayList();
+		TuneBookParser parser = new TuneBookParser();
+		parser.addListener(new TuneBookParserAdapter() {
+			public void tuneEnd(Tune tune, AbcNode abcRoot) {
+				ret.add(tune);
+			}
+		});
+		parser.parseHeaders(file);
+		return ret;
+	}
+
+	/** Records the events of a library parser */
+	private static class Recorder extends TuneLibraryAdapter {
+		int begin = 0;
+		int parsed = 0;
+		int failed = 0;
+		int tunes = 0;
+		int lastDone = 0;
+		TuneLibrary end = null;
+
+		public void libraryBegin(File directory) {
+			begin++;
+		}
+
+		public void fileParsed(File file, int tunesNb, int filesDone,
+				int filesFound) {
+			parsed++;
+			tunes += tunesNb;
+			assertEquals(lastDone + 1, filesDone);
+			assertTrue(filesDone <= filesFound);
+			lastDone = filesDone;
+		}
+
+		public void fileFailed(File file, Throwable failure, int filesDone,
+				int filesFound) {
+			failed++;
+			assertEquals(lastDone + 1, filesDone);
+			lastDone = filesDone;
+		}
+
+		public void libraryEnd(TuneLibrary library) {
+			end = library;
+		}
+	}
+
+	public void testLibrary() throws Exception {
+		TuneLibraryParser parser = new TuneLibraryParser(3, 1);
+		//broken.abc disappears between the walk and its parsing
+		parser.setFileFilter(new FileFilter() {
+			public boolean accept(File file) {
+				if (file.getName().equals("broken.abc"))
+					return file.delete();
+				return file.getName().endsWith(".abc");
+			}
+		});
+		Recorder recorder = new Recorder();
+		parser.addListener(recorder);
+		TuneLibrary library = parser.parse(m_directory);
+		assertFalse(library.isCancelled());
+		assertEquals(1, recorder.begin);
+		assertSame(library, recorder.end);
+		assertEquals(8, recorder.parsed);
+		assertEquals(1, recorder.failed);
+		assertEquals(1, library.getFailures().size());
+		assertEquals(new File(m_directory, "broken.abc"), library
+				.getFailures().keySet().iterator().next());
+
+		int size = 0;
+		File sub = new File(new File(m_directory, "b"), "c");
+		for (int i = 0; i < FILES.length; i++) {
+			File[] files = { new File(m_directory, FILES[i]),
+					new File(sub, FILES[i]) };
+			for (int j = 0; j < files.length; j++) {
+				List expected = headers(files[j]);
+				List entries = library.getEntries(files[j]);
+				assertEquals(expected.size(), entries.size());
+				for (int k = 0; k < entries.size(); k++) {
+					TuneLibrary.Entry entry = (TuneLibrary.Entry) entries.get(k);
+					AbcTune tune = (AbcTune) expected.get(k);
+					assertEquals(tune.getSourceStartIndex(), entry
+							.getSourceStartIndex());
+					assertEquals(tune.getSourceStartLine(), entry
+							.getSourceStartLine());
+					assertEquals(tune.getReferenceNumber(), entry.getTune()
+							.getReferenceNumber());
+				}
+				size += expected.size();
+			}
+		}
+		assertEquals(size, library.size());
+		assertEquals(size, recorder.tunes);
+
+		//files in path order, then tunes in file order
+		List entries = library.getEntries();
+		for (int i = 1; i < entries.size(); i++) {
+			TuneLibrary.Entry a = (TuneLibrary.Entry) entries.get(i - 1);
+			TuneLibrary.Entry b = (TuneLibrary.Entry) entries.get(i);
+			int c = a.getFile().compareTo(b.getFile());
+			assertTrue(c < 0 || (c == 0)
+					&& (a.getSourceStartIndex() < b.getSourceStartIndex()));
+		}
+
+		TuneLibrary.Entry entry = (TuneLibrary.Entry) library.getEntries(
+				new File(sub, "testPlan.abc")).get(3);
+		Tune tune = entry.parseTune();
+		assertEquals(entry.getTune().getTitles()[0], tune.getTitles()[0]);
+		assertTrue(tune.getMusic().getFirstVoice().size() > 0);
+	}
+
+	public void testSearch() throws Exception {
+		TuneLibrary library = new TuneLibraryParser().parse(m_directory);
+		assertEquals(library.size(), library.search(" ").size());
+		assertEquals(0, library.search("nosuchwordinthelibrary").size());
+
+		String[] queries = { "jig", "REEL", "o'neill", "the lad", "kesh" };
+		for (int q = 0; q < queries.length; q++) {
+			List found = library.search(queries[q]);
+			String[] words = queries[q].toLowerCase().split("[^a-z]+");
+			int expected = 0;
+			Iterator it = library.getEntries().iterator();
+			while (it.hasNext()) {
+				TuneLibrary.Entry entry = (TuneLibrary.Entry) it.next();
+				if (matches(entry.getTune().getTuneInfos(), words)) {
+					assertTrue(queries[q], found.contains(entry));
+					expected++;
+				}
+			}
+			assertEquals(queries[q], expected, found.size());
+		}
+		assertTrue(library.search("jig").size() > 0);
+	}
+
+	/** Brute force search, each word prefixes a word of a field */
+	private static boolean matches(TuneInfos infos, String[] words) {
+		for (int i = 0; i < words.length; i++) {
+			boolean found = false;
+			for (byte b = 1; (b <= 16) && !found; b++) {
+				String value = infos.get(b);
+				if (value == null)
+					continue;
+				String[] fieldWords = value.toLowerCase().split(
+						"[^\\p{L}\\p{Nd}]+");
+				for (int j = 0; (j < fieldWords.length) && !found; j++)
+					found = fieldWords[j].startsWith(words[i]);
+			}
+			if (!found)
+				return false;
+		}
+		return true;
+	}
+
+	public void testUnreadableDirectory() throws Exception {
+		File sub = new File(new File(m_directory, "b"), "c");
+		sub.setReadable(false);
+		try {
+			if (sub.listFiles() != null)
+				//privileged user, files can be listed anyway
+				return;
+			Recorder recorder = new Recorder();
+			TuneLibraryParser parser = new TuneLibraryParser(2, 1);
+			parser.addListener(recorder);
+			TuneLibrary library = parser.parse(m_directory);
+			assertFalse(library.isCancelled());
+			assertSame(library, recorder.end);
+			//the directory fails, files of the top directory are parsed
+			assertEquals(5, recorder.parsed);
+			assertEquals(1, recorder.failed);
+			assertEquals(sub, library.getFailures().keySet().iterator()
+					.next());
+			assertEquals(recorder.tunes, library.size());
+		} finally {
+			sub.setReadable(true);
+		}
+	}
+
+	public void testCancel() throws Exception {
+		final TuneLibraryParser parser = new TuneLibraryParser(1, 0);
+		Recorder recorder = new Recorder() {
+			public void fileParsed(File file, int tunesNb, int filesDone,
+					int filesFound) {
+				super.fileParsed(file, tunesNb, filesDone, filesFound);
+				parser.cancel();
+			}
+		};
+		parser.addListener(recorder);
+		TuneLibrary library = parser.parse(m_directory);
+		assertTrue(library.isCancelled());
+		assertSame(library, recorder.end);
+		assertTrue(recorder.parsed + recorder.failed < 9);
+		assertEquals(recorder.tunes, library.size());
+	}
+
+}
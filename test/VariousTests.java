@@ -1,12 +1,37 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.StringReader;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Vector;
 
 import junit.framework.TestCase;
+import abc.audio.BeforeAudioRendition;
+import abc.notation.Accidental;
+import abc.notation.Bar;
+import abc.notation.MultiNote;
+import abc.notation.Music;
+import abc.notation.MusicElement;
+import abc.notation.MusicElementReference;
 import abc.notation.Note;
+import abc.notation.NoteAbstract;
+import abc.notation.SlurDefinition;
+import abc.notation.TieDefinition;
 import abc.notation.Tune;
+import abc.notation.Voice;
 //import abc.parser.AbcHeadersParser;
+import abc.parser.AbcNode;
+import abc.parser.AbcNodePath;
+import abc.parser.AbcParseError;
+import abc.parser.AbcTextReplacements;
+import abc.parser.CharStreamPosition;
+import abc.parser.PositionableInCharStream;
 import abc.parser.TuneBookParser;
 import abc.parser.TuneParser;
+import abc.parser.TuneParserAdapter;
 
 public class VariousTests extends TestCase {
 	
@@ -125,9 +150,476 @@ public class VariousTests extends TestCase {
 		new TuneParser().parse(tuneAsString);
 	}
 	
+	/** Only the changed lines are parsed again, the result must be
+	 * the same as a full parsing. */
+	public void test5(){
+		String abcTune = line01.concat(line02).concat(line03).concat(line04)
+			.concat(line052).concat(line06).concat(line07);
+		TuneParser tparser = new TuneParser();
+		final AbcNode[] roots = new AbcNode[1];
+		tparser.addListener(new TuneParserAdapter() {
+			public void tuneEnd(Tune tune, AbcNode abcRoot) {
+				roots[0] = abcRoot;
+			}
+		});
+		Tune previous = tparser.parse(abcTune);
+		int offset = abcTune.indexOf(line06) + 3;
+		String changed = abcTune.substring(0, offset) + "a2|B"
+			+ abcTune.substring(offset);
+		Tune tune = tparser.parseIncrementally(changed, offset, offset + 4, 4);
+		//only the changed line is parsed, in a new tune
+		assertEquals("AbcMusic", roots[0].getLabel());
+		assertNotSame(previous, tune);
+		assertSameMusic(new TuneParser().parse(changed), tune);
+		assertSameMusic(new TuneParser().parse(abcTune), previous);
+		//a slur can't be handled locally, the whole tune is parsed again
+		changed = changed.substring(0, offset) + "(" + changed.substring(offset);
+		Tune slurred = tparser.parseIncrementally(changed, offset, offset + 1, 1);
+		assertNotSame(tune, slurred);
+		assertSameMusic(new TuneParser().parse(changed), slurred);
+	}
+	
+	/** Positions are shifted in the new tune only */
+	public void testIncrementalPositions() {
+		String abcTune = "X:1\nT:shift\nK:C\nabc|\n.d\"^ann\"e|\n";
+		TuneParser tparser = new TuneParser();
+		final AbcNode[] roots = new AbcNode[1];
+		tparser.addListener(new TuneParserAdapter() {
+			public void tuneEnd(Tune tune, AbcNode abcRoot) {
+				roots[0] = abcRoot;
+			}
+		});
+		Tune previous = tparser.parse(abcTune);
+		Voice voice = previous.getMusic().getFirstVoice();
+		Note note = null, annotated = null;
+		for (int i = 0; i < voice.size(); i++) {
+			if ((voice.elementAt(i) instanceof Note)
+					&& ((Note) voice.elementAt(i)).hasDecorations())
+				note = (Note) voice.elementAt(i);
+			if ((voice.elementAt(i) instanceof Note)
+					&& ((Note) voice.elementAt(i)).hasAnnotations())
+				annotated = (Note) voice.elementAt(i);
+		}
+		CharStreamPosition decoration = note.getDecorations()[0]
+				.getCharStreamPosition();
+		CharStreamPosition annotation = ((MusicElement) annotated
+				.getAnnotations().elementAt(0)).getCharStreamPosition();
+		int offset = abcTune.indexOf("abc|") + 3;
+		String changed = abcTune.substring(0, offset) + "ab"
+				+ abcTune.substring(offset);
+		Tune tune = tparser.parseIncrementally(changed, offset, offset + 2, 2);
+		assertEquals("AbcMusic", roots[0].getLabel());
+		assertSame(decoration, note.getDecorations()[0]
+				.getCharStreamPosition());
+		assertSame(annotation, ((MusicElement) annotated.getAnnotations()
+				.elementAt(0)).getCharStreamPosition());
+		Note shifted = (Note) tune.getMusic().getFirstVoice().elementAt(
+				voice.indexOf(note) + 2);
+		assertEquals(decoration.getStartIndex() + 2, shifted
+				.getDecorations()[0].getCharStreamPosition().getStartIndex());
+	}
+
+	private void assertSameMusic(Tune expected, Tune actual) {
+		Voice expectedVoice = expected.getMusic().getFirstVoice();
+		Voice actualVoice = actual.getMusic().getFirstVoice();
+		assertEquals(expectedVoice.size(), actualVoice.size());
+		for (int i = 0; i < expectedVoice.size(); i++) {
+			MusicElement e = (MusicElement) expectedVoice.elementAt(i);
+			MusicElement a = (MusicElement) actualVoice.elementAt(i);
+			assertEquals(e.getClass(), a.getClass());
+			assertEquals(e.getReference(), a.getReference());
+			if (e instanceof Note) {
+				assertEquals(((Note) e).getHeight(), ((Note) a).getHeight());
+				assertEquals(e.getCharStreamPosition().getStartIndex(),
+						a.getCharStreamPosition().getStartIndex());
+				assertEquals(e.getCharStreamPosition().getLine(),
+						a.getCharStreamPosition().getLine());
+			}
+		}
+	}
+	
+	/**
+	 * Parsing tree nodes are created on demand, they must be the
+	 * same whatever the way they are reached.
+	 */
+	public void testParseTree() throws Exception {
+		final AbcNode[] roots = new AbcNode[1];
+		TuneParser tp = new TuneParser();
+		tp.addListener(new TuneParserAdapter() {
+			public void tuneEnd(Tune tune, AbcNode abcRoot) {
+				roots[0] = abcRoot;
+			}
+		});
+		String abcTune = line01.concat(line02).concat(line03).concat(line04)
+			.concat(line05).concat("ab{c\n");
+		tp.parse(abcTune);
+		AbcNode root = roots[0];
+		assertEquals("AbcTune", root.getLabel());
+		AbcNode music = root.getChild("AbcMusic");
+		assertSame(music, root.getChilds().get(1));
+		assertSame(root, music.getParent());
+		assertEquals(abcTune.indexOf(line05), music.getCharStreamPosition()
+				.getStartIndex());
+		assertEquals(music.getValue().length(), music.getCharStreamPosition()
+				.getEndIndex() - music.getCharStreamPosition().getStartIndex());
+		assertTrue(root.hasError());
+		assertFalse(root.getChild("AbcHeader").hasError());
+		
+		//serialized tree keeps values, positions and errors
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ObjectOutputStream oos = new ObjectOutputStream(bos);
+		oos.writeObject(root);
+		oos.close();
+		AbcNode copy = (AbcNode) new ObjectInputStream(new ByteArrayInputStream(
+				bos.toByteArray())).readObject();
+		assertEquals(root.getValue(), copy.getValue());
+		assertEquals(root.getErrors().size(), copy.getErrors().size());
+		List notes = music.getChildsInAllGenerations("Note");
+		List copyNotes = copy.getChild("AbcMusic")
+				.getChildsInAllGenerations("Note");
+		assertEquals(notes.size(), copyNotes.size());
+		for (int i = 0; i < notes.size(); i++) {
+			CharStreamPosition pos = ((AbcNode) notes.get(i)).getCharStreamPosition();
+			CharStreamPosition copyPos = ((AbcNode) copyNotes.get(i)).getCharStreamPosition();
+			assertEquals(pos.getStartIndex(), copyPos.getStartIndex());
+			assertEquals(pos.getEndIndex(), copyPos.getEndIndex());
+		}
+	}
+	
 	protected void tearDown() throws Exception {
 		super.tearDown();
 	}
 
+	public void testNodePath() {
+		final AbcNode[] roots = new AbcNode[1];
+		TuneParser tp = new TuneParser();
+		tp.addListener(new TuneParserAdapter() {
+			public void tuneEnd(Tune tune, AbcNode abcRoot) {
+				roots[0] = abcRoot;
+			}
+		});
+		tp.parse(line01.concat(line02).concat(line03).concat(line04)
+			.concat(line05));
+		AbcNode root = roots[0];
+		AbcNodePath path = AbcNodePath.compile("AbcHeader/FieldNumber/DIGITS");
+		assertSame(path, AbcNodePath.compile("AbcHeader/FieldNumber/DIGITS"));
+		assertEquals(3, path.getLength());
+		AbcNode digits = root.getChild(path);
+		assertNotNull(digits);
+		assertEquals("DIGITS", digits.getLabel());
+		assertSame(digits, root.getChild("AbcHeader/FieldNumber/DIGITS"));
+		assertTrue(AbcNodePath.compile("DIGITS").matches(digits));
+		assertEquals("DIGITS", AbcNodePath.getLabel(digits.getLabelId()));
+		assertEquals(root.getChilds("AbcMusic/AbcLine").size(),
+			root.getChilds(AbcNodePath.compile("AbcMusic/AbcLine")).size());
+		assertNull(root.getChild(AbcNodePath.compile("AbcHeader/Unknown")));
+	}
+
+	public void testNodeErrors() {
+		final AbcNode[] roots = new AbcNode[1];
+		TuneParser tp = new TuneParser();
+		tp.addListener(new TuneParserAdapter() {
+			public void tuneEnd(Tune tune, AbcNode abcRoot) {
+				roots[0] = abcRoot;
+			}
+		});
+		tp.parse(line01.concat(line02).concat(line03).concat(line04)
+			.concat(line05).concat("ab{c|\nc#d}e|[f\n"));
+		AbcNode root = roots[0];
+		List rootErrors = root.getErrors();
+		assertTrue(rootErrors.size() > 1);
+		AbcNode music = root.getChild("AbcMusic");
+		List musicErrors = music.getErrors();
+		assertEquals(rootErrors.size(), musicErrors.size());
+		for (int i = 0; i < musicErrors.size(); i++) {
+			AbcParseError error = (AbcParseError) musicErrors.get(i);
+			assertSame(rootErrors.get(i), error);
+			int index = error.getCharStreamPosition().getStartIndex();
+			assertTrue(index >= music.getCharStreamPosition().getStartIndex());
+			assertTrue(index < music.getCharStreamPosition().getEndIndex());
+		}
+		assertTrue(root.getChild("AbcHeader").getErrors().isEmpty());
+	}
+
+	public void testTexText() {
+		AbcTextReplacements replacements = AbcTextReplacements.getInstance();
+		String plain = "Tom Billy's jig";
+		assertSame(plain, replacements.replace(plain));
+		assertEquals("Caf\u00e9 \u00e0 l'\u00e9t\u00e9 \u00c6\u00df",
+				replacements.replace("Caf\\'e \\`a l'\\'et\\'e \\AE\\ss"));
+		//unknown escapes are kept
+		assertEquals("\\qa \\", replacements.replace("\\qa \\"));
+		Tune tune = new TuneBookParser().parse(
+				"X:1\nT:An Cl\\'ar\nC:Ros\\'e\nK:C\nabc|\n").getTune(1);
+		assertEquals("An Cl\u00e1r", tune.getTitles()[0]);
+		assertEquals("An Cl\u00e1r", new TuneBookParser().parseHeaders(
+				"X:1\nT:An Cl\\'ar\nK:C\nabc|\n").getTune(1).getTitles()[0]);
+	}
+
+	public void testVoiceStorage() throws Exception {
+		Tune tune = new TuneParser().parse("X:1\nT:voice\nK:C\nabc|def|gab|\n");
+		Voice voice = tune.getMusic().getFirstVoice();
+		int size = voice.size();
+		Bar lastBar = voice.getLastBar();
+		assertSame(voice.elementAt(0), voice.firstElement());
+		Voice clone = (Voice) voice.clone();
+		clone.removeElementAt(0);
+		assertEquals(size, voice.size());
+		assertEquals(size - 1, clone.size());
+		//replacing the last bars removes them
+		voice.replaceElements(4, size, new Vector());
+		assertEquals(4, voice.size());
+		assertNotSame(lastBar, voice.getLastBar());
+		assertSame(lastBar, clone.getLastBar());
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(clone);
+		out.close();
+		Voice read = (Voice) new ObjectInputStream(new ByteArrayInputStream(
+				bytes.toByteArray())).readObject();
+		assertEquals(clone.size(), read.size());
+		assertEquals(clone.elementAt(2).toString(), read.elementAt(2)
+				.toString());
+		assertNotNull(read.getLastBar());
+	}
+
+	public void testVoiceIndexes() {
+		Tune tune = new TuneParser().parse(
+				"X:1\nT:ranges\nK:C\nc[CEG]z|a,B[ceg']|d'zC,c|[Ac]e\n");
+		Voice voice = tune.getMusic().getFirstVoice();
+		int c = 0;
+		while (!(voice.elementAt(c) instanceof MultiNote))
+			c++;
+		MultiNote chord = (MultiNote) voice.elementAt(c);
+		assertEquals(c, voice.indexOf(chord));
+		assertEquals(c, voice.indexOf(chord.getLowestNote()));
+		assertEquals(-1, voice.indexOf(new Note(Note.C)));
+		for (int i = 0; i < voice.size(); i++) {
+			for (int j = i; j < voice.size(); j++) {
+				MusicElement begin = (MusicElement) voice.elementAt(i);
+				MusicElement end = (MusicElement) voice.elementAt(j);
+				assertSame(highestBetween(voice, i, j), voice
+						.getHighestNoteBewteen(begin, end));
+			}
+		}
+		//positions follow insertions
+		Note first = (Note) voice.elementAt(c - 1);
+		voice.insertElementAt(new Note(Note.G, Accidental.NONE, (byte) 2), c);
+		assertEquals(c + 1, voice.indexOf(chord));
+		assertEquals(24 + 7, ((Note) voice.getHighestNoteBewteen(first,
+				chord)).getMidiLikeHeight());
+	}
+
+	/** Same as Voice.getHighestNoteBewteen, scanning the voice */
+	private NoteAbstract highestBetween(Voice voice, int from, int to) {
+		NoteAbstract ret = null;
+		int height = Note.REST;
+		for (int i = from; i <= to; i++) {
+			if (voice.elementAt(i) instanceof NoteAbstract) {
+				NoteAbstract note = (NoteAbstract) voice.elementAt(i);
+				int h = (note instanceof MultiNote) ? ((MultiNote) note)
+						.getHighestNote().getMidiLikeHeight() : ((Note) note)
+						.getMidiLikeHeight();
+				if ((h != Note.REST) && ((height == Note.REST) || (h > height))) {
+					height = h;
+					ret = note;
+				}
+			}
+		}
+		return ret;
+	}
+
+	public void testElementAtStreamPosition() {
+		String abc = "X:1\nT:positions\nK:C\nV:1\nabc [CEG]2|\nV:2\nC,D,E, z2|\n";
+		Music music = new TuneParser().parse(abc).getMusic();
+		for (int offset = 0; offset <= abc.length(); offset++)
+			assertSame(elementAt(music, offset), music
+					.getElementAtStreamPosition(offset));
+		//index follows changes of the voices
+		Voice voice = music.getVoice("1");
+		int offset = -1;
+		for (int i = 0; (offset == -1) && (i < voice.size()); i++)
+			if (voice.elementAt(i) instanceof Note) {
+				offset = ((Note) voice.elementAt(i)).getCharStreamPosition()
+						.getStartIndex();
+				assertSame(voice.elementAt(i), music
+						.getElementAtStreamPosition(offset));
+				voice.removeElementAt(i);
+			}
+		assertNull(music.getElementAtStreamPosition(offset));
+	}
+
+	public void testElementByReference() {
+		Music music = new TuneParser().parse(
+				"X:1\nT:references\nK:C\nV:1\nabc [CEG]2|\nV:2\nC,D,E, z2|\n")
+				.getMusic();
+		Iterator it = music.getVoices().iterator();
+		while (it.hasNext()) {
+			Voice v = (Voice) it.next();
+			for (int i = 0; i < v.size(); i++) {
+				MusicElement e = (MusicElement) v.elementAt(i);
+				MusicElementReference ref = (MusicElementReference) e
+						.getReference().clone();
+				assertEquals(ref.hashCode(), e.getReference().hashCode());
+				assertSame(e, music.getElementByReference(ref));
+			}
+		}
+		//index follows changes of the voices
+		Voice voice = music.getVoice("1");
+		MusicElement last = (MusicElement) voice.lastElement();
+		MusicElementReference ref = (MusicElementReference) last
+				.getReference().clone();
+		voice.removeElementAt(voice.size() - 1);
+		assertNull(music.getElementByReference(ref));
+		Note note = new Note(Note.A);
+		voice.addElement(note);
+		assertSame(note, music.getElementByReference(note.getReference()));
+		//reference changed by another voice
+		ref = (MusicElementReference) note.getReference().clone();
+		music.getVoice("2").addElement(note);
+		assertNull(voice.getElementByReference(ref));
+		assertSame(note, music.getElementByReference(note.getReference()));
+	}
+
+	public void testTuneClone() throws Exception {
+		Tune tune = new TuneParser().parse("X:1\nT:clone\nP:AB\nL:1/8\nK:G\n"
+				+ "P:A\n\"G\"(AB) c2-c|(3def {g}a [GBd]2 !trill!e|\n"
+				+ "P:B\nB,2 (cd) e4-|e8|\n");
+		Tune clone = (Tune) tune.clone();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(tune);
+		out.close();
+		Tune read = (Tune) new ObjectInputStream(new ByteArrayInputStream(
+				bytes.toByteArray())).readObject();
+		Voice voice = tune.getMusic().getFirstVoice();
+		Voice cloneVoice = clone.getMusic().getFirstVoice();
+		Voice readVoice = read.getMusic().getFirstVoice();
+		assertEquals(readVoice.size(), cloneVoice.size());
+		int links = 0;
+		for (int i = 0; i < cloneVoice.size(); i++) {
+			MusicElement e = (MusicElement) cloneVoice.elementAt(i);
+			assertNotSame(voice.elementAt(i), e);
+			assertNotSame(((MusicElement) voice.elementAt(i)).getReference(),
+					e.getReference());
+			assertEquals(readVoice.elementAt(i).getClass(), e.getClass());
+			assertEquals(((MusicElement) readVoice.elementAt(i))
+					.getReference(), e.getReference());
+			if (!(e instanceof NoteAbstract))
+				continue;
+			assertEquals(readVoice.elementAt(i).toString(), e.toString());
+			//links of the clone are between its own notes
+			NoteAbstract note = (NoteAbstract) e;
+			Iterator it = note.getSlurDefinitions().iterator();
+			while (it.hasNext()) {
+				SlurDefinition slur = (SlurDefinition) it.next();
+				assertTrue((slur.getStart() == note.getReference())
+						|| (slur.getEnd() == note.getReference()));
+				links++;
+			}
+			if (note.isTied()) {
+				TieDefinition tie = note.getTieDefinition();
+				assertTrue((tie.getStart() == note.getReference())
+						|| (tie.getEnd() == note.getReference()));
+				links++;
+			}
+			if (note.isPartOfTuplet()) {
+				assertNotSame(((NoteAbstract) voice.elementAt(i)).getTuplet(),
+						note.getTuplet());
+				assertTrue(note.getTuplet().getNotesAsVector().contains(note));
+				links++;
+			}
+		}
+		assertEquals(11, links);
+		assertSame(clone.getPart("A"), clone.getMultiPartsDefinition()
+				.toPartsArray()[0]);
+		assertNotSame(tune.getPart("A"), clone.getPart("A"));
+		//transposition changes the clone only
+		String notes = notes(voice);
+		assertFalse(notes.equals(notes(Tune.transpose(tune, 2).getMusic()
+				.getFirstVoice())));
+		assertEquals(notes, notes(tune.getMusic().getFirstVoice()));
+	}
+
+	public void testMusicSnapshot() throws Exception {
+		Tune tune = new TuneParser().parse("X:1\nT:snapshot\nP:ABA\nK:D\n"
+				+ "P:A\nABc|\nP:B\nK:G\ndef|\n");
+		Music music = tune.getMusic();
+		Voice voice = music.getFirstVoice();
+		int size = voice.size();
+		Music snapshot = music.snapshot();
+		Voice frozen = snapshot.getFirstVoice();
+		assertTrue(snapshot.isSnapshot() && frozen.isSnapshot());
+		assertFalse(music.isSnapshot() || voice.isSnapshot());
+		assertSame(snapshot, snapshot.snapshot());
+		assertSame(frozen, frozen.snapshot());
+		Object first = voice.elementAt(0);
+		String notes = notes(voice);
+		//changes of the music are not seen by the snapshot
+		voice.removeElementAt(0);
+		voice.addElement(new Note(Note.C));
+		assertEquals(size, frozen.size());
+		assertSame(first, frozen.elementAt(0));
+		assertEquals(notes, notes(frozen));
+		assertEquals(0, frozen.indexOf((MusicElement) first));
+		assertEquals(-1, voice.indexOf((MusicElement) first));
+		//snapshots can't be changed
+		try {
+			frozen.addElement(new Note(Note.C));
+			fail("snapshot voice modified");
+		} catch (UnsupportedOperationException expected) {
+		}
+		try {
+			frozen.removeElementAt(0);
+			fail("snapshot voice modified");
+		} catch (UnsupportedOperationException expected) {
+		}
+		try {
+			snapshot.getVoices().clear();
+			fail("snapshot voices modified");
+		} catch (UnsupportedOperationException expected) {
+		}
+		assertTrue(snapshot.getVoice("2").isSnapshot());
+		assertEquals(1, snapshot.getVoices().size());
+		assertEquals(size, frozen.size());
+		//clones are modifiable and don't change the snapshot
+		Music clone = (Music) snapshot.clone();
+		assertFalse(clone.isSnapshot() || clone.getFirstVoice().isSnapshot());
+		clone.getFirstVoice().removeElementAt(0);
+		assertEquals(size - 1, clone.getFirstVoice().size());
+		assertEquals(size, frozen.size());
+		//keys of repeated parts are added to a copy
+		Music audio = BeforeAudioRendition.correctPartsKeys(snapshot);
+		assertEquals(size, frozen.size());
+		assertTrue(audio.getFirstVoice().size() > size);
+	}
+
+	private String notes(Voice voice) {
+		StringBuffer sb = new StringBuffer();
+		for (int i = 0; i < voice.size(); i++)
+			if (voice.elementAt(i) instanceof NoteAbstract)
+				sb.append(voice.elementAt(i)).append(' ');
+		return sb.toString();
+	}
+
+	/** Same as Music.getElementAtStreamPosition, scanning the voices */
+	private MusicElement elementAt(Music music, int offset) {
+		Iterator it = music.getVoices().iterator();
+		while (it.hasNext()) {
+			Voice v = (Voice) it.next();
+			for (int i = 0; i < v.size(); i++) {
+				Object e = v.elementAt(i);
+				if ((e instanceof PositionableInCharStream)
+						&& (((PositionableInCharStream) e).getCharStreamPosition() != null)) {
+					CharStreamPosition pos = ((PositionableInCharStream) e)
+							.getCharStreamPosition();
+					if ((pos.getStartIndex() <= offset)
+							&& (pos.getEndIndex() > offset))
+						return (MusicElement) e;
+				}
+			}
+		}
+		return null;
+	}
 
 }